@@ -0,0 +1,163 @@
+package it.ld.bw.chl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import it.ld.bw.chl.model.Struct;
+import it.ld.utils.EndianDataInputStream;
+import it.ld.utils.EndianDataOutputStream;
+
+/**Describes the inputs and the outputs of the last build of a project, so that the next build can tell
+ * which object files are still up to date. For each source file it records the hash of the source and
+ * of the object file, the global constants and variables the source depends on (with the values they
+ * had), and the ones it defines.
+ */
+class BuildManifest extends Struct {
+	private static final int VERSION = 1;
+	
+	public static class Item {
+		public long sourceHash;
+		public long objHash;
+		/**Global constants used by the source, with their values (null if undefined)*/
+		public Map<String, Integer> usedConstants = new HashMap<>();
+		/**Global variables used by the source, and whether they were defined*/
+		public Map<String, Boolean> usedGlobalVars = new HashMap<>();
+		/**Global constants defined by the source*/
+		public Map<String, Integer> constants = new LinkedHashMap<>();
+		/**Global variables defined by the source*/
+		public Set<String> globalVars = new LinkedHashSet<>();
+	}
+	
+	/**Hash of the compiler options*/
+	public long optionsHash;
+	/**Hash of the object files and of the linker options used to build the output*/
+	public long linkHash;
+	public long outputHash;
+	/**Items indexed by object file name*/
+	public Map<String, Item> items = new LinkedHashMap<>();
+	
+	/**Reads the manifest from the given file. If the file doesn't exist or cannot be read, the manifest
+	 * is left empty, so that everything is built again.
+	 * @param file
+	 * @return true if the manifest has been read
+	 */
+	public boolean read(File file) {
+		if (!file.exists()) return false;
+		try (EndianDataInputStream str = new EndianDataInputStream(new BufferedInputStream(new FileInputStream(file)));) {
+			read(str);
+			return true;
+		} catch (Exception e) {
+			optionsHash = 0;
+			linkHash = 0;
+			outputHash = 0;
+			items.clear();
+			return false;
+		}
+	}
+	
+	public void write(File file) throws Exception {
+		try (EndianDataOutputStream str = new EndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));) {
+			write(str);
+		}
+	}
+	
+	@Override
+	public void read(EndianDataInputStream str) throws Exception {
+		int version = str.readInt();
+		if (version != VERSION) throw new Exception("Unsupported manifest version: " + version);
+		optionsHash = str.readLong();
+		linkHash = str.readLong();
+		outputHash = str.readLong();
+		items.clear();
+		int count = str.readInt();
+		for (int i = 0; i < count; i++) {
+			String objname = readZString(str);
+			Item item = new Item();
+			item.sourceHash = str.readLong();
+			item.objHash = str.readLong();
+			int n = str.readInt();
+			for (int j = 0; j < n; j++) {
+				String name = readZString(str);
+				boolean defined = str.readBoolean();
+				int val = str.readInt();
+				item.usedConstants.put(name, defined ? val : null);
+			}
+			n = str.readInt();
+			for (int j = 0; j < n; j++) {
+				String name = readZString(str);
+				item.usedGlobalVars.put(name, str.readBoolean());
+			}
+			item.constants = readMapOfStringInt(str);
+			item.globalVars.addAll(readZStringArray(str));
+			items.put(objname, item);
+		}
+	}
+	
+	@Override
+	public void write(EndianDataOutputStream str) throws Exception {
+		str.writeInt(VERSION);
+		str.writeLong(optionsHash);
+		str.writeLong(linkHash);
+		str.writeLong(outputHash);
+		str.writeInt(items.size());
+		for (Entry<String, Item> e : items.entrySet()) {
+			Item item = e.getValue();
+			writeZString(str, e.getKey());
+			str.writeLong(item.sourceHash);
+			str.writeLong(item.objHash);
+			str.writeInt(item.usedConstants.size());
+			for (Entry<String, Integer> c : item.usedConstants.entrySet()) {
+				writeZString(str, c.getKey());
+				str.writeBoolean(c.getValue() != null);
+				str.writeInt(c.getValue() != null ? c.getValue() : 0);
+			}
+			str.writeInt(item.usedGlobalVars.size());
+			for (Entry<String, Boolean> v : item.usedGlobalVars.entrySet()) {
+				writeZString(str, v.getKey());
+				str.writeBoolean(v.getValue());
+			}
+			writeMapOfStringInt(str, item.constants);
+			writeZStringArray(str, new ArrayList<>(item.globalVars));
+		}
+	}
+	
+	public static long hash(File file) throws IOException {
+		return hash(Files.readAllBytes(file.toPath()));
+	}
+	
+	public static long hash(String s) {
+		return hash(s.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**Returns the first 64 bits of the SHA-256 digest of the given data.
+	 * @param data
+	 * @return
+	 */
+	public static long hash(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			long res = 0;
+			for (int i = 0; i < 8; i++) {
+				res = (res << 8) | (digest[i] & 0xFF);
+			}
+			return res;
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
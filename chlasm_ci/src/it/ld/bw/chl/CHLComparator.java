@@ -19,7 +19,6 @@ import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -121,12 +120,8 @@ public class CHLComparator {
 		out.println();
 		//Scripts list
 		int maxMismatch = 20;
-		List<StringData> data1 = a.data.getStrings();
-		List<StringData> data2 = b.data.getStrings();
-		Map<Integer, StringData> dataMap1 = mapOffset(data1);
-		Map<Integer, StringData> dataMap2 = mapOffset(data2);
-		List<Instruction> instructions1 = a.code.getItems();
-		List<Instruction> instructions2 = b.code.getItems();
+		List<Instruction> instructions1 = a.code.getInstructions();
+		List<Instruction> instructions2 = b.code.getInstructions();
 		for (int i = 0; i < scripts1.size(); i++) {
 			Script script1 = scripts1.get(i);
 			String name = script1.getName();
@@ -274,8 +269,8 @@ public class CHLComparator {
 									/*If 2 instructions that are supposed to be functionally identical have different
 									 * operands, try to resolve those operands as data pointers and check if the referred
 									 * values are equal. */
-									StringData const1 = dataMap1.get(instr1.intVal);
-									StringData const2 = dataMap2.get(instr2.intVal);
+									StringData const1 = a.data.getStringData(instr1.intVal);
+									StringData const2 = b.data.getStringData(instr2.intVal);
 									if (const1 == null || const2 == null || !const1.equals(const2)) {
 										eq = false;
 									}
@@ -359,8 +354,8 @@ public class CHLComparator {
 			byte[] rawData2 = b.data.getData();
 			if (!Arrays.equals(rawData1, rawData2)) {
 				out.println("Data sections differ:");
-				out.println(dataMap1.values());
-				out.println(dataMap2.values());
+				out.println(a.data.getStrings());
+				out.println(b.data.getStrings());
 				out.println();
 				res = false;
 			}
@@ -419,14 +414,6 @@ public class CHLComparator {
 		return res;
 	}
 	
-	private static LinkedHashMap<Integer, StringData> mapOffset(List<StringData> constants) {
-		LinkedHashMap<Integer, StringData> res = new LinkedHashMap<>();
-		for (StringData c : constants) {
-			res.put(c.offset, c);
-		}
-		return res;
-	}
-	
 	private static Map<String, InitGlobal> mapName(List<InitGlobal> inits) {
 		Map<String, InitGlobal> res = new HashMap<>();
 		for (InitGlobal init : inits) {
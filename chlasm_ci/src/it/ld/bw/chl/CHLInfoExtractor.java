@@ -22,7 +22,6 @@ import it.ld.bw.chl.model.AutoStartScripts;
 import it.ld.bw.chl.model.CHLFile;
 import it.ld.bw.chl.model.Code;
 import it.ld.bw.chl.model.DataSection;
-import it.ld.bw.chl.model.Instruction;
 import it.ld.bw.chl.model.Script;
 import it.ld.bw.chl.model.Scripts;
 
@@ -71,12 +70,10 @@ public class CHLInfoExtractor {
 		//Data offset
 		DataSection dataSection = chl.data;
 		//Data length
-		byte[] data = dataSection.getData();
-		out.println("Data length: "+data.length);
+		out.println("Data length: "+dataSection.getLength());
 		//Code offset
 		Code code = chl.code;
 		//Number of instructions
-		List<Instruction> instructions = code.getItems();
-		out.println("Number of instructions: "+instructions.size());
+		out.println("Number of instructions: "+code.size());
 	}
 }
@@ -1,40 +1,48 @@
 package it.ld.bw.chl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
+import it.ld.bw.chl.exceptions.InvalidObjCodeException;
 import it.ld.bw.chl.exceptions.LinkError;
 import it.ld.bw.chl.exceptions.ScriptNotFoundException;
 import it.ld.bw.chl.model.CHLFile;
+import it.ld.bw.chl.model.Code;
 import it.ld.bw.chl.model.DataSection.StringData;
-import it.ld.bw.chl.model.DataType;
+import it.ld.bw.chl.model.GlobalVariables;
 import it.ld.bw.chl.model.Header;
 import it.ld.bw.chl.model.InitGlobal;
 import it.ld.bw.chl.model.Instruction;
 import it.ld.bw.chl.model.OPCode;
-import it.ld.bw.chl.model.OPCodeMode;
 import it.ld.bw.chl.model.ObjectCode;
+import it.ld.bw.chl.model.ObjectCode.Relocation;
+import it.ld.bw.chl.model.ObjectCode.Symbol;
 import it.ld.bw.chl.model.Script;
 import it.ld.bw.chl.model.Scripts;
+import it.ld.utils.ConcurrentTasks;
+import it.ld.utils.ZStringPool;
 
 public class CHLLinker {
 	public static boolean traceEnabled = false;
 	
 	protected static final Charset ASCII = Charset.forName("windows-1252");
 	
+	private static final byte[] CRC32_PREFIX = "crc32[".getBytes(ASCII);
+	private static final byte[] SOURCE_DIRS_PREFIX = "source_dirs=".getBytes(ASCII);
+	
 	private PrintStream out;
 	private Options options = new Options();
+	private ObjectCache objectCache = null;
+	private LinkMap linkMap = null;
 	
 	public CHLLinker(PrintStream outStream) {
 		this.out = outStream;
@@ -48,37 +56,79 @@ public class CHLLinker {
 		this.options = options;
 	}
 	
+	public ObjectCache getObjectCache() {
+		return objectCache;
+	}
+	
+	/**Sets the cache used to load the object files. If null, object files are always loaded again.
+	 * @param objectCache
+	 */
+	public void setObjectCache(ObjectCache objectCache) {
+		this.objectCache = objectCache;
+	}
+	
+	/**Returns the layout of the file produced by the last call to {@link #link(List)} or
+	 * {@link #relink(List, File, LinkMap)}. The caller should set {@link LinkMap#outputHash} once the
+	 * file has been written.
+	 * @return
+	 */
+	public LinkMap getLinkMap() {
+		return linkMap;
+	}
+	
 	private void info(String s) {
 		if (options.verbose) {
 			out.println(s);
 		}
 	}
 	
+	/**Links the given object files. The object files are loaded first, then a sizing pass lays out the
+	 * linked file: it merges the data, the global variables and the scripts, resolves the external symbols
+	 * and computes where the code of each script goes. Once every object has its offsets, the objects are
+	 * independent, so their instructions are relocated concurrently into their own slices of the code
+	 * section (see {@link Options#parallel}). The result is the same of linking the objects one by one,
+	 * and so are the errors: the first error in object order is thrown.
+	 * The objects are not modified, so they can be kept in an {@link ObjectCache} and used again by the
+	 * next link: the scripts are copied, and the instructions are decoded again from the packed code.
+	 * @param files
+	 * @return
+	 * @throws LinkError
+	 * @throws IOException
+	 */
 	public CHLFile link(List<File> files) throws LinkError, IOException {
 		CHLFile chl = new CHLFile();
 		chl.header.setVersion(Header.BWCI);
-		//Read object code and compute required space
+		//Read object code
+		final long[] hashes = new long[files.size()];
+		List<Callable<ObjectCode>> loadTasks = new ArrayList<>(files.size());
+		for (int i = 0; i < files.size(); i++) {
+			final File file = files.get(i);
+			final int index = i;
+			if (objectCache == null || !objectCache.contains(file)) {
+				info("Loading " + file.getName());
+			}
+			loadTasks.add(() -> {
+				ObjectCode objcode = load(file);
+				try {
+					hashes[index] = BuildManifest.hash(file);
+				} catch (IOException e) {
+					throw new LinkError(e, file);
+				}
+				return objcode;
+			});
+		}
+		List<ObjectCode> objs = runAll(loadTasks);
+		//Compute required space
 		int globalCount = 0;
 		int scriptsCount = 0;
-		int codeSize = 0;
 		int dataSize = options.debug ? 2048 : 0;
 		int autostartCount = 0;
-		List<ObjectCode> objs = new ArrayList<>(files.size());
-		for (File file : files) {
-			try {
-				info("Loading " + file.getName());
-				ObjectCode objcode = new ObjectCode();
-				objcode.read(file);
-				CHLFile srcChl = objcode.getChl();
-				globalCount += srcChl.globalVars.getNames().size();
-				scriptsCount += srcChl.scripts.getItems().size();
-				codeSize += srcChl.code.getItems().size();
-				dataSize += srcChl.data.getData().length;
-				autostartCount += srcChl.autoStartScripts.getScripts().size();
-				objs.add(objcode);
-			} catch (Exception e) {
-				throw new LinkError(e, file);
-			}
+		for (ObjectCode objcode : objs) {
+			CHLFile srcChl = objcode.getChl();
+			globalCount += srcChl.globalVars.getNames().size();
+			scriptsCount += srcChl.scripts.getItems().size();
+			dataSize += srcChl.data.getData().length;
+			autostartCount += srcChl.autoStartScripts.getScripts().size();
 		}
 		//Allocate buffers
 		ArrayList<String> globalVars = new ArrayList<>(globalCount);
@@ -88,168 +138,80 @@ public class CHLLinker {
 		chl.initGlobals.setItems(initGlobals);
 		ArrayList<Script> scripts = new ArrayList<>(scriptsCount);
 		chl.scripts.setItems(scripts);
-		ArrayList<Instruction> instructions = new ArrayList<>(codeSize);
-		chl.code.setItems(instructions);
-		ByteArrayOutputStream data = new ByteArrayOutputStream(dataSize);
-		LinkedHashMap<String, Integer> stringMap = new LinkedHashMap<>();
+		ZStringPool data = new ZStringPool(ASCII, dataSize, options.sharedStrings && options.mergeStrings);
 		ArrayList<Integer> autostartScripts = new ArrayList<>(autostartCount);
 		chl.autoStartScripts.setScripts(autostartScripts);
 		Set<String> properties = new HashSet<>();
 		Set<String> sourceDirs = new HashSet<>();
-		List<Integer> stringInstructions = new LinkedList<>();
 		//
 		info("Linking...");
+		List<Segment> segments = new ArrayList<>(objs.size());
+		Exception layoutError = null;
+		int codeSize = 0;
 		for (ObjectCode objcode : objs) {
-			CHLFile srcChl = objcode.getChl();
-			HashSet<Integer> srcStrInstr = new HashSet<>(objcode.getStringInstructions());
-			//Add data
-			final int dataOffset = data.size();
-			for (StringData sData : srcChl.data.getStrings()) {
-				String str = sData.getString();
-				if (str.startsWith("crc32[")) {
-					properties.add(str);
-				} else if (str.startsWith("source_dirs=")) {
-					String[] vals = str.split("=", 2)[1].split(";");
-					for (String val : vals) {
-						sourceDirs.add(val);
-					}
-				} else if (!options.sharedStrings) {
-					byte[] bytes = sData.getBytes();
-					data.write(bytes);
-				} else if (!stringMap.containsKey(str)) {
-					byte[] bytes = sData.getBytes();
-					stringMap.put(str, data.size());
-					data.write(bytes);
-				}
-			}
-			//Create mapping for external vars
-			int[] externalVarsMap = new int[objcode.getExternalVars().size()];
-			for (Entry<String, Integer> entry : objcode.getExternalVars().entrySet()) {
-				String[] tks = entry.getKey().split("\\+");
-				String name = tks[0];
-				int index = Integer.valueOf(tks[1]);
-				int varId = chl.globalVars.getVarId(name);
-				if (varId < 0) {
-					throw new LinkError("Cannot find external variable " + name, objcode.file);
-				} else if (index > 0 && !chl.globalVars.isArray(varId)) {
-					throw new LinkError("External variable " + name + " isn't an array", objcode.file);
-				} else if (index >= chl.globalVars.getVarSize(varId)) {
-					throw new LinkError("Index out of bounds for external variable " + name, objcode.file);
-				}
-				final int srcId = entry.getValue();
-				externalVarsMap[srcId - 1] = varId + index;
-			}
-			//Add global vars
-			final int globalOffset = globalVars.size();
-			globalVars.addAll(srcChl.globalVars.getNames());
-			List<InitGlobal> srcInits = srcChl.initGlobals.getItems();
-			initGlobals.addAll(srcInits.subList(1, srcInits.size()));
-			final int globalsCount = globalVars.size();
-			//Create mapping for external scripts
-			int[] externalScriptsMap = new int[objcode.getExternalScripts().size()];
-			for (Entry<String, Integer> entry : objcode.getExternalScripts().entrySet()) {
-				String[] tks = entry.getKey().split("@");
-				String name = tks[0];
-				int argc = Integer.valueOf(tks[1]);
-				try {
-					Script script = chl.scripts.getScript(name);
-					if (script.getParameterCount() != argc) {
-						throw new LinkError("Wrong number of parameters for external script " + name, objcode.file);
-					}
-					final int srcId = entry.getValue();
-					externalScriptsMap[srcId - 1] = script.getScriptID();
-				} catch (ScriptNotFoundException e) {
-					throw new LinkError("Cannot find external script " + name, objcode.file);
-				}
-			}
-			//Add and create mapping for internal scripts (this invalidates source scripts)
-			Scripts scriptsSection = srcChl.scripts;
-			int[] internalScriptsMap = new int[scriptsSection.getItems().size()];
-			for (Script script : scriptsSection.getItems()) {
-				final int oldId = script.getScriptID();
-				final int newId = scripts.size() + 1;
-				script.setScriptID(newId);
-				scripts.add(script);
-				internalScriptsMap[oldId - 1] = newId;
-			}
-			//Add and relocate code (this invalidates source instructions)
-			final int baseAddress = instructions.size();
-			ArrayList<Instruction> srcInstructions = srcChl.code.getItems();
-			for (Script script : scriptsSection.getItems()) {
-				final int newScriptAddress = instructions.size();
-				final int localsDelta = globalsCount - script.getGlobalCount();
-				for (int i = script.getInstructionAddress(); i <= srcInstructions.size(); i++) {
-					Instruction instr = srcInstructions.get(i);
-					OPCode opcode = instr.opcode;
-					boolean popNull = opcode == OPCode.POP && instr.intVal == 0;
-					if (opcode.hasArg && !popNull) {
-						if (instr.opcode.isIP) {
-							instr.intVal += baseAddress;
-						} else if (instr.opcode.isScript) {
-							if (instr.intVal >= 0) {
-								instr.intVal = internalScriptsMap[instr.intVal - 1];
-							} else {
-								instr.intVal = externalScriptsMap[-instr.intVal - 1];
-							}
-						} else if (instr.isReference() || instr.dataType == DataType.VAR) {
-							if (instr.intVal > script.getGlobalCount()) {	//Local vars
-								instr.intVal += localsDelta;
-							} else if (instr.intVal >= 0) {					//Internal global vars
-								instr.intVal += globalOffset;
-							} else {										//External global vars
-								instr.intVal = externalVarsMap[-instr.intVal - 1];
-							}
-						} else if (instr.opcode == OPCode.PUSH && instr.dataType == DataType.INT) {
-							if (srcStrInstr.contains(i)) {
-								if (options.sharedStrings) {
-									String str = srcChl.data.getString(instr.intVal);
-									instr.intVal = stringMap.get(str);
-								} else {
-									instr.intVal += dataOffset;
-								}
-								stringInstructions.add(instructions.size());
-							}
-						}
-					} else if (opcode == OPCode.REF_PUSH && instr.mode == OPCodeMode.REF) {
-						if (i < 2) {
-							throw new LinkError("Missing instructions before REF_PUSH2", objcode.file);
-						}
-						Instruction instr2 = srcInstructions.get(i - 2);
-						if (instr2.opcode != OPCode.PUSH || instr2.dataType != DataType.FLOAT || instr2.mode != 1) {
-							throw new LinkError("Expected PUSHF 2 lines before REF_PUSH2", objcode.file);
-						}
-						int intVal = (int)instr2.floatVal;
-						if (intVal > script.getGlobalCount()) {	//Local vars
-							intVal += localsDelta;
-						} else if (intVal >= 0) {				//Internal global vars
-							intVal += globalOffset;
-						} else {								//External global vars
-							intVal = externalVarsMap[-intVal - 1];
-						}
-						instr2.floatVal = intVal;
-					}
-					instructions.add(instr);
-					if (instr.opcode == OPCode.END) break;
-				}
-				script.setChl(chl);
-				script.setInstructionAddress(newScriptAddress);
-				script.setGlobalCount(script.getGlobalCount() + localsDelta);
-			}
-			//Add autostart scripts
-			for (Integer srcId : srcChl.autoStartScripts.getScripts()) {
-				int id = srcId >= 0 ? internalScriptsMap[srcId - 1] : externalScriptsMap[-srcId - 1];
-				autostartScripts.add(id);
+			try {
+				Segment segment = layout(chl, objcode, codeSize, data, properties, sourceDirs);
+				segments.add(segment);
+				codeSize = segment.endAddress;
+			} catch (LinkError | RuntimeException e) {
+				//Objects before this one are relocated anyway, since their errors come first
+				layoutError = e;
+				break;
 			}
 		}
+		//Relocate code
+		final Instruction[] code = new Instruction[codeSize];
+		List<Callable<Void>> relocTasks = new ArrayList<>(segments.size() + 1);
+		for (Segment segment : segments) {
+			relocTasks.add(() -> {
+				relocate(segment, code, 0, data);
+				return null;
+			});
+		}
+		if (layoutError != null) {
+			final Exception error = layoutError;
+			relocTasks.add(() -> {
+				throw error;
+			});
+		}
+		runAll(relocTasks);
+		chl.code.setItems(new ArrayList<>(Arrays.asList(code)));
+		//Describe the layout
+		linkMap = new LinkMap();
+		linkMap.sharedStrings = options.sharedStrings;
+		linkMap.mergeStrings = options.mergeStrings;
+		linkMap.debug = options.debug;
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			LinkMap.Item item = new LinkMap.Item();
+			item.name = files.get(i).getName();
+			item.objHash = hashes[i];
+			item.interfaceHash = getInterfaceHash(segment.objcode);
+			item.codeStart = segment.baseAddress;
+			item.codeEnd = segment.endAddress;
+			item.globalStart = segment.globalOffset;
+			item.globalEnd = segment.globalsCount;
+			item.initStart = segment.initStart;
+			item.initEnd = segment.initEnd;
+			item.scriptStart = segment.scriptStart;
+			item.scriptEnd = segment.scriptStart + segment.scripts.size();
+			item.autostartStart = segment.autostartStart;
+			item.autostartEnd = segment.autostartEnd;
+			item.dataStart = segment.dataOffset;
+			item.dataEnd = segment.dataEnd;
+			linkMap.items.add(item);
+		}
+		List<Integer> stringInstructions = new ArrayList<>();
+		for (Segment segment : segments) {
+			stringInstructions.addAll(segment.stringInstructions);
+		}
 		if (options.debug) {
 			for (String s : properties) {
-				data.write(s.getBytes(ASCII));
-				data.write((byte)0);
+				data.append(s);
 			}
 			if (!sourceDirs.isEmpty()) {
 				String s = "source_dirs=" + String.join(";", sourceDirs.toArray(new String[0]));
-				data.write(s.getBytes(ASCII));
-				data.write((byte)0);
+				data.append(s);
 			}
 			StringBuffer buf = new StringBuffer(20 + stringInstructions.size() * 5);
 			buf.append("string_instructions=");
@@ -263,8 +225,7 @@ public class CHLLinker {
 					buf.append(String.valueOf(instr));
 				}
 			}
-			data.write(buf.toString().getBytes(ASCII));
-			data.write((byte)0);
+			data.append(buf.toString());
 		}
 		//Copy data buffer to data section
 		chl.data.setData(data.toByteArray());
@@ -272,10 +233,537 @@ public class CHLLinker {
 		return chl;
 	}
 	
+	/**Updates a file previously linked from the same object files, whose layout is described by the
+	 * given map. If the changed objects expose the same symbols and take the same space they had, only
+	 * their code, scripts, initial values and autostart entries are replaced in the existing file, and
+	 * the other objects aren't even loaded. Otherwise, or if the file doesn't match the map, the objects
+	 * are linked again from scratch by {@link #link(List)}.
+	 * @param files the object files, in the same order used for the previous link
+	 * @param output the file produced by the previous link
+	 * @param map the layout of the file produced by the previous link
+	 * @return
+	 * @throws LinkError
+	 * @throws IOException
+	 */
+	public CHLFile relink(List<File> files, File output, LinkMap map) throws LinkError, IOException {
+		String reason = null;
+		CHLFile chl = null;
+		try {
+			reason = checkLinkMap(files, output, map);
+			if (reason == null) {
+				chl = tryRelink(files, output, map);
+				if (chl == null) {
+					reason = "the symbols or the size of an object have changed";
+				}
+			}
+		} catch (LinkError e) {
+			throw e;
+		} catch (Exception e) {
+			reason = e.getMessage();
+		}
+		if (chl == null) {
+			info("Cannot relink incrementally: " + reason);
+			return link(files);
+		}
+		return chl;
+	}
+	
+	/**Tells why the given map cannot be used to update the given output.
+	 * @param files
+	 * @param output
+	 * @param map
+	 * @return the reason, or null if the map can be used
+	 * @throws IOException
+	 */
+	private String checkLinkMap(List<File> files, File output, LinkMap map) throws IOException {
+		if (options.debug || map.debug) {
+			return "debug info must be rebuilt";
+		} else if (map.sharedStrings != options.sharedStrings || map.mergeStrings != options.mergeStrings) {
+			return "the options have changed";
+		} else if (map.items.size() != files.size()) {
+			return "the object files have changed";
+		}
+		for (int i = 0; i < files.size(); i++) {
+			if (!files.get(i).getName().equals(map.items.get(i).name)) {
+				return "the object files have changed";
+			}
+		}
+		if (!output.exists() || BuildManifest.hash(output) != map.outputHash) {
+			return "the output file has changed";
+		}
+		return null;
+	}
+	
+	/**Replaces the changed objects in the existing output.
+	 * @param files
+	 * @param output
+	 * @param map
+	 * @return the updated file, or null if an object cannot be replaced in place
+	 * @throws Exception
+	 */
+	private CHLFile tryRelink(List<File> files, File output, LinkMap map) throws Exception {
+		//Find the changed objects
+		List<Integer> changed = new ArrayList<>();
+		for (int i = 0; i < files.size(); i++) {
+			if (BuildManifest.hash(files.get(i)) != map.items.get(i).objHash) {
+				changed.add(i);
+			}
+		}
+		//The output is overwritten later, so it must not be mapped
+		CHLFile chl = new CHLFile();
+		chl.readBuffered(output);
+		if (!map.items.isEmpty()) {
+			LinkMap.Item last = map.items.get(map.items.size() - 1);
+			if (chl.code.size() != last.codeEnd || chl.scripts.getItems().size() != last.scriptEnd
+					|| chl.globalVars.getNames().size() != last.globalEnd
+					|| chl.initGlobals.getItems().size() != last.initEnd
+					|| chl.autoStartScripts.getScripts().size() != last.autostartEnd
+					|| chl.data.getLength() != last.dataEnd) {
+				throw new Exception("the output file doesn't match the link map");
+			}
+		}
+		//Load the changed objects
+		List<Callable<ObjectCode>> loadTasks = new ArrayList<>(changed.size());
+		for (int i : changed) {
+			final File file = files.get(i);
+			if (objectCache == null || !objectCache.contains(file)) {
+				info("Loading " + file.getName());
+			}
+			loadTasks.add(() -> load(file));
+		}
+		List<ObjectCode> objs = runAll(loadTasks);
+		for (int k = 0; k < changed.size(); k++) {
+			if (getInterfaceHash(objs.get(k)) != map.items.get(changed.get(k)).interfaceHash) {
+				return null;
+			}
+		}
+		//The data of the changed objects hasn't changed, so the offset of each string is the same
+		byte[] outData = chl.data.getData();
+		ZStringPool stringPool = new ZStringPool(ASCII, outData.length, options.mergeStrings);
+		if (options.sharedStrings) {
+			for (StringData sData : chl.data.getStrings()) {
+				stringPool.add(outData, sData.offset, sData.length);
+			}
+		}
+		info("Relinking " + changed.size() + " of " + files.size() + " objects...");
+		List<String> globalNames = chl.globalVars.getNames();
+		ArrayList<Script> allScripts = chl.scripts.getItems();
+		List<InitGlobal> initGlobals = chl.initGlobals.getItems();
+		List<Integer> autostartScripts = chl.autoStartScripts.getScripts();
+		for (int k = 0; k < changed.size(); k++) {
+			final int i = changed.get(k);
+			final LinkMap.Item item = map.items.get(i);
+			final ObjectCode objcode = objs.get(k);
+			final CHLFile srcChl = objcode.getChl();
+			Segment segment = new Segment(objcode);
+			segment.dataOffset = item.dataStart;
+			segment.dataEnd = item.dataEnd;
+			//Resolve external symbols against the objects which come before
+			GlobalVariables prevVars = new GlobalVariables();
+			prevVars.setNames(new ArrayList<>(globalNames.subList(0, item.globalStart)));
+			resolveExternalVars(prevVars, segment);
+			segment.globalOffset = item.globalStart;
+			segment.globalsCount = item.globalEnd;
+			Scripts prevScripts = new Scripts(chl);
+			prevScripts.setItems(new ArrayList<>(allScripts.subList(0, item.scriptStart)));
+			resolveExternalScripts(prevScripts, segment);
+			//Replace scripts, initial values and autostart scripts
+			segment.scriptStart = item.scriptStart;
+			copyScripts(chl, segment);
+			for (int j = 0; j < segment.scripts.size(); j++) {
+				allScripts.set(item.scriptStart + j, segment.scripts.get(j));
+			}
+			List<InitGlobal> srcInits = srcChl.initGlobals.getItems();
+			for (int j = 1; j < srcInits.size(); j++) {
+				initGlobals.set(item.initStart + j - 1, srcInits.get(j));
+			}
+			computeAddresses(segment, item.codeStart);
+			List<Integer> autostart = getAutostartScripts(segment);
+			for (int j = 0; j < autostart.size(); j++) {
+				autostartScripts.set(item.autostartStart + j, autostart.get(j));
+			}
+			//Relocate the code into its slice
+			Instruction[] slice = new Instruction[item.codeEnd - item.codeStart];
+			relocate(segment, slice, item.codeStart, stringPool);
+			for (int j = 0; j < slice.length; j++) {
+				chl.code.set(item.codeStart + j, slice[j]);
+			}
+			item.objHash = BuildManifest.hash(files.get(i));
+		}
+		//Scripts have been replaced, so the indexes must be rebuilt
+		chl.scripts.setItems(allScripts);
+		map.outputHash = 0;
+		linkMap = map;
+		return chl;
+	}
+	
+	private ObjectCode load(File file) throws LinkError {
+		try {
+			if (objectCache != null) {
+				return objectCache.get(file);
+			}
+			ObjectCode objcode = new ObjectCode();
+			objcode.readBuffered(file);
+			return objcode;
+		} catch (Exception e) {
+			throw new LinkError(e, file);
+		}
+	}
+	
+	/**Adds the data, the global variables and the scripts of an object to the linked file, and computes
+	 * where its code goes, without touching the instructions.
+	 * @param chl the linked file
+	 * @param objcode
+	 * @param baseAddress the address of the first instruction of the object in the linked file
+	 * @param data the data section of the linked file, which shares equal strings if enabled
+	 * @param properties
+	 * @param sourceDirs
+	 * @return
+	 * @throws LinkError
+	 */
+	private Segment layout(CHLFile chl, ObjectCode objcode, int baseAddress, ZStringPool data,
+			Set<String> properties, Set<String> sourceDirs) throws LinkError {
+		CHLFile srcChl = objcode.getChl();
+		Segment segment = new Segment(objcode);
+		//Add data
+		segment.dataOffset = data.size();
+		final byte[] srcData = srcChl.data.getData();
+		for (StringData sData : srcChl.data.getStrings()) {
+			//Strings are copied as bytes, only properties need to be decoded
+			if (startsWith(srcData, sData, CRC32_PREFIX)) {
+				properties.add(sData.getString());
+			} else if (startsWith(srcData, sData, SOURCE_DIRS_PREFIX)) {
+				String[] vals = sData.getString().split("=", 2)[1].split(";");
+				for (String val : vals) {
+					sourceDirs.add(val);
+				}
+			} else if (!options.sharedStrings) {
+				data.append(srcData, sData.offset, sData.length);
+			} else {
+				data.add(srcData, sData.offset, sData.length);
+			}
+		}
+		segment.dataEnd = data.size();
+		//Resolve external vars
+		resolveExternalVars(chl.globalVars, segment);
+		//Add global vars
+		List<String> globalVars = chl.globalVars.getNames();
+		segment.globalOffset = globalVars.size();
+		globalVars.addAll(srcChl.globalVars.getNames());
+		segment.globalsCount = globalVars.size();
+		List<InitGlobal> initGlobals = chl.initGlobals.getItems();
+		List<InitGlobal> srcInits = srcChl.initGlobals.getItems();
+		segment.initStart = initGlobals.size();
+		initGlobals.addAll(srcInits.subList(1, srcInits.size()));
+		segment.initEnd = initGlobals.size();
+		//Resolve external scripts
+		resolveExternalScripts(chl.scripts, segment);
+		//Add and create mapping for internal scripts
+		List<Script> scripts = chl.scripts.getItems();
+		segment.scriptStart = scripts.size();
+		copyScripts(chl, segment);
+		scripts.addAll(segment.scripts);
+		//Compute the address of each script
+		computeAddresses(segment, baseAddress);
+		//Add autostart scripts
+		List<Integer> autostartScripts = chl.autoStartScripts.getScripts();
+		segment.autostartStart = autostartScripts.size();
+		autostartScripts.addAll(getAutostartScripts(segment));
+		segment.autostartEnd = autostartScripts.size();
+		return segment;
+	}
+	
+	private static boolean startsWith(byte[] data, StringData sData, byte[] prefix) {
+		return sData.length >= prefix.length
+				&& Arrays.equals(data, sData.offset, sData.offset + prefix.length, prefix, 0, prefix.length);
+	}
+	
+	/**Finds the external variables used by an object among the given global variables.
+	 * @param globalVars the variables defined by the previous objects
+	 * @param segment
+	 * @throws LinkError
+	 */
+	private void resolveExternalVars(GlobalVariables globalVars, Segment segment) throws LinkError {
+		final ObjectCode objcode = segment.objcode;
+		final List<Symbol> symbols = objcode.getSymbols();
+		segment.symbolValues = new int[symbols.size()];
+		int k = 0;
+		for (; k < symbols.size() && symbols.get(k).type == Symbol.VAR; k++) {
+			Symbol symbol = symbols.get(k);
+			String name = symbol.name;
+			int index = symbol.value;
+			int varId = globalVars.getVarId(name);
+			if (varId < 0) {
+				throw new LinkError("Cannot find external variable " + name, objcode.file);
+			} else if (index > 0 && !globalVars.isArray(varId)) {
+				throw new LinkError("External variable " + name + " isn't an array", objcode.file);
+			} else if (index >= globalVars.getVarSize(varId)) {
+				throw new LinkError("Index out of bounds for external variable " + name, objcode.file);
+			}
+			segment.symbolValues[k] = varId + index;
+		}
+		segment.externalScriptsStart = k;
+	}
+	
+	/**Finds the external scripts used by an object among the given scripts. Must be called after
+	 * {@link #resolveExternalVars(GlobalVariables, Segment)}.
+	 * @param scripts the scripts defined by the previous objects
+	 * @param segment
+	 * @throws LinkError
+	 */
+	private void resolveExternalScripts(Scripts scripts, Segment segment) throws LinkError {
+		final ObjectCode objcode = segment.objcode;
+		final List<Symbol> symbols = objcode.getSymbols();
+		for (int k = segment.externalScriptsStart; k < symbols.size(); k++) {
+			Symbol symbol = symbols.get(k);
+			String name = symbol.name;
+			int argc = symbol.value;
+			try {
+				Script script = scripts.getScript(name);
+				if (script.getParameterCount() != argc) {
+					throw new LinkError("Wrong number of parameters for external script " + name, objcode.file);
+				}
+				segment.symbolValues[k] = script.getScriptID();
+			} catch (ScriptNotFoundException e) {
+				throw new LinkError("Cannot find external script " + name, objcode.file);
+			}
+		}
+	}
+	
+	/**Copies the scripts of an object for the linked file, giving them the IDs which follow
+	 * {@link Segment#scriptStart}.
+	 * @param chl the linked file
+	 * @param segment
+	 */
+	private static void copyScripts(CHLFile chl, Segment segment) {
+		List<Script> srcScripts = segment.objcode.getChl().scripts.getItems();
+		segment.internalScriptsMap = new int[srcScripts.size()];
+		segment.scripts = new ArrayList<>(srcScripts.size());
+		for (Script srcScript : srcScripts) {
+			final int oldId = srcScript.getScriptID();
+			final int newId = segment.scriptStart + segment.scripts.size() + 1;
+			Script script = srcScript.copy(chl);
+			script.setScriptID(newId);
+			segment.scripts.add(script);
+			segment.internalScriptsMap[oldId - 1] = newId;
+		}
+	}
+	
+	/**Computes the address of each script of an object: the code of a script is copied up to its END
+	 * instruction.
+	 * @param segment
+	 * @param baseAddress the address of the first instruction of the object in the linked file
+	 */
+	private static void computeAddresses(Segment segment, int baseAddress) {
+		final CHLFile srcChl = segment.objcode.getChl();
+		final List<Script> srcScripts = srcChl.scripts.getItems();
+		segment.baseAddress = baseAddress;
+		segment.scriptAddresses = new int[srcScripts.size()];
+		int address = baseAddress;
+		for (int j = 0; j < srcScripts.size(); j++) {
+			segment.scriptAddresses[j] = address;
+			address += getScriptSize(srcChl.code, srcScripts.get(j));
+		}
+		segment.endAddress = address;
+	}
+	
+	private static int getScriptSize(Code code, Script script) {
+		int size = 0;
+		for (int i = script.getInstructionAddress(); i < code.size(); i++) {
+			size++;
+			if (code.getOpcode(i) == OPCode.END) break;
+		}
+		return size;
+	}
+	
+	private static List<Integer> getAutostartScripts(Segment segment) {
+		List<Integer> srcIds = segment.objcode.getChl().autoStartScripts.getScripts();
+		List<Integer> res = new ArrayList<>(srcIds.size());
+		for (Integer srcId : srcIds) {
+			res.add(srcId >= 0 ? segment.internalScriptsMap[srcId - 1] : segment.symbolValues[segment.externalScriptsStart - srcId - 1]);
+		}
+		return res;
+	}
+	
+	/**Returns a hash of what an object exposes to the other objects and of the space it takes in the
+	 * linked file: the names, parameters and sizes of the scripts, the names of the global variables,
+	 * the number of autostart scripts and the data. If it doesn't change, the object can replace its
+	 * previous version in the linked file without moving anything else.
+	 * @param objcode
+	 * @return
+	 */
+	private static long getInterfaceHash(ObjectCode objcode) {
+		final CHLFile srcChl = objcode.getChl();
+		StringBuilder res = new StringBuilder();
+		for (Script script : srcChl.scripts.getItems()) {
+			res.append("script " + script.getName() + "@" + script.getParameterCount() + "=" + getScriptSize(srcChl.code, script) + "\n");
+		}
+		for (String name : srcChl.globalVars.getNames()) {
+			res.append("global " + name + "\n");
+		}
+		res.append("inits=" + srcChl.initGlobals.getItems().size());
+		res.append(" autostart=" + srcChl.autoStartScripts.getScripts().size());
+		res.append(" data=" + Long.toHexString(BuildManifest.hash(srcChl.data.getData())));
+		return BuildManifest.hash(res.toString());
+	}
+	
+	/**Copies the code of an object to its slice of the code section and relocates it. Only the slice and
+	 * the scripts of the object in the linked file are modified, so objects can be relocated concurrently.
+	 * @param segment
+	 * @param code the code section of the linked file, or a part of it
+	 * @param codeBase the address of the first instruction in code
+	 * @param data the data section of the linked file, used to find the shared strings
+	 * @throws LinkError
+	 */
+	private void relocate(Segment segment, Instruction[] code, int codeBase, ZStringPool data) throws LinkError {
+		final ObjectCode objcode = segment.objcode;
+		final CHLFile srcChl = objcode.getChl();
+		final int baseAddress = segment.baseAddress;
+		final int globalOffset = segment.globalOffset;
+		final int[] symbolValues = segment.symbolValues;
+		final List<Script> scripts = segment.scripts;
+		final Code srcCode = srcChl.code;
+		final int[] localsDelta = new int[scripts.size()];
+		for (int j = 0; j < scripts.size(); j++) {
+			localsDelta[j] = segment.globalsCount - scripts.get(j).getGlobalCount();
+		}
+		final List<Relocation> relocations;
+		try {
+			relocations = objcode.getRelocations();
+		} catch (InvalidObjCodeException e) {
+			throw new LinkError(e.getMessage(), objcode.file);
+		}
+		//Copy code, decoding new instructions, and remember where each instruction goes
+		final int[] addresses = new int[srcCode.size()];
+		Arrays.fill(addresses, -1);
+		for (int j = 0; j < scripts.size(); j++) {
+			final Script script = scripts.get(j);
+			final int newScriptAddress = segment.scriptAddresses[j];
+			int address = newScriptAddress;
+			for (int i = script.getInstructionAddress(); i < srcCode.size(); i++) {
+				Instruction instr = srcCode.get(i);
+				addresses[i] = address;
+				code[address++ - codeBase] = instr;
+				if (instr.opcode == OPCode.END) break;
+			}
+			script.setInstructionAddress(newScriptAddress);
+			script.setGlobalCount(script.getGlobalCount() + localsDelta[j]);
+		}
+		//Apply relocations
+		for (Relocation relocation : relocations) {
+			final int address = addresses[relocation.instruction];
+			if (address < 0) continue;	//Not part of any script
+			final Instruction instr = code[address - codeBase];
+			final int kind = relocation.kind & ~Relocation.FLOAT;
+			final boolean isFloat = (relocation.kind & Relocation.FLOAT) != 0;
+			int val = isFloat ? (int)instr.floatVal : instr.intVal;
+			switch (kind) {
+				case Relocation.IP:
+					val += baseAddress;
+					break;
+				case Relocation.SCRIPT:
+					val = segment.internalScriptsMap[relocation.symbol];
+					break;
+				case Relocation.EXTERNAL_SCRIPT:
+				case Relocation.EXTERNAL_VAR:
+					val = symbolValues[relocation.symbol];
+					break;
+				case Relocation.LOCAL_VAR:
+					val += localsDelta[relocation.symbol];
+					break;
+				case Relocation.GLOBAL_VAR:
+					val += globalOffset;
+					break;
+				case Relocation.STRING:
+					if (options.sharedStrings) {
+						val = data.indexOfZString(srcChl.data.getData(), val);
+						if (val < 0) {
+							throw new LinkError("Invalid string at instruction " + relocation.instruction, objcode.file);
+						}
+					} else {
+						val += segment.dataOffset;
+					}
+					segment.stringInstructions.add(address);
+					break;
+				default:
+					throw new LinkError("Invalid relocation kind " + relocation.kind + " at instruction " + relocation.instruction, objcode.file);
+			}
+			if (isFloat) {
+				instr.floatVal = val;
+			} else {
+				instr.intVal = val;
+			}
+		}
+	}
+	
+	/**Runs the tasks, concurrently if enabled, and returns their results in order. If any task fails,
+	 * the exception of the first failed task is thrown.
+	 * @param tasks
+	 * @return
+	 * @throws LinkError
+	 */
+	private <T> List<T> runAll(List<Callable<T>> tasks) throws LinkError {
+		try {
+			if (options.parallel && tasks.size() > 1) {
+				return ConcurrentTasks.invokeAll(tasks);
+			}
+			List<T> res = new ArrayList<>(tasks.size());
+			for (Callable<T> task : tasks) {
+				res.add(task.call());
+			}
+			return res;
+		} catch (LinkError | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**Where the content of an object goes in the linked file*/
+	private static class Segment {
+		public final ObjectCode objcode;
+		public int dataOffset;
+		/**Size of the data section after the strings of this object have been added*/
+		public int dataEnd;
+		public int globalOffset;
+		/**Number of global variables after the ones of this object have been added*/
+		public int globalsCount;
+		public int initStart;
+		public int initEnd;
+		/**The value of each external symbol: the id of the variable or of the script*/
+		public int[] symbolValues;
+		/**Index of the first external script in the symbol table*/
+		public int externalScriptsStart;
+		public int[] internalScriptsMap;
+		/**Index of the first script of the object in the linked file*/
+		public int scriptStart;
+		/**The copies of the scripts of the object which have been added to the linked file*/
+		public List<Script> scripts;
+		/**Address of the first instruction of the object*/
+		public int baseAddress;
+		/**Address of each script of the object*/
+		public int[] scriptAddresses;
+		/**Address following the last instruction of the object*/
+		public int endAddress;
+		public int autostartStart;
+		public int autostartEnd;
+		/**Addresses of the instructions which push a string*/
+		public final List<Integer> stringInstructions = new ArrayList<>();
+		
+		public Segment(ObjectCode objcode) {
+			this.objcode = objcode;
+		}
+	}
+	
 	
 	public static class Options {
 		public boolean sharedStrings = true;
+		/**If enabled, a shared string which is the tail of a string of a previous object reuses its bytes.
+		 * This makes the data section smaller, but the output is different from the original linker.*/
+		public boolean mergeStrings = false;
 		public boolean debug = false;
 		public boolean verbose = false;
+		/**If enabled, object files are loaded and relocated concurrently*/
+		public boolean parallel = true;
 	}
 }
@@ -0,0 +1,134 @@
+package it.ld.bw.chl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.ld.bw.chl.model.Struct;
+import it.ld.utils.EndianDataInputStream;
+import it.ld.utils.EndianDataOutputStream;
+
+/**Describes where the content of each object file is in a linked file, so that the file can be updated
+ * when some object files change (see {@link CHLLinker#relink(List, File, LinkMap)}). Ranges are given
+ * as start (inclusive) and end (exclusive) indexes.
+ */
+public class LinkMap extends Struct {
+	private static final int VERSION = 2;
+	
+	public static class Item {
+		/**Name of the object file*/
+		public String name;
+		public long objHash;
+		/**Hash of the symbols the object exposes and of the space it takes in the linked file*/
+		public long interfaceHash;
+		public int codeStart;
+		public int codeEnd;
+		public int globalStart;
+		public int globalEnd;
+		/**Range in the init globals, which start with the null variable*/
+		public int initStart;
+		public int initEnd;
+		/**Range in the scripts, the ID of each script is its index plus one*/
+		public int scriptStart;
+		public int scriptEnd;
+		public int autostartStart;
+		public int autostartEnd;
+		/**Range in the data section, which holds only the strings not found in the previous objects
+		 * if strings are shared*/
+		public int dataStart;
+		public int dataEnd;
+	}
+	
+	public boolean sharedStrings;
+	public boolean mergeStrings;
+	public boolean debug;
+	/**Hash of the linked file*/
+	public long outputHash;
+	/**Items in link order*/
+	public List<Item> items = new ArrayList<>();
+	
+	/**Reads the map from the given file. If the file doesn't exist or cannot be read, the map is left
+	 * empty.
+	 * @param file
+	 * @return true if the map has been read
+	 */
+	public boolean read(File file) {
+		if (!file.exists()) return false;
+		try (EndianDataInputStream str = new EndianDataInputStream(new BufferedInputStream(new FileInputStream(file)));) {
+			read(str);
+			return true;
+		} catch (Exception e) {
+			outputHash = 0;
+			items.clear();
+			return false;
+		}
+	}
+	
+	public void write(File file) throws Exception {
+		try (EndianDataOutputStream str = new EndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));) {
+			write(str);
+		}
+	}
+	
+	@Override
+	public void read(EndianDataInputStream str) throws Exception {
+		int version = str.readInt();
+		if (version != VERSION) throw new Exception("Unsupported link map version: " + version);
+		sharedStrings = str.readBoolean();
+		mergeStrings = str.readBoolean();
+		debug = str.readBoolean();
+		outputHash = str.readLong();
+		items.clear();
+		int count = str.readInt();
+		for (int i = 0; i < count; i++) {
+			Item item = new Item();
+			item.name = readZString(str);
+			item.objHash = str.readLong();
+			item.interfaceHash = str.readLong();
+			item.codeStart = str.readInt();
+			item.codeEnd = str.readInt();
+			item.globalStart = str.readInt();
+			item.globalEnd = str.readInt();
+			item.initStart = str.readInt();
+			item.initEnd = str.readInt();
+			item.scriptStart = str.readInt();
+			item.scriptEnd = str.readInt();
+			item.autostartStart = str.readInt();
+			item.autostartEnd = str.readInt();
+			item.dataStart = str.readInt();
+			item.dataEnd = str.readInt();
+			items.add(item);
+		}
+	}
+	
+	@Override
+	public void write(EndianDataOutputStream str) throws Exception {
+		str.writeInt(VERSION);
+		str.writeBoolean(sharedStrings);
+		str.writeBoolean(mergeStrings);
+		str.writeBoolean(debug);
+		str.writeLong(outputHash);
+		str.writeInt(items.size());
+		for (Item item : items) {
+			writeZString(str, item.name);
+			str.writeLong(item.objHash);
+			str.writeLong(item.interfaceHash);
+			str.writeInt(item.codeStart);
+			str.writeInt(item.codeEnd);
+			str.writeInt(item.globalStart);
+			str.writeInt(item.globalEnd);
+			str.writeInt(item.initStart);
+			str.writeInt(item.initEnd);
+			str.writeInt(item.scriptStart);
+			str.writeInt(item.scriptEnd);
+			str.writeInt(item.autostartStart);
+			str.writeInt(item.autostartEnd);
+			str.writeInt(item.dataStart);
+			str.writeInt(item.dataEnd);
+		}
+	}
+}
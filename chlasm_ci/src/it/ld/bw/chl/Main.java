@@ -30,6 +30,7 @@ import it.ld.bw.chl.exceptions.ParseException;
 import it.ld.bw.chl.lang.ASMCompiler;
 import it.ld.bw.chl.lang.ASMWriter;
 import it.ld.bw.chl.lang.CHLCompiler;
+import it.ld.bw.chl.lang.HeaderCache;
 import it.ld.bw.chl.lang.Project;
 import it.ld.bw.chl.lang.Syntax;
 import it.ld.bw.chl.lang.decompiler.CHLDecompiler;
@@ -47,6 +48,9 @@ public class Main {
 			CmdLine cmd = new CmdLine(args);
 			printJavaStackTrace = cmd.getArgFlag("-jst");
 			verbose = cmd.getArgFlag("-v");
+			CHLFile.memoryMappingEnabled = cmd.getArgFlag("-mmap");
+			CHLFile.lazyLoadingEnabled = cmd.getArgFlag("-lazy");
+			CHLFile.parallelLoadingEnabled = cmd.getArgFlag("-par");
 			if (cmd.getArgFlag("-trace")) {
 				CHLFile.traceEnabled = true;
 				Code.traceEnabled = true;
@@ -146,9 +150,13 @@ public class Main {
 			project = Project.load(prj);
 		}
 		File out = mandatory(cmd.getArgFile("-o"), "-o");
+		File headerCacheFile = cmd.getArgFile("-hc");
+		HeaderCache headerCache = loadHeaderCache(headerCacheFile);
+		compiler.setHeaderCache(headerCache);
 		//
 		System.out.println("Parsing ASM sources...");
 		CHLFile chl = compiler.compile(project);
+		saveHeaderCache(headerCache, headerCacheFile);
 		System.out.println("Writing compiled CHL...");
 		chl.write(out);
 		System.out.println("Done.");
@@ -199,12 +207,15 @@ public class Main {
 		File outAsm = cmd.getArgFile("-oasm");
 		compilerOptions.sharedStrings = !cmd.getArgFlag("-noshr");
 		linkerOptions.sharedStrings = compilerOptions.sharedStrings;
+		linkerOptions.mergeStrings = cmd.getArgFlag("-mrgstr");
 		compilerOptions.staticArrayCheck = !cmd.getArgFlag("-nosac");
 		compilerOptions.extendedSyntax = cmd.getArgFlag("-ext");
 		compilerOptions.returnEnabled = cmd.getArgFlag("-ret");
 		compilerOptions.debug = cmd.getArgFlag("-dbg");
 		linkerOptions.debug = compilerOptions.debug;
 		project.clean |= cmd.getArgFlag("-clean");
+		make.setJobs(cmd.getArgInt("-j", make.getJobs(), 1, 256));
+		linkerOptions.parallel = make.getJobs() > 1;
 		//
 		CHLFile chl = make.make(project);
 		if (outAsm != null) {
@@ -230,6 +241,9 @@ public class Main {
 		if (headers.isEmpty()) {
 			headers.add(new File(jarDir, "headers"));
 		}
+		File headerCacheFile = cmd.getArgFile("-hc");
+		HeaderCache headerCache = loadHeaderCache(headerCacheFile);
+		decompiler.setHeaderCache(headerCache);
 		for (File file : headers) {
 			if (file.isDirectory()) {
 				for (File f : file.listFiles()) {
@@ -241,6 +255,7 @@ public class Main {
 				decompiler.addHeader(file);
 			}
 		}
+		saveHeaderCache(headerCache, headerCacheFile);
 		//
 		File inp = mandatory(cmd.getArgFile("-i"), "-i");
 		File out = mandatory(cmd.getArgFile("-o"), "-o");
@@ -346,6 +361,23 @@ public class Main {
 		return false;
 	}
 	
+	/**Reads the header cache from the given file.
+	 * @param file
+	 * @return the cache, or null if no file is given
+	 */
+	private static HeaderCache loadHeaderCache(File file) {
+		if (file == null) return null;
+		HeaderCache headerCache = new HeaderCache();
+		headerCache.read(file);
+		return headerCache;
+	}
+	
+	private static void saveHeaderCache(HeaderCache headerCache, File file) throws Exception {
+		if (headerCache != null && headerCache.isModified()) {
+			headerCache.write(file);
+		}
+	}
+	
 	private static <T> T mandatory(T value, String name) {
 		if (value == null) throw new RuntimeException(name + " is mandatory");
 		return value;
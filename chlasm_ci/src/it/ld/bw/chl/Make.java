@@ -2,6 +2,7 @@ package it.ld.bw.chl;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -9,11 +10,19 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import it.ld.bw.chl.lang.CHLCompiler;
+import it.ld.bw.chl.lang.HeaderCache;
 import it.ld.bw.chl.lang.Project;
 import it.ld.bw.chl.model.CHLFile;
 import it.ld.bw.chl.model.ObjectCode;
@@ -26,6 +35,10 @@ public class Make {
 	
 	private CHLCompiler.Options compilerOptions = new CHLCompiler.Options();
 	private CHLLinker.Options linkerOptions = new CHLLinker.Options();
+	/**How many source files can be compiled at the same time*/
+	private int jobs = Runtime.getRuntime().availableProcessors();
+	/**The object files loaded by the linker, kept for the next builds done with this instance*/
+	private ObjectCache objectCache = new ObjectCache();
 	
 	public CHLCompiler.Options getCompilerOptions() {
 		return compilerOptions;
@@ -43,6 +56,22 @@ public class Make {
 		this.linkerOptions = linkerOptions;
 	}
 	
+	public int getJobs() {
+		return jobs;
+	}
+	
+	public void setJobs(int jobs) {
+		this.jobs = jobs;
+	}
+	
+	public ObjectCache getObjectCache() {
+		return objectCache;
+	}
+	
+	public void setObjectCache(ObjectCache objectCache) {
+		this.objectCache = objectCache;
+	}
+	
 	public Make() {
 		this(System.out);
 	}
@@ -60,54 +89,143 @@ public class Make {
 		}
 		final CHLCompiler compiler = new CHLCompiler(out);
 		compiler.setOptions(compilerOptions);
+		/* The manifest records the definitions of each file, which are restored for the files that don't
+		 * need to be compiled again. The definitions of the last build are loaded only if the manifest
+		 * is missing, otherwise they would be seen by the files that precede the defining ones.*/
+		File manifestFile = project.objPath.resolve("_manifest.bin").toFile();
+		BuildManifest oldManifest = new BuildManifest();
+		final boolean hasManifest = oldManifest.read(manifestFile);
 		//Load compiled constants
 		File constantsFile = project.objPath.resolve("_constants.bin").toFile();
-		if (constantsFile.exists()) {
+		if (!hasManifest && constantsFile.exists()) {
 			Constants constants = new Constants();
 			constants.read(constantsFile);
 			compiler.addConstants(constants.items);
 		}
 		//Load defined global vars
 		File globalVarsFile = project.objPath.resolve("_globalvars.bin").toFile();
-		if (globalVarsFile.exists()) {
+		if (!hasManifest && globalVarsFile.exists()) {
 			GlobalVars globalVars = new GlobalVars();
 			globalVars.read(globalVarsFile);
 			compiler.addGlobalVars(globalVars.items);
 		}
 		//Load header files and project constants
+		File headerCacheFile = project.objPath.resolve("_headers.bin").toFile();
+		HeaderCache headerCache = new HeaderCache();
+		if (!project.clean) {
+			headerCache.read(headerCacheFile);
+		}
+		compiler.setHeaderCache(headerCache);
 		for (File file : project.cHeaders) {
 			compiler.loadHeader(file);
 		}
 		for (File file : project.infoFiles) {
 			compiler.loadInfo(file);
 		}
+		if (headerCache.isModified()) {
+			headerCache.write(headerCacheFile);
+		}
 		compiler.addConstants(project.constants);
 		//Compile files
-		List<File> objfiles = new ArrayList<>(project.sources.size());
+		BuildManifest manifest = new BuildManifest();
+		manifest.optionsHash = BuildManifest.hash(getOptionsDescription(project));
+		manifest.linkHash = oldManifest.linkHash;
+		manifest.outputHash = oldManifest.outputHash;
+		final boolean sameOptions = manifest.optionsHash == oldManifest.optionsHash;
+		final String sourcePath = project.sourcePath.toString() + File.separatorChar;
+		final int nSources = project.sources.size();
+		List<File> objfiles = new ArrayList<>(nSources);
+		String[] objnames = new String[nSources];
+		long[] sourceHashes = new long[nSources];
+		/* The items of the previous build whose source and object file didn't change. They are still
+		 * outdated if any global constant or variable they use has changed, which can be checked only
+		 * after the previous files have been processed.*/
+		BuildManifest.Item[] previous = new BuildManifest.Item[nSources];
+		int nOutdated = 0;
+		for (int i = 0; i < nSources; i++) {
+			File file = project.sources.get(i);
+			String prefix;
+			String absDir = file.getParent();
+			if (absDir.startsWith(sourcePath)) {
+				String relDir = absDir.substring(sourcePath.length());
+				prefix = relDir.replace(File.separatorChar, '_') + "_";
+			} else {
+				prefix = absDir.hashCode() + "_";
+			}
+			String objname = prefix + basename(file.getName()) + ".o";
+			File objfile = project.objPath.resolve(objname).toFile();
+			objnames[i] = objname;
+			objfiles.add(objfile);
+			sourceHashes[i] = file.exists() ? BuildManifest.hash(file) : 0;
+			BuildManifest.Item item = oldManifest.items.get(objname);
+			if (!project.clean && sameOptions && item != null && item.sourceHash == sourceHashes[i]
+					&& objfile.exists() && item.objHash == BuildManifest.hash(objfile)) {
+				previous[i] = item;
+			} else {
+				nOutdated++;
+			}
+		}
+		ExecutorService executor = null;
+		int processed = 0;
 		try {
-			final String sourcePath = project.sourcePath.toString() + File.separatorChar;
-			for (File file : project.sources) {
-				String prefix;
-				String absDir = file.getParent();
-				if (absDir.startsWith(sourcePath)) {
-					String relDir = absDir.substring(sourcePath.length());
-					prefix = relDir.replace(File.separatorChar, '_') + "_";
-				} else {
-					prefix = absDir.hashCode() + "_";
+			/* Files are compiled in parallel starting from the constants and global variables defined
+			 * before the build, then the results are taken in order. If a file used a constant or variable
+			 * which has been changed by a previous file, it's compiled again with the current definitions,
+			 * so that the result is the same of a sequential build.*/
+			List<Future<CompileResult>> results = new ArrayList<>(nSources);
+			if (jobs > 1 && nOutdated > 1) {
+				final Map<String, Integer> baseConstants = new HashMap<>(compiler.getDefinedConstants());
+				final Set<String> baseGlobalVars = new LinkedHashSet<>(compiler.getDefinedGlobalVars());
+				executor = Executors.newFixedThreadPool(Math.min(jobs, nOutdated));
+				for (int i = 0; i < nSources; i++) {
+					if (previous[i] == null) {
+						final File file = project.sources.get(i);
+						results.add(executor.submit(() -> compile(file, baseConstants, baseGlobalVars)));
+					} else {
+						results.add(null);
+					}
 				}
-				String objname = prefix + basename(file.getName()) + ".o";
-				File objfile = project.objPath.resolve(objname).toFile();
+			}
+			for (int i = 0; i < nSources; i++) {
+				File file = project.sources.get(i);
+				File objfile = objfiles.get(i);
 				if (project.clean && objfile.exists()) {
 					objfile.delete();
+					if (objectCache != null) objectCache.remove(objfile);
 				}
-				if (!objfile.exists() || objfile.lastModified() < file.lastModified()) {
+				BuildManifest.Item item = previous[i];
+				if (item != null && isUpToDate(item, compiler)) {
+					compiler.addConstants(item.constants);
+					compiler.addGlobalVars(item.globalVars);
+				} else {
 					out.println("compiling " + file.getName());
-					ObjectCode objcode = compiler.compile(file);
+					Future<CompileResult> future = results.isEmpty() ? null : results.get(i);
+					CompileResult result = future != null ? getResult(future) : null;
+					ObjectCode objcode;
+					if (result != null && isUpToDate(result.item, compiler)) {
+						out.write(result.output, 0, result.output.length);
+						item = result.item;
+						compiler.addConstants(item.constants);
+						compiler.addGlobalVars(item.globalVars);
+						if (result.exception instanceof Error) throw (Error) result.exception;
+						if (result.exception != null) throw (Exception) result.exception;
+						objcode = result.objcode;
+					} else {
+						objcode = compiler.compile(file);
+						item = describe(compiler);
+					}
 					objcode.write(objfile);
+					if (objectCache != null) objectCache.remove(objfile);
+					item.sourceHash = sourceHashes[i];
+					item.objHash = BuildManifest.hash(objfile);
 				}
-				objfiles.add(objfile);
+				manifest.items.put(objnames[i], item);
+				processed++;
 			}
 		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
 			//Write compiled constants
 			Constants constants = new Constants();
 			constants.items = compiler.getDefinedConstants();
@@ -116,17 +234,144 @@ public class Make {
 			GlobalVars globalVars = new GlobalVars();
 			globalVars.items = compiler.getDefinedGlobalVars();
 			globalVars.write(globalVarsFile);
+			//Write the manifest, keeping the items of the files which haven't been processed
+			if (sameOptions) {
+				for (int i = processed; i < nSources; i++) {
+					BuildManifest.Item item = oldManifest.items.get(objnames[i]);
+					if (item != null) {
+						manifest.items.put(objnames[i], item);
+					}
+				}
+			}
+			manifest.write(manifestFile);
 		}
 		//Link
+		String linkDescription = getLinkDescription(project, objnames, manifest);
+		manifest.linkHash = BuildManifest.hash(linkDescription);
+		if (!project.clean && manifest.linkHash == oldManifest.linkHash && project.output.exists()
+				&& BuildManifest.hash(project.output) == oldManifest.outputHash) {
+			out.println("output is up to date");
+			CHLFile chl = new CHLFile();
+			chl.read(project.output);
+			return chl;
+		}
 		out.println("linking...");
 		final CHLLinker linker = new CHLLinker(out);
 		linker.setOptions(linkerOptions);
-		CHLFile chl = linker.link(objfiles);
+		linker.setObjectCache(objectCache);
+		/* The link map tells where each object is in the output, so that the objects which changed
+		 * without moving anything else can be replaced in place instead of linking everything again.
+		 */
+		File linkMapFile = project.objPath.resolve("_linkmap.bin").toFile();
+		LinkMap oldLinkMap = new LinkMap();
+		CHLFile chl;
+		if (!project.clean && oldLinkMap.read(linkMapFile)) {
+			chl = linker.relink(objfiles, project.output, oldLinkMap);
+		} else {
+			chl = linker.link(objfiles);
+		}
 		chl.validate(out);
 		chl.write(project.output);
+		manifest.outputHash = BuildManifest.hash(project.output);
+		manifest.write(manifestFile);
+		LinkMap linkMap = linker.getLinkMap();
+		linkMap.outputHash = manifest.outputHash;
+		linkMap.write(linkMapFile);
 		return chl;
 	}
 	
+	private String getOptionsDescription(Project project) {
+		return "sharedStrings=" + compilerOptions.sharedStrings
+				+ " staticArrayCheck=" + compilerOptions.staticArrayCheck
+				+ " extendedSyntax=" + compilerOptions.extendedSyntax
+				+ " returnEnabled=" + compilerOptions.returnEnabled
+				+ " debug=" + compilerOptions.debug
+				+ " sourcePath=" + project.sourcePath.toAbsolutePath();
+	}
+	
+	private String getLinkDescription(Project project, String[] objnames, BuildManifest manifest) {
+		StringBuilder res = new StringBuilder();
+		res.append("sharedStrings=" + linkerOptions.sharedStrings);
+		res.append(" mergeStrings=" + linkerOptions.mergeStrings);
+		res.append(" debug=" + linkerOptions.debug);
+		res.append(" output=" + project.output.getAbsolutePath());
+		for (String objname : objnames) {
+			res.append("\n" + objname + "=" + Long.toHexString(manifest.items.get(objname).objHash));
+		}
+		return res.toString();
+	}
+	
+	/**Tells whether the global constants and variables used by a source file still have the values
+	 * they had when it was compiled.
+	 * @param item
+	 * @param compiler
+	 * @return
+	 */
+	private static boolean isUpToDate(BuildManifest.Item item, CHLCompiler compiler) {
+		Map<String, Integer> constants = compiler.getDefinedConstants();
+		for (Entry<String, Integer> e : item.usedConstants.entrySet()) {
+			if (!Objects.equals(constants.get(e.getKey()), e.getValue())) return false;
+		}
+		Set<String> globalVars = compiler.getDefinedGlobalVars();
+		for (Entry<String, Boolean> e : item.usedGlobalVars.entrySet()) {
+			if (globalVars.contains(e.getKey()) != e.getValue()) return false;
+		}
+		return true;
+	}
+	
+	/**Describes the dependencies and the definitions of the file compiled last by the given compiler.
+	 * @param compiler
+	 * @return
+	 */
+	private static BuildManifest.Item describe(CHLCompiler compiler) {
+		BuildManifest.Item item = new BuildManifest.Item();
+		item.usedConstants.putAll(compiler.getUsedGlobalConstants());
+		item.usedGlobalVars.putAll(compiler.getUsedGlobalVars());
+		item.constants.putAll(compiler.getFileConstants());
+		item.globalVars.addAll(compiler.getFileGlobalVars());
+		return item;
+	}
+	
+	/**Compiles a file with a new compiler, which starts from the given definitions.
+	 * @param file
+	 * @param constants
+	 * @param globalVars
+	 * @return
+	 */
+	private CompileResult compile(File file, Map<String, Integer> constants, Set<String> globalVars) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CompileResult result = new CompileResult();
+		CHLCompiler compiler = new CHLCompiler(new PrintStream(buffer, true));
+		compiler.setOptions(compilerOptions);
+		compiler.addConstants(constants);
+		compiler.addGlobalVars(globalVars);
+		try {
+			result.objcode = compiler.compile(file);
+		} catch (Exception | Error e) {
+			//Errors too (eg. StackOverflowError) are reported in order, as the sequential build does
+			result.exception = e;
+		}
+		result.output = buffer.toByteArray();
+		result.item = describe(compiler);
+		return result;
+	}
+	
+	/**Waits for a compile task, throwing what the task has thrown rather than an ExecutionException.
+	 * @param future
+	 * @return
+	 * @throws Exception
+	 */
+	private static CompileResult getResult(Future<CompileResult> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) throw (Error) cause;
+			if (cause instanceof Exception) throw (Exception) cause;
+			throw e;
+		}
+	}
+	
 	private static String basename(String name) {
 		int p = name.lastIndexOf('.');
 		if (p >= 0) {
@@ -136,6 +381,15 @@ public class Make {
 	}
 	
 	
+	private static class CompileResult {
+		public ObjectCode objcode;
+		public Throwable exception;
+		/**What the compiler printed*/
+		public byte[] output;
+		public BuildManifest.Item item;
+	}
+	
+	
 	private static class Constants extends Struct {
 		public Map<String, Integer> items = new HashMap<>();
 		
@@ -0,0 +1,75 @@
+package it.ld.bw.chl;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import it.ld.bw.chl.model.ObjectCode;
+
+/**Keeps the object files loaded by the linker, so that a process which links many times (e.g. a build
+ * server) loads again only the object files which have changed. A file is considered unchanged if its
+ * size and modification time are the same it had when it was loaded; who rewrites an object file can
+ * also call {@link #remove(File)}, which doesn't depend on the resolution of the modification time.
+ * The linker never modifies the objects it gets from the cache, so they can be used by any number of
+ * links. This class is thread safe.
+ */
+public class ObjectCache {
+	private static class Item {
+		public final long length;
+		public final long lastModified;
+		public final ObjectCode objcode;
+		
+		public Item(long length, long lastModified, ObjectCode objcode) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.objcode = objcode;
+		}
+	}
+	
+	/**Items indexed by absolute path*/
+	private final Map<String, Item> items = new ConcurrentHashMap<>();
+	
+	/**Tells whether the given file is in the cache and hasn't changed since it was loaded.
+	 * @param file
+	 * @return
+	 */
+	public boolean contains(File file) {
+		Item item = items.get(file.getAbsolutePath());
+		return item != null && item.length == file.length() && item.lastModified == file.lastModified();
+	}
+	
+	/**Returns the object code stored in the given file, loading it if it isn't in the cache or it has
+	 * changed. The returned object must not be modified.
+	 * @param file
+	 * @return
+	 * @throws Exception
+	 */
+	public ObjectCode get(File file) throws Exception {
+		final String key = file.getAbsolutePath();
+		final long length = file.length();
+		final long lastModified = file.lastModified();
+		Item item = items.get(key);
+		if (item != null && item.length == length && item.lastModified == lastModified) {
+			return item.objcode;
+		}
+		ObjectCode objcode = new ObjectCode();
+		objcode.readBuffered(file);
+		items.put(key, new Item(length, lastModified, objcode));
+		return objcode;
+	}
+	
+	/**Removes the given file from the cache.
+	 * @param file
+	 */
+	public void remove(File file) {
+		items.remove(file.getAbsolutePath());
+	}
+	
+	public void clear() {
+		items.clear();
+	}
+	
+	public int size() {
+		return items.size();
+	}
+}
@@ -74,6 +74,7 @@ public class ASMCompiler {
 	private int[] scriptsUsageCount = null;
 	
 	private boolean sealed = false;
+	private HeaderCache headerCache;
 	
 	public ASMCompiler() {
 		this(System.out);
@@ -101,6 +102,17 @@ public class ASMCompiler {
 		this.verboseEnabled = verboseEnabled;
 	}
 	
+	public HeaderCache getHeaderCache() {
+		return headerCache;
+	}
+	
+	/**Sets the cache used to load header and info files, may be null.
+	 * @param headerCache
+	 */
+	public void setHeaderCache(HeaderCache headerCache) {
+		this.headerCache = headerCache;
+	}
+	
 	@SuppressWarnings("unused")
 	private void warning(String s) {
 		out.println(s);
@@ -120,14 +132,22 @@ public class ASMCompiler {
 	
 	public void loadHeader(File headerFile) throws FileNotFoundException, IOException, ParseException {
 		info("loading "+headerFile.getName()+"...");
-		CHeaderParser parser = new CHeaderParser();
-		parser.parse(headerFile, globalConstants);
+		if (headerCache != null) {
+			headerCache.getHeader(headerFile).apply(headerFile, globalConstants, null);
+		} else {
+			CHeaderParser parser = new CHeaderParser();
+			parser.parse(headerFile, globalConstants);
+		}
 	}
 	
 	public void loadInfo(File infoFile) throws FileNotFoundException, IOException, ParseException {
 		info("loading "+infoFile.getName()+"...");
-		InfoParser2 parser = new InfoParser2();
-		parser.parse(infoFile, globalConstants);
+		if (headerCache != null) {
+			headerCache.getInfo(infoFile).apply(infoFile, globalConstants, null);
+		} else {
+			InfoParser2 parser = new InfoParser2();
+			parser.parse(infoFile, globalConstants);
+		}
 	}
 	
 	/**Finalize the CHL file. No more files can be parsed after finalization.
@@ -161,8 +181,9 @@ public class ASMCompiler {
 			}
 			//Store data
 			dataBuffer.flip();
-			dataSection.setData(new byte[dataBuffer.limit()]);
-			dataBuffer.get(dataSection.getData());
+			byte[] data = new byte[dataBuffer.limit()];
+			dataBuffer.get(data);
+			dataSection.setData(data);
 			//Print unused scripts
 			for (int i = 0; i < scripts.size(); i++) {
 				if (scriptsUsageCount[i] == 0) {
@@ -354,10 +375,7 @@ public class ASMCompiler {
 									if (!isValidIdentifier(name)) {
 										throw new ParseException("Invalid variable identifier", file, lineno);
 									}
-									script.getVariables().add(name);
-									for (int i = 1; i < size; i++) {
-										script.getVariables().add("LHVMA");
-									}
+									script.getVariables().add(name, size);
 								} else if ("constant".equals(tks[0])) {
 									if (tks.length < 2) {
 										throw new ParseException("Expected constant name after 'constant'", file, lineno);
@@ -36,6 +36,7 @@ import it.ld.bw.chl.model.Instruction;
 import it.ld.bw.chl.model.NativeFunction;
 import it.ld.bw.chl.model.OPCode;
 import it.ld.bw.chl.model.Script;
+import it.ld.bw.chl.model.VariableTable;
 import it.ld.bw.chl.model.CHLFile;
 import it.ld.bw.chl.model.DataSection.StringData;
 import it.ld.bw.chl.model.DataType;
@@ -132,7 +133,6 @@ public class ASMWriter {
 		//
 		prepareInitGlobalMap(chl);
 		List<StringData> constants = chl.data.getStrings();
-		Map<Integer, StringData> constMap = mapConstants(constants);
 		List<String> sources = chl.getSourceFilenames();
 		Map<Integer, Label> labels = getLabels(chl);
 		//
@@ -171,7 +171,7 @@ public class ASMWriter {
 			out.println("Writing "+sourceFilename);
 			try (Writer str = new BufferedWriter(new FileWriter(sourceFile));) {
 				writeHeader(chl, str);
-				writeScripts(chl, str, sourceFilename, labels, constMap);
+				writeScripts(chl, str, sourceFilename, labels);
 			}
 		}
 	}
@@ -179,12 +179,11 @@ public class ASMWriter {
 	public void writeMerged(CHLFile chl, File file) throws IOException, CompileException {
 		prepareInitGlobalMap(chl);
 		List<StringData> constants = chl.data.getStrings();
-		Map<Integer, StringData> constMap = mapConstants(constants);
 		Map<Integer, Label> labels = getLabels(chl);
 		try (Writer str = new BufferedWriter(new FileWriter(file));) {
 			writeHeader(chl, str);
 			writeData(chl, str, constants);
-			writeScripts(chl, str, labels, constMap);
+			writeScripts(chl, str, labels);
 			writeAutoStartScripts(chl, str);
 		}
 	}
@@ -199,7 +198,7 @@ public class ASMWriter {
 	private Map<Integer, Label> getLabels(CHLFile chl) {
 		Map<Integer, Label> labels = new HashMap<>();
 		List<Script> scripts = chl.scripts.getItems();
-		List<Instruction> instructions = chl.code.getItems();
+		List<Instruction> instructions = chl.code.getInstructions();
 		for (Script script : scripts) {
 			int labelCount = 0;
 			String scriptName = script.getName();
@@ -233,14 +232,6 @@ public class ASMWriter {
 		return labels;
 	}
 	
-	private Map<Integer, StringData> mapConstants(List<StringData> constants) {
-		Map<Integer, StringData> constMap = new HashMap<Integer, StringData>();
-		for (StringData c : constants) {
-			constMap.put(c.offset, c);
-		}
-		return constMap;
-	}
-	
 	private void writeHeader(CHLFile chl, Writer str) throws IOException {
 		str.write("//LHVM Challenge ASM version "+chl.header.getVersion()+"\r\n");
 		str.write("\r\n");
@@ -291,7 +282,7 @@ public class ASMWriter {
 		str.write("\r\n");
 	}
 	
-	private void writeScripts(CHLFile chl, Writer str, Map<Integer, Label> labels, Map<Integer, StringData> constMap) throws IOException, CompileException {
+	private void writeScripts(CHLFile chl, Writer str, Map<Integer, Label> labels) throws IOException, CompileException {
 		int firstGlobal = 0;
 		String prevSourceFilename = "";
 		List<Script> scripts = chl.scripts.getItems();
@@ -307,13 +298,13 @@ public class ASMWriter {
 				str.write("\r\n");
 				prevSourceFilename = script.getSourceFilename();
 			}
-			writeScript(chl, str, script, labels, constMap);
+			writeScript(chl, str, script, labels);
 			str.write("\r\n");
 		}
 		str.write("\r\n");
 	}
 	
-	private void writeScripts(CHLFile chl, Writer str, String sourceFilename, Map<Integer, Label> labels, Map<Integer, StringData> constMap) throws IOException, CompileException {
+	private void writeScripts(CHLFile chl, Writer str, String sourceFilename, Map<Integer, Label> labels) throws IOException, CompileException {
 		int firstGlobal = 0;
 		Script script = null;
 		ListIterator<Script> it = chl.scripts.getItems().listIterator();
@@ -335,17 +326,17 @@ public class ASMWriter {
 			if (!script.getSourceFilename().equals(sourceFilename)) {
 				break;
 			}
-			writeScript(chl, str, script, labels, constMap);
+			writeScript(chl, str, script, labels);
 			str.write("\r\n");
 		}
 	}
 	
-	private void writeScript(CHLFile chl, Writer str, Script script, Map<Integer, Label> labels, Map<Integer, StringData> constMap) throws IOException, CompileException {
+	private void writeScript(CHLFile chl, Writer str, Script script, Map<Integer, Label> labels) throws IOException, CompileException {
 		if (printSourceLineEnabled) {
 			setSourceFile(script.getSourceFilename());
 		}
 		Stack<String> comments = new Stack<>();
-		List<Instruction> instructions = chl.code.getItems();
+		List<Instruction> instructions = chl.code.getInstructions();
 		final int firstInstruction = script.getInstructionAddress();
 		Instruction instr;
 		//Script comments
@@ -376,26 +367,11 @@ public class ASMWriter {
 		str.write("begin "+script.getSignature()+"\r\n");
 		if (printBinInfoEnabled) str.write("//global count: " + script.getGlobalCount() + "\r\n");
 		//Local variables
-		ListIterator<String> varIt = script.getVariables().listIterator(script.getParameterCount());
-		String name0 = null;
-		int size = 1;
-		while (varIt.hasNext()) {
-			String name = varIt.next();
-			if ("LHVMA".equals(name)) {	//Variable array hack (CI)
-				size++;
-			} else {
-				if (name0 != null) {
-					if (size > 1) {
-						str.write("["+size+"]");
-						size = 1;
-					}
-				}
-				name0 = name;
-				str.write("\r\n\tlocal "+name);
-			}
-		}
-		if (name0 != null) {
-			if (size > 1) {
+		VariableTable vars = script.getVariables();
+		for (int i = script.getParameterCount(); i < vars.size(); i += vars.getArraySize(i)) {
+			str.write("\r\n\tlocal "+vars.get(i));
+			int size = vars.getArraySize(i);
+			if (size > 1) {	//Variable array hack (CI)
 				str.write("["+size+"]");
 			}
 		}
@@ -464,8 +440,9 @@ public class ASMWriter {
 				}
 				str.write("\t" + instr.toString(chl, script, labels));
 				boolean isConstRef = instr.opcode == OPCode.PUSH && !instr.isReference() && instr.dataType == DataType.INT;
-				if (printDataHintEnabled && isConstRef && instr.intVal > 0 && constMap.containsKey(instr.intVal)) {
-					str.write("\t//" + constMap.get(instr.intVal));
+				StringData constant = printDataHintEnabled && isConstRef && instr.intVal > 0 ? chl.data.getStringData(instr.intVal) : null;
+				if (constant != null) {
+					str.write("\t//" + constant);
 				} else if (printNativeInfoEnabled && instr.opcode == OPCode.SYS) {
 					NativeFunction f = NativeFunction.fromCode(instr.intVal);
 					str.write("\t//" + f.getInfoString());
@@ -15,12 +15,12 @@
  */
 package it.ld.bw.chl.lang;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -28,7 +28,6 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -46,6 +45,10 @@ import it.ld.bw.chl.model.OPCodeMode;
 import it.ld.bw.chl.model.ObjectCode;
 import it.ld.bw.chl.model.Script;
 import it.ld.bw.chl.model.ScriptType;
+import it.ld.bw.chl.lang.StatementPattern.Op;
+import it.ld.bw.chl.lang.StatementPattern.OpType;
+import it.ld.utils.StringIntMap;
+import it.ld.utils.ZStringPool;
 
 import static it.ld.bw.chl.lang.Utils.*;
 
@@ -58,14 +61,31 @@ public class CHLCompiler {
 	private static final Charset ASCII = Charset.forName("windows-1252");
 	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
 	
+	private static final Symbol OBJECT = Syntax.getSymbol("OBJECT");
+	private static final Symbol COORD_EXPR = Syntax.getSymbol("COORD_EXPR");
+	private static final Symbol EXPRESSION = Syntax.getSymbol("EXPRESSION");
+	/**Keywords which can follow the OBJECT a condition starts with*/
+	private static final Set<String> OBJECT_CONDITION_KEYWORDS = Set.of("active", "viewed", "can",
+			"within", "clicked", "hit", "locked", "not", "played", "music", "cast", "poisoned", "skeleton", "type",
+			"on", "in", "interacting", "is", "exists", "affected", "leashed", "fighting", "knows", "==", "!=");
+	/**Operators which can follow an EXPRESSION inside a longer EXPRESSION*/
+	private static final Set<String> EXPRESSION_OPERATORS = Set.of("*", "/", "%", "+", "-");
+	
+	@FunctionalInterface
+	private interface SubParser {
+		SymbolInstance parse() throws ParseException;
+	}
+	
 	private File file;
 	private String sourceFilename;
-	private LinkedList<SymbolInstance> symbols;
-	private ListIterator<SymbolInstance> it;
+	private SymbolBuffer symbols;
 	private int line;
 	private int col;
 	
 	private Options options = new Options();
+	private HeaderCache headerCache;
+	/**The lexer is kept for all the files, so that identifiers are interned only once*/
+	private final CHLLexer lexer = new CHLLexer();
 	
 	private PrintStream out;
 	
@@ -74,11 +94,10 @@ public class CHLCompiler {
 	private Script currentScript;
 	private List<Instruction> instructions;
 	private List<InitGlobal> initGlobals;
-	private ByteArrayOutputStream dataBuffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
-	private final LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
-	private final Map<String, Integer> constants = new HashMap<>();
+	private final ZStringPool dataBuffer = new ZStringPool(ASCII, INITIAL_BUFFER_SIZE, false);
+	private final StringIntMap constants = new StringIntMap(32 * 1024);
 	private final LinkedHashMap<String, Var> localMap = new LinkedHashMap<>();
-	private final Map<String, Integer> localConst = new HashMap<>();
+	private final StringIntMap localConst = new StringIntMap();
 	private final LinkedHashMap<String, Var> globalMap = new LinkedHashMap<>();
 	private final Map<String, Script> scriptDefinitions = new HashMap<>();
 	private final LinkedHashMap<String, ScriptToResolve> autoruns = new LinkedHashMap<>();
@@ -93,9 +112,32 @@ public class CHLCompiler {
 	
 	private boolean noYield = false;
 	private Set<String> externalVars = new LinkedHashSet<>();
+	/**Global constants defined by the last compiled file, in order of definition*/
+	private final LinkedHashMap<String, Integer> fileConstants = new LinkedHashMap<>();
+	/**Global variables declared by the last compiled file, in order of declaration*/
+	private final Set<String> fileGlobalVars = new LinkedHashSet<>();
+	/**Global constants looked up by the last compiled file, with the value they had before the file was
+	 * compiled (null if undefined). The result doesn't depend on any other global constant.*/
+	private final Map<String, Integer> usedGlobalConstants = new HashMap<>();
+	/**Global variables looked up by the last compiled file, and whether they were defined before the file
+	 * was compiled. The result doesn't depend on any other global variable.*/
+	private final Map<String, Boolean> usedGlobalVars = new HashMap<>();
 	
 	private ParseException lastParseException = null;
 	
+	/**Parsers of the statements which start with a keyword, indexed by the keyword symbol*/
+	private final Map<Symbol, SubParser> statementParsers = new HashMap<>();
+	/**Parsers of the conditions which start with a keyword, indexed by the keyword symbol*/
+	private final Map<Symbol, SubParser> conditionParsers = new HashMap<>();
+	/**Parsers of the expressions which start with a keyword, indexed by the keyword symbol*/
+	private final Map<Symbol, SubParser> expressionParsers = new HashMap<>();
+	/**Parsers of the objects which start with a keyword, indexed by the keyword symbol*/
+	private final Map<Symbol, SubParser> objectParsers = new HashMap<>();
+	/**Speculative parses that failed and have been undone*/
+	private int revertedParses;
+	/**Speculative parses that have been avoided because the next symbol cannot start them*/
+	private int skippedParses;
+	
 	private Map<String, String> properties = new HashMap<>();
 	private Set<String> sourceDirs = new HashSet<>();
 	
@@ -105,6 +147,149 @@ public class CHLCompiler {
 	
 	public CHLCompiler(PrintStream outStream) {
 		this.out = outStream;
+		initStatementParsers();
+		initConditionParsers();
+		initExpressionParsers();
+		initObjectParsers();
+	}
+	
+	private void initStatementParsers() {
+		addStatementParser(this::parseChallenge, "challenge");
+		addStatementParser(this::parseRemove, "remove");
+		addStatementParser(this::parseAdd, "add");
+		addStatementParser(this::parseMove, "move");
+		addStatementParser(this::parseSet, "set");
+		addStatementParser(this::parseDelete, "delete");
+		addStatementParser(this::parseRelease, "release");
+		addStatementParser(this::parseEnableDisable, "enable", "disable");
+		addStatementParser(this::parseOpenClose, "open", "close");
+		addStatementParser(this::parseTeach, "teach");
+		addStatementParser(this::parseForce, "force");
+		addStatementParser(this::parseInitialise, "initialise");
+		addStatementParser(this::parseClear, "clear");
+		addStatementParser(this::parseAttach, "attach");
+		addStatementParser(this::parseToggle, "toggle");
+		addStatementParser(this::parseDetach, "detach");
+		addStatementParser(this::parseSwap, "swap");
+		addStatementParser(this::parseQueue, "queue");
+		addStatementParser(this::parsePauseUnpause, "pause", "unpause");
+		addStatementParser(this::parseLoad, "load");
+		addStatementParser(this::parseSave, "save");
+		addStatementParser(this::parseStop, "stop");
+		addStatementParser(this::parseStart, "start");
+		addStatementParser(this::parseDisband, "disband");
+		addStatementParser(this::parsePopulate, "populate");
+		addStatementParser(this::parseAffect, "affect");
+		addStatementParser(this::parseSnapshot, "snapshot");
+		addStatementParser(this::parseUpdate, "update");
+		addStatementParser(this::parseBuild, "build");
+		addStatementParser(this::parseRun, "run");
+		addStatementParser(this::parseWait, "wait");
+		addStatementParser(this::parseEnterExit, "enter", "exit");
+		addStatementParser(this::parseRestart, "restart");
+		addStatementParser(this::parseState, "state");
+		addStatementParser(this::parseMake, "make");
+		addStatementParser(this::parseEject, "eject");
+		addStatementParser(this::parseSend, "send");
+		addStatementParser(this::parseSay, "say");
+		addStatementParser(this::parseDraw, "draw");
+		addStatementParser(this::parseFade, "fade");
+		addStatementParser(this::parseStore, "store");
+		addStatementParser(this::parseRestore, "restore");
+		addStatementParser(this::parseReset, "reset");
+		addStatementParser(this::parseStatementCamera, "camera");
+		addStatementParser(this::parseShake, "shake");
+		addStatementParser(this::parseFire, "fire");
+		addStatementParser(this::parseIf, "if");
+		addStatementParser(this::parseWhile, "while");
+		addStatementParser(this::parseBegin, "begin");
+	}
+	
+	private void initConditionParsers() {
+		addParser(conditionParsers, this::parseConditionKey, "key");
+		addParser(conditionParsers, this::parseConditionInside, "inside");
+		addParser(conditionParsers, this::parseConditionWithin, "within");
+		addParser(conditionParsers, this::parseConditionHand, "hand");
+		addParser(conditionParsers, this::parseConditionJc, "jc");
+		addParser(conditionParsers, this::parseConditionFire, "fire");
+		addParser(conditionParsers, this::parseConditionSpell, "spell");
+		addParser(conditionParsers, this::parseConditionCamera, "camera");
+		addParser(conditionParsers, this::parseConditionWidescreen, "widescreen");
+		addParser(conditionParsers, this::parseConditionFade, "fade");
+		addParser(conditionParsers, this::parseConditionDialogue, "dialogue");
+		addParser(conditionParsers, this::parseConditionComputer, "computer");
+		addParser(conditionParsers, this::parseConditionPlayer, "player");
+		addParser(conditionParsers, this::parseConditionCreature, "creature");
+		addParser(conditionParsers, this::parseConditionGet, "get");
+		addParser(conditionParsers, this::parseConditionRead, "read");
+		addParser(conditionParsers, this::parseConditionHelp, "help");
+		addParser(conditionParsers, this::parseConditionImmersion, "immersion");
+		addParser(conditionParsers, this::parseConditionSound, "sound");
+		addParser(conditionParsers, this::parseConditionSpecific, "specific");
+		addParser(conditionParsers, this::parseConditionMusic, "music");
+		addParser(conditionParsers, this::parseConditionIn, "in");
+		addParser(conditionParsers, this::parseConditionMouse, "mouse");
+		addParser(conditionParsers, this::parseConditionNot, "not");
+		addParser(conditionParsers, this::parseConditionSay, "say");
+		addParser(conditionParsers, this::parseConditionCan, "can");
+		addParser(conditionParsers, this::parseConditionIs, "is");
+		addParser(conditionParsers, this::parseConditionCurrent, "current");
+		addParser(conditionParsers, this::parseConditionParenthesized, "(");
+	}
+	
+	private void initExpressionParsers() {
+		addParser(expressionParsers, this::parseExpressionReference, "&");
+		addParser(expressionParsers, this::parseExpressionRemove, "remove");
+		addParser(expressionParsers, this::parseExpressionAdd, "add");
+		addParser(expressionParsers, this::parseExpressionAlignment, "alignment");
+		addParser(expressionParsers, this::parseExpressionInfluence, "raw", "influence");
+		addParser(expressionParsers, this::parseExpressionGet, "get");
+		addParser(expressionParsers, this::parseExpressionLand, "land");
+		addParser(expressionParsers, this::parseExpressionTime, "time");
+		addParser(expressionParsers, this::parseExpressionNumber, "number");
+		addParser(expressionParsers, this::parseExpressionSize, "size");
+		addParser(expressionParsers, this::parseExpressionAdult, "adult");
+		addParser(expressionParsers, this::parseExpressionCapacity, "capacity");
+		addParser(expressionParsers, this::parseExpressionPoisoned, "poisoned");
+		addParser(expressionParsers, this::parseExpressionSqrt, "sqrt");
+		addParser(expressionParsers, this::parseExpressionTan, "tan");
+		addParser(expressionParsers, this::parseExpressionSin, "sin");
+		addParser(expressionParsers, this::parseExpressionCos, "cos");
+		addParser(expressionParsers, this::parseExpressionArctan, "arctan");
+		addParser(expressionParsers, this::parseExpressionArcsin, "arcsin");
+		addParser(expressionParsers, this::parseExpressionArccos, "arccos");
+		addParser(expressionParsers, this::parseExpressionArctan2, "arctan2");
+		addParser(expressionParsers, this::parseExpressionAbs, "abs");
+		addParser(expressionParsers, this::parseExpressionMouse, "mouse");
+		addParser(expressionParsers, this::parseExpressionNegative, "-");
+		addParser(expressionParsers, this::parseExpressionVariable, "variable");
+		addParser(expressionParsers, this::parseExpressionParenthesized, "(");
+	}
+	
+	private void initObjectParsers() {
+		addParser(objectParsers, this::parseObjectGet, "get");
+		addParser(objectParsers, this::parseObjectCreate, "create");
+		addParser(objectParsers, this::parseObjectMarker, "marker");
+		addParser(objectParsers, this::parseObjectReward, "reward");
+		addParser(objectParsers, this::parseObjectFlock, "flock");
+		addParser(objectParsers, this::parseObjectMake, "make");
+		addParser(objectParsers, this::parseObjectCast, "cast");
+		addParser(objectParsers, this::parseObjectAttach, "attach");
+		addParser(objectParsers, this::parseObjectDetach, "detach");
+	}
+	
+	private void addStatementParser(SubParser parser, String... keywords) {
+		addParser(statementParsers, parser, keywords);
+	}
+	
+	private static void addParser(Map<Symbol, SubParser> parsers, SubParser parser, String... keywords) {
+		for (String keyword : keywords) {
+			Symbol symbol = Syntax.getSymbol(keyword);
+			if (symbol == null) {
+				throw new IllegalStateException("Keyword not defined in syntax: "+keyword);
+			}
+			parsers.put(symbol, parser);
+		}
 	}
 	
 	public Options getOptions() {
@@ -115,6 +300,17 @@ public class CHLCompiler {
 		this.options = options;
 	}
 	
+	public HeaderCache getHeaderCache() {
+		return headerCache;
+	}
+	
+	/**Sets the cache used to load header and info files, may be null.
+	 * @param headerCache
+	 */
+	public void setHeaderCache(HeaderCache headerCache) {
+		this.headerCache = headerCache;
+	}
+	
 	private void warning(String s) {
 		out.println(s);
 	}
@@ -133,7 +329,7 @@ public class CHLCompiler {
 	
 	private void convertToNodes(List<Token> tokens) throws ParseException {
 		TokenType prevType = TokenType.EOL;
-		symbols = new LinkedList<>();
+		List<SymbolInstance> symbols = new ArrayList<>(tokens.size() + 2);
 		for (int pos = 0; pos < tokens.size(); pos++) {
 			Token token = tokens.get(pos);
 			if (token.type.important) {
@@ -147,6 +343,7 @@ public class CHLCompiler {
 			symbols.add(new SymbolInstance(Syntax.getSymbol("EOL"), new Token(0, 0, TokenType.EOL)));
 		}
 		symbols.add(SymbolInstance.EOF);
+		this.symbols = new SymbolBuffer(symbols);
 	}
 	
 	public Map<String, Integer> getDefinedConstants() {
@@ -165,16 +362,55 @@ public class CHLCompiler {
 		this.externalVars.addAll(vars);
 	}
 	
+	/**Returns the global constants defined by the last compiled file.
+	 * @return
+	 */
+	public Map<String, Integer> getFileConstants() {
+		return fileConstants;
+	}
+	
+	/**Returns the global variables declared by the last compiled file.
+	 * @return
+	 */
+	public Set<String> getFileGlobalVars() {
+		return fileGlobalVars;
+	}
+	
+	/**Returns the global constants which have been looked up while compiling the last file, and their
+	 * values before the file was compiled. Compiling the file again would give the same result as long as
+	 * these constants have the same values.
+	 * @return
+	 */
+	public Map<String, Integer> getUsedGlobalConstants() {
+		return usedGlobalConstants;
+	}
+	
+	/**Returns the global variables which have been looked up while compiling the last file, and whether
+	 * they were defined before the file was compiled.
+	 * @return
+	 */
+	public Map<String, Boolean> getUsedGlobalVars() {
+		return usedGlobalVars;
+	}
+	
 	public void loadHeader(File headerFile) throws FileNotFoundException, IOException, ParseException {
 		info("loading "+headerFile.getName()+"...");
-		CHeaderParser parser = new CHeaderParser();
-		parser.parse(headerFile, constants);
+		if (headerCache != null) {
+			headerCache.getHeader(headerFile).apply(headerFile, constants, null);
+		} else {
+			CHeaderParser parser = new CHeaderParser();
+			parser.parse(headerFile, constants);
+		}
 	}
 	
 	public void loadInfo(File infoFile) throws FileNotFoundException, IOException, ParseException {
 		info("loading "+infoFile.getName()+"...");
-		InfoParser2 parser = new InfoParser2();
-		parser.parse(infoFile, constants);
+		if (headerCache != null) {
+			headerCache.getInfo(infoFile).apply(infoFile, constants, null);
+		} else {
+			InfoParser2 parser = new InfoParser2();
+			parser.parse(infoFile, constants);
+		}
 	}
 	
 	public ObjectCode compile(File file) throws IOException, ParseException {
@@ -185,7 +421,6 @@ public class CHLCompiler {
 		chl.taskVars.minItems = 0;	//Avoid wasting space
 		currentScript = null;
 		instructions = chl.code.getItems();
-		strings.clear();
 		dataBuffer.reset();
 		initGlobals = chl.initGlobals.getItems();
 		initGlobals.add(new InitGlobal("Null variable", 0));
@@ -202,7 +437,12 @@ public class CHLCompiler {
 		inDialogueBlock = false;
 		dontRequireEol = false;
 		implicitVarDecl = false;
+		noYield = false;
 		lastParseException = null;
+		fileConstants.clear();
+		fileGlobalVars.clear();
+		usedGlobalConstants.clear();
+		usedGlobalVars.clear();
 		properties = new HashMap<>();
 		sourceDirs = new HashSet<>();
 		//
@@ -254,10 +494,13 @@ public class CHLCompiler {
 			this.file = file;
 			sourceFilename = file.getName();
 			info("compiling "+sourceFilename+"...");
-			CHLLexer lexer = new CHLLexer();
 			lexer.setExtendedSyntaxEnabled(options.extendedSyntax);
+			lexer.setImportantTokensOnly(true);
 			List<Token> tokens = lexer.tokenize(file);
+			revertedParses = 0;
+			skippedParses = 0;
 			parse(tokens);
+			info(revertedParses+" speculative parses reverted, "+skippedParses+" skipped by look-ahead");
 			if (options.debug) {
 				String dir = file.getAbsoluteFile().getParentFile().getAbsolutePath();
 				sourceDirs.add(dir);
@@ -277,13 +520,13 @@ public class CHLCompiler {
 		line = 0;
 		col = 0;
 		//
-		it = symbols.listIterator();
+		symbols.reset(0);
 		parseFile();
 	}
 	
 	private SymbolInstance parseFile() throws ParseException {
-		final int start = it.nextIndex();
-		while (it.hasNext()) {
+		final int start = symbols.position();
+		while (symbols.hasNext()) {
 			SymbolInstance symbol = peek();
 			if (symbol.is("challenge")) {
 				parseChallenge();
@@ -315,7 +558,7 @@ public class CHLCompiler {
 	 * @throws ParseException
 	 */
 	private SymbolInstance parseSource() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("source");
 		SymbolInstance symbol = accept(TokenType.STRING);
 		sourceFilename = symbol.token.stringVal();
@@ -325,7 +568,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseFileAnnotation() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		String text = accept(TokenType.ANNOTATION).toString().trim().substring(3);	//Get rid of //@
 		String[] tokens = text.split(" ");
 		String cls = tokens[0];
@@ -334,6 +577,7 @@ public class CHLCompiler {
 				throw new ParseError("@extern expects 1 parameter", file, line, col);
 			}
 			externalVars.add(tokens[1]);
+			fileGlobalVars.add(tokens[1]);
 		} else {
 			throw new ParseError("Unknown annotation: "+cls, file, line, col);
 		}
@@ -341,7 +585,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseChallenge() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = parse("challenge IDENTIFIER EOL")[1];
 		challengeName = symbol.token.value;
 		challengeId = getConstant("CHALLENGE_" + challengeName);
@@ -368,13 +612,14 @@ public class CHLCompiler {
 			var = new Var(null, name, varId, size, val);
 			globalMap.put(name, var);
 			externalVars.add(name);
+			fileGlobalVars.add(name);
 		} else {
 			throw new ParseError("Redeclaration of global var "+name, file, line, col);
 		}
 	}
 	
 	private SymbolInstance parseGlobal() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("global");
 		SymbolInstance symbol = peek();
 		if (symbol.is("constant")) {
@@ -390,6 +635,8 @@ public class CHLCompiler {
 			}
 			accept(TokenType.EOL);
 			Integer oldVal = constants.put(name, val);
+			useGlobalConstant(name, oldVal);
+			fileConstants.put(name, val);
 			if (oldVal != null && oldVal != val) {
 				warning("WARNING: redefinition of global constant: "+name+" at "+file+":"+symbol.token.line);
 			}
@@ -438,7 +685,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseDefine() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//define SCRIPT_TYPE IDENTIFIER[([ARGS])] EOL
 		accept("define");
 		localMap.clear();
@@ -457,7 +704,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseAutorun() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//run script IDENTIFIER
 		SymbolInstance symbol = parse("run script IDENTIFIER EOL")[2];
 		String name = symbol.token.value;
@@ -469,7 +716,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseScript() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		localMap.clear();
 		localConst.clear();
 		try {
@@ -559,7 +806,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseScriptType() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = next();
 		if (symbol.is("help")) {
 			accept("script");
@@ -591,7 +838,7 @@ public class CHLCompiler {
 	}
 	
 	private int parseArguments(boolean addToLocalVars) throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		int argc = 0;
 		accept("(");
 		SymbolInstance symbol = peek();
@@ -624,7 +871,7 @@ public class CHLCompiler {
 	}
 	
 	private int parseParameters() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		int argc = 0;
 		accept("(");
 		SymbolInstance symbol = peek();
@@ -659,7 +906,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseLocals() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = peek();
 		while (symbol.is(TokenType.IDENTIFIER) || symbol.is("constant")) {
 			parseLocal();
@@ -686,12 +933,7 @@ public class CHLCompiler {
 		} else if (globalMap.containsKey(name)) {
 			throw new ParseException("A global variable with the same name exists: "+name, file, line, col);
 		}
-		List<String> scriptVars = currentScript.getVariables();
-		scriptVars.add(name);
-		int id = currentScript.getGlobalCount() + scriptVars.size();
-		for (int i = 1; i < size; i++) {
-			scriptVars.add("LHVMA");
-		}
+		int id = currentScript.getGlobalCount() + 1 + currentScript.getVariables().add(name, size);
 		if (ref) {
 			currentScript.setReference(name);
 		}
@@ -701,7 +943,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseLocal() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = next();
 		if (symbol.is(TokenType.IDENTIFIER)) {
 			String name = symbol.token.value;
@@ -742,7 +984,7 @@ public class CHLCompiler {
 			symbol = next();
 			if (symbol.is(TokenType.NUMBER) || symbol.is(TokenType.IDENTIFIER)) {
 				int val = getConstant(symbol);
-				localConst.put(constant, val);
+				localConst.putInt(constant, val);
 			} else {
 				throw new ParseException("Unexpected token: "+symbol+". Expected: CONSTANT", lastParseException, file, symbol.token.line, symbol.token.col);
 			}
@@ -754,7 +996,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseStatements() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = parseStatement();
 		while (symbol != null) {
 			symbol = parseStatement();
@@ -774,105 +1016,13 @@ public class CHLCompiler {
 			}
 		}
 		//
-		if (symbol.is("challenge")) {
-			return parseChallenge();
-		} else if (symbol.is("remove")) {
-			return parseRemove();
-		} else if (symbol.is("add")) {
-			return parseAdd();
-		} else if (symbol.is("move")) {
-			return parseMove();
-		} else if (symbol.is("set")) {
-			return parseSet();
-		} else if (symbol.is("delete")) {
-			return parseDelete();
-		} else if (symbol.is("release")) {
-			return parseRelease();
-		} else if (symbol.is("enable") || symbol.is("disable")) {
-			return parseEnableDisable();
-		} else if (symbol.is("open") || symbol.is("close")) {
-			return parseOpenClose();
-		} else if (symbol.is("teach")) {
-			return parseTeach();
-		} else if (symbol.is("force")) {
-			return parseForce();
-		} else if (symbol.is("initialise")) {
-			return parseInitialise();
-		} else if (symbol.is("clear")) {
-			return parseClear();
-		} else if (symbol.is("attach")) {
-			return parseAttach();
-		} else if (symbol.is("toggle")) {
-			return parseToggle();
-		} else if (symbol.is("detach")) {
-			return parseDetach();
-		} else if (symbol.is("swap")) {
-			return parseSwap();
-		} else if (symbol.is("queue")) {
-			return parseQueue();
-		} else if (symbol.is("pause") || symbol.is("unpause")) {
-			return parsePauseUnpause();
-		} else if (symbol.is("load")) {
-			return parseLoad();
-		} else if (symbol.is("save")) {
-			return parseSave();
-		} else if (symbol.is("stop")) {
-			return parseStop();
-		} else if (symbol.is("start")) {
-			return parseStart();
-		} else if (symbol.is("disband")) {
-			return parseDisband();
-		} else if (symbol.is("populate")) {
-			return parsePopulate();
-		} else if (symbol.is("affect")) {
-			return parseAffect();
-		} else if (symbol.is("snapshot")) {
-			return parseSnapshot();
-		} else if (symbol.is("update")) {
-			return parseUpdate();
-		} else if (symbol.is("build")) {
-			return parseBuild();
-		} else if (symbol.is("run")) {
-			return parseRun();
-		} else if (symbol.is("wait")) {
-			return parseWait();
-		} else if (symbol.is("enter") || symbol.is("exit")) {
-			return parseEnterExit();
-		} else if (symbol.is("restart")) {
-			return parseRestart();
-		} else if (symbol.is("state")) {
-			return parseState();
-		} else if (symbol.is("make")) {
-			return parseMake();
-		} else if (symbol.is("eject")) {
-			return parseEject();
-		} else if (symbol.is("send")) {
-			return parseSend();
-		} else if (symbol.is("say")) {
-			return parseSay();
-		} else if (symbol.is("draw")) {
-			return parseDraw();
-		} else if (symbol.is("fade")) {
-			return parseFade();
-		} else if (symbol.is("store")) {
-			return parseStore();
-		} else if (symbol.is("restore")) {
-			return parseRestore();
-		} else if (symbol.is("reset")) {
-			return parseReset();
-		} else if (symbol.is("camera")) {
-			return parseStatementCamera();
-		} else if (symbol.is("shake")) {
-			return parseShake();
-		} else if (symbol.is("fire")) {
-			return parseFire();
-		} else if (symbol.is("if")) {
-			return parseIf();
-		} else if (symbol.is("while")) {
-			return parseWhile();
-		} else if (symbol.is("begin")) {
-			return parseBegin();
-		} else if (symbol.is(TokenType.IDENTIFIER)) {
+		if (symbol.is(TokenType.KEYWORD)) {
+			SubParser parser = statementParsers.get(symbol.symbol);
+			if (parser != null) {
+				return parser.parse();
+			}
+		}
+		if (symbol.is(TokenType.IDENTIFIER)) {
 			if (checkAhead("ANY play") || checkAhead("ANY [ ANY ] play")) {
 				return parseObjectPlay();
 			} else {
@@ -892,7 +1042,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseFor() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		List<Instruction> iterStatement = new LinkedList<>();
 		//for STATEMENT ; CONDITION ; STATEMENT
 		dontRequireEol = true;
@@ -922,7 +1072,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseReturn() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("return");
 		pushvVal("_retval");
 		pushf(0);
@@ -945,7 +1095,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseObjectPlay() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//OBJECT play CONST_EXPR [loop EXPRESSION]
 		parse("VARIABLE play CONST_EXPR [loop EXPRESSION] EOL", 1);
 		sys(THING_PLAY_ANIM);
@@ -953,7 +1103,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseRemove() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//remove resource CONST_EXPR EXPRESSION from OBJECT
 		parse("remove resource CONST_EXPR EXPRESSION from OBJECT EOL");
 		sys(REMOVE_RESOURCE);
@@ -962,7 +1112,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseAdd() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("add");
 		SymbolInstance symbol = peek();
 		if (symbol.is("for")) {
@@ -996,7 +1146,7 @@ public class CHLCompiler {
 	}
 
 	private SymbolInstance parseMove() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("move");
 		SymbolInstance symbol = peek();
 		if (symbol.is("computer")) {
@@ -1088,7 +1238,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseSet() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("set");
 		SymbolInstance symbol = peek();
 		if (symbol.is("player")) {
@@ -1631,7 +1781,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseDelete() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("delete");
 		SymbolInstance symbol = peek(false);
 		if (symbol.is("all")) {
@@ -1682,7 +1832,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseRelease() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("release");
 		SymbolInstance symbol = peek();
 		if (symbol.is("computer")) {
@@ -1708,7 +1858,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseEnableDisable() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		if (checkAhead("ANY countdown")) {
 			SymbolInstance action = next();
 			accept("countdown");
@@ -2110,7 +2260,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseOpenClose() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		if (checkAhead("close dialogue")) {
 			parse("close dialogue EOL");
 			//close dialogue
@@ -2125,7 +2275,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseTeach() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("teach OBJECT");
 		SymbolInstance symbol = peek();
 		if (symbol.is("all")) {
@@ -2156,7 +2306,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseForce() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("force");
 		SymbolInstance symbol = peek();
 		if (symbol.is("action")) {
@@ -2194,7 +2344,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseInitialise() throws ParseException {
-		//final int start = it.nextIndex();
+		//final int start = symbols.position();
 		parse("initialise number of constant for OBJECT EOL");
 		//initialise number of constant for OBJECT
 		throw new ParseException("Statement not implemented", file, line, col);
@@ -2202,7 +2352,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseClear() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("clear");
 		SymbolInstance symbol = peek();
 		if (symbol.is("dropped")) {
@@ -2276,7 +2426,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseAttach() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("attach");
 		SymbolInstance symbol = peek();
 		if (symbol.is("reaction")) {
@@ -2340,7 +2490,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseToggle() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("toggle player EXPRESSION leash EOL");
 		//toggle player EXPRESSION leash
 		sys(TOGGLE_LEASH);
@@ -2348,7 +2498,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseDetach() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("detach");
 		SymbolInstance symbol = peek();
 		if (symbol.is("player")) {
@@ -2420,7 +2570,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseSwap() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("swap creature from OBJECT to OBJECT EOL");
 		//swap creature from OBJECT to OBJECT
 		sys(SWAP_CREATURE);
@@ -2428,7 +2578,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseQueue() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("queue");
 		SymbolInstance symbol = peek();
 		if (symbol.is("computer")) {
@@ -2468,7 +2618,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parsePauseUnpause() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("pause|unpause computer player EXPRESSION EOL");
 		//pause|unpause computer player EXPRESSION
 		sys(ENABLE_DISABLE_COMPUTER_PLAYER2);
@@ -2476,7 +2626,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseLoad() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("load");
 		SymbolInstance symbol = peek();
 		if (symbol.is("computer")) {
@@ -2505,7 +2655,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseSave() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("save");
 		SymbolInstance symbol = peek();
 		if (symbol.is("computer")) {
@@ -2524,7 +2674,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseStop() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("stop");
 		SymbolInstance symbol = peek();
 		if (symbol.is("all")) {
@@ -2623,7 +2773,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseStart() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("start");
 		SymbolInstance symbol = peek();
 		if (symbol.is("say")) {
@@ -2692,7 +2842,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseDisband() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("disband OBJECT EOL");
 		//disband OBJECT
 		sys(FLOCK_DISBAND);
@@ -2700,7 +2850,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parsePopulate() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("populate OBJECT with EXPRESSION CONST_EXPR");
 		SymbolInstance symbol = peek(false);
 		if (symbol.is(TokenType.EOL)) {
@@ -2715,7 +2865,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseAffect() throws ParseException {
-		//final int start = it.nextIndex();
+		//final int start = symbols.position();
 		parse("affect alignment by EXPRESSION EOL");
 		//affect alignment by EXPRESSION
 		throw new ParseException("Statement not implemented", file, line, col);
@@ -2723,7 +2873,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseSnapshot() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//snapshot CONST_EXPR quest|challenge [success EXPRESSION] [alignment EXPRESSION] CONST_EXPR SCRIPT[(PARAMETERS)]
 		parse("snapshot CONST_EXPR quest|challenge");
 		sys(GET_CAMERA_POSITION);
@@ -2745,7 +2895,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseUpdate() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("update snapshot");
 		SymbolInstance symbol = peek();
 		if (symbol.is("details")) {
@@ -2777,7 +2927,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseBuild() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("build building at COORD_EXPR desire EXPRESSION EOL");
 		//build building at COORD_EXPR desire EXPRESSION
 		sys(BUILD_BUILDING);
@@ -2785,7 +2935,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseRun() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("run");
 		SymbolInstance symbol = peek();
 		if (symbol.is("script")) {
@@ -2826,7 +2976,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseWait() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//wait until CONDITION
 		int lblWait = getIp();
 		accept("wait");
@@ -2841,7 +2991,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseEnterExit() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("enter|exit temple EOL");
 		//enter|exit temple
 		sys(ENTER_EXIT_CITADEL);
@@ -2849,7 +2999,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseRestart() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("restart");
 		SymbolInstance symbol = peek();
 		if (symbol.is("music")) {
@@ -2866,7 +3016,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseState() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("state VARIABLE CONST_EXPR");
 		SymbolInstance symbol = peek(false);
 		if (symbol.is(TokenType.EOL)) {
@@ -2882,7 +3032,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseMake() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("make");
 		if (checkAhead("ANY spirit")) {
 			parse("SPIRIT_TYPE spirit");
@@ -2970,7 +3120,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseEject() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("eject SPIRIT_TYPE spirit EOL");
 		//eject SPIRIT_TYPE spirit
 		sys(SPIRIT_EJECT);
@@ -2978,7 +3128,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseSend() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("send SPIRIT_TYPE spirit home EOL");
 		//send SPIRIT_TYPE spirit home
 		sys(SPIRIT_HOME);
@@ -2986,7 +3136,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseSay() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("say");
 		SymbolInstance symbol = peek();
 		if (symbol.is("sound")) {
@@ -3070,7 +3220,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseDraw() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("draw");
 		SymbolInstance symbol = peek();
 		if (symbol.is("text")) {
@@ -3096,7 +3246,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseFade() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("fade");
 		SymbolInstance symbol = peek();
 		if (symbol.is("all")) {
@@ -3115,7 +3265,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseStore() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("store camera details EOL");
 		//store camera details
 		sys(STORE_CAMERA_DETAILS);
@@ -3123,7 +3273,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseRestore() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("restore camera details EOL");
 		//restore camera details
 		sys(RESTORE_CAMERA_DETAILS);
@@ -3131,7 +3281,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseReset() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("reset camera lens EOL");
 		//reset camera lens
 		pushf(0);
@@ -3140,7 +3290,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseStatementCamera() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("camera");
 		SymbolInstance symbol = peek();
 		if (symbol.is("follow")) {
@@ -3162,7 +3312,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseShake() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("shake camera at COORD_EXPR radius EXPRESSION amplitude EXPRESSION time EXPRESSION EOL");
 		//shake camera at COORD_EXPR radius EXPRESSION amplitude EXPRESSION time EXPRESSION
 		sys(SHAKE_CAMERA);
@@ -3170,7 +3320,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseFire() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		parse("fire gun OBJECT EOL");
 		//fire gun OBJECT
 		sys(FIRE_GUN);
@@ -3178,7 +3328,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseAssignment() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		if (peek(1).is("of")) {
 			parse("CONSTANT of VARIABLE");
 			dup(1);
@@ -3314,7 +3464,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseIf() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//IF_ELSIF_ELSE
 		parse("if CONDITION EOL");
 		Instruction jz_lblNextCond = jz();
@@ -3349,7 +3499,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseWhile() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		final boolean noYield = this.noYield;
 		//WHILE
 		Instruction except_lblExceptionHandler = except();
@@ -3378,7 +3528,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseBegin() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		accept("begin");
 		SymbolInstance symbol = peek();
 		if (symbol.is("loop")) {
@@ -3550,7 +3700,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseExceptions() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		List<Instruction> jmps_EndExcept = new LinkedList<>();
 		SymbolInstance symbol = peek();
 		while (symbol.is("when") || symbol.is("until")) {
@@ -3567,7 +3717,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseException(List<Instruction> jmps_EndExcept) throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = peek();
 		if (symbol.is("when")) {
 			//when CONDITION
@@ -3603,7 +3753,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseExpression(boolean fail) throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = peek();
 		SymbolInstance newSym = parseExpression1();
 		while (newSym != null && newSym != symbol) {
@@ -3628,7 +3778,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseExpression1() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		//final int startIp = getIp();
 		try {
 			SymbolInstance symbol = peek();
@@ -3691,457 +3841,11 @@ public class CHLCompiler {
 					seek(start);
 					return peek();
 				}
-			} else if (symbol.is("&")) {
-				//& VARIABLE
-				accept("&");
-				symbol = accept(TokenType.IDENTIFIER);
-				String name = symbol.token.value;
-				SymbolInstance sInst = peek();
-				if (sInst.is("[")) {
-					accept("[");
-					if (checkAhead("NUMBER ]")) {
-						//IDENTIFIER\[NUMBER\]
-						sInst = next();
-						accept("]");
-						int index = sInst.token.intVal();
-						pushvAddr(name, index);
-						ref_push();
-					} else {
-						//IDENTIFIER\[EXPRESSION\]
-						parseExpression(true);
-						accept("]");
-						pushvAddr(name, 0);
-						ref_add_pushv2();
-					}
-				} else {
-					pushvAddr(name);
-					ref_push();
-				}
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("remove")) {
-				parse("remove resource CONST_EXPR EXPRESSION from OBJECT");
-				//remove resource CONST_EXPR EXPRESSION from OBJECT
-				sys(REMOVE_RESOURCE);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("add")) {
-				parse("add resource CONST_EXPR EXPRESSION to OBJECT");
-				//add resource CONST_EXPR EXPRESSION to OBJECT
-				sys(ADD_RESOURCE);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("alignment")) {
-				parse("alignment of player");
-				//alignment of player
-				pushi(0);
-				sys2(GET_ALIGNMENT);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("raw") || symbol.is("influence")) {
-				//[raw] influence at COORD_EXPR
-				pushf(1);	//fixed player
-				parse("[raw] influence at COORD_EXPR");
-				sys(GET_INFLUENCE);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("get")) {
-				accept("get");
-				symbol = peek();
-				if (symbol.is("player")) {
-					parse("player EXPRESSION");
-					symbol = peek();
-					if (symbol.is("raw") || symbol.is("influence")) {
-						parse("[raw] influence at COORD_EXPR");
-						//get player EXPRESSION [raw] influence at COORD_EXPR
-						sys(GET_INFLUENCE);
-						return replace(start, "EXPRESSION");
-					} else if (symbol.is("town")) {
-						parse("town total");
-						//get player EXPRESSION town total
-						sys(GET_PLAYER_TOWN_TOTAL);
-						return replace(start, "EXPRESSION");
-					} else if (symbol.is("time")) {
-						parse("time since last spell cast");
-						//get player EXPRESSION time since last spell cast
-						sys(PLAYER_SPELL_CAST_TIME);
-						return replace(start, "EXPRESSION");
-					} else if (symbol.is("ally")) {
-						parse("ally percentage with player EXPRESSION");
-						//get player EXPRESSION ally percentage with player EXPRESSION
-						sys(GET_PLAYER_ALLY);
-						return replace(start, "EXPRESSION");
-					}
-				} else if (symbol.is("time")) {
-					parse("time since");
-					symbol = peek();
-					if (symbol.is("player")) {
-						parse("player EXPRESSION attacked OBJECT");
-						//get time since player EXPRESSION attacked OBJECT
-						sys(GET_TIME_SINCE_OBJECT_ATTACKED);
-						return replace(start, "EXPRESSION");
-					} else {
-						parse("CONSTANT event");
-						//get time since HELP_EVENT_TYPE event
-						sys(GET_TIME_SINCE);
-						return replace(start, "EXPRESSION");
-					}
-				} else if (symbol.is("resource")) {
-					parse("resource CONST_EXPR in OBJECT");
-					//get resource CONST_EXPR in OBJECT
-					sys(GET_RESOURCE);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("number")) {
-					parse("number of CONST_EXPR for OBJECT");
-					//get number of CONST_EXPR for OBJECT
-					throw new ParseException("Statement not implemented", file, line, col);
-					//return replace(start, "EXPRESSION");
-				} else if (symbol.is("inclusion")) {
-					parse("inclusion distance");
-					//get inclusion distance
-					sys(GET_INCLUSION_DISTANCE);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("slowest")) {
-					parse("slowest speed in OBJECT");
-					//get slowest speed in OBJECT
-					sys(GET_SLOWEST_SPEED);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("distance")) {
-					parse("distance from COORD_EXPR to COORD_EXPR");
-					//get distance from COORD_EXPR to COORD_EXPR
-					sys(GET_DISTANCE);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("mana")) {
-					parse("mana for spell CONST_EXPR");
-					//get mana for spell CONST_EXPR
-					sys(GET_MANA_FOR_SPELL);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("building")) {
-					parse("building and villager health total in OBJECT");
-					//get building and villager health total in OBJECT
-					sys(GET_TOWN_AND_VILLAGER_HEALTH_TOTAL);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("size")) {
-					parse("size of OBJECT PLAYING_SIDE team");
-					//get size of OBJECT PLAYING_SIDE team
-					throw new ParseException("Statement not implemented", file, line, col);
-					//return replace(start, "EXPRESSION");
-				} else if (symbol.is("worship")) {
-					parse("worship deaths in OBJECT");
-					//get worship deaths in OBJECT
-					sys(GET_TOWN_WORSHIP_DEATHS);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("computer")) {
-					parse("computer player EXPRESSION attitude to player EXPRESSION");
-					//get computer player EXPRESSION attitude to player EXPRESSION
-					sys(GET_COMPUTER_PLAYER_ATTITUDE);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("moon")) {
-					parse("moon percentage");
-					//get moon percentage
-					sys(GET_MOON_PERCENTAGE);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("game")) {
-					parse("game time");
-					//get game time
-					sys(GET_GAME_TIME);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("real")) {
-					accept("real");
-					symbol = peek();
-					if (symbol.is("time")) {
-						accept("time");
-						//get real time
-						sys(GET_REAL_TIME);
-						return replace(start, "EXPRESSION");
-					} else if (symbol.is("day")) {
-						accept("day");
-						//get real day
-						throw new ParseException("Statement not implemented", file, line, col);
-						//return replace(start, "EXPRESSION");
-					} else if (symbol.is("weekday")) {
-						accept("weekday");
-						//get real weekday
-						throw new ParseException("Statement not implemented", file, line, col);
-						//return replace(start, "EXPRESSION");
-					} else if (symbol.is("month")) {
-						accept("month");
-						//get real month
-						sys(GET_REAL_MONTH);
-						return replace(start, "EXPRESSION");
-					} else if (symbol.is("year")) {
-						accept("year");
-						//get real year
-						sys(GET_REAL_YEAR);
-						return replace(start, "EXPRESSION");
-					}
-				} else if (symbol.is("countdown")) {
-					parse("countdown timer time");
-					//get countdown timer time
-					sys(GET_COUNTDOWN_TIMER_TIME);
-					return replace(start, "EXPRESSION");
-				} else if (checkAhead("CONSTANT of")) {
-					//[get] CONSTANT of OBJECT
-					parse("CONSTANT of OBJECT");
-					sys(GET_PROPERTY);
-					return replace(start, "EXPRESSION");
-				} else {
-					final int checkpoint = it.nextIndex();
-					final int checkpointIp = getIp();
-					SymbolInstance checkpointPreserve = peek();
-					symbol = parseObject(false);
-					if (symbol != null) {
-						symbol = peek();
-						if (symbol.is("music")) {
-							parse("music distance");
-							//get OBJECT music distance
-							sys(GET_MUSIC_OBJ_DISTANCE);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("interaction")) {
-							parse("interaction magnitude");
-							//get OBJECT interaction magnitude
-							sys(GET_INTERACTION_MAGNITUDE);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("time")) {
-							accept("time");
-							symbol = peek();
-							if (symbol.is("remaining")) {
-								accept("remaining");
-								//get OBJECT time remaining
-								sys(GET_TIMER_TIME_REMAINING);
-								return replace(start, "EXPRESSION");
-							} else if (symbol.is("since")) {
-								parse("since set");
-								//get OBJECT time since set
-								sys(GET_TIMER_TIME_SINCE_SET);
-								return replace(start, "EXPRESSION");
-							}
-						} else if (symbol.is("fight")) {
-							parse("fight queue hits");
-							//get OBJECT fight queue hits
-							sys(CREATURE_FIGHT_QUEUE_HITS);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("walk")) {
-							parse("walk path percentage");
-							//get OBJECT walk path percentage
-							sys(GET_WALK_PATH_PERCENTAGE);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("mana")) {
-							parse("mana total");
-							//get OBJECT mana total
-							sys(GET_MANA);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("played")) {
-							parse("played percentage");
-							//get OBJECT played percentage
-							sys(PLAYED_PERCENTAGE);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("belief")) {
-							parse("belief for player EXPRESSION");
-							//get OBJECT belief for player EXPRESSION
-							sys(BELIEF_FOR_PLAYER);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("help")) {
-							accept("help");
-							//get OBJECT help
-							sys(GET_HELP);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("first")) {
-							parse("first help");
-							//get OBJECT first help
-							sys(GET_FIRST_HELP);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("last")) {
-							parse("last help");
-							//get OBJECT last help
-							sys(GET_LAST_HELP);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("fade")) {
-							accept("fade");
-							//get OBJECT fade
-							sys(GET_OBJECT_FADE);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("info")) {
-							parse("info bits");
-							//get OBJECT info bits
-							sys(OBJECT_INFO_BITS);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("desire")) {
-							parse("desire CONST_EXPR");
-							//get OBJECT desire CONST_EXPR
-							throw new ParseException("Statement not implemented", file, line, col);
-							//return replace(start, "EXPRESSION");
-						} else if (symbol.is("sacrifice")) {
-							parse("sacrifice total");
-							//get OBJECT sacrifice total
-							sys(GET_SACRIFICE_TOTAL);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("spell")) {
-							parse("spell CONST_EXPR skill");
-							//get OBJECT spell MAGIC_TYPE skill
-							sys(GET_CREATURE_SPELL_SKILL);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("score")) {
-							accept("score");
-							//get OBJECT score
-							sys(GET_OBJECT_SCORE);
-							return replace(start, "EXPRESSION");
-						}
-						revert(checkpoint, checkpointIp, checkpointPreserve);
-					}
-					symbol = parseConstExpr(false);
-					if (symbol != null) {
-						symbol = peek();
-						if (symbol.is("music")) {
-							parse("music distance");
-							//get CONST_EXPR music distance
-							sys(GET_MUSIC_ENUM_DISTANCE);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("events")) {
-							parse("events per second");
-							//get HELP_EVENT_TYPE events per second
-							sys(GET_EVENTS_PER_SECOND);
-							return replace(start, "EXPRESSION");
-						} else if (symbol.is("total")) {
-							parse("total event|events");
-							//get HELP_EVENT_TYPE total event|events
-							sys(GET_TOTAL_EVENTS);
-							return replace(start, "EXPRESSION");
-						}
-						revert(checkpoint, checkpointIp, checkpointPreserve);
-					}
-				}
-			} else if (symbol.is("land")) {
-				parse("land height at COORD_EXPR");
-				//land height at COORD_EXPR
-				sys(GET_LAND_HEIGHT);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("time")) {
-				accept("time");
-				//time
-				sys(DLL_GETTIME);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("number")) {
-				accept("number");
-				symbol = peek();
-				if (symbol.is("from")) {
-					parse("from EXPRESSION to EXPRESSION");
-					//number from EXPRESSION to EXPRESSION
-					sys(RANDOM);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("of")) {
-					accept("of");
-					symbol = peek();
-					if (symbol.is("mouse")) {
-						parse("mouse buttons");
-						//number of mouse buttons
-						sys(NUM_MOUSE_BUTTONS);
-						return replace(start, "EXPRESSION");
-					} else if (symbol.is("times")) {
-						parse("times action CONST_EXPR by OBJECT");
-						//number of times action CONST_EXPR by OBJECT
-						sys(GET_ACTION_COUNT);
-						return replace(start, "EXPRESSION");
-					}
-				}
-			} else if (symbol.is("size")) {
-				parse("size of OBJECT");
-				//size of OBJECT
-				sys(ID_SIZE);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("adult")) {
-				accept("adult");
-				symbol = peek();
-				if (symbol.is("size")) {
-					parse("size of OBJECT");
-					//adult size of OBJECT
-					sys(ID_ADULT_SIZE);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("capacity")) {
-					parse("capacity of OBJECT");
-					//adult capacity of OBJECT
-					sys(OBJECT_ADULT_CAPACITY);
-					return replace(start, "EXPRESSION");
-				}
-			} else if (symbol.is("capacity")) {
-				parse("capacity of OBJECT");
-				//capacity of OBJECT
-				sys(OBJECT_CAPACITY);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("poisoned")) {
-				parse("poisoned size of OBJECT");
-				//poisoned size of OBJECT
-				sys(ID_POISONED_SIZE);
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("sqrt")) {
-				//sqrt EXPRESSION
-				parse("sqrt EXPRESSION");
-				sqrt();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("tan")) {
-				//tan EXPRESSION
-				parse("tan EXPRESSION");
-				tan();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("sin")) {
-				//sin EXPRESSION
-				parse("sin EXPRESSION");
-				sin();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("cos")) {
-				//cos EXPRESSION
-				parse("cos EXPRESSION");
-				cos();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("arctan")) {
-				//arctan EXPRESSION
-				parse("arctan EXPRESSION");
-				atan();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("arcsin")) {
-				//arcsin EXPRESSION
-				parse("arcsin EXPRESSION");
-				asin();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("arccos")) {
-				//arccos EXPRESSION
-				parse("arccos EXPRESSION");
-				acos();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("arctan2")) {
-				//arctan2 EXPRESSION over EXPRESSION
-				parse("arctan2 EXPRESSION over EXPRESSION");
-				atan2();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("abs")) {
-				//abs EXPRESSION
-				parse("abs EXPRESSION");
-				abs();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("mouse")) {
-				parse("mouse percentage");
-				symbol = peek();
-				if (symbol.is("across")) {
-					accept("across");
-					//mouse percentage across
-					sys(GET_MOUSE_ACROSS);
-					return replace(start, "EXPRESSION");
-				} else if (symbol.is("down")) {
-					accept("down");
-					//mouse percentage down
-					sys(GET_MOUSE_DOWN);
-					return replace(start, "EXPRESSION");
+			} else if (symbol.is(TokenType.KEYWORD) && expressionParsers.containsKey(symbol.symbol)) {
+				symbol = expressionParsers.get(symbol.symbol).parse();
+				if (symbol != null) {
+					return symbol;
 				}
-			} else if (symbol.is("-")) {
-				//-EXPRESSION
-				accept("-");
-				parseExpression1();	//<- important for precedence
-				neg();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("variable")) {
-				parse("variable CONST_EXPR");
-				//variable CONST_EXPR
-				castf();
-				return replace(start, "EXPRESSION");
-			} else if (symbol.is("(")) {
-				parse("( EXPRESSION )");
-				//(EXPRESSION)
-				return replace(start, "EXPRESSION");
 			} else if (symbol.is(TokenType.NUMBER)) {
 				symbol = accept(TokenType.NUMBER);
 				float val = symbol.token.floatVal();
@@ -4194,335 +3898,614 @@ public class CHLCompiler {
 		return null;
 	}
 	
-	private SymbolInstance parseCondition(boolean fail) throws ParseException {
-		final int start = it.nextIndex();
-		SymbolInstance symbol = peek();
-		SymbolInstance newSym = parseCondition1();
-		while (newSym != null && newSym != symbol) {
-			symbol = newSym;
-			prev();
-			newSym = parseCondition1();
-		}
-		seek(start);
-		symbol = peek();
-		if ("CONDITION".equals(symbol.symbol.keyword)) {
-			next();
-			return symbol;
-		}
-		if (fail) {
-			if (lastParseException != null) throw lastParseException;
-			symbol = peek();
-			throw new ParseException("Expected: CONDITION", lastParseException, file, symbol.token.line, symbol.token.col);
+	private SymbolInstance parseExpressionReference() throws ParseException {
+		final int start = symbols.position();
+		//& VARIABLE
+		accept("&");
+		SymbolInstance symbol = accept(TokenType.IDENTIFIER);
+		String name = symbol.token.value;
+		SymbolInstance sInst = peek();
+		if (sInst.is("[")) {
+			accept("[");
+			if (checkAhead("NUMBER ]")) {
+				//IDENTIFIER\[NUMBER\]
+				sInst = next();
+				accept("]");
+				int index = sInst.token.intVal();
+				pushvAddr(name, index);
+				ref_push();
+			} else {
+				//IDENTIFIER\[EXPRESSION\]
+				parseExpression(true);
+				accept("]");
+				pushvAddr(name, 0);
+				ref_add_pushv2();
+			}
 		} else {
-			seek(start);
-			return null;
+			pushvAddr(name);
+			ref_push();
 		}
+		return replace(start, "EXPRESSION");
 	}
 	
-	private SymbolInstance parseCondition1() throws ParseException {
-		final int start = it.nextIndex();
-		final int startIp = getIp();
-		final SymbolInstance startPreserve = peek();
-		try {
-			SymbolInstance symbol = peek();
-			if ("CONDITION".equals(symbol.symbol.keyword)) {
-				next();
-				symbol = next();
-				if (symbol.is("and")) {
-					symbol = parseCondition1();
-					if (symbol == null) {
-						symbol = peek();
-						throw new ParseException("Expected: CONDITION", lastParseException, file, line, col);
-					}
-					//CONDITION and CONDITION
-					and();
-					return replace(start, "CONDITION");
-				} else if (symbol.is("or")) {
-					//CONDITION or CONDITION
-					//parseCondition(true);	//<- good, but doesn't match the original compiler behavior
-					//> alternate method
-					symbol = parseCondition1();
-					if (symbol == null) {
-						symbol = peek();
-						throw new ParseException("Expected: CONDITION", lastParseException, file, line, col);
-					}
-					/*symbol = peek();
-					if (symbol.is("and")) {
-						prev();
-						parseCondition(true);
-					}*/
-					symbol = peek();
-					while (symbol.is("and")) {
-						prev();
-						parseCondition1();
-						symbol = peek();
-					}
-					//< alternate method
-					or();
-					return replace(start, "CONDITION");
-				} else {
-					seek(start);
-					return peek();
-				}
-			} else if (symbol.is("key")) {
-				parse("key CONST_EXPR down");
-				//key CONST_EXPR down
-				sys(KEY_DOWN);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("inside")) {
-				parse("inside temple");
-				//inside temple
-				sys(INSIDE_TEMPLE);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("within")) {
-				parse("within rotation");
-				//within rotation
-				sys(WITHIN_ROTATION);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("hand")) {
-				parse("hand demo");
-				symbol = peek();
-				if (symbol.is("played")) {
-					accept("played");
-					//hand demo played
-					sys(IS_PLAYING_HAND_DEMO);
-					return replace(start, "CONDITION");
-				} else if (symbol.is("trigger")) {
-					accept("trigger");
-					//hand demo trigger
-					sys(HAND_DEMO_TRIGGER);
-					return replace(start, "CONDITION");
-				} else {
-					throw new ParseException("Unexpected token: "+symbol+". Expected: played|trigger", lastParseException, file, symbol.token.line, symbol.token.col);
-				}
-			} else if (symbol.is("jc")) {
-				parse("jc special CONST_EXPR played");
-				//jc special CONST_EXPR played
-				throw new ParseException("Statement not implemented", file, line, col);
-				//return replace(start, "CONDITION");
-			} else if (symbol.is("fire")) {
-				parse("fire near COORD_EXPR radius EXPRESSION");
-				//fire near COORD_EXPR radius EXPRESSION
-				sys(IS_FIRE_NEAR);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("spell")) {
-				accept("spell");
+	private SymbolInstance parseExpressionRemove() throws ParseException {
+		final int start = symbols.position();
+		parse("remove resource CONST_EXPR EXPRESSION from OBJECT");
+		//remove resource CONST_EXPR EXPRESSION from OBJECT
+		sys(REMOVE_RESOURCE);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionAdd() throws ParseException {
+		final int start = symbols.position();
+		parse("add resource CONST_EXPR EXPRESSION to OBJECT");
+		//add resource CONST_EXPR EXPRESSION to OBJECT
+		sys(ADD_RESOURCE);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionAlignment() throws ParseException {
+		final int start = symbols.position();
+		parse("alignment of player");
+		//alignment of player
+		pushi(0);
+		sys2(GET_ALIGNMENT);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionInfluence() throws ParseException {
+		final int start = symbols.position();
+		//[raw] influence at COORD_EXPR
+		pushf(1);	//fixed player
+		parse("[raw] influence at COORD_EXPR");
+		sys(GET_INFLUENCE);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionGet() throws ParseException {
+		final int start = symbols.position();
+		accept("get");
+		SymbolInstance symbol = peek();
+		if (symbol.is("player")) {
+			parse("player EXPRESSION");
+			symbol = peek();
+			if (symbol.is("raw") || symbol.is("influence")) {
+				parse("[raw] influence at COORD_EXPR");
+				//get player EXPRESSION [raw] influence at COORD_EXPR
+				sys(GET_INFLUENCE);
+				return replace(start, "EXPRESSION");
+			} else if (symbol.is("town")) {
+				parse("town total");
+				//get player EXPRESSION town total
+				sys(GET_PLAYER_TOWN_TOTAL);
+				return replace(start, "EXPRESSION");
+			} else if (symbol.is("time")) {
+				parse("time since last spell cast");
+				//get player EXPRESSION time since last spell cast
+				sys(PLAYER_SPELL_CAST_TIME);
+				return replace(start, "EXPRESSION");
+			} else if (symbol.is("ally")) {
+				parse("ally percentage with player EXPRESSION");
+				//get player EXPRESSION ally percentage with player EXPRESSION
+				sys(GET_PLAYER_ALLY);
+				return replace(start, "EXPRESSION");
+			}
+		} else if (symbol.is("time")) {
+			parse("time since");
+			symbol = peek();
+			if (symbol.is("player")) {
+				parse("player EXPRESSION attacked OBJECT");
+				//get time since player EXPRESSION attacked OBJECT
+				sys(GET_TIME_SINCE_OBJECT_ATTACKED);
+				return replace(start, "EXPRESSION");
+			} else {
+				parse("CONSTANT event");
+				//get time since HELP_EVENT_TYPE event
+				sys(GET_TIME_SINCE);
+				return replace(start, "EXPRESSION");
+			}
+		} else if (symbol.is("resource")) {
+			parse("resource CONST_EXPR in OBJECT");
+			//get resource CONST_EXPR in OBJECT
+			sys(GET_RESOURCE);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("number")) {
+			parse("number of CONST_EXPR for OBJECT");
+			//get number of CONST_EXPR for OBJECT
+			throw new ParseException("Statement not implemented", file, line, col);
+			//return replace(start, "EXPRESSION");
+		} else if (symbol.is("inclusion")) {
+			parse("inclusion distance");
+			//get inclusion distance
+			sys(GET_INCLUSION_DISTANCE);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("slowest")) {
+			parse("slowest speed in OBJECT");
+			//get slowest speed in OBJECT
+			sys(GET_SLOWEST_SPEED);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("distance")) {
+			parse("distance from COORD_EXPR to COORD_EXPR");
+			//get distance from COORD_EXPR to COORD_EXPR
+			sys(GET_DISTANCE);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("mana")) {
+			parse("mana for spell CONST_EXPR");
+			//get mana for spell CONST_EXPR
+			sys(GET_MANA_FOR_SPELL);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("building")) {
+			parse("building and villager health total in OBJECT");
+			//get building and villager health total in OBJECT
+			sys(GET_TOWN_AND_VILLAGER_HEALTH_TOTAL);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("size")) {
+			parse("size of OBJECT PLAYING_SIDE team");
+			//get size of OBJECT PLAYING_SIDE team
+			throw new ParseException("Statement not implemented", file, line, col);
+			//return replace(start, "EXPRESSION");
+		} else if (symbol.is("worship")) {
+			parse("worship deaths in OBJECT");
+			//get worship deaths in OBJECT
+			sys(GET_TOWN_WORSHIP_DEATHS);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("computer")) {
+			parse("computer player EXPRESSION attitude to player EXPRESSION");
+			//get computer player EXPRESSION attitude to player EXPRESSION
+			sys(GET_COMPUTER_PLAYER_ATTITUDE);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("moon")) {
+			parse("moon percentage");
+			//get moon percentage
+			sys(GET_MOON_PERCENTAGE);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("game")) {
+			parse("game time");
+			//get game time
+			sys(GET_GAME_TIME);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("real")) {
+			accept("real");
+			symbol = peek();
+			if (symbol.is("time")) {
+				accept("time");
+				//get real time
+				sys(GET_REAL_TIME);
+				return replace(start, "EXPRESSION");
+			} else if (symbol.is("day")) {
+				accept("day");
+				//get real day
+				throw new ParseException("Statement not implemented", file, line, col);
+				//return replace(start, "EXPRESSION");
+			} else if (symbol.is("weekday")) {
+				accept("weekday");
+				//get real weekday
+				throw new ParseException("Statement not implemented", file, line, col);
+				//return replace(start, "EXPRESSION");
+			} else if (symbol.is("month")) {
+				accept("month");
+				//get real month
+				sys(GET_REAL_MONTH);
+				return replace(start, "EXPRESSION");
+			} else if (symbol.is("year")) {
+				accept("year");
+				//get real year
+				sys(GET_REAL_YEAR);
+				return replace(start, "EXPRESSION");
+			}
+		} else if (symbol.is("countdown")) {
+			parse("countdown timer time");
+			//get countdown timer time
+			sys(GET_COUNTDOWN_TIMER_TIME);
+			return replace(start, "EXPRESSION");
+		} else if (checkAhead("CONSTANT of")) {
+			//[get] CONSTANT of OBJECT
+			parse("CONSTANT of OBJECT");
+			sys(GET_PROPERTY);
+			return replace(start, "EXPRESSION");
+		} else {
+			final int checkpoint = symbols.position();
+			final int checkpointIp = getIp();
+			SymbolInstance checkpointPreserve = peek();
+			symbol = parseObject(false);
+			if (symbol != null) {
 				symbol = peek();
-				if (symbol.is("wind")) {
-					parse("wind near COORD_EXPR radius EXPRESSION");
-					//spell wind near COORD_EXPR radius EXPRESSION
-					throw new ParseException("Statement not implemented", file, line, col);
-					//return replace(start, "CONDITION");
-				} else if (symbol.is("charging")) {
-					accept("charging");
-					//spell charging
+				if (symbol.is("music")) {
+					parse("music distance");
+					//get OBJECT music distance
+					sys(GET_MUSIC_OBJ_DISTANCE);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("interaction")) {
+					parse("interaction magnitude");
+					//get OBJECT interaction magnitude
+					sys(GET_INTERACTION_MAGNITUDE);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("time")) {
+					accept("time");
+					symbol = peek();
+					if (symbol.is("remaining")) {
+						accept("remaining");
+						//get OBJECT time remaining
+						sys(GET_TIMER_TIME_REMAINING);
+						return replace(start, "EXPRESSION");
+					} else if (symbol.is("since")) {
+						parse("since set");
+						//get OBJECT time since set
+						sys(GET_TIMER_TIME_SINCE_SET);
+						return replace(start, "EXPRESSION");
+					}
+				} else if (symbol.is("fight")) {
+					parse("fight queue hits");
+					//get OBJECT fight queue hits
+					sys(CREATURE_FIGHT_QUEUE_HITS);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("walk")) {
+					parse("walk path percentage");
+					//get OBJECT walk path percentage
+					sys(GET_WALK_PATH_PERCENTAGE);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("mana")) {
+					parse("mana total");
+					//get OBJECT mana total
+					sys(GET_MANA);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("played")) {
+					parse("played percentage");
+					//get OBJECT played percentage
+					sys(PLAYED_PERCENTAGE);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("belief")) {
+					parse("belief for player EXPRESSION");
+					//get OBJECT belief for player EXPRESSION
+					sys(BELIEF_FOR_PLAYER);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("help")) {
+					accept("help");
+					//get OBJECT help
+					sys(GET_HELP);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("first")) {
+					parse("first help");
+					//get OBJECT first help
+					sys(GET_FIRST_HELP);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("last")) {
+					parse("last help");
+					//get OBJECT last help
+					sys(GET_LAST_HELP);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("fade")) {
+					accept("fade");
+					//get OBJECT fade
+					sys(GET_OBJECT_FADE);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("info")) {
+					parse("info bits");
+					//get OBJECT info bits
+					sys(OBJECT_INFO_BITS);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("desire")) {
+					parse("desire CONST_EXPR");
+					//get OBJECT desire CONST_EXPR
 					throw new ParseException("Statement not implemented", file, line, col);
-					//return replace(start, "CONDITION");
-				} else {
-					parse("CONST_EXPR for player EXPRESSION");
-					//spell CONST_EXPR for player EXPRESSION
-					sys(HAS_PLAYER_MAGIC);
-					return replace(start, "CONDITION");
-				}
-			} else if (symbol.is("camera")) {
-				accept("camera");
-				symbol = peek();
-				if (symbol.is("ready")) {
-					accept("ready");
-					//camera ready
-					sys(HAS_CAMERA_ARRIVED);
-					return replace(start, "CONDITION");
-				} else if (symbol.is("not")) {
-					parse("not ready");
-					//camera not ready
-					sys(HAS_CAMERA_ARRIVED);
-					not();
-					return replace(start, "CONDITION");
-				} else {
-					throw new ParseException("Unexpected token: "+symbol+". Expected: ready|not", lastParseException, file, symbol.token.line, symbol.token.col);
-				}
-			} else if (symbol.is("widescreen")) {
-				accept("widescreen");
-				symbol = peek();
-				if (symbol.is("ready")) {
-					accept("ready");
-					//widescreen ready
-					sys(WIDESCREEN_TRANSISTION_FINISHED);
-					return replace(start, "CONDITION");
-				} else if (symbol.is("transition")) {
-					parse("transition complete");
-					//widescreen transition complete
-					sys(WIDESCREEN_TRANSISTION_FINISHED);
-					return replace(start, "CONDITION");
-				} else {
-					throw new ParseException("Unexpected token: "+symbol+". Expected: ready|transition", lastParseException, file, symbol.token.line, symbol.token.col);
-				}
-			} else if (symbol.is("fade")) {
-				parse("fade ready");
-				//fade ready
-				sys(FADE_FINISHED);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("dialogue")) {
-				accept("dialogue");
-				symbol = peek();
-				if (symbol.is("ready")) {
-					accept("ready");
-					//dialogue ready
-					sys(IS_DIALOGUE_READY);
-					return replace(start, "CONDITION");
-				} else if (symbol.is("not")) {
-					parse("not ready");
-					//dialogue not ready
-					sys(IS_DIALOGUE_READY);
-					not();
-					return replace(start, "CONDITION");
-				} else {
-					throw new ParseException("Unexpected token: "+symbol+". Expected: ready|not", lastParseException, file, symbol.token.line, symbol.token.col);
-				}
-			} else if (symbol.is("computer")) {
-				parse("computer player EXPRESSION ready");
-				//computer player EXPRESSION ready
-				sys(COMPUTER_PLAYER_READY);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("player")) {
-				accept("player");
-				symbol = peek();
-				if (symbol.is("has")) {
-					parse("has mouse wheel");
-					//player has mouse wheel
-					sys(HAS_MOUSE_WHEEL);
-					return replace(start, "CONDITION");
-				} else {
-					parse("EXPRESSION wind resistance");
-					//player EXPRESSION wind resistance
-					throw new ParseException("Statement not implemented", lastParseException, file, line, col);
-					//return replace(start, "CONDITION");
+					//return replace(start, "EXPRESSION");
+				} else if (symbol.is("sacrifice")) {
+					parse("sacrifice total");
+					//get OBJECT sacrifice total
+					sys(GET_SACRIFICE_TOTAL);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("spell")) {
+					parse("spell CONST_EXPR skill");
+					//get OBJECT spell MAGIC_TYPE skill
+					sys(GET_CREATURE_SPELL_SKILL);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("score")) {
+					accept("score");
+					//get OBJECT score
+					sys(GET_OBJECT_SCORE);
+					return replace(start, "EXPRESSION");
 				}
-			} else if (symbol.is("creature")) {
-				accept("creature");
+				revert(checkpoint, checkpointIp, checkpointPreserve);
+			}
+			symbol = parseConstExpr(false);
+			if (symbol != null) {
 				symbol = peek();
-				if (symbol.is("help")) {
-					parse("help on");
-					//creature help on
-					sys(CREATURE_HELP_ON);
-					return replace(start, "CONDITION");
-				} else {
-					parse("CONST_EXPR is available");
-					//creature CONST_EXPR is available
-					sys(IS_CREATURE_AVAILABLE);
-					return replace(start, "CONDITION");
+				if (symbol.is("music")) {
+					parse("music distance");
+					//get CONST_EXPR music distance
+					sys(GET_MUSIC_ENUM_DISTANCE);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("events")) {
+					parse("events per second");
+					//get HELP_EVENT_TYPE events per second
+					sys(GET_EVENTS_PER_SECOND);
+					return replace(start, "EXPRESSION");
+				} else if (symbol.is("total")) {
+					parse("total event|events");
+					//get HELP_EVENT_TYPE total event|events
+					sys(GET_TOTAL_EVENTS);
+					return replace(start, "EXPRESSION");
 				}
-			} else if (symbol.is("get")) {
-				parse("get desire of OBJECT is CONST_EXPR");
-				//get desire of OBJECT is CONST_EXPR
-				throw new ParseException("Statement not implemented", lastParseException, file, line, col);
-				//return replace(start, "CONDITION");
-			} else if (symbol.is("read")) {
-				accept("read");
-				//read
-				sys(TEXT_READ);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("help")) {
-				parse("help system on");
-				//help system on
-				sys(HELP_SYSTEM_ON);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("immersion")) {
-				parse("immersion exists");
-				//immersion exists
-				sys(IMMERSION_EXISTS);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("sound")) {
-				accept("sound");
-				symbol = peek();
-				if (symbol.is("exists")) {
-					accept("exists");
-					//sound exists
-					sys(SOUND_EXISTS);
+				revert(checkpoint, checkpointIp, checkpointPreserve);
+			}
+		}
+		return null;
+	}
+	
+	private SymbolInstance parseExpressionLand() throws ParseException {
+		final int start = symbols.position();
+		parse("land height at COORD_EXPR");
+		//land height at COORD_EXPR
+		sys(GET_LAND_HEIGHT);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionTime() throws ParseException {
+		final int start = symbols.position();
+		accept("time");
+		//time
+		sys(DLL_GETTIME);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionNumber() throws ParseException {
+		final int start = symbols.position();
+		accept("number");
+		SymbolInstance symbol = peek();
+		if (symbol.is("from")) {
+			parse("from EXPRESSION to EXPRESSION");
+			//number from EXPRESSION to EXPRESSION
+			sys(RANDOM);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("of")) {
+			accept("of");
+			symbol = peek();
+			if (symbol.is("mouse")) {
+				parse("mouse buttons");
+				//number of mouse buttons
+				sys(NUM_MOUSE_BUTTONS);
+				return replace(start, "EXPRESSION");
+			} else if (symbol.is("times")) {
+				parse("times action CONST_EXPR by OBJECT");
+				//number of times action CONST_EXPR by OBJECT
+				sys(GET_ACTION_COUNT);
+				return replace(start, "EXPRESSION");
+			}
+		}
+		return null;
+	}
+	
+	private SymbolInstance parseExpressionSize() throws ParseException {
+		final int start = symbols.position();
+		parse("size of OBJECT");
+		//size of OBJECT
+		sys(ID_SIZE);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionAdult() throws ParseException {
+		final int start = symbols.position();
+		accept("adult");
+		SymbolInstance symbol = peek();
+		if (symbol.is("size")) {
+			parse("size of OBJECT");
+			//adult size of OBJECT
+			sys(ID_ADULT_SIZE);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("capacity")) {
+			parse("capacity of OBJECT");
+			//adult capacity of OBJECT
+			sys(OBJECT_ADULT_CAPACITY);
+			return replace(start, "EXPRESSION");
+		}
+		return null;
+	}
+	
+	private SymbolInstance parseExpressionCapacity() throws ParseException {
+		final int start = symbols.position();
+		parse("capacity of OBJECT");
+		//capacity of OBJECT
+		sys(OBJECT_CAPACITY);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionPoisoned() throws ParseException {
+		final int start = symbols.position();
+		parse("poisoned size of OBJECT");
+		//poisoned size of OBJECT
+		sys(ID_POISONED_SIZE);
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionSqrt() throws ParseException {
+		final int start = symbols.position();
+		//sqrt EXPRESSION
+		parse("sqrt EXPRESSION");
+		sqrt();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionTan() throws ParseException {
+		final int start = symbols.position();
+		//tan EXPRESSION
+		parse("tan EXPRESSION");
+		tan();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionSin() throws ParseException {
+		final int start = symbols.position();
+		//sin EXPRESSION
+		parse("sin EXPRESSION");
+		sin();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionCos() throws ParseException {
+		final int start = symbols.position();
+		//cos EXPRESSION
+		parse("cos EXPRESSION");
+		cos();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionArctan() throws ParseException {
+		final int start = symbols.position();
+		//arctan EXPRESSION
+		parse("arctan EXPRESSION");
+		atan();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionArcsin() throws ParseException {
+		final int start = symbols.position();
+		//arcsin EXPRESSION
+		parse("arcsin EXPRESSION");
+		asin();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionArccos() throws ParseException {
+		final int start = symbols.position();
+		//arccos EXPRESSION
+		parse("arccos EXPRESSION");
+		acos();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionArctan2() throws ParseException {
+		final int start = symbols.position();
+		//arctan2 EXPRESSION over EXPRESSION
+		parse("arctan2 EXPRESSION over EXPRESSION");
+		atan2();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionAbs() throws ParseException {
+		final int start = symbols.position();
+		//abs EXPRESSION
+		parse("abs EXPRESSION");
+		abs();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionMouse() throws ParseException {
+		final int start = symbols.position();
+		parse("mouse percentage");
+		SymbolInstance symbol = peek();
+		if (symbol.is("across")) {
+			accept("across");
+			//mouse percentage across
+			sys(GET_MOUSE_ACROSS);
+			return replace(start, "EXPRESSION");
+		} else if (symbol.is("down")) {
+			accept("down");
+			//mouse percentage down
+			sys(GET_MOUSE_DOWN);
+			return replace(start, "EXPRESSION");
+		}
+		return null;
+	}
+	
+	private SymbolInstance parseExpressionNegative() throws ParseException {
+		final int start = symbols.position();
+		//-EXPRESSION
+		accept("-");
+		parseExpression1();	//<- important for precedence
+		neg();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionVariable() throws ParseException {
+		final int start = symbols.position();
+		parse("variable CONST_EXPR");
+		//variable CONST_EXPR
+		castf();
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseExpressionParenthesized() throws ParseException {
+		final int start = symbols.position();
+		parse("( EXPRESSION )");
+		//(EXPRESSION)
+		return replace(start, "EXPRESSION");
+	}
+	
+	private SymbolInstance parseCondition(boolean fail) throws ParseException {
+		final int start = symbols.position();
+		SymbolInstance symbol = peek();
+		SymbolInstance newSym = parseCondition1();
+		while (newSym != null && newSym != symbol) {
+			symbol = newSym;
+			prev();
+			newSym = parseCondition1();
+		}
+		seek(start);
+		symbol = peek();
+		if ("CONDITION".equals(symbol.symbol.keyword)) {
+			next();
+			return symbol;
+		}
+		if (fail) {
+			if (lastParseException != null) throw lastParseException;
+			symbol = peek();
+			throw new ParseException("Expected: CONDITION", lastParseException, file, symbol.token.line, symbol.token.col);
+		} else {
+			seek(start);
+			return null;
+		}
+	}
+	
+	private SymbolInstance parseCondition1() throws ParseException {
+		final int start = symbols.position();
+		final int startIp = getIp();
+		final SymbolInstance startPreserve = peek();
+		try {
+			SymbolInstance symbol = peek();
+			if ("CONDITION".equals(symbol.symbol.keyword)) {
+				next();
+				symbol = next();
+				if (symbol.is("and")) {
+					symbol = parseCondition1();
+					if (symbol == null) {
+						symbol = peek();
+						throw new ParseException("Expected: CONDITION", lastParseException, file, line, col);
+					}
+					//CONDITION and CONDITION
+					and();
 					return replace(start, "CONDITION");
-				} else {
-					parseConstExpr(true);
+				} else if (symbol.is("or")) {
+					//CONDITION or CONDITION
+					//parseCondition(true);	//<- good, but doesn't match the original compiler behavior
+					//> alternate method
+					symbol = parseCondition1();
+					if (symbol == null) {
+						symbol = peek();
+						throw new ParseException("Expected: CONDITION", lastParseException, file, line, col);
+					}
+					/*symbol = peek();
+					if (symbol.is("and")) {
+						prev();
+						parseCondition(true);
+					}*/
 					symbol = peek();
-					if (symbol.is("playing")) {
-						pushi(DEFAULT_SOUNDBANK_NAME);
-					} else {
-						parseConstExpr(true);
+					while (symbol.is("and")) {
+						prev();
+						parseCondition1();
+						symbol = peek();
 					}
-					accept("playing");
-					//sound CONST_EXPR [CONST_EXPR] playing
-					sys(GAME_SOUND_PLAYING);
-					return replace(start, "CONDITION");
-				}
-			} else if (symbol.is("specific")) {
-				parse("specific spell charging");
-				//specific spell charging
-				throw new ParseException("Statement not implemented", lastParseException, file, line, col);
-				//return replace(start, "CONDITION");
-			} else if (symbol.is("music")) {
-				accept("music");
-				symbol = peek();
-				if (symbol.is("line")) {
-					parse("line EXPRESSION");
-					//music line EXPRESSION
-					sys(LAST_MUSIC_LINE);
+					//< alternate method
+					or();
 					return replace(start, "CONDITION");
 				} else {
-					//music CONST_EXPR played
-					symbol = parseConstExpr(true);
-					accept("played");
-					sys(MUSIC_PLAYED2);
-					return replace(start, "CONDITION");
+					seek(start);
+					return peek();
 				}
-			} else if (symbol.is("in")) {
-				parse("in widescreen");
-				//in widescreen
-				sys(IN_WIDESCREEN);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("mouse")) {
-				parse("mouse left|right button down");
-				//mouse left|right button down
-				sys(MOUSE_DOWN);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("not")) {
-				//not CONDITION
-				accept("not");
-				parseCondition1();	//<- important for precedence
-				not();
-				return replace(start, "CONDITION");
-			} else if (symbol.is("say")) {
-				//say sound CONST_EXPR playing
-				pushb(false);
-				parse("say sound CONST_EXPR playing");
-				sys(SAY_SOUND_EFFECT_PLAYING);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("can")) {
-				parse("can skip");
-				symbol = peek();
-				if (symbol.is("tutorial")) {
-					accept("tutorial");
-					//can skip tutorial
-					sys(CAN_SKIP_TUTORIAL);
-					return replace(start, "CONDITION");
-				} else if (symbol.is("creature")) {
-					parse("creature training");
-					//can skip creature training
-					sys(CAN_SKIP_CREATURE_TRAINING);
-					return replace(start, "CONDITION");
+			} else if (symbol.is(TokenType.KEYWORD) && conditionParsers.containsKey(symbol.symbol)) {
+				symbol = conditionParsers.get(symbol.symbol).parse();
+				if (symbol != null) {
+					return symbol;
 				}
-			} else if (symbol.is("is")) {
-				parse("is keeping old creature");
-				//is keeping old creature
-				sys(IS_KEEPING_OLD_CREATURE);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("current")) {
-				parse("current profile has creature");
-				//current profile has creature
-				sys(CURRENT_PROFILE_HAS_CREATURE);
-				return replace(start, "CONDITION");
-			} else if (symbol.is("(")) {
-				parse("( CONDITION )");
-				//(CONDITION)
-				return replace(start, "CONDITION");
 			} else if (checkAhead("ANY spirit")) {
 				parse("SPIRIT_TYPE spirit");
 				symbol = peek();
@@ -4543,7 +4526,7 @@ public class CHLCompiler {
 		}
 		revert(start, startIp, startPreserve);
 		try {	
-			SymbolInstance symbol = parseObject(false);
+			SymbolInstance symbol = canStartCondition(OBJECT) ? parseObject(false) : null;
 			if (symbol != null) {
 				symbol = peek();
 				if (symbol.is("active")) {
@@ -4751,7 +4734,7 @@ public class CHLCompiler {
 		}
 		revert(start, startIp, startPreserve);
 		try {
-			SymbolInstance symbol = parseCoordExpr(false);
+			SymbolInstance symbol = canStartCondition(COORD_EXPR) ? parseCoordExpr(false) : null;
 			if (symbol != null) {
 				symbol = peek();
 				if (symbol.is("viewed")) {
@@ -4816,7 +4799,7 @@ public class CHLCompiler {
 		}
 		revert(start, startIp, startPreserve);
 		try {
-			SymbolInstance symbol = parseExpression(false);
+			SymbolInstance symbol = canStart(EXPRESSION) ? parseExpression(false) : null;
 			if (symbol != null) {
 				symbol = peek();
 				if (symbol.is("second") || symbol.is("seconds")) {
@@ -4856,514 +4839,894 @@ public class CHLCompiler {
 					return replace(start, "CONDITION");
 				}
 			}
-		} catch (ParseException e) {
-			lastParseException = e;
+		} catch (ParseException e) {
+			lastParseException = e;
+		}
+		revert(start, startIp, startPreserve);
+		//seek(start);
+		return null;
+	}
+	
+	private SymbolInstance parseConditionKey() throws ParseException {
+		final int start = symbols.position();
+		parse("key CONST_EXPR down");
+		//key CONST_EXPR down
+		sys(KEY_DOWN);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionInside() throws ParseException {
+		final int start = symbols.position();
+		parse("inside temple");
+		//inside temple
+		sys(INSIDE_TEMPLE);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionWithin() throws ParseException {
+		final int start = symbols.position();
+		parse("within rotation");
+		//within rotation
+		sys(WITHIN_ROTATION);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionHand() throws ParseException {
+		final int start = symbols.position();
+		parse("hand demo");
+		SymbolInstance symbol = peek();
+		if (symbol.is("played")) {
+			accept("played");
+			//hand demo played
+			sys(IS_PLAYING_HAND_DEMO);
+			return replace(start, "CONDITION");
+		} else if (symbol.is("trigger")) {
+			accept("trigger");
+			//hand demo trigger
+			sys(HAND_DEMO_TRIGGER);
+			return replace(start, "CONDITION");
+		} else {
+			throw new ParseException("Unexpected token: "+symbol+". Expected: played|trigger", lastParseException, file, symbol.token.line, symbol.token.col);
+		}
+	}
+	
+	private SymbolInstance parseConditionJc() throws ParseException {
+		final int start = symbols.position();
+		parse("jc special CONST_EXPR played");
+		//jc special CONST_EXPR played
+		throw new ParseException("Statement not implemented", file, line, col);
+		//return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionFire() throws ParseException {
+		final int start = symbols.position();
+		parse("fire near COORD_EXPR radius EXPRESSION");
+		//fire near COORD_EXPR radius EXPRESSION
+		sys(IS_FIRE_NEAR);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionSpell() throws ParseException {
+		final int start = symbols.position();
+		accept("spell");
+		SymbolInstance symbol = peek();
+		if (symbol.is("wind")) {
+			parse("wind near COORD_EXPR radius EXPRESSION");
+			//spell wind near COORD_EXPR radius EXPRESSION
+			throw new ParseException("Statement not implemented", file, line, col);
+			//return replace(start, "CONDITION");
+		} else if (symbol.is("charging")) {
+			accept("charging");
+			//spell charging
+			throw new ParseException("Statement not implemented", file, line, col);
+			//return replace(start, "CONDITION");
+		} else {
+			parse("CONST_EXPR for player EXPRESSION");
+			//spell CONST_EXPR for player EXPRESSION
+			sys(HAS_PLAYER_MAGIC);
+			return replace(start, "CONDITION");
+		}
+	}
+	
+	private SymbolInstance parseConditionCamera() throws ParseException {
+		final int start = symbols.position();
+		accept("camera");
+		SymbolInstance symbol = peek();
+		if (symbol.is("ready")) {
+			accept("ready");
+			//camera ready
+			sys(HAS_CAMERA_ARRIVED);
+			return replace(start, "CONDITION");
+		} else if (symbol.is("not")) {
+			parse("not ready");
+			//camera not ready
+			sys(HAS_CAMERA_ARRIVED);
+			not();
+			return replace(start, "CONDITION");
+		} else {
+			throw new ParseException("Unexpected token: "+symbol+". Expected: ready|not", lastParseException, file, symbol.token.line, symbol.token.col);
+		}
+	}
+	
+	private SymbolInstance parseConditionWidescreen() throws ParseException {
+		final int start = symbols.position();
+		accept("widescreen");
+		SymbolInstance symbol = peek();
+		if (symbol.is("ready")) {
+			accept("ready");
+			//widescreen ready
+			sys(WIDESCREEN_TRANSISTION_FINISHED);
+			return replace(start, "CONDITION");
+		} else if (symbol.is("transition")) {
+			parse("transition complete");
+			//widescreen transition complete
+			sys(WIDESCREEN_TRANSISTION_FINISHED);
+			return replace(start, "CONDITION");
+		} else {
+			throw new ParseException("Unexpected token: "+symbol+". Expected: ready|transition", lastParseException, file, symbol.token.line, symbol.token.col);
+		}
+	}
+	
+	private SymbolInstance parseConditionFade() throws ParseException {
+		final int start = symbols.position();
+		parse("fade ready");
+		//fade ready
+		sys(FADE_FINISHED);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionDialogue() throws ParseException {
+		final int start = symbols.position();
+		accept("dialogue");
+		SymbolInstance symbol = peek();
+		if (symbol.is("ready")) {
+			accept("ready");
+			//dialogue ready
+			sys(IS_DIALOGUE_READY);
+			return replace(start, "CONDITION");
+		} else if (symbol.is("not")) {
+			parse("not ready");
+			//dialogue not ready
+			sys(IS_DIALOGUE_READY);
+			not();
+			return replace(start, "CONDITION");
+		} else {
+			throw new ParseException("Unexpected token: "+symbol+". Expected: ready|not", lastParseException, file, symbol.token.line, symbol.token.col);
+		}
+	}
+	
+	private SymbolInstance parseConditionComputer() throws ParseException {
+		final int start = symbols.position();
+		parse("computer player EXPRESSION ready");
+		//computer player EXPRESSION ready
+		sys(COMPUTER_PLAYER_READY);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionPlayer() throws ParseException {
+		final int start = symbols.position();
+		accept("player");
+		SymbolInstance symbol = peek();
+		if (symbol.is("has")) {
+			parse("has mouse wheel");
+			//player has mouse wheel
+			sys(HAS_MOUSE_WHEEL);
+			return replace(start, "CONDITION");
+		} else {
+			parse("EXPRESSION wind resistance");
+			//player EXPRESSION wind resistance
+			throw new ParseException("Statement not implemented", lastParseException, file, line, col);
+			//return replace(start, "CONDITION");
+		}
+	}
+	
+	private SymbolInstance parseConditionCreature() throws ParseException {
+		final int start = symbols.position();
+		accept("creature");
+		SymbolInstance symbol = peek();
+		if (symbol.is("help")) {
+			parse("help on");
+			//creature help on
+			sys(CREATURE_HELP_ON);
+			return replace(start, "CONDITION");
+		} else {
+			parse("CONST_EXPR is available");
+			//creature CONST_EXPR is available
+			sys(IS_CREATURE_AVAILABLE);
+			return replace(start, "CONDITION");
+		}
+	}
+	
+	private SymbolInstance parseConditionGet() throws ParseException {
+		final int start = symbols.position();
+		parse("get desire of OBJECT is CONST_EXPR");
+		//get desire of OBJECT is CONST_EXPR
+		throw new ParseException("Statement not implemented", lastParseException, file, line, col);
+		//return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionRead() throws ParseException {
+		final int start = symbols.position();
+		accept("read");
+		//read
+		sys(TEXT_READ);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionHelp() throws ParseException {
+		final int start = symbols.position();
+		parse("help system on");
+		//help system on
+		sys(HELP_SYSTEM_ON);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionImmersion() throws ParseException {
+		final int start = symbols.position();
+		parse("immersion exists");
+		//immersion exists
+		sys(IMMERSION_EXISTS);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionSound() throws ParseException {
+		final int start = symbols.position();
+		accept("sound");
+		SymbolInstance symbol = peek();
+		if (symbol.is("exists")) {
+			accept("exists");
+			//sound exists
+			sys(SOUND_EXISTS);
+			return replace(start, "CONDITION");
+		} else {
+			parseConstExpr(true);
+			symbol = peek();
+			if (symbol.is("playing")) {
+				pushi(DEFAULT_SOUNDBANK_NAME);
+			} else {
+				parseConstExpr(true);
+			}
+			accept("playing");
+			//sound CONST_EXPR [CONST_EXPR] playing
+			sys(GAME_SOUND_PLAYING);
+			return replace(start, "CONDITION");
+		}
+	}
+	
+	private SymbolInstance parseConditionSpecific() throws ParseException {
+		final int start = symbols.position();
+		parse("specific spell charging");
+		//specific spell charging
+		throw new ParseException("Statement not implemented", lastParseException, file, line, col);
+		//return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionMusic() throws ParseException {
+		final int start = symbols.position();
+		accept("music");
+		SymbolInstance symbol = peek();
+		if (symbol.is("line")) {
+			parse("line EXPRESSION");
+			//music line EXPRESSION
+			sys(LAST_MUSIC_LINE);
+			return replace(start, "CONDITION");
+		} else {
+			//music CONST_EXPR played
+			symbol = parseConstExpr(true);
+			accept("played");
+			sys(MUSIC_PLAYED2);
+			return replace(start, "CONDITION");
+		}
+	}
+	
+	private SymbolInstance parseConditionIn() throws ParseException {
+		final int start = symbols.position();
+		parse("in widescreen");
+		//in widescreen
+		sys(IN_WIDESCREEN);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionMouse() throws ParseException {
+		final int start = symbols.position();
+		parse("mouse left|right button down");
+		//mouse left|right button down
+		sys(MOUSE_DOWN);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionNot() throws ParseException {
+		final int start = symbols.position();
+		//not CONDITION
+		accept("not");
+		parseCondition1();	//<- important for precedence
+		not();
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionSay() throws ParseException {
+		final int start = symbols.position();
+		//say sound CONST_EXPR playing
+		pushb(false);
+		parse("say sound CONST_EXPR playing");
+		sys(SAY_SOUND_EFFECT_PLAYING);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionCan() throws ParseException {
+		final int start = symbols.position();
+		parse("can skip");
+		SymbolInstance symbol = peek();
+		if (symbol.is("tutorial")) {
+			accept("tutorial");
+			//can skip tutorial
+			sys(CAN_SKIP_TUTORIAL);
+			return replace(start, "CONDITION");
+		} else if (symbol.is("creature")) {
+			parse("creature training");
+			//can skip creature training
+			sys(CAN_SKIP_CREATURE_TRAINING);
+			return replace(start, "CONDITION");
 		}
-		revert(start, startIp, startPreserve);
-		//seek(start);
 		return null;
 	}
 	
+	private SymbolInstance parseConditionIs() throws ParseException {
+		final int start = symbols.position();
+		parse("is keeping old creature");
+		//is keeping old creature
+		sys(IS_KEEPING_OLD_CREATURE);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionCurrent() throws ParseException {
+		final int start = symbols.position();
+		parse("current profile has creature");
+		//current profile has creature
+		sys(CURRENT_PROFILE_HAS_CREATURE);
+		return replace(start, "CONDITION");
+	}
+	
+	private SymbolInstance parseConditionParenthesized() throws ParseException {
+		final int start = symbols.position();
+		parse("( CONDITION )");
+		//(CONDITION)
+		return replace(start, "CONDITION");
+	}
+	
 	private SymbolInstance parseObject(boolean fail) throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		final int startIp = getIp();
 		final SymbolInstance startPreserve = peek();
 		SymbolInstance symbol = peek();
 		try {
-			if (symbol.is("get")) {
-				accept("get");
-				symbol = peek();
-				if (symbol.is("building")) {
-					accept("building");
-					symbol = peek();
-					if (symbol.is("woodpile")) {
-						//get building woodpile in OBJECT
-						parse("woodpile in OBJECT");
-						sys(CALL_BUILDING_WOODPILE_IN_TOWN);
-						return replace(start, "OBJECT");
-					} else {
-						//get building ABODE_NUMBER in OBJECT [min built EXPRESSION] [excluding scripted]
-						parse("CONST_EXPR in OBJECT [min built EXPRESSION] [excluding scripted]");
-						sys(CALL_BUILDING_IN_TOWN);
-						return replace(start, "OBJECT");
-					}
-				} else if (symbol.is("poisoned")) {
-					//get poisoned TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT
-					parse("poisoned CONST_EXPR");
-					symbol = peek();
-					if (symbol.is("in")) {
-						pushi(DEFAULT_SUBTYPE_NAME);
-					} else {
-						parseConstExpr(true);
-					}
-					parse("in OBJECT");
-					sys(CALL_POISONED_IN);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("not")) {
-					//get not poisoned SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT [excluding scripted]
-					parse("not poisoned CONST_EXPR");
-					symbol = peek();
-					if (symbol.is("in")) {
-						pushi(DEFAULT_SUBTYPE_NAME);
-					} else {
-						parseConstExpr(true);
-					}
-					parse("in OBJECT [excluding scripted]");
-					sys(CALL_NOT_POISONED_IN);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("totem")) {
-					parse("totem statue in OBJECT");
-					//get totem statue in OBJECT
-					sys(GET_TOTEM_STATUE);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("player")) {
-					parse("player EXPRESSION creature");
-					//get player EXPRESSION creature
-					sys(CALL_PLAYER_CREATURE);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("computer")) {
-					parse("computer player EXPRESSION");
-					//get computer player EXPRESSION
-					sys(CALL_COMPUTER_PLAYER);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("held")) {
-					//get held by OBJECT
-					parse("held by OBJECT");
-					sys(GET_OBJECT_HELD2);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("dropped")) {
-					parse("dropped by OBJECT");
-					//get dropped by OBJECT
-					sys(GET_OBJECT_DROPPED);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("nearest")) {
-					parse("nearest town at COORD_EXPR for player EXPRESSION radius EXPRESSION");
-					//get nearest town at COORD_EXPR for player EXPRESSION radius EXPRESSION
-					sys(GET_NEAREST_TOWN_OF_PLAYER);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("town")) {
-					parse("town with id EXPRESSION");
-					//get town with id EXPRESSION
-					sys(GET_TOWN_WITH_ID);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("target")) {
-					parse("target object for OBJECT");
-					//get target object for OBJECT
-					sys(GET_TARGET_OBJECT);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("arena")) {
-					parse("arena at COORD_EXPR radius EXPRESSION");
-					//get arena at COORD_EXPR radius EXPRESSION
-					throw new ParseException("Statement not implemented", lastParseException, file, line, col);
-					//return replace(start, "OBJECT");
-				} else if (symbol.is("hit")) {
-					parse("hit object");
-					//get hit object
-					sys(GET_HIT_OBJECT);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("object")) {
-					accept("object");
-					symbol = peek();
-					if (symbol.is("which")) {
-						parse("which hit");
-						symbol = peek();
-						if (symbol.is("land")) {
-							accept("land");
-							//get object which hit land
-							sys(GET_LAST_OBJECT_WHICH_HIT_LAND);
-							return replace(start, "OBJECT");
-						} else {
-							//get object which hit
-							sys(GET_OBJECT_WHICH_HIT);
-							return replace(start, "OBJECT");
-						}
-					} else if (symbol.is("held")) {
-						accept("held");
-						//get object held
-						sys(GET_OBJECT_HELD1);
-						return replace(start, "OBJECT");
-					} else if (symbol.is("clicked")) {
-						accept("clicked");
-						//get object clicked
-						sys(GET_OBJECT_CLICKED);
-						return replace(start, "OBJECT");
-					} else if (symbol.is("hand")) {
-						parse("hand is over");
-						//get object hand is over
-						sys(GET_OBJECT_HAND_IS_OVER);
-						return replace(start, "OBJECT");
-					} else {
-						//get object OBJECT leashed to
-						parse("OBJECT leashed to");
-						sys(GET_OBJECT_OBJECT_LEASHED_TO);
-						return replace(start, "OBJECT");
-					}
-				} else if (symbol.is("football")) {
-					parse("football pitch in OBJECT");
-					//get football pitch in OBJECT
-					sys(GET_FOOTBALL_PITCH);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("spell")) {
-					accept("spell");
-					symbol = peek();
-					if (symbol.is("icon")) {
-						//get spell icon CONST_EXPR in OBJECT
-						parse("icon CONST_EXPR in OBJECT");
-						sys(GET_SPELL_ICON_IN_TEMPLE);
-						return replace(start, "OBJECT");
-					} else {
-						//get spell CONST_EXPR at COORD_EXPR radius EXPRESSION
-						parse("CONST_EXPR at COORD_EXPR radius EXPRESSION");
-						sys(SPELL_AT_POINT);
-						return replace(start, "OBJECT");
-					}
-				} else if (symbol.is("first")) {
-					parse("first in OBJECT");
-					//get first in OBJECT
-					sys(GET_FIRST_IN_CONTAINER);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("next")) {
-					parse("next in OBJECT after OBJECT");
-					//get next in OBJECT after OBJECT
-					sys(GET_NEXT_IN_CONTAINER);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("dead")) {
-					parse("dead at COORD_EXPR radius EXPRESSION");
-					//get dead at COORD_EXPR radius EXPRESSION
-					sys(GET_DEAD_LIVING);
-					return replace(start, "OBJECT");
-				} else {
-					final int checkpoint = it.nextIndex();
-					final int checkpointIp = getIp();
-					final SymbolInstance checkpointPreserve = peek();
-					symbol = parseConstExpr(false);
-					if (symbol != null) {
-						symbol = peek();
-						if (symbol.is("at") || symbol.is("in") || symbol.is("flying")) {
-							pushi(DEFAULT_SUBTYPE_NAME);
-						} else {
-							parseConstExpr(true);
-							symbol = peek();
-						}
-						if (symbol.is("at")) {
-							parse("at COORD_EXPR");
-							symbol = peek();
-							if (symbol.is("radius")) {
-								//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] at COORD_EXPR radius EXPRESSION [excluding scripted]
-								parse("radius EXPRESSION [excluding scripted]");
-								sys(CALL_NEAR);
-								return replace(start, "OBJECT");
-							} else {
-								//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] at COORD_EXPR [excluding scripted]
-								parse("[excluding scripted]");
-								sys(CALL);
-								return replace(start, "OBJECT");
-							}
-						} else if (symbol.is("in")) {
-							accept("in");
-							symbol = peek();
-							if (symbol.is("state")) {
-								//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in state CONST_EXPR at COORD_EXPR radius EXPRESSION [excluding scripted]
-								parse("state CONST_EXPR at COORD_EXPR radius EXPRESSION [excluding scripted]");
-								sys(CALL_NEAR_IN_STATE);
-								return replace(start, "OBJECT");
-							} else {
-								parseObject(true);
-								symbol = peek();
-								if (symbol.is("at")) {
-									//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT at COORD_EXPR radius EXPRESSION [excluding scripted]
-									parse("at COORD_EXPR radius EXPRESSION [excluding scripted]");
-									sys(CALL_IN_NEAR);
-									return replace(start, "OBJECT");
-								} else if (symbol.is("not")) {
-									//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT not near COORD_EXPR radius EXPRESSION [excluding scripted]
-									parse("not near COORD_EXPR radius EXPRESSION [excluding scripted]");
-									sys(CALL_IN_NOT_NEAR);
-									return replace(start, "OBJECT");
-								} else {
-									//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT [excluding scripted]
-									parse("[excluding scripted]");
-									sys(CALL_IN);
-									return replace(start, "OBJECT");
-								}
-							}
-						} else if (symbol.is("flying")) {
-							parse("flying at COORD_EXPR radius EXPRESSION [excluding scripted]");
-							//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] flying at COORD_EXPR radius EXPRESSION [excluding scripted]
-							sys(CALL_FLYING);
-							return replace(start, "OBJECT");
-						}
-						revert(checkpoint, checkpointIp, checkpointPreserve);
-					}
-					symbol = parseObject(false);
-					if (symbol != null) {
-						accept("flock");
-						//get OBJECT flock
-						sys(GET_OBJECT_FLOCK);
-						return replace(start, "OBJECT");
-					}
+			if (symbol.is(TokenType.KEYWORD) && objectParsers.containsKey(symbol.symbol)) {
+				symbol = objectParsers.get(symbol.symbol).parse();
+				if (symbol != null) {
+					return symbol;
 				}
-			} else if (symbol.is("create")) {
-				accept("create");
+			} else if (symbol.is(TokenType.IDENTIFIER)) {
+				parse("VARIABLE");
+				//VARIABLE
+				return replace(start, "OBJECT");
+			} else if (symbol.is(TokenType.NUMBER) && "0".equals(symbol.token.value)) {
+				next();
+				//0
+				pushf(0f);
+				return replace(start, "OBJECT");
+			}
+		} catch (ParseException e) {
+			lastParseException = e;
+			if (fail) throw e;
+		}
+		if (fail) {
+			if (lastParseException != null) throw lastParseException;
+			symbol = peek();
+			throw new ParseException("Unexpected token: "+symbol, file, symbol.token.line, symbol.token.col);
+		} else {
+			revert(start, startIp, startPreserve);
+			return null;
+		}
+	}
+	
+	private SymbolInstance parseObjectGet() throws ParseException {
+		final int start = symbols.position();
+		accept("get");
+		SymbolInstance symbol = peek();
+		if (symbol.is("building")) {
+			accept("building");
+			symbol = peek();
+			if (symbol.is("woodpile")) {
+				//get building woodpile in OBJECT
+				parse("woodpile in OBJECT");
+				sys(CALL_BUILDING_WOODPILE_IN_TOWN);
+				return replace(start, "OBJECT");
+			} else {
+				//get building ABODE_NUMBER in OBJECT [min built EXPRESSION] [excluding scripted]
+				parse("CONST_EXPR in OBJECT [min built EXPRESSION] [excluding scripted]");
+				sys(CALL_BUILDING_IN_TOWN);
+				return replace(start, "OBJECT");
+			}
+		} else if (symbol.is("poisoned")) {
+			//get poisoned TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT
+			parse("poisoned CONST_EXPR");
+			symbol = peek();
+			if (symbol.is("in")) {
+				pushi(DEFAULT_SUBTYPE_NAME);
+			} else {
+				parseConstExpr(true);
+			}
+			parse("in OBJECT");
+			sys(CALL_POISONED_IN);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("not")) {
+			//get not poisoned SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT [excluding scripted]
+			parse("not poisoned CONST_EXPR");
+			symbol = peek();
+			if (symbol.is("in")) {
+				pushi(DEFAULT_SUBTYPE_NAME);
+			} else {
+				parseConstExpr(true);
+			}
+			parse("in OBJECT [excluding scripted]");
+			sys(CALL_NOT_POISONED_IN);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("totem")) {
+			parse("totem statue in OBJECT");
+			//get totem statue in OBJECT
+			sys(GET_TOTEM_STATUE);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("player")) {
+			parse("player EXPRESSION creature");
+			//get player EXPRESSION creature
+			sys(CALL_PLAYER_CREATURE);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("computer")) {
+			parse("computer player EXPRESSION");
+			//get computer player EXPRESSION
+			sys(CALL_COMPUTER_PLAYER);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("held")) {
+			//get held by OBJECT
+			parse("held by OBJECT");
+			sys(GET_OBJECT_HELD2);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("dropped")) {
+			parse("dropped by OBJECT");
+			//get dropped by OBJECT
+			sys(GET_OBJECT_DROPPED);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("nearest")) {
+			parse("nearest town at COORD_EXPR for player EXPRESSION radius EXPRESSION");
+			//get nearest town at COORD_EXPR for player EXPRESSION radius EXPRESSION
+			sys(GET_NEAREST_TOWN_OF_PLAYER);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("town")) {
+			parse("town with id EXPRESSION");
+			//get town with id EXPRESSION
+			sys(GET_TOWN_WITH_ID);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("target")) {
+			parse("target object for OBJECT");
+			//get target object for OBJECT
+			sys(GET_TARGET_OBJECT);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("arena")) {
+			parse("arena at COORD_EXPR radius EXPRESSION");
+			//get arena at COORD_EXPR radius EXPRESSION
+			throw new ParseException("Statement not implemented", lastParseException, file, line, col);
+			//return replace(start, "OBJECT");
+		} else if (symbol.is("hit")) {
+			parse("hit object");
+			//get hit object
+			sys(GET_HIT_OBJECT);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("object")) {
+			accept("object");
+			symbol = peek();
+			if (symbol.is("which")) {
+				parse("which hit");
 				symbol = peek();
-				if (symbol.is("random")) {
-					parse("random villager of tribe CONST_EXPR at COORD_EXPR");
-					//create random villager of tribe CONST_EXPR at COORD_EXPR
-					sys(CREATE_RANDOM_VILLAGER_OF_TRIBE);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("highlight")) {
-					parse("highlight CONST_EXPR CONST_EXPR at COORD_EXPR");
-					//create highlight CONST_EXPR HIGHLIGHT_INFO at COORD_EXPR
-					sys(CREATE_HIGHLIGHT);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("mist")) {
-					parse("mist at COORD_EXPR scale EXPRESSION red EXPRESSION green EXPRESSION blue EXPRESSION transparency EXPRESSION height ratio EXPRESSION");
-					//create mist at COORD_EXPR scale EXPRESSION red EXPRESSION green EXPRESSION blue EXPRESSION transparency EXPRESSION height ratio EXPRESSION
-					sys(CREATE_MIST);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("with")) {
-					//create with angle EXPRESSION and scale EXPRESSION CONST_EXPR CONST_EXPR at COORD_EXPR
-					parse("with angle EXPRESSION and scale EXPRESSION CONST_EXPR");
-					symbol = peek();
-					if (symbol.is("at")) {
-						pushi(DEFAULT_SUBTYPE_NAME);
-					} else {
-						parseConstExpr(true);
-					}
-					parse("at COORD_EXPR");
-					sys(CREATE_WITH_ANGLE_AND_SCALE);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("timer")) {
-					parse("timer for EXPRESSION second|seconds");
-					//create timer for EXPRESSION second|seconds
-					sys(CREATE_TIMER);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("influence")) {
-					accept("influence");
-					symbol = peek();
-					if (symbol.is("on")) {
-						parse("on OBJECT [radius EXPRESSION]", 1.0);
-						//create influence on OBJECT [radius EXPRESSION]
-						pushi(0);	//fixed 0
-						pushi(0);	//0 = no anti
-						sys(INFLUENCE_OBJECT);
-						return replace(start, "OBJECT");
-					} else if (symbol.is("at")) {
-						parse("at COORD_EXPR [radius EXPRESSION]", 1.0);
-						//create influence at COORD_EXPR [radius EXPRESSION]
-						pushi(0);	//fixed 0
-						pushi(0);	//0 = no anti
-						sys(INFLUENCE_POSITION);
-						return replace(start, "OBJECT");
-					} else {
-						throw new ParseException("Unexpected token: "+symbol+". Expected: on|at", lastParseException, file, symbol.token.line, symbol.token.col);
-					}
-				} else if (symbol.is("anti")) {
-					parse("anti influence");
-					symbol = peek();
-					if (symbol.is("on")) {
-						parse("on OBJECT [radius EXPRESSION]", 1.0);
-						//create anti influence on OBJECT [radius EXPRESSION]
-						pushi(0);	//fixed 0
-						pushi(1);	//1 = anti
-						sys(INFLUENCE_OBJECT);
-						return replace(start, "OBJECT");
-					} else if (symbol.is("at")) {
-						parse("at position COORD_EXPR [radius EXPRESSION]", 1.0);
-						//create anti influence at position COORD_EXPR [radius EXPRESSION]
-						pushi(0);	//fixed 0
-						pushi(1);	//1 = anti
-						sys(INFLUENCE_POSITION);
-						return replace(start, "OBJECT");
-					} else {
-						throw new ParseException("Unexpected token: "+symbol+". Expected: on|at", lastParseException, file, symbol.token.line, symbol.token.col);
-					}
-				} else if (symbol.is("special")) {
-					parse("special effect");
-					symbol = peek();
-					if (symbol.is("from")) {
-						//create special effect from file STRING
-						parse("from file STRING");
-						sys(EFFECT_FROM_FILE);
-						return replace(start, "OBJECT");
-					} else {
-						parseConstExpr(true);
-						symbol = peek();
-						if (symbol.is("at")) {
-							//create special effect CONST_EXPR at COORD_EXPR [time EXPRESSION]
-							parse("at COORD_EXPR [time EXPRESSION]", 1.0);
-							sys(SPECIAL_EFFECT_POSITION);
-							return replace(start, "OBJECT");
-						} else if (symbol.is("on")) {
-							//create special effect CONST_EXPR on OBJECT [time EXPRESSION]
-							parse("on OBJECT [time EXPRESSION]", 1.0);
-							sys(SPECIAL_EFFECT_OBJECT);
-							return replace(start, "OBJECT");
-						} else {
-							throw new ParseException("Unexpected token: "+symbol+". Expected: at|on", lastParseException, file, symbol.token.line, symbol.token.col);
-						}
-					}
-				} else if (symbol.is("young")) {
-					//create young creature from OBJECT with OBJECT knowledge at COORD_EXPR
-					parse("young creature from OBJECT with OBJECT knowledge at COORD_EXPR");
-					sys(CREATURE_CREATE_YOUNG_WITH_KNOWLEDGE);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("dumb") || symbol.is("creature")) {
-					//create [dumb] creature from creature OBJECT EXPRESSION at COORD_EXPR CONST_EXPR
-					boolean dumb = symbol.is("dumb");
-					if (dumb) {
-						next();
-					}
-					parse("creature from creature OBJECT EXPRESSION at COORD_EXPR CONST_EXPR");
-					pushb(dumb);
-					sys(CREATURE_CREATE_RELATIVE_TO_CREATURE);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("player")) {
-					parse("player EXPRESSION");
-					symbol = peek();
-					if (symbol.is("temple")) {
-						//create player EXPRESSION temple at COORD_EXPR
-						parse("temple at COORD_EXPR");
-						sys(CREATE_PLAYER_TEMPLE);
-						return replace(start, "OBJECT");
-					} else if (symbol.is("town")) {
-						//create player EXPRESSION town at COORD_EXPR type TRIBE_TYPE
-						parse("town at COORD_EXPR type CONST_EXPR");
-						sys(GAME_CREATE_TOWN);
-						return replace(start, "OBJECT");
-					} else {
-						throw new ParseException("Expected: temple|town", lastParseException, file, symbol.token.line, symbol.token.col);
-					}
-				} else if (symbol.is("alex")) {
-					//create alex special effect CONST_EXPR at COORD_EXPR
-					parse("alex special effect CONST_EXPR at COORD_EXPR");
-					sys(ALEX_SPECIAL_EFFECT_POSITION);
+				if (symbol.is("land")) {
+					accept("land");
+					//get object which hit land
+					sys(GET_LAST_OBJECT_WHICH_HIT_LAND);
 					return replace(start, "OBJECT");
 				} else {
-					parseConstExpr(true);
-					symbol = peek();
-					if (symbol.is("at")) {
-						pushi(DEFAULT_SUBTYPE_NAME);
-					} else {
-						parseConstExpr(true);
-					}
-					parse("at COORD_EXPR");
-					//create SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] at COORD_EXPR
-					sys(CREATE);
-					return replace(start, "OBJECT");
-				}
-			} else if (symbol.is("marker")) {
-				parse("marker at");
-				pushi("SCRIPT_OBJECT_TYPE_MARKER");
-				pushi(0);
-				symbol = parseCoordExpr(false);
-				if (symbol != null) {
-					//marker at COORD_EXPR
-					sys(CREATE);
+					//get object which hit
+					sys(GET_OBJECT_WHICH_HIT);
 					return replace(start, "OBJECT");
-				} else {
-					symbol = parseConstExpr(false);
-					if (symbol != null) {
-						//marker at CONST_EXPR
-						throw new ParseException("Statement not implemented", lastParseException, file, line, col);
-						//return replace(start, "OBJECT");
-					} else {
-						symbol = peek();
-						throw new ParseException("Expected: COORD_EXPR|CONST_EXPR", lastParseException, file, symbol.token.line, symbol.token.col);
-					}
 				}
-			} else if (symbol.is("reward")) {
-				parse("reward CONST_EXPR");
-				symbol = peek();
-				if (symbol.is("at")) {
-					parse("at COORD_EXPR [from sky]");
-					//reward CONST_EXPR at COORD_EXPR [from sky]
-					sys(CREATE_REWARD);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("in")) {
-					parse("in OBJECT at COORD_EXPR [from sky]");
-					//reward CONST_EXPR in OBJECT at COORD_EXPR [from sky]
-					sys(CREATE_REWARD_IN_TOWN);
-					return replace(start, "OBJECT");
+			} else if (symbol.is("held")) {
+				accept("held");
+				//get object held
+				sys(GET_OBJECT_HELD1);
+				return replace(start, "OBJECT");
+			} else if (symbol.is("clicked")) {
+				accept("clicked");
+				//get object clicked
+				sys(GET_OBJECT_CLICKED);
+				return replace(start, "OBJECT");
+			} else if (symbol.is("hand")) {
+				parse("hand is over");
+				//get object hand is over
+				sys(GET_OBJECT_HAND_IS_OVER);
+				return replace(start, "OBJECT");
+			} else {
+				//get object OBJECT leashed to
+				parse("OBJECT leashed to");
+				sys(GET_OBJECT_OBJECT_LEASHED_TO);
+				return replace(start, "OBJECT");
+			}
+		} else if (symbol.is("football")) {
+			parse("football pitch in OBJECT");
+			//get football pitch in OBJECT
+			sys(GET_FOOTBALL_PITCH);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("spell")) {
+			accept("spell");
+			symbol = peek();
+			if (symbol.is("icon")) {
+				//get spell icon CONST_EXPR in OBJECT
+				parse("icon CONST_EXPR in OBJECT");
+				sys(GET_SPELL_ICON_IN_TEMPLE);
+				return replace(start, "OBJECT");
+			} else {
+				//get spell CONST_EXPR at COORD_EXPR radius EXPRESSION
+				parse("CONST_EXPR at COORD_EXPR radius EXPRESSION");
+				sys(SPELL_AT_POINT);
+				return replace(start, "OBJECT");
+			}
+		} else if (symbol.is("first")) {
+			parse("first in OBJECT");
+			//get first in OBJECT
+			sys(GET_FIRST_IN_CONTAINER);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("next")) {
+			parse("next in OBJECT after OBJECT");
+			//get next in OBJECT after OBJECT
+			sys(GET_NEXT_IN_CONTAINER);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("dead")) {
+			parse("dead at COORD_EXPR radius EXPRESSION");
+			//get dead at COORD_EXPR radius EXPRESSION
+			sys(GET_DEAD_LIVING);
+			return replace(start, "OBJECT");
+		} else {
+			final int checkpoint = symbols.position();
+			final int checkpointIp = getIp();
+			final SymbolInstance checkpointPreserve = peek();
+			symbol = parseConstExpr(false);
+			if (symbol != null) {
+				symbol = peek();
+				if (symbol.is("at") || symbol.is("in") || symbol.is("flying")) {
+					pushi(DEFAULT_SUBTYPE_NAME);
 				} else {
-					throw new ParseException("Unexpected token: "+symbol+". Expected: at|in", lastParseException, file, symbol.token.line, symbol.token.col);
+					parseConstExpr(true);
+					symbol = peek();
 				}
-			} else if (symbol.is("flock")) {
-				parse("flock at COORD_EXPR");
-				//flock at COORD_EXPR
-				sys(FLOCK_CREATE);
-				return replace(start, "OBJECT");
-			} else if (symbol.is("make")) {
-				parse("make OBJECT dance CONST_EXPR around COORD_EXPR time EXPRESSION");
-				//make OBJECT dance CONST_EXPR around COORD_EXPR time EXPRESSION
-				sys(DANCE_CREATE);
-				return replace(start, "OBJECT");
-			} else if (symbol.is("cast")) {
-				parse("cast CONST_EXPR spell");
-				symbol = peek();
-				if (symbol.is("on")) {
-					//cast CONST_EXPR spell on OBJECT from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION [without reaction]
-					parse("on OBJECT from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION");
+				if (symbol.is("at")) {
+					parse("at COORD_EXPR");
 					symbol = peek();
-					if (symbol.is("without")) {
-						parse("without reaction");
-						pushb(false);
+					if (symbol.is("radius")) {
+						//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] at COORD_EXPR radius EXPRESSION [excluding scripted]
+						parse("radius EXPRESSION [excluding scripted]");
+						sys(CALL_NEAR);
+						return replace(start, "OBJECT");
 					} else {
-						pushb(true);
+						//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] at COORD_EXPR [excluding scripted]
+						parse("[excluding scripted]");
+						sys(CALL);
+						return replace(start, "OBJECT");
 					}
-					sys(SPELL_AT_THING);
-					return replace(start, "OBJECT");
-				} else if (symbol.is("at")) {
-					//cast CONST_EXPR spell at COORD_EXPR from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION [without reaction]
-					parse("at COORD_EXPR from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION");
+				} else if (symbol.is("in")) {
+					accept("in");
 					symbol = peek();
-					if (symbol.is("without")) {
-						parse("without reaction");
-						pushb(false);
+					if (symbol.is("state")) {
+						//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in state CONST_EXPR at COORD_EXPR radius EXPRESSION [excluding scripted]
+						parse("state CONST_EXPR at COORD_EXPR radius EXPRESSION [excluding scripted]");
+						sys(CALL_NEAR_IN_STATE);
+						return replace(start, "OBJECT");
 					} else {
-						pushb(true);
+						parseObject(true);
+						symbol = peek();
+						if (symbol.is("at")) {
+							//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT at COORD_EXPR radius EXPRESSION [excluding scripted]
+							parse("at COORD_EXPR radius EXPRESSION [excluding scripted]");
+							sys(CALL_IN_NEAR);
+							return replace(start, "OBJECT");
+						} else if (symbol.is("not")) {
+							//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT not near COORD_EXPR radius EXPRESSION [excluding scripted]
+							parse("not near COORD_EXPR radius EXPRESSION [excluding scripted]");
+							sys(CALL_IN_NOT_NEAR);
+							return replace(start, "OBJECT");
+						} else {
+							//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] in OBJECT [excluding scripted]
+							parse("[excluding scripted]");
+							sys(CALL_IN);
+							return replace(start, "OBJECT");
+						}
 					}
-					sys(SPELL_AT_POS);
+				} else if (symbol.is("flying")) {
+					parse("flying at COORD_EXPR radius EXPRESSION [excluding scripted]");
+					//get SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] flying at COORD_EXPR radius EXPRESSION [excluding scripted]
+					sys(CALL_FLYING);
 					return replace(start, "OBJECT");
-				} else {
-					throw new ParseException("Unexpected token: "+symbol+". Expected: on|at", lastParseException, file, symbol.token.line, symbol.token.col);
 				}
-			} else if (symbol.is("attach")) {
-				parse("attach OBJECT to OBJECT [as leader]");
-				//attach OBJECT to OBJECT [as leader]
-				sys(FLOCK_ATTACH);
+				revert(checkpoint, checkpointIp, checkpointPreserve);
+			}
+			symbol = parseObject(false);
+			if (symbol != null) {
+				accept("flock");
+				//get OBJECT flock
+				sys(GET_OBJECT_FLOCK);
 				return replace(start, "OBJECT");
-			} else if (symbol.is("detach")) {
-				parse("detach [OBJECT] from OBJECT");
-				//detach [OBJECT] from OBJECT
-				sys(FLOCK_DETACH);
+			}
+		}
+		return null;
+	}
+	
+	private SymbolInstance parseObjectCreate() throws ParseException {
+		final int start = symbols.position();
+		accept("create");
+		SymbolInstance symbol = peek();
+		if (symbol.is("random")) {
+			parse("random villager of tribe CONST_EXPR at COORD_EXPR");
+			//create random villager of tribe CONST_EXPR at COORD_EXPR
+			sys(CREATE_RANDOM_VILLAGER_OF_TRIBE);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("highlight")) {
+			parse("highlight CONST_EXPR CONST_EXPR at COORD_EXPR");
+			//create highlight CONST_EXPR HIGHLIGHT_INFO at COORD_EXPR
+			sys(CREATE_HIGHLIGHT);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("mist")) {
+			parse("mist at COORD_EXPR scale EXPRESSION red EXPRESSION green EXPRESSION blue EXPRESSION transparency EXPRESSION height ratio EXPRESSION");
+			//create mist at COORD_EXPR scale EXPRESSION red EXPRESSION green EXPRESSION blue EXPRESSION transparency EXPRESSION height ratio EXPRESSION
+			sys(CREATE_MIST);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("with")) {
+			//create with angle EXPRESSION and scale EXPRESSION CONST_EXPR CONST_EXPR at COORD_EXPR
+			parse("with angle EXPRESSION and scale EXPRESSION CONST_EXPR");
+			symbol = peek();
+			if (symbol.is("at")) {
+				pushi(DEFAULT_SUBTYPE_NAME);
+			} else {
+				parseConstExpr(true);
+			}
+			parse("at COORD_EXPR");
+			sys(CREATE_WITH_ANGLE_AND_SCALE);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("timer")) {
+			parse("timer for EXPRESSION second|seconds");
+			//create timer for EXPRESSION second|seconds
+			sys(CREATE_TIMER);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("influence")) {
+			accept("influence");
+			symbol = peek();
+			if (symbol.is("on")) {
+				parse("on OBJECT [radius EXPRESSION]", 1.0);
+				//create influence on OBJECT [radius EXPRESSION]
+				pushi(0);	//fixed 0
+				pushi(0);	//0 = no anti
+				sys(INFLUENCE_OBJECT);
 				return replace(start, "OBJECT");
-			} else if (symbol.is(TokenType.IDENTIFIER)) {
-				parse("VARIABLE");
-				//VARIABLE
+			} else if (symbol.is("at")) {
+				parse("at COORD_EXPR [radius EXPRESSION]", 1.0);
+				//create influence at COORD_EXPR [radius EXPRESSION]
+				pushi(0);	//fixed 0
+				pushi(0);	//0 = no anti
+				sys(INFLUENCE_POSITION);
 				return replace(start, "OBJECT");
-			} else if (symbol.is(TokenType.NUMBER) && "0".equals(symbol.token.value)) {
+			} else {
+				throw new ParseException("Unexpected token: "+symbol+". Expected: on|at", lastParseException, file, symbol.token.line, symbol.token.col);
+			}
+		} else if (symbol.is("anti")) {
+			parse("anti influence");
+			symbol = peek();
+			if (symbol.is("on")) {
+				parse("on OBJECT [radius EXPRESSION]", 1.0);
+				//create anti influence on OBJECT [radius EXPRESSION]
+				pushi(0);	//fixed 0
+				pushi(1);	//1 = anti
+				sys(INFLUENCE_OBJECT);
+				return replace(start, "OBJECT");
+			} else if (symbol.is("at")) {
+				parse("at position COORD_EXPR [radius EXPRESSION]", 1.0);
+				//create anti influence at position COORD_EXPR [radius EXPRESSION]
+				pushi(0);	//fixed 0
+				pushi(1);	//1 = anti
+				sys(INFLUENCE_POSITION);
+				return replace(start, "OBJECT");
+			} else {
+				throw new ParseException("Unexpected token: "+symbol+". Expected: on|at", lastParseException, file, symbol.token.line, symbol.token.col);
+			}
+		} else if (symbol.is("special")) {
+			parse("special effect");
+			symbol = peek();
+			if (symbol.is("from")) {
+				//create special effect from file STRING
+				parse("from file STRING");
+				sys(EFFECT_FROM_FILE);
+				return replace(start, "OBJECT");
+			} else {
+				parseConstExpr(true);
+				symbol = peek();
+				if (symbol.is("at")) {
+					//create special effect CONST_EXPR at COORD_EXPR [time EXPRESSION]
+					parse("at COORD_EXPR [time EXPRESSION]", 1.0);
+					sys(SPECIAL_EFFECT_POSITION);
+					return replace(start, "OBJECT");
+				} else if (symbol.is("on")) {
+					//create special effect CONST_EXPR on OBJECT [time EXPRESSION]
+					parse("on OBJECT [time EXPRESSION]", 1.0);
+					sys(SPECIAL_EFFECT_OBJECT);
+					return replace(start, "OBJECT");
+				} else {
+					throw new ParseException("Unexpected token: "+symbol+". Expected: at|on", lastParseException, file, symbol.token.line, symbol.token.col);
+				}
+			}
+		} else if (symbol.is("young")) {
+			//create young creature from OBJECT with OBJECT knowledge at COORD_EXPR
+			parse("young creature from OBJECT with OBJECT knowledge at COORD_EXPR");
+			sys(CREATURE_CREATE_YOUNG_WITH_KNOWLEDGE);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("dumb") || symbol.is("creature")) {
+			//create [dumb] creature from creature OBJECT EXPRESSION at COORD_EXPR CONST_EXPR
+			boolean dumb = symbol.is("dumb");
+			if (dumb) {
 				next();
-				//0
-				pushf(0f);
+			}
+			parse("creature from creature OBJECT EXPRESSION at COORD_EXPR CONST_EXPR");
+			pushb(dumb);
+			sys(CREATURE_CREATE_RELATIVE_TO_CREATURE);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("player")) {
+			parse("player EXPRESSION");
+			symbol = peek();
+			if (symbol.is("temple")) {
+				//create player EXPRESSION temple at COORD_EXPR
+				parse("temple at COORD_EXPR");
+				sys(CREATE_PLAYER_TEMPLE);
 				return replace(start, "OBJECT");
+			} else if (symbol.is("town")) {
+				//create player EXPRESSION town at COORD_EXPR type TRIBE_TYPE
+				parse("town at COORD_EXPR type CONST_EXPR");
+				sys(GAME_CREATE_TOWN);
+				return replace(start, "OBJECT");
+			} else {
+				throw new ParseException("Expected: temple|town", lastParseException, file, symbol.token.line, symbol.token.col);
 			}
-		} catch (ParseException e) {
-			lastParseException = e;
-			if (fail) throw e;
+		} else if (symbol.is("alex")) {
+			//create alex special effect CONST_EXPR at COORD_EXPR
+			parse("alex special effect CONST_EXPR at COORD_EXPR");
+			sys(ALEX_SPECIAL_EFFECT_POSITION);
+			return replace(start, "OBJECT");
+		} else {
+			parseConstExpr(true);
+			symbol = peek();
+			if (symbol.is("at")) {
+				pushi(DEFAULT_SUBTYPE_NAME);
+			} else {
+				parseConstExpr(true);
+			}
+			parse("at COORD_EXPR");
+			//create SCRIPT_OBJECT_TYPE [SCRIPT_OBJECT_SUBTYPE] at COORD_EXPR
+			sys(CREATE);
+			return replace(start, "OBJECT");
 		}
-		if (fail) {
-			if (lastParseException != null) throw lastParseException;
+	}
+	
+	private SymbolInstance parseObjectMarker() throws ParseException {
+		final int start = symbols.position();
+		parse("marker at");
+		pushi("SCRIPT_OBJECT_TYPE_MARKER");
+		pushi(0);
+		SymbolInstance symbol = parseCoordExpr(false);
+		if (symbol != null) {
+			//marker at COORD_EXPR
+			sys(CREATE);
+			return replace(start, "OBJECT");
+		} else {
+			symbol = parseConstExpr(false);
+			if (symbol != null) {
+				//marker at CONST_EXPR
+				throw new ParseException("Statement not implemented", lastParseException, file, line, col);
+				//return replace(start, "OBJECT");
+			} else {
+				symbol = peek();
+				throw new ParseException("Expected: COORD_EXPR|CONST_EXPR", lastParseException, file, symbol.token.line, symbol.token.col);
+			}
+		}
+	}
+	
+	private SymbolInstance parseObjectReward() throws ParseException {
+		final int start = symbols.position();
+		parse("reward CONST_EXPR");
+		SymbolInstance symbol = peek();
+		if (symbol.is("at")) {
+			parse("at COORD_EXPR [from sky]");
+			//reward CONST_EXPR at COORD_EXPR [from sky]
+			sys(CREATE_REWARD);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("in")) {
+			parse("in OBJECT at COORD_EXPR [from sky]");
+			//reward CONST_EXPR in OBJECT at COORD_EXPR [from sky]
+			sys(CREATE_REWARD_IN_TOWN);
+			return replace(start, "OBJECT");
+		} else {
+			throw new ParseException("Unexpected token: "+symbol+". Expected: at|in", lastParseException, file, symbol.token.line, symbol.token.col);
+		}
+	}
+	
+	private SymbolInstance parseObjectFlock() throws ParseException {
+		final int start = symbols.position();
+		parse("flock at COORD_EXPR");
+		//flock at COORD_EXPR
+		sys(FLOCK_CREATE);
+		return replace(start, "OBJECT");
+	}
+	
+	private SymbolInstance parseObjectMake() throws ParseException {
+		final int start = symbols.position();
+		parse("make OBJECT dance CONST_EXPR around COORD_EXPR time EXPRESSION");
+		//make OBJECT dance CONST_EXPR around COORD_EXPR time EXPRESSION
+		sys(DANCE_CREATE);
+		return replace(start, "OBJECT");
+	}
+	
+	private SymbolInstance parseObjectCast() throws ParseException {
+		final int start = symbols.position();
+		parse("cast CONST_EXPR spell");
+		SymbolInstance symbol = peek();
+		if (symbol.is("on")) {
+			//cast CONST_EXPR spell on OBJECT from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION [without reaction]
+			parse("on OBJECT from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION");
 			symbol = peek();
-			throw new ParseException("Unexpected token: "+symbol, file, symbol.token.line, symbol.token.col);
+			if (symbol.is("without")) {
+				parse("without reaction");
+				pushb(false);
+			} else {
+				pushb(true);
+			}
+			sys(SPELL_AT_THING);
+			return replace(start, "OBJECT");
+		} else if (symbol.is("at")) {
+			//cast CONST_EXPR spell at COORD_EXPR from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION [without reaction]
+			parse("at COORD_EXPR from COORD_EXPR radius EXPRESSION time EXPRESSION curl EXPRESSION");
+			symbol = peek();
+			if (symbol.is("without")) {
+				parse("without reaction");
+				pushb(false);
+			} else {
+				pushb(true);
+			}
+			sys(SPELL_AT_POS);
+			return replace(start, "OBJECT");
 		} else {
-			revert(start, startIp, startPreserve);
-			return null;
+			throw new ParseException("Unexpected token: "+symbol+". Expected: on|at", lastParseException, file, symbol.token.line, symbol.token.col);
 		}
 	}
 	
+	private SymbolInstance parseObjectAttach() throws ParseException {
+		final int start = symbols.position();
+		parse("attach OBJECT to OBJECT [as leader]");
+		//attach OBJECT to OBJECT [as leader]
+		sys(FLOCK_ATTACH);
+		return replace(start, "OBJECT");
+	}
+	
+	private SymbolInstance parseObjectDetach() throws ParseException {
+		final int start = symbols.position();
+		parse("detach [OBJECT] from OBJECT");
+		//detach [OBJECT] from OBJECT
+		sys(FLOCK_DETACH);
+		return replace(start, "OBJECT");
+	}
+	
 	private SymbolInstance parseConstExpr(boolean fail) throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = peek();
 		try {
 			if (symbol.is("constant")) {
@@ -5468,7 +5831,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseCoordExpr(boolean fail) throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = peek();
 		SymbolInstance newSym = parseCoordExpr1();
 		while (newSym != null && newSym != symbol) {
@@ -5492,7 +5855,7 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance parseCoordExpr1() throws ParseException {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance symbol = peek();
 		if ("COORD_EXPR".equals(symbol.symbol.keyword)) {
 			next();
@@ -5519,7 +5882,7 @@ public class CHLCompiler {
 			}
 		} else if (symbol.is("[")) {
 			accept("[");
-			final int checkpoint = it.nextIndex();
+			final int checkpoint = symbols.position();
 			final int checkpointIp = getIp();
 			final SymbolInstance checkpointSymbol = peek();
 			symbol = parseObject(false);
@@ -5671,7 +6034,7 @@ public class CHLCompiler {
 			//(COORD_EXPR)
 			return replace(start, "COORD_EXPR");
 		} else {
-			final int checkpoint = it.nextIndex();
+			final int checkpoint = symbols.position();
 			final int checkpointIp = getIp();
 			final SymbolInstance checkpointPreserve = peek();
 			symbol = parseExpression(false);
@@ -5749,16 +6112,22 @@ public class CHLCompiler {
 	 * @throws ParseException
 	 */
 	private int getConstant(String name) throws ParseException {
-		Integer val = localConst.get(name);
-		if (val == null) {
-			val = constants.get(name);
+		int index = localConst.indexOf(name);
+		if (index >= 0) {
+			lastParseException = null;
+			return localConst.valueAt(index);
 		}
-		if (val == null) {
+		index = constants.indexOf(name);
+		if (index < 0) {
+			useGlobalConstant(name, null);
 			lastParseException = new ParseException("Undefined constant: "+name, file, line, col);
 			throw lastParseException;
-		} else {
-			lastParseException = null;
 		}
+		final int val = constants.valueAt(index);
+		if (!usedGlobalConstants.containsKey(name)) {
+			useGlobalConstant(name, val);
+		}
+		lastParseException = null;
 		return val;
 	}
 	
@@ -5783,7 +6152,7 @@ public class CHLCompiler {
 			var = globalMap.get(name);
 		}
 		if (var == null) {
-			if (!name.equals(name.toUpperCase()) || externalVars.contains(name)) {
+			if (!name.equals(name.toUpperCase()) || isExternalVar(name)) {
 				return -objcode.getExternalVarId(name, index);
 			}
 			throw new ParseException("Undefined variable: "+name, file, line, col);
@@ -5800,70 +6169,89 @@ public class CHLCompiler {
 		return var.index + index;
 	}
 	
+	/**Records the value of a global constant the first time it's used, unless it's defined by this file.
+	 * @param name
+	 * @param val
+	 */
+	private void useGlobalConstant(String name, Integer val) {
+		if (!fileConstants.containsKey(name) && !usedGlobalConstants.containsKey(name)) {
+			usedGlobalConstants.put(name, val);
+		}
+	}
+	
+	private boolean isExternalVar(String name) {
+		boolean defined = externalVars.contains(name);
+		if (!fileGlobalVars.contains(name)) {
+			usedGlobalVars.putIfAbsent(name, defined);
+		}
+		return defined;
+	}
+	
 	private SymbolInstance next() {
 		return next(true);
 	}
 	
 	private SymbolInstance next(boolean skipEol) {
-		SymbolInstance r = it.next();
+		SymbolInstance r = symbols.next();
 		if (skipEol) {
 			while (r.is(TokenType.EOL)) {
-				r = it.next();
+				r = symbols.next();
 			}
 		}
-		if (r.token != null) {
-			line = r.token.line;
-			col = r.token.col;
-		}
+		setPosition(r.token);
 		return r;
 	}
 	
 	private SymbolInstance prev() {
-		SymbolInstance r = it.previous();
-		if (r.token != null) {
-			line = r.token.line;
-			col = r.token.col;
-		}
+		SymbolInstance r = symbols.previous();
+		setPosition(r.token);
 		return r;
 	}
 	
+	/**Moves back to the given symbol index, updating the current line and column like {@link #prev()}.
+	 * @param index
+	 */
+	private void rewind(final int index) {
+		if (symbols.position() > index) {
+			setPosition(symbols.rewind(index));
+		}
+	}
+	
+	private void setPosition(Token token) {
+		if (token != null) {
+			line = token.line;
+			col = token.col;
+		}
+	}
+	
 	private boolean checkAhead(String expression) {
-		final int start = it.nextIndex();
-		String[] symbols = expression.split(" ");
+		final int start = symbols.position();
 		boolean match = true;
-		for (String symbol : symbols) {
-			if ("ANY".equals(symbol)) {
-				next();
-			} else if ("IDENTIFIER".equals(symbol) || "NUMBER".equals(symbol) || "STRING".equals(symbol)) {
-				SymbolInstance sInst = next();
-				TokenType type = TokenType.valueOf(symbol);
-				if (!sInst.is(type)) {
-					match = false;
+		for (Op op : StatementPattern.forLookAhead(expression).ops) {
+			SymbolInstance sInst;
+			switch (op.type) {
+				case ANY:
+					next();
 					break;
-				}
-			} else if ("CONSTANT".equals(symbol)) {
-				SymbolInstance sInst = next();
-				if (!sInst.is(TokenType.IDENTIFIER) && !sInst.is(TokenType.NUMBER)) {
-					match = false;
+				case TOKEN:
+					sInst = next();
+					match = sInst.is(op.tokenType);
 					break;
-				}
-			} else if ("EOL".equals(symbol)) {
-				SymbolInstance sInst = next(false);
-				if (!sInst.is(TokenType.EOL)) {
-					match = false;
+				case CONSTANT:
+					sInst = next();
+					match = sInst.is(TokenType.IDENTIFIER) || sInst.is(TokenType.NUMBER);
 					break;
-				}
-			} else {
-				SymbolInstance sInst = next();
-				if (!sInst.is(symbol)) {
-					match = false;
+				case EOL:
+					sInst = next(false);
+					match = sInst.is(TokenType.EOL);
 					break;
-				}
+				default:
+					sInst = next();
+					match = op.matches(sInst);
 			}
+			if (!match) break;
 		}
-		while (it.nextIndex() > start) {
-			prev();
-		}
+		rewind(start);
 		return match;
 	}
 	
@@ -5872,16 +6260,14 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance peek(boolean skipEol) {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		SymbolInstance r = next(skipEol);
-		while (it.nextIndex() > start) {
-			prev();
-		}
+		rewind(start);
 		return r;
 	}
 	
 	private SymbolInstance peek(int forward) {
-		final int start = it.nextIndex();
+		final int start = symbols.position();
 		if (forward < 0) {
 			throw new IllegalArgumentException("Invalid peek offset: "+forward);
 		}
@@ -5889,36 +6275,21 @@ public class CHLCompiler {
 			next();
 		}
 		SymbolInstance r = next();
-		while (it.nextIndex() > start) {
-			prev();
-		}
+		rewind(start);
 		return r;
 	}
 	
 	private void seek(final int index) {
-		while (it.nextIndex() < index) {
-			it.next();
-		}
-		while (it.nextIndex() > index) {
-			prev();
+		if (symbols.position() < index) {
+			symbols.reset(index);
+		} else {
+			rewind(index);
 		}
 		peek();
 	}
 	
-	private int storeStringData(String value) throws ParseError {
-		int strptr = strings.getOrDefault(value, -1);
-		if (!options.sharedStrings || strptr < 0) {
-			byte[] data = value.getBytes(ASCII);
-			strptr = dataBuffer.size();
-			strings.put(value, strptr);
-			try {
-				dataBuffer.write(data);
-			} catch (IOException e) {
-				throw new ParseError(e, file, line);
-			}
-			dataBuffer.write((byte)0);
-		}
-		return strptr;
+	private int storeStringData(String value) {
+		return options.sharedStrings ? dataBuffer.add(value) : dataBuffer.append(value);
 	}
 	
 	private SymbolInstance parseString() throws ParseException {
@@ -5935,202 +6306,195 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance[] parse(String expression, Object... defaults) throws ParseException {
-		String[] symbols = expression.split(" ");
-		SymbolInstance[] r = new SymbolInstance[symbols.length];
+		StatementPattern pattern = StatementPattern.forParse(expression);
+		SymbolInstance[] r = new SymbolInstance[pattern.length];
 		int defaultIndex = 0;
-		for (int i = 0; i < symbols.length; i++) {
-			String symbol = symbols[i];
-			if ("EXPRESSION".equals(symbol)) {
-				r[i] = parseExpression(true);
-			} else if ("COORD_EXPR".equals(symbol)) {
-				r[i] = parseCoordExpr(true);
-			} else if ("CONST_EXPR".equals(symbol)) {
-				r[i] = parseConstExpr(true);
-			} else if ("OBJECT".equals(symbol)) {
-				r[i] = parseObject(true);
-			} else if ("CONDITION".equals(symbol)) {
-				r[i] = parseCondition(true);
-			} else if ("STATEMENT".equals(symbol)) {
-				r[i] = parseStatement();
-			} else if ("IDENTIFIER".equals(symbol)) {
-				r[i] = accept(TokenType.IDENTIFIER);
-			} else if ("VARIABLE".equals(symbol)) {
-				r[i] = accept(TokenType.IDENTIFIER);
-				String name = r[i].token.value;
-				Var var = localMap.get(name);
-				boolean ref = var != null && var.ref;
-				SymbolInstance sInst = peek();
-				if (sInst.is("[")) {
-					accept("[");
-					if (checkAhead("NUMBER ]")) {
-						//IDENTIFIER\[NUMBER\]
-						sInst = next();
-						accept("]");
-						int index = sInst.token.intVal();
-						if (ref) {
-							pushvVal(name);
-							pushf(index);
-							ref_add_pushv();
+		int i = 0;
+		for (Op op : pattern.ops) {
+			switch (op.type) {
+				case EXPRESSION:
+					r[i] = parseExpression(true);
+					break;
+				case COORD_EXPR:
+					r[i] = parseCoordExpr(true);
+					break;
+				case CONST_EXPR:
+					r[i] = parseConstExpr(true);
+					break;
+				case OBJECT:
+					r[i] = parseObject(true);
+					break;
+				case CONDITION:
+					r[i] = parseCondition(true);
+					break;
+				case STATEMENT:
+					r[i] = parseStatement();
+					break;
+				case IDENTIFIER:
+					r[i] = accept(TokenType.IDENTIFIER);
+					break;
+				case VARIABLE: {
+					r[i] = accept(TokenType.IDENTIFIER);
+					String name = r[i].token.value;
+					Var var = localMap.get(name);
+					boolean ref = var != null && var.ref;
+					SymbolInstance sInst = peek();
+					if (sInst.is("[")) {
+						accept("[");
+						if (checkAhead("NUMBER ]")) {
+							//IDENTIFIER\[NUMBER\]
+							sInst = next();
+							accept("]");
+							int index = sInst.token.intVal();
+							if (ref) {
+								pushvVal(name);
+								pushf(index);
+								ref_add_pushv();
+							} else {
+								pushvVal(name, index);
+							}
 						} else {
-							pushvVal(name, index);
+							//IDENTIFIER\[EXPRESSION\]
+							parseExpression(true);
+							accept("]");
+							if (ref) {
+								pushvVal(name);
+								ref_add_pushf();
+							} else {
+								int varId = getVarId(name);
+								pushf(varId);
+								addf();
+								ref_push2();
+							}
 						}
 					} else {
-						//IDENTIFIER\[EXPRESSION\]
-						parseExpression(true);
-						accept("]");
-						if (ref) {
-							pushvVal(name);
-							ref_add_pushf();
-						} else {
-							int varId = getVarId(name);
-							pushf(varId);
-							addf();
-							ref_push2();
-						}
+						pushvVal(name);
 					}
-				} else {
-					pushvVal(name);
+					break;
 				}
-			} else if ("CONSTANT".equals(symbol)) {
-				r[i] = acceptAny(TokenType.NUMBER, TokenType.IDENTIFIER);
-				int val = getConstant(r[i]);
-				pushi(val);
-			} else if ("STRING".equals(symbol)) {
-				r[i] = parseString();
-			} else if ("EOL".equals(symbol)) {
-				if (dontRequireEol) {
-					r[i] = null;
-				} else {
-					SymbolInstance sInst = next(false);
-					if (!sInst.is(TokenType.EOL)) {
-						lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: EOL", lastParseException, file, sInst.token.line, sInst.token.col);
-						throw lastParseException;
-					}
-					r[i] = sInst;
+				case CONSTANT: {
+					r[i] = acceptAny(TokenType.NUMBER, TokenType.IDENTIFIER);
+					int val = getConstant(r[i]);
+					pushi(val);
+					break;
 				}
-			} else if ("SPIRIT_TYPE".equals(symbol)) {
-				r[i] = parseSpiritType();
-			} else if ("PLAYING_SIDE".equals(symbol)) {
-				r[i] = parsePlayingSide();
-			} else if (symbol.indexOf("|") >= 0) {
-				if ("enable|disable".equals(symbol)) {
-					r[i] = parseOptionKeyword("enable", "disable");
-				} else if ("forward|reverse".equals(symbol)) {
-					r[i] = parseOptionKeyword("forward", "reverse");
-				} else if ("open|close".equals(symbol)) {
-					r[i] = parseOptionKeyword("open", "close");
-				} else if ("pause|unpause".equals(symbol)) {
-					r[i] = parseOptionKeyword("pause", "unpause");
-				} else if ("quest|challenge".equals(symbol)) {
-					r[i] = parseOptionKeyword("quest", "challenge");
-				} else if ("enter|exit".equals(symbol)) {
-					r[i] = parseOptionKeyword("enter", "exit");
-				} else if ("left|right".equals(symbol)) {
-					r[i] = parseOptionKeyword("left", "right");
-				} else if ("up|down".equals(symbol)) {
-					r[i] = parseOptionKeyword("up", "down");
-				} else if ("second|seconds".equals(symbol)) {
-					SymbolInstance sInst = next();
-					if (!sInst.is("second") && !sInst.is("seconds")) {
-						lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: second|seconds", lastParseException, file, sInst.token.line, sInst.token.col);
-						throw lastParseException;
-					}
-					r[i] = sInst;
-				} else if ("event|events".equals(symbol)) {
-					SymbolInstance sInst = next();
-					if (!sInst.is("event") && !sInst.is("events")) {
-						lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: event|events", lastParseException, file, sInst.token.line, sInst.token.col);
-						throw lastParseException;
+				case STRING:
+					r[i] = parseString();
+					break;
+				case EOL:
+					if (dontRequireEol) {
+						r[i] = null;
+					} else {
+						SymbolInstance sInst = next(false);
+						if (!sInst.is(TokenType.EOL)) {
+							lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: EOL", lastParseException, file, sInst.token.line, sInst.token.col);
+							throw lastParseException;
+						}
+						r[i] = sInst;
 					}
-					r[i] = sInst;
-				} else if ("graphics|gfx".equals(symbol)) {
+					break;
+				case SPIRIT_TYPE:
+					r[i] = parseSpiritType();
+					break;
+				case PLAYING_SIDE:
+					r[i] = parsePlayingSide();
+					break;
+				case OPTION:
+					r[i] = parseOptionKeyword(op.alternatives[0], op.alternatives[1]);
+					break;
+				case ALTERNATIVE: {
 					SymbolInstance sInst = next();
-					if (!sInst.is("graphics") && !sInst.is("gfx")) {
-						lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: graphics|gfx", lastParseException, file, sInst.token.line, sInst.token.col);
+					if (!sInst.is(op.alternatives[0]) && !sInst.is(op.alternatives[1])) {
+						lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: "+op.keyword, lastParseException, file, sInst.token.line, sInst.token.col);
 						throw lastParseException;
 					}
 					r[i] = sInst;
-				} else {
-					throw new IllegalArgumentException("Unknown symbol: "+symbol);
+					break;
 				}
-			} else if (symbol.startsWith("[") && !"[".equals(symbol)) {	//Optional expression
-				boolean ended = false;
-				boolean match = true;
-				boolean flag = true;	//Tells if this optional expression must generate a boolean value (the other case is a default value)
-				symbols[i] = symbols[i].substring(1);
-				for (int start = i; i < symbols.length && !ended; i++) {
-					String expr = symbols[i];
-					if (expr.endsWith("]")) {
-						expr = expr.substring(0, expr.length() - 1);
-						ended = true;
-					}
-					if ("EXPRESSION".equals(expr)) {
-						flag = false;
-						if (match) {
-							r[i] = parseExpression(true);
-						} else {
-							float def = defaultIndex < defaults.length ? asFloat(defaults[defaultIndex]) : 0;
-							pushf(def);
-						}
-						defaultIndex++;
-					} else if ("CONST_EXPR".equals(expr)) {
-						flag = false;
-						if (match) {
-							r[i] = parseConstExpr(true);
-						} else {
-							int def = defaultIndex < defaults.length ? asInt(defaults[defaultIndex]) : 0;
-							pushi(def);
-						}
-						defaultIndex++;
-					} else if ("COORD_EXPR".equals(expr)) {
-						flag = false;
-						if (match) {
-							r[i] = parseCoordExpr(true);
-							pushb(true);	//with position
-						} else {
-							pushc(0);
-							pushc(0);
-							pushc(0);
-							pushb(false);	//without position
-						}
-						defaultIndex++;
-					} else if ("OBJECT".equals(expr)) {
-						flag = false;
-						if (match) {
-							r[i] = parseObject(false);
-							if (r[i] == null) {
-								pusho(0);
-							}
-						} else {
-							pusho(0);
-						}
-						defaultIndex++;
-					} else if (match) {
-						SymbolInstance sInst = peek(false);
-						if ("EOL".equals(expr) && sInst.is(TokenType.EOL)) {
-							accept(TokenType.EOL);
-						} else if (sInst.is(expr)) {
-							accept(expr);
-						} else if (i > start) {
-							lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: "+expr, lastParseException, file, sInst.token.line, sInst.token.col);
-							throw lastParseException;
-						} else {
-							match = false;
+				case OPTIONAL: {	//Optional expression
+					boolean match = true;
+					boolean flag = true;	//Tells if this optional expression must generate a boolean value (the other case is a default value)
+					for (int k = 0; k < op.items.length; k++) {
+						final Op item = op.items[k];
+						final int j = i + k;
+						switch (item.type) {
+							case EXPRESSION:
+								flag = false;
+								if (match) {
+									r[j] = parseExpression(true);
+								} else {
+									float def = defaultIndex < defaults.length ? asFloat(defaults[defaultIndex]) : 0;
+									pushf(def);
+								}
+								defaultIndex++;
+								break;
+							case CONST_EXPR:
+								flag = false;
+								if (match) {
+									r[j] = parseConstExpr(true);
+								} else {
+									int def = defaultIndex < defaults.length ? asInt(defaults[defaultIndex]) : 0;
+									pushi(def);
+								}
+								defaultIndex++;
+								break;
+							case COORD_EXPR:
+								flag = false;
+								if (match) {
+									r[j] = parseCoordExpr(true);
+									pushb(true);	//with position
+								} else {
+									pushc(0);
+									pushc(0);
+									pushc(0);
+									pushb(false);	//without position
+								}
+								defaultIndex++;
+								break;
+							case OBJECT:
+								flag = false;
+								if (match) {
+									r[j] = parseObject(false);
+									if (r[j] == null) {
+										pusho(0);
+									}
+								} else {
+									pusho(0);
+								}
+								defaultIndex++;
+								break;
+							default:
+								if (match) {
+									SymbolInstance sInst = peek(false);
+									if (item.type == OpType.EOL && sInst.is(TokenType.EOL)) {
+										accept(TokenType.EOL);
+									} else if (item.matches(sInst)) {
+										next();
+									} else if (k > 0) {
+										lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: "+item.keyword, lastParseException, file, sInst.token.line, sInst.token.col);
+										throw lastParseException;
+									} else {
+										match = false;
+									}
+								}
 						}
 					}
+					i += op.items.length - 1;
+					if (flag) {
+						pushb(match);
+					}
+					break;
 				}
-				i--;
-				if (flag) {
-					pushb(match);
-				}
-			} else {
-				SymbolInstance sInst = next();
-				if (!sInst.is(symbol)) {
-					lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: "+symbol, lastParseException, file, sInst.token.line, sInst.token.col);
-					throw lastParseException;
+				default: {
+					SymbolInstance sInst = next();
+					if (!op.matches(sInst)) {
+						lastParseException = new ParseException("Unexpected token: "+sInst+". Expected: "+op.keyword, lastParseException, file, sInst.token.line, sInst.token.col);
+						throw lastParseException;
+					}
+					r[i] = sInst;
 				}
-				r[i] = sInst;
 			}
+			i++;
 		}
 		lastParseException = null;
 		return r;
@@ -6167,31 +6531,71 @@ public class CHLCompiler {
 	}
 	
 	private SymbolInstance replace(final int index, String symbol) {
-		SymbolInstance newInst = new SymbolInstance(Syntax.getSymbol(symbol));
-		while (it.nextIndex() > index) {
-			SymbolInstance sInst = prev();
-			it.remove();
-			newInst.expression.add(0, sInst);
-		}
-		it.add(newInst);
-		return newInst;
+		//Update the line and column as if moving back over the reduced symbols
+		final int end = symbols.position();
+		rewind(index);
+		symbols.reset(end);
+		return symbols.reduce(index, Syntax.getSymbol(symbol));
 	}
 	
 	private void revert(final int index, final int instructionAddress, SymbolInstance preserve) {
-		while (it.nextIndex() > index) {
-			SymbolInstance sInst = prev();
-			if (sInst != preserve && sInst.expression != null) {
-				it.remove();
-				for (SymbolInstance sym : sInst.expression) {
-					it.add(sym);
-				}
-			}
+		if (symbols.position() > index || instructions.size() > instructionAddress) {
+			revertedParses++;
+		}
+		if (symbols.position() > index) {
+			setPosition(symbols.revert(index, preserve));
 		}
 		while (instructions.size() > instructionAddress) {
 			instructions.remove(instructions.size() - 1);
 		}
 	}
 	
+	/**Tells whether the next symbol can be the first one of the given symbol. Only keywords are checked
+	 * against the syntax, other tokens and reduced symbols are assumed to be valid.
+	 * @param target
+	 * @return
+	 */
+	private boolean canStart(Symbol target) {
+		SymbolInstance symbol = peek();
+		if (symbol.is(TokenType.KEYWORD) && !Syntax.canStartWith(target, symbol.symbol)) {
+			skippedParses++;
+			return false;
+		}
+		return true;
+	}
+	
+	/**Tells whether the next symbols can start a condition whose first operand is the given symbol. Besides
+	 * the check of {@link #canStart(Symbol)}, if the operand is a plain variable or a number, the symbol
+	 * after it must be a keyword which follows an OBJECT in a condition, or an operator which can extend an
+	 * EXPRESSION for COORD_EXPR, since an EXPRESSION starts a COORD_EXPR only as EXPRESSION * COORD_EXPR.
+	 * @param operand OBJECT, COORD_EXPR or EXPRESSION
+	 * @return
+	 */
+	private boolean canStartCondition(Symbol operand) {
+		if (!canStart(operand)) return false;
+		final Set<String> followers;
+		if (operand == OBJECT) {
+			followers = OBJECT_CONDITION_KEYWORDS;
+		} else if (operand == COORD_EXPR) {
+			followers = EXPRESSION_OPERATORS;
+		} else {
+			return true;
+		}
+		SymbolInstance symbol = peek();
+		SymbolInstance follower = peek(1);
+		if (symbol.is(TokenType.IDENTIFIER)) {
+			//Indexed variables, properties and function calls are longer than one symbol
+			if (follower.is("[") || follower.is("of") || follower.is("(")) return true;
+		} else if (!symbol.is(TokenType.NUMBER)) {
+			return true;
+		}
+		if (follower.is(TokenType.KEYWORD) && followers.contains(follower.token.value)) {
+			return true;
+		}
+		skippedParses++;
+		return false;
+	}
+	
 	private SymbolInstance toSymbol(int pos, Token token) throws ParseException {
 		SymbolInstance sInst = null;
 		switch (token.type) {
@@ -15,28 +15,70 @@
  */
 package it.ld.bw.chl.lang;
 
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import it.ld.bw.chl.exceptions.ParseException;
 
 /**This class can be used to split a CHL source file into individual tokens.
+ * The whole file is decoded into a char array, which is then scanned by index; token values are
+ * created as slices of the array, while keywords are taken from a fixed table and shared by all
+ * the tokens. Identifiers are interned too, in a table which lasts as long as the lexer, so all the
+ * occurrences of an identifier share the same string, even across files.
  */
 public class CHLLexer {
 	private static final char EOF = 0xFFFF;
 	
+	/**Keywords made of a single char, indexed by char*/
+	private static final String[] charKeywords = new String[128];
+	/**Open addressing hash table of the keywords, which can be looked up by a range of chars*/
+	private static final String[] keywordTable;
+	private static final int keywordMask;
+	
+	static {
+		for (int c = 0; c < charKeywords.length; c++) {
+			charKeywords[c] = String.valueOf((char) c);
+		}
+		Set<String> keywords = Syntax.getKeywords();
+		int size = 16;
+		while (size < keywords.size() * 2) {
+			size <<= 1;
+		}
+		keywordTable = new String[size];
+		keywordMask = size - 1;
+		for (String keyword : keywords) {
+			int i = mix(keyword.hashCode()) & keywordMask;
+			while (keywordTable[i] != null) {
+				i = (i + 1) & keywordMask;
+			}
+			keywordTable[i] = keyword;
+		}
+	}
+	
 	private enum Status {
 		DEFAULT, IDENTIFIER, NUMBER, STRING, ANNOTATION, COMMENT, BLOCK_COMMENT, BLANK
 	}
 	
 	private boolean extendedSyntaxEnabled;
 	private int tabSize = 4;
+	/**If set, blanks and comments are skipped without creating tokens for them*/
+	private boolean importantTokensOnly;
+	
+	/**Open addressing hash table of the identifiers found so far*/
+	private String[] identifierTable = new String[256];
+	private int identifierCount = 0;
+	
+	private char[] buf;
+	private int len;
+	private int pos;
 	
 	public boolean isExtendedSyntaxEnabled() {
 		return extendedSyntaxEnabled;
@@ -46,6 +88,17 @@ public class CHLLexer {
 		this.extendedSyntaxEnabled = extendedSyntaxEnabled;
 	}
 	
+	public boolean isImportantTokensOnly() {
+		return importantTokensOnly;
+	}
+	
+	/**Sets whether the tokens whose type is not important (blanks and comments) must be skipped.
+	 * @param importantTokensOnly
+	 */
+	public void setImportantTokensOnly(boolean importantTokensOnly) {
+		this.importantTokensOnly = importantTokensOnly;
+	}
+	
 	public int getTabSize() {
 		return tabSize;
 	}
@@ -60,294 +113,417 @@ public class CHLLexer {
 		//}
 	}
 	
+	/**Creates a token of the given type, unless it's not important and such tokens are being skipped.
+	 * @param line
+	 * @param col
+	 * @param type
+	 * @return the token, or null if it has been skipped
+	 */
+	private Token newToken(int line, int col, TokenType type) {
+		if (importantTokensOnly && !type.important) return null;
+		return new Token(line, col, type);
+	}
+	
+	/**Returns the position of the next line feed (or end of file) starting from the given position.
+	 * @param start
+	 * @return
+	 */
+	private int findEol(int start) {
+		int i = start;
+		while (i < len && buf[i] != '\n' && buf[i] != EOF) {
+			i++;
+		}
+		return i;
+	}
+	
+	private char read() {
+		char c = pos < len ? buf[pos] : EOF;
+		pos++;
+		return c;
+	}
+	
+	private void unread() {
+		pos--;
+	}
+	
+	private String slice(int start, int end) {
+		return new String(buf, start, Math.min(end, len) - start);
+	}
+	
+	private static String keyword(char c) {
+		return c < charKeywords.length ? charKeywords[c] : String.valueOf(c);
+	}
+	
+	/**Returns the hash code of the string made of the given chars, which is the same of String.hashCode().
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private int hash(int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buf[i];
+		}
+		return hash;
+	}
+	
+	/**Returns the keyword made of the given chars, or null if they don't make a keyword.
+	 * @param start
+	 * @param end
+	 * @param hash
+	 * @return
+	 */
+	private String getKeyword(int start, int end, int hash) {
+		final int length = end - start;
+		int i = mix(hash) & keywordMask;
+		String keyword;
+		while ((keyword = keywordTable[i]) != null) {
+			if (keyword.length() == length && matches(keyword, start)) {
+				return keyword;
+			}
+			i = (i + 1) & keywordMask;
+		}
+		return null;
+	}
+	
+	/**Returns the identifier made of the given chars. The string is created only the first time the
+	 * identifier is found, then the same instance is returned.
+	 * @param start
+	 * @param end
+	 * @param hash
+	 * @return
+	 */
+	private String getIdentifier(int start, int end, int hash) {
+		final int length = end - start;
+		final int mask = identifierTable.length - 1;
+		int i = mix(hash) & mask;
+		String identifier;
+		while ((identifier = identifierTable[i]) != null) {
+			if (identifier.length() == length && matches(identifier, start)) {
+				return identifier;
+			}
+			i = (i + 1) & mask;
+		}
+		identifier = slice(start, end);
+		identifierTable[i] = identifier;
+		if (++identifierCount * 2 > identifierTable.length) {
+			String[] oldTable = identifierTable;
+			identifierTable = new String[oldTable.length * 2];
+			final int newMask = identifierTable.length - 1;
+			for (String s : oldTable) {
+				if (s != null) {
+					int j = mix(s.hashCode()) & newMask;
+					while (identifierTable[j] != null) {
+						j = (j + 1) & newMask;
+					}
+					identifierTable[j] = s;
+				}
+			}
+		}
+		return identifier;
+	}
+	
+	private boolean matches(String keyword, int start) {
+		for (int i = 0; i < keyword.length(); i++) {
+			if (keyword.charAt(i) != buf[start + i]) return false;
+		}
+		return true;
+	}
+	
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+	
 	public List<Token> tokenize(File file) throws FileNotFoundException, IOException, ParseException {
-		List<Token> tokens = new LinkedList<>();
+		byte[] data;
+		try (FileInputStream str = new FileInputStream(file);) {
+			data = str.readAllBytes();
+		}
+		CharBuffer chars = Charset.defaultCharset().decode(ByteBuffer.wrap(data));
+		char[] source = new char[chars.remaining()];
+		chars.get(source);
+		return tokenize(source, source.length, file);
+	}
+	
+	/**Splits the given source into tokens.
+	 * @param source
+	 * @param length the number of chars in the source
+	 * @param file the file the source has been read from, used in error messages
+	 * @return
+	 * @throws ParseException
+	 */
+	public List<Token> tokenize(char[] source, int length, File file) throws ParseException {
+		buf = source;
+		len = length;
+		pos = 0;
+		try {
+			return scan(file);
+		} finally {
+			buf = null;
+		}
+	}
+	
+	private List<Token> scan(File file) throws ParseException {
+		List<Token> tokens = new ArrayList<>(len / 4 + 16);
 		Status status = Status.DEFAULT;
-		StringBuffer buffer = new StringBuffer();
 		boolean escape = false;
 		int depth = 0;
 		int numDots = 0;
 		int line = 1;
 		int col = 0;
+		int start = 0;
+		int commentLine = 0;
+		int commentCol = 0;
 		Token token = null;
-		try (PushbackReader str = new PushbackReader(new BufferedReader(new FileReader(file)));) {
-			char c = (char) str.read();
-			col++;
-			while (true) {
-				switch (status) {
-					case DEFAULT:
-						if (c == '\n') {
-							add(tokens, new Token(line, col, TokenType.EOL, System.lineSeparator()));
-							line++;
-							col = 0;
-						} else if (c == '"') {
-							status = Status.STRING;
-							token = new Token(line, col, TokenType.STRING);
-							buffer.append(c);
-						} else if (c == '+') {
-							char c2 = (char) str.read();
-							if (c2 == '+') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "++"));
-								col++;
-							} else if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "+="));
-								col++;
-							} else {
-								str.unread(c2);
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							}
-						} else if (c == '-') {
-							char c2 = (char) str.read();
-							if (c2 == '-') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "--"));
-								col++;
-							} else if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "-="));
-								col++;
-							} else {
-								str.unread(c2);
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							}
-						} else if (c == '*') {
-							char c2 = (char) str.read();
-							if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "*="));
-								col++;
-							} else {
-								str.unread(c2);
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							}
-						} else if (c == '/') {
-							char c2 = (char) str.read();
-							if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "/="));
-								col++;
-							} else if (c2 == '/') {
-								col++;
-								char c3 = (char) str.read();
-								if (c3 == '@') {
-									status = Status.ANNOTATION;
-									token = new Token(line, col, TokenType.ANNOTATION);
-									buffer.append("//@");
-								} else {
-									str.unread(c3);
-									status = Status.COMMENT;
-									token = new Token(line, col, TokenType.COMMENT);
-									buffer.append("//");
-								}
-							} else if (c2 == '*') {
-								status = Status.BLOCK_COMMENT;
-								depth++;
-								token = new Token(line, col, TokenType.BLOCK_COMMENT);
-								col++;
-								buffer.append("/*");
-								//System.out.println(">BLOCK_COMMENT at "+line+":"+(col-1));
-							} else {
-								str.unread(c2);
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							}
-						} else if (c == '%') {
-							char c2 = (char) str.read();
-							if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "%="));
-								col++;
-							} else {
-								str.unread(c2);
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							}
-						} else if (c == '=') {
-							char c2 = (char) str.read();
-							if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, "=="));
-								col++;
-							} else {
-								str.unread(c2);
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							}
-						} else if (c == '<' || c == '>') {
-							char c2 = (char) str.read();
-							if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c+"="));
-								col++;
-							} else {
-								str.unread(c2);
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							}
-						} else if (c == '!') {
-							char c2 = (char) str.read();
-							if (c2 == '=') {
-								add(tokens, new Token(line, col, TokenType.KEYWORD, c+"="));
-								col++;
-							} else {
-								throw new ParseException("Expected '=' after '!'", file, line, col);
-							}
-						} else if (c == ',') {
-							add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							buffer.setLength(0);
-						} else if (c == '(') {
-							add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							buffer.setLength(0);
-						} else if (c == ')') {
-							add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							buffer.setLength(0);
-						} else if (c == '[') {
-							add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							buffer.setLength(0);
-						} else if (c == ']') {
-							add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							buffer.setLength(0);
-						} else if (c == '&') {
-							add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							buffer.setLength(0);
-						} else if (Character.isJavaIdentifierStart(c)) {
-							status = Status.IDENTIFIER;
-							token = new Token(line, col, TokenType.IDENTIFIER);
-							buffer.append(c);
-						} else if (Character.isDigit(c)) {
-							status = Status.NUMBER;
-							token = new Token(line, col, TokenType.NUMBER);
-							numDots = 0;
-							buffer.append(c);
-						} else if (c == ' ') {
-							status = Status.BLANK;
-							token = new Token(line, col, TokenType.BLANK);
-							buffer.append(c);
-						} else if (c == '\t') {
-							status = Status.BLANK;
-							token = new Token(line, col, TokenType.BLANK);
-							buffer.append(c);
-							col += tabSize - (col - 1) % tabSize - 1;
-						} else if (c == '\r') {
-							//NOP
-						} else if (extendedSyntaxEnabled && c == ';') {
-							add(tokens, new Token(line, col, TokenType.KEYWORD, c));
-							buffer.setLength(0);
-						} else if (c == EOF) {
-							//NOP
+		char c = read();
+		col++;
+		while (true) {
+			switch (status) {
+				case DEFAULT:
+					start = pos - 1;
+					if (c == '\n') {
+						add(tokens, new Token(line, col, TokenType.EOL, System.lineSeparator()));
+						line++;
+						col = 0;
+					} else if (c == '"') {
+						status = Status.STRING;
+						token = new Token(line, col, TokenType.STRING);
+					} else if (c == '+') {
+						char c2 = read();
+						if (c2 == '+') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "++"));
+							col++;
+						} else if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "+="));
+							col++;
 						} else {
-							throw new ParseException("Unexpected '"+String.valueOf(c)+"' character", file, line, col);
+							unread();
+							add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
 						}
-						break;
-					case COMMENT:
-					case ANNOTATION:
-						if (c == '\n') {
-							add(tokens, token.setValue(buffer.toString()));
-							buffer.setLength(0);
-							status = Status.DEFAULT;
-							add(tokens, new Token(line, col, TokenType.EOL, System.lineSeparator()));
-							line++;
-							col = 0;
+					} else if (c == '-') {
+						char c2 = read();
+						if (c2 == '-') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "--"));
+							col++;
+						} else if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "-="));
+							col++;
 						} else {
-							buffer.append(c);
+							unread();
+							add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
 						}
-						break;
-					case BLOCK_COMMENT:
-						if (c == '\n') {
-							line++;
-							col = 0;
-							buffer.append(c);
-						} else if (c == '/') {
-							buffer.append(c);
-							char c2 = (char) str.read();
+					} else if (c == '*') {
+						char c2 = read();
+						if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "*="));
 							col++;
-							buffer.append(c2);
-							if (c2 == '*') depth++;
-						} else if (c == '*') {
-							buffer.append(c);
-							char c2 = (char) str.read();
-							if (c2 == '/') {
-								col++;
-								buffer.append(c2);
-								depth--;
-								if (depth == 0) {
-									add(tokens, token.setValue(buffer.toString()));
-									buffer.setLength(0);
-									status = Status.DEFAULT;
-									//System.out.println("<BLOCK_COMMENT at "+line+":"+(col-1));
-								}
+						} else {
+							unread();
+							add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
+						}
+					} else if (c == '/') {
+						char c2 = read();
+						if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "/="));
+							col++;
+						} else if (c2 == '/') {
+							col++;
+							char c3 = read();
+							if (c3 == '@') {
+								status = Status.ANNOTATION;
+								token = new Token(line, col, TokenType.ANNOTATION);
 							} else {
-								str.unread(c2);
+								unread();
+								status = Status.COMMENT;
+								token = newToken(line, col, TokenType.COMMENT);
 							}
+						} else if (c2 == '*') {
+							status = Status.BLOCK_COMMENT;
+							depth++;
+							token = newToken(line, col, TokenType.BLOCK_COMMENT);
+							commentLine = line;
+							commentCol = col;
+							col++;
+							//System.out.println(">BLOCK_COMMENT at "+line+":"+(col-1));
 						} else {
-							buffer.append(c);
+							unread();
+							add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
 						}
-						break;
-					case IDENTIFIER:
-						if (Character.isJavaIdentifierPart(c)) {
-							buffer.append(c);
+					} else if (c == '%') {
+						char c2 = read();
+						if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "%="));
+							col++;
 						} else {
-							str.unread(c);
-							col--;
-							add(tokens, token.setValue(buffer.toString()));
-							if (Syntax.isKeyword(token.value)) {
-								token.type = TokenType.KEYWORD;
-							}
-							buffer.setLength(0);
-							status = Status.DEFAULT;
+							unread();
+							add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
 						}
-						break;
-					case NUMBER:
-						if (Character.isDigit(c) || c == '.') {
-							if (c == '.') {
-								numDots++;
-								if (numDots > 1) throw new ParseException("Invalid number", file, line, col);
-							}
-							buffer.append(c);
-						} else if (Character.isJavaIdentifierPart(c)) {	//This is required to handle keywords starting with numbers such as "3d"
-							token.type = TokenType.IDENTIFIER;
-							buffer.append(c);
-							status = Status.IDENTIFIER;
+					} else if (c == '=') {
+						char c2 = read();
+						if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "=="));
+							col++;
 						} else {
-							str.unread(c);
-							col--;
-							add(tokens, token.setValue(buffer.toString()));
-							buffer.setLength(0);
-							status = Status.DEFAULT;
+							unread();
+							add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
 						}
-						break;
-					case STRING:
-						if (escape) {
-							buffer.append(c);
-							escape = false;
-						} else if (c == '\\') {
-							escape = true;
-							buffer.append(c);
-						} else if (c == '"') {
-							buffer.append(c);
-							add(tokens, token.setValue(buffer.toString()));
-							buffer.setLength(0);
-							status = Status.DEFAULT;
+					} else if (c == '<' || c == '>') {
+						char c2 = read();
+						if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, c == '<' ? "<=" : ">="));
+							col++;
 						} else {
-							buffer.append(c);
+							unread();
+							add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
+						}
+					} else if (c == '!') {
+						char c2 = read();
+						if (c2 == '=') {
+							add(tokens, new Token(line, col, TokenType.KEYWORD, "!="));
+							col++;
+						} else {
+							throw new ParseException("Expected '=' after '!'", file, line, col);
+						}
+					} else if (c == ',' || c == '(' || c == ')' || c == '[' || c == ']' || c == '&') {
+						add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
+					} else if (Character.isJavaIdentifierStart(c)) {
+						status = Status.IDENTIFIER;
+						token = new Token(line, col, TokenType.IDENTIFIER);
+					} else if (Character.isDigit(c)) {
+						status = Status.NUMBER;
+						token = new Token(line, col, TokenType.NUMBER);
+						numDots = 0;
+					} else if (c == ' ') {
+						status = Status.BLANK;
+						token = newToken(line, col, TokenType.BLANK);
+					} else if (c == '\t') {
+						status = Status.BLANK;
+						token = newToken(line, col, TokenType.BLANK);
+						col += tabSize - (col - 1) % tabSize - 1;
+					} else if (c == '\r') {
+						//NOP
+					} else if (extendedSyntaxEnabled && c == ';') {
+						add(tokens, new Token(line, col, TokenType.KEYWORD, keyword(c)));
+					} else if (c == EOF) {
+						//NOP
+					} else {
+						throw new ParseException("Unexpected '"+String.valueOf(c)+"' character", file, line, col);
+					}
+					break;
+				case COMMENT:
+				case ANNOTATION:
+					if (c == '\n') {
+						if (token != null) {
+							add(tokens, token.setValue(slice(start, pos - 1)));
 						}
-						break;
-					case BLANK:
-						if (c == ' ' || c == '\t') {
-							buffer.append(c);
-							if (c == '\t') {
-								col += tabSize - (col - 1) % tabSize - 1;
+						status = Status.DEFAULT;
+						add(tokens, new Token(line, col, TokenType.EOL, System.lineSeparator()));
+						line++;
+						col = 0;
+					} else if (token == null && c != EOF) {
+						//Skip the rest of the comment at once
+						final int end = findEol(pos);
+						col += end - pos;
+						pos = end;
+					}
+					break;
+				case BLOCK_COMMENT:
+					if (c == '\n') {
+						line++;
+						col = 0;
+					} else if (c == '/') {
+						char c2 = read();
+						col++;
+						if (c2 == '*') depth++;
+					} else if (c == '*') {
+						char c2 = read();
+						if (c2 == '/') {
+							col++;
+							depth--;
+							if (depth == 0) {
+								if (token != null) {
+									add(tokens, token.setValue(slice(start, pos)));
+								}
+								status = Status.DEFAULT;
+								//System.out.println("<BLOCK_COMMENT at "+line+":"+(col-1));
 							}
 						} else {
-							str.unread(c);
-							col--;
-							add(tokens, token.setValue(buffer.toString()));
-							buffer.setLength(0);
-							status = Status.DEFAULT;
+							unread();
 						}
-						break;
-				}
-				if (c == EOF) {
+					}
 					break;
-				}
-				c = (char) str.read();
-				col++;
+				case IDENTIFIER:
+					if (!Character.isJavaIdentifierPart(c)) {
+						unread();
+						col--;
+						final int hash = hash(start, pos);
+						String keyword = getKeyword(start, pos, hash);
+						if (keyword != null) {
+							token.type = TokenType.KEYWORD;
+							token.value = keyword;
+						} else {
+							token.value = getIdentifier(start, pos, hash);
+						}
+						add(tokens, token);
+						status = Status.DEFAULT;
+					}
+					break;
+				case NUMBER:
+					if (Character.isDigit(c) || c == '.') {
+						if (c == '.') {
+							numDots++;
+							if (numDots > 1) throw new ParseException("Invalid number", file, line, col);
+						}
+					} else if (Character.isJavaIdentifierPart(c)) {	//This is required to handle keywords starting with numbers such as "3d"
+						token.type = TokenType.IDENTIFIER;
+						status = Status.IDENTIFIER;
+					} else {
+						unread();
+						col--;
+						add(tokens, token.setValue(slice(start, pos)));
+						status = Status.DEFAULT;
+					}
+					break;
+				case STRING:
+					if (escape) {
+						escape = false;
+					} else if (c == '\\') {
+						escape = true;
+					} else if (c == '"') {
+						add(tokens, token.setValue(slice(start, pos)));
+						status = Status.DEFAULT;
+					}
+					break;
+				case BLANK:
+					if (c == ' ' || c == '\t') {
+						if (c == '\t') {
+							col += tabSize - (col - 1) % tabSize - 1;
+						}
+					} else {
+						unread();
+						col--;
+						if (token != null) {
+							add(tokens, token.setValue(slice(start, pos)));
+						}
+						status = Status.DEFAULT;
+					}
+					break;
+			}
+			if (c == EOF) {
+				break;
 			}
+			c = read();
+			col++;
 		}
 		if (status == Status.BLANK || status == Status.COMMENT) {
-			add(tokens, token.setValue(buffer.toString()));
+			if (token != null) {
+				add(tokens, token.setValue(slice(start, pos)));
+			}
 		} else if (status != Status.DEFAULT) {
 			String msg = "Unexpected end of file while parsing "+status;
-			if (token != null) {
+			if (status == Status.BLOCK_COMMENT) {
+				msg += " (started at "+commentLine+":"+commentCol+")";
+			} else if (token != null) {
 				msg += " (started at "+token.line+":"+token.col+")";
 			}
 			throw new ParseException(msg, file, line, col);
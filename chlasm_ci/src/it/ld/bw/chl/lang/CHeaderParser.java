@@ -15,16 +15,13 @@
  */
 package it.ld.bw.chl.lang;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.nio.charset.Charset;
 import java.util.Map;
 
-import it.ld.bw.chl.exceptions.ParseError;
 import it.ld.bw.chl.exceptions.ParseException;
 
 /**This is a very simple parser for C header files, specifically designed for B&W header files.
@@ -37,82 +34,166 @@ public class CHeaderParser {
 	}
 	
 	public void parse(File file, Map<String, Integer> dst, Map<String, Map<String, Integer>> dstEnums) throws FileNotFoundException, IOException, ParseException {
+		read(file).apply(file, dst, dstEnums);
+	}
+	
+	/**Reads the definitions in the given file without merging them anywhere. The file is scanned once,
+	 * line by line, without splitting lines into strings.
+	 * @param file
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public ParsedHeader read(File file) throws FileNotFoundException, IOException {
+		final char[] buf;
+		try (FileInputStream in = new FileInputStream(file);) {
+			buf = new String(in.readAllBytes(), Charset.defaultCharset()).toCharArray();
+		}
+		final int len = buf.length;
+		ParsedHeader res = new ParsedHeader();
+		//The entry being read, which may span multiple lines
+		StringBuilder entry = new StringBuilder();
+		int firstComma = -1;
+		int firstBrace = -1;
+		int valStart = 0;
+		int valEnd = 0;
 		int lineno = 0;
-		String enumName = null;
-		Map<String, Integer> currEnum = null;
-		String wholeline = "";
-		String sVal = "";
-		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));) {
-			int val = 0;
-			String line = "";
-			while ((line = reader.readLine()) != null) {
-				line = line.trim();
+		int val = 0;
+		int pos = 0;
+		try {
+			while (pos < len) {
+				//Find the end of the line
+				int start = pos;
+				int end = pos;
+				while (end < len && buf[end] != '\n' && buf[end] != '\r') end++;
+				pos = end;
+				if (pos < len && buf[pos++] == '\r' && pos < len && buf[pos] == '\n') pos++;
 				lineno++;
-				line = line.split("//")[0].trim();
-				if (line.isEmpty()
-						|| line.startsWith("#")
-						|| line.equals("{")) continue;
-				if (line.startsWith("enum")) {
-					if (dstEnums != null) {
-						if (line.endsWith("{")) line = line.substring(0, line.length() - 1).trim();
-						String[] parts = line.split("\\s+");
-						if (parts.length == 2) {
-							enumName = parts[1];
-						} else {
-							enumName = "_unknown_" + dstEnums.size();
-							//System.out.println("NOTICE: unnamed enum in "+file.getName()+":"+lineno);
-						}
-						if (dstEnums.containsKey(enumName)) {
-							throw new ParseError("Redefinition of enum "+enumName, file, lineno);
-						}
-						currEnum = new HashMap<>();
-						dstEnums.put(enumName, currEnum);
+				//Drop the comment and the surrounding spaces
+				while (start < end && buf[start] <= ' ') start++;
+				for (int i = start + 1; i < end; i++) {
+					if (buf[i] == '/' && buf[i - 1] == '/') {
+						end = i - 1;
+						break;
 					}
+				}
+				while (end > start && buf[end - 1] <= ' ') end--;
+				if (start == end
+						|| buf[start] == '#'
+						|| (end - start == 1 && buf[start] == '{')) continue;
+				if (startsWith(buf, start, end, "enum")) {
+					if (buf[end - 1] == '{') {
+						end--;
+						while (end > start && buf[end - 1] <= ' ') end--;
+					}
+					res.addEnum(getEnumName(buf, start, end), lineno);
 					val = 0;
 				} else {
-					wholeline += line;
-					if (wholeline.endsWith(",") || wholeline.contains("}")) {
-						int p = Math.max(wholeline.indexOf(","), wholeline.indexOf("}"));
-						wholeline = wholeline.substring(0, p).trim();
-						if (!wholeline.isEmpty()) {
-							String[] parts = wholeline.split("=");
-							String name = parts[0].trim();
-							if (parts.length == 2) {
-								sVal = parts[1].trim();
-								val = parseExpr(sVal);
-							}
-							//
-							if (dst != null) {
-								Integer oldVal = dst.get(name);
-								if (oldVal == null) {
-									dst.put(name, val);
-								} else if (oldVal != val) {
-									throw new ParseError("Redefinition of constant "+name+" with different value", file, lineno);
+					for (int i = start; i < end; i++) {
+						if (buf[i] == ',' && firstComma < 0) {
+							firstComma = entry.length() + i - start;
+						} else if (buf[i] == '}' && firstBrace < 0) {
+							firstBrace = entry.length() + i - start;
+						}
+					}
+					entry.append(buf, start, end - start);
+					if (buf[end - 1] == ',' || firstBrace >= 0) {
+						//The entry ends at the first comma or brace, anything after them is ignored
+						int s = 0;
+						int e = Math.max(firstComma, firstBrace);
+						while (s < e && entry.charAt(s) <= ' ') s++;
+						while (e > s && entry.charAt(e - 1) <= ' ') e--;
+						if (s < e) {
+							//NAME [= EXPR]; like String.split, trailing empty parts don't count
+							int nParts = 1;
+							int eq1 = -1;
+							int eq2 = -1;
+							for (int i = s; i < e; i++) {
+								if (entry.charAt(i) == '=') {
+									nParts++;
+									if (eq1 < 0) {
+										eq1 = i;
+									} else if (eq2 < 0) {
+										eq2 = i;
+									}
 								}
 							}
-							if (currEnum != null) {
-								if (currEnum.containsKey(name)) {
-									throw new ParseError("Duplicate entry "+name+" in enum "+enumName, file, lineno);
-								}
-								currEnum.put(name, val);
+							for (int i = e - 1; i >= s && entry.charAt(i) == '='; i--) {
+								nParts--;
+							}
+							int nameEnd = eq1 >= 0 ? eq1 : e;
+							while (nameEnd > s && entry.charAt(nameEnd - 1) <= ' ') nameEnd--;
+							String name = entry.substring(s, nameEnd);
+							if (nParts == 2) {
+								valStart = eq1 + 1;
+								valEnd = eq2 >= 0 ? eq2 : e;
+								while (valStart < valEnd && entry.charAt(valStart) <= ' ') valStart++;
+								while (valEnd > valStart && entry.charAt(valEnd - 1) <= ' ') valEnd--;
+								val = parseExpr(entry, valStart, valEnd);
 							}
-							//
+							res.addConstant(name, val, lineno);
 							val++;
-							wholeline = "";
 						}
+						entry.setLength(0);
+						firstComma = -1;
+						firstBrace = -1;
 					}
 				}
 			}
 		} catch (NumberFormatException e) {
-			throw new ParseException("Cannot parse \""+sVal+"\" as int", file, lineno, 1);
+			res.setParseException("Cannot parse \""+entry.substring(valStart, valEnd)+"\" as int", lineno);
 		}
+		return res;
 	}
 	
-	private static int parseExpr(String expr) {
+	private static boolean startsWith(char[] buf, int start, int end, String prefix) {
+		if (end - start < prefix.length()) return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (buf[start + i] != prefix.charAt(i)) return false;
+		}
+		return true;
+	}
+	
+	/**Returns the name of the enum declared in the given line, that is the second of exactly two words.
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @return the name, or null if the line doesn't have exactly two words
+	 */
+	private static String getEnumName(char[] buf, int start, int end) {
+		int p = start;
+		while (p < end && buf[p] > ' ') p++;
+		while (p < end && buf[p] <= ' ') p++;
+		if (p == end) return null;
+		int nameStart = p;
+		while (p < end && buf[p] > ' ') p++;
+		return p == end ? new String(buf, nameStart, end - nameStart) : null;
+	}
+	
+	/**Evaluates a sum of decimal or hexadecimal numbers, like 0x10 + 2. Like String.split, trailing empty
+	 * terms are ignored.
+	 * @param expr
+	 * @param start
+	 * @param end
+	 * @return
+	 * @throws NumberFormatException if a term isn't a valid number
+	 */
+	private static int parseExpr(CharSequence expr, int start, int end) throws NumberFormatException {
+		while (end > start && (expr.charAt(end - 1) == '+' || expr.charAt(end - 1) <= ' ')) end--;
 		int r = 0;
-		String[] sVals = expr.split("\\s*\\+\\s*");
-		for (String sVal : sVals) {
-			r += Utils.parseInt(sVal);
+		int p = start;
+		while (p < end) {
+			int q = p;
+			while (q < end && expr.charAt(q) != '+') q++;
+			int e = q;
+			while (p < e && expr.charAt(p) <= ' ') p++;
+			while (e > p && expr.charAt(e - 1) <= ' ') e--;
+			if (e - p > 2 && expr.charAt(p) == '0' && expr.charAt(p + 1) == 'x') {
+				r += Integer.parseInt(expr, p + 2, e, 16);
+			} else {
+				r += Integer.parseInt(expr, p, e, 10);
+			}
+			p = q + 1;
 		}
 		return r;
 	}
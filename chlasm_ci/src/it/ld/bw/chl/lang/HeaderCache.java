@@ -0,0 +1,227 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.bw.chl.lang;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import it.ld.bw.chl.model.Struct;
+import it.ld.utils.ByteBufferDataInputStream;
+import it.ld.utils.ByteBufferDataOutputStream;
+import it.ld.utils.EndianDataInputStream;
+import it.ld.utils.EndianDataOutputStream;
+
+/**Stores the definitions parsed from C header and info files, so that they don't need to be parsed again
+ * until the files change. A file is considered unchanged if its size and modification time are the same
+ * it had when it was parsed.
+ * The cache file starts with an index which tells where the definitions of each file are. When the cache
+ * is read from a file only the index is decoded, and the definitions of a file are decoded from the
+ * buffer the first time they are requested.
+ */
+public class HeaderCache extends Struct {
+	private static final int VERSION = 1;
+	
+	private static final byte HEADER = 0;
+	private static final byte INFO = 1;
+	
+	private static class Item {
+		public final byte type;
+		public final long length;
+		public final long lastModified;
+		/**The decoded definitions, or null if they are still in the buffer*/
+		public ParsedHeader header;
+		public int offset;
+		public int size;
+		
+		public Item(byte type, long length, long lastModified) {
+			this.type = type;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+	
+	/**Items indexed by absolute path*/
+	private final Map<String, Item> items = new LinkedHashMap<>();
+	/**The buffer which holds the encoded definitions, if read lazily*/
+	private ByteBuffer buffer;
+	private boolean modified = false;
+	
+	/**Tells whether any file has been parsed since the cache was read.
+	 * @return
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+	
+	public ParsedHeader getHeader(File file) throws FileNotFoundException, IOException {
+		return get(file, HEADER);
+	}
+	
+	public ParsedHeader getInfo(File file) throws FileNotFoundException, IOException {
+		return get(file, INFO);
+	}
+	
+	private ParsedHeader get(File file, byte type) throws FileNotFoundException, IOException {
+		final String key = file.getAbsolutePath();
+		final long length = file.length();
+		final long lastModified = file.lastModified();
+		Item item = items.get(key);
+		if (item != null && item.type == type && item.length == length && item.lastModified == lastModified) {
+			if (item.header == null) {
+				item.header = decode(item);
+			}
+			if (item.header != null) {
+				return item.header;
+			}
+		}
+		item = new Item(type, length, lastModified);
+		item.header = type == HEADER ? new CHeaderParser().read(file) : new InfoParser2().read(file);
+		items.put(key, item);
+		modified = true;
+		return item.header;
+	}
+	
+	private ParsedHeader decode(Item item) {
+		try {
+			ByteBuffer slice = buffer.duplicate();
+			slice.position(item.offset);
+			slice.limit(item.offset + item.size);
+			ParsedHeader res = new ParsedHeader();
+			res.read(new ByteBufferDataInputStream(slice.slice().order(ByteOrder.LITTLE_ENDIAN)));
+			return res;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	/**Reads the cache from the given file. The file is read into memory rather than mapped, because on
+	 * some systems a mapped file cannot be replaced, and the cache is written back to the same file.
+	 * If the file doesn't exist or cannot be read, the cache is left empty.
+	 * @param file
+	 * @return true if the cache has been read
+	 */
+	public boolean read(File file) {
+		if (!file.exists()) return false;
+		try (ByteBufferDataInputStream str = new ByteBufferDataInputStream(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));) {
+			read(str);
+			return true;
+		} catch (Exception e) {
+			items.clear();
+			buffer = null;
+			return false;
+		}
+	}
+	
+	/**Writes the cache to the given file. The content is written to a temporary file first, which then
+	 * replaces the given one, so that the old cache isn't lost if writing fails.
+	 * @param file
+	 * @throws Exception
+	 */
+	public void write(File file) throws Exception {
+		ByteBufferDataOutputStream str = new ByteBufferDataOutputStream(64 * 1024);
+		write(str);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		str.writeTo(tmpFile);
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		modified = false;
+	}
+	
+	/**Reads the index. If the stream is backed by a buffer, the definitions are decoded lazily from the
+	 * buffer, otherwise they are decoded immediately.
+	 */
+	@Override
+	public void read(EndianDataInputStream str) throws Exception {
+		str.order(ByteOrder.LITTLE_ENDIAN);
+		int version = str.readInt();
+		if (version != VERSION) throw new Exception("Unsupported header cache version: " + version);
+		items.clear();
+		int count = str.readInt();
+		String[] keys = new String[count];
+		Item[] index = new Item[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = readZString(str);
+			byte type = str.readByte();
+			long length = str.readLong();
+			long lastModified = str.readLong();
+			index[i] = new Item(type, length, lastModified);
+			index[i].offset = str.readInt();
+			index[i].size = str.readInt();
+		}
+		if (str instanceof ByteBufferDataInputStream) {
+			ByteBufferDataInputStream bStr = (ByteBufferDataInputStream) str;
+			int dataSize = count > 0 ? index[count - 1].offset + index[count - 1].size : 0;
+			buffer = bStr.slice(dataSize);
+		} else {
+			buffer = null;
+			for (int i = 0; i < count; i++) {
+				index[i].header = new ParsedHeader();
+				index[i].header.read(str);
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			items.put(keys[i], index[i]);
+		}
+		modified = false;
+	}
+	
+	@Override
+	public void write(EndianDataOutputStream str) throws Exception {
+		str.order(ByteOrder.LITTLE_ENDIAN);
+		//Encode the definitions first, so that the index can tell where they are
+		ByteBufferDataOutputStream data = new ByteBufferDataOutputStream(64 * 1024);
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		for (Item item : items.values()) {
+			int offset = data.size();
+			if (item.header != null) {
+				item.header.write(data);
+			} else {
+				ByteBuffer src = buffer.duplicate();
+				src.position(item.offset);
+				src.limit(item.offset + item.size);
+				byte[] bytes = new byte[item.size];
+				src.get(bytes);
+				data.write(bytes);
+			}
+			item.offset = offset;
+			item.size = data.size() - offset;
+		}
+		str.writeInt(VERSION);
+		str.writeInt(items.size());
+		for (Entry<String, Item> e : items.entrySet()) {
+			Item item = e.getValue();
+			writeZString(str, e.getKey());
+			str.writeByte(item.type);
+			str.writeLong(item.length);
+			str.writeLong(item.lastModified);
+			str.writeInt(item.offset);
+			str.writeInt(item.size);
+		}
+		ByteBuffer encoded = data.getBuffer();
+		byte[] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		str.write(bytes);
+		encoded.rewind();
+		buffer = encoded;
+	}
+}
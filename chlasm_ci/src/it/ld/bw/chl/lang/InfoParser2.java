@@ -25,7 +25,6 @@ import java.io.PushbackInputStream;
 import java.nio.charset.Charset;
 import java.util.Map;
 
-import it.ld.bw.chl.exceptions.ParseError;
 import it.ld.bw.chl.exceptions.ParseException;
 
 /**This is a very simple parser for text info files that can be found in B&W 1 for MacOS.
@@ -38,6 +37,17 @@ public class InfoParser2 {
 	private static final String BAD_EOL = new String(new byte[] {0x0A, 0x0D}, UTF16);
 	
 	public void parse(File file, Map<String, Integer> dst) throws FileNotFoundException, IOException, ParseException {
+		read(file).apply(file, dst, null);
+	}
+	
+	/**Reads the definitions in the given file without merging them anywhere.
+	 * @param file
+	 * @return
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public ParsedHeader read(File file) throws FileNotFoundException, IOException {
+		ParsedHeader res = new ParsedHeader();
 		int lineno = 0;
 		String name = "";
 		String sVal = "";
@@ -70,18 +80,13 @@ public class InfoParser2 {
 						//IDENTIFIER = NUMBER
 						String[] tokens = line.split("\\s*=\\s*");
 						if (tokens.length != 2) {
-							throw new ParseError("Invalid syntax", file, lineno);
+							res.setParseError("Invalid syntax", lineno);
+							break;
 						}
 						name = tokens[0];
 						sVal = tokens[1];
 						int val = Integer.parseInt(sVal);
-						//
-						Integer oldVal = dst.get(name);
-						if (oldVal == null) {
-							dst.put(name, val);
-						} else if (oldVal != val) {
-							throw new ParseError("Redefinition of constant "+name+" with different value", file, lineno);
-						}
+						res.addConstant(name, val, lineno);
 					} else if (line.startsWith("ADD_TEXT(")) {
 						//ADD_TEXT(NUMBER, IDENTIFIER, STRING, STRING)
 						
@@ -97,18 +102,13 @@ public class InfoParser2 {
 						name = tokens[0];
 						sVal = tokens[1];
 						int val = Integer.parseInt(sVal);
-						//
-						Integer oldVal = dst.get(name);
-						if (oldVal == null) {
-							dst.put(name, val);
-						} else if (oldVal != val) {
-							throw new ParseError("Redefinition of constant "+name+" with different value", file, lineno);
-						}
+						res.addConstant(name, val, lineno);
 					}
 				}
 			}
 		} catch (NumberFormatException e) {
-			throw new ParseException("Cannot parse \""+sVal+"\" as int declaring constant "+name, file, lineno, 1);
+			res.setParseException("Cannot parse \""+sVal+"\" as int declaring constant "+name, lineno);
 		}
+		return res;
 	}
 }
@@ -0,0 +1,205 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.bw.chl.lang;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import it.ld.bw.chl.exceptions.ParseError;
+import it.ld.bw.chl.exceptions.ParseException;
+import it.ld.bw.chl.model.Struct;
+import it.ld.utils.EndianDataInputStream;
+import it.ld.utils.EndianDataOutputStream;
+import it.ld.utils.StringIntMap;
+
+/**The definitions found in a C header or info file, in the order they appear, before they are merged
+ * into the caller's maps. Keeping them apart from the merge allows to store them in a {@link HeaderCache},
+ * while {@link #apply(File, Map, Map)} performs the same checks of a fresh parse, so errors and warnings
+ * are reported at the same line whether the file has been parsed or loaded from the cache.
+ */
+public class ParsedHeader extends Struct {
+	private static final byte NO_ERROR = 0;
+	private static final byte PARSE_ERROR = 1;
+	private static final byte PARSE_EXCEPTION = 2;
+	
+	private int count;
+	private String[] names = new String[64];
+	private int[] values = new int[64];
+	private int[] lines = new int[64];
+	
+	private int enumCount;
+	/**Name of each enum, null if unnamed*/
+	private String[] enumNames = new String[8];
+	private int[] enumLines = new int[8];
+	/**Index of the first constant declared after each enum*/
+	private int[] enumStart = new int[8];
+	
+	/**The error which stopped the parser, if any; it's thrown after applying the previous definitions*/
+	private byte errorType = NO_ERROR;
+	private String errorMessage;
+	private int errorLine;
+	
+	void addConstant(String name, int value, int lineno) {
+		if (count == names.length) {
+			names = Arrays.copyOf(names, count * 2);
+			values = Arrays.copyOf(values, count * 2);
+			lines = Arrays.copyOf(lines, count * 2);
+		}
+		names[count] = name;
+		values[count] = value;
+		lines[count] = lineno;
+		count++;
+	}
+	
+	void addEnum(String name, int lineno) {
+		if (enumCount == enumNames.length) {
+			enumNames = Arrays.copyOf(enumNames, enumCount * 2);
+			enumLines = Arrays.copyOf(enumLines, enumCount * 2);
+			enumStart = Arrays.copyOf(enumStart, enumCount * 2);
+		}
+		enumNames[enumCount] = name;
+		enumLines[enumCount] = lineno;
+		enumStart[enumCount] = count;
+		enumCount++;
+	}
+	
+	void setParseError(String message, int lineno) {
+		errorType = PARSE_ERROR;
+		errorMessage = message;
+		errorLine = lineno;
+	}
+	
+	void setParseException(String message, int lineno) {
+		errorType = PARSE_EXCEPTION;
+		errorMessage = message;
+		errorLine = lineno;
+	}
+	
+	public int getConstantCount() {
+		return count;
+	}
+	
+	/**Merges the definitions into the given maps. A constant already defined with a different value is
+	 * an error, as well as an enum already defined or an entry repeated in the same enum.
+	 * @param file the file the definitions come from, for error reporting
+	 * @param dst receives the constants, may be null
+	 * @param dstEnums receives the entries of each enum, may be null
+	 * @throws ParseException
+	 */
+	public void apply(File file, Map<String, Integer> dst, Map<String, Map<String, Integer>> dstEnums) throws ParseException {
+		final StringIntMap table = dst instanceof StringIntMap ? (StringIntMap) dst : null;
+		String enumName = null;
+		Map<String, Integer> currEnum = null;
+		int e = 0;
+		for (int i = 0; i <= count; i++) {
+			while (dstEnums != null && e < enumCount && enumStart[e] == i) {
+				enumName = enumNames[e];
+				if (enumName == null) {
+					enumName = "_unknown_" + dstEnums.size();
+				}
+				if (dstEnums.containsKey(enumName)) {
+					throw new ParseError("Redefinition of enum "+enumName, file, enumLines[e]);
+				}
+				currEnum = new HashMap<>();
+				dstEnums.put(enumName, currEnum);
+				e++;
+			}
+			if (i == count) break;
+			final String name = names[i];
+			final int val = values[i];
+			if (table != null) {
+				int index = table.indexOf(name);
+				if (index < 0) {
+					table.putInt(name, val);
+				} else if (table.valueAt(index) != val) {
+					throw new ParseError("Redefinition of constant "+name+" with different value", file, lines[i]);
+				}
+			} else if (dst != null) {
+				Integer oldVal = dst.get(name);
+				if (oldVal == null) {
+					dst.put(name, val);
+				} else if (oldVal != val) {
+					throw new ParseError("Redefinition of constant "+name+" with different value", file, lines[i]);
+				}
+			}
+			if (currEnum != null) {
+				if (currEnum.containsKey(name)) {
+					throw new ParseError("Duplicate entry "+name+" in enum "+enumName, file, lines[i]);
+				}
+				currEnum.put(name, val);
+			}
+		}
+		if (errorType == PARSE_ERROR) {
+			throw new ParseError(errorMessage, file, errorLine);
+		} else if (errorType == PARSE_EXCEPTION) {
+			throw new ParseException(errorMessage, file, errorLine, 1);
+		}
+	}
+	
+	@Override
+	public void read(EndianDataInputStream str) throws Exception {
+		count = str.readInt();
+		names = new String[Math.max(count, 1)];
+		values = new int[names.length];
+		lines = new int[names.length];
+		for (int i = 0; i < count; i++) {
+			names[i] = readZString(str);
+			values[i] = str.readInt();
+			lines[i] = str.readInt();
+		}
+		enumCount = str.readInt();
+		enumNames = new String[Math.max(enumCount, 1)];
+		enumLines = new int[enumNames.length];
+		enumStart = new int[enumNames.length];
+		for (int i = 0; i < enumCount; i++) {
+			boolean named = str.readBoolean();
+			enumNames[i] = named ? readZString(str) : null;
+			enumLines[i] = str.readInt();
+			enumStart[i] = str.readInt();
+		}
+		errorType = str.readByte();
+		if (errorType != NO_ERROR) {
+			errorMessage = readZString(str);
+			errorLine = str.readInt();
+		}
+	}
+	
+	@Override
+	public void write(EndianDataOutputStream str) throws Exception {
+		str.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			writeZString(str, names[i]);
+			str.writeInt(values[i]);
+			str.writeInt(lines[i]);
+		}
+		str.writeInt(enumCount);
+		for (int i = 0; i < enumCount; i++) {
+			str.writeBoolean(enumNames[i] != null);
+			if (enumNames[i] != null) {
+				writeZString(str, enumNames[i]);
+			}
+			str.writeInt(enumLines[i]);
+			str.writeInt(enumStart[i]);
+		}
+		str.writeByte(errorType);
+		if (errorType != NO_ERROR) {
+			writeZString(str, errorMessage);
+			str.writeInt(errorLine);
+		}
+	}
+}
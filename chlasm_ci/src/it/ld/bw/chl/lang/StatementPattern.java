@@ -0,0 +1,232 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.bw.chl.lang;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**A sequence of symbols expected by the parser, like "set OBJECT position to COORD_EXPR EOL". Patterns
+ * are split and classified once, then cached, so that parsing a statement doesn't need to compare strings
+ * to find out what each symbol is. Keywords are resolved to their symbol in the syntax, so that they are
+ * matched by identity.
+ */
+class StatementPattern {
+	enum OpType {
+		KEYWORD,
+		EXPRESSION,
+		COORD_EXPR,
+		CONST_EXPR,
+		OBJECT,
+		CONDITION,
+		STATEMENT,
+		IDENTIFIER,
+		VARIABLE,
+		CONSTANT,
+		STRING,
+		EOL,
+		SPIRIT_TYPE,
+		PLAYING_SIDE,
+		/**Two keywords whose choice is pushed as a boolean (eg. enable|disable)*/
+		OPTION,
+		/**Two equivalent keywords (eg. second|seconds)*/
+		ALTERNATIVE,
+		/**A group of symbols in brackets*/
+		OPTIONAL,
+		/**Any symbol (look ahead only)*/
+		ANY,
+		/**A token of the given type (look ahead only)*/
+		TOKEN
+	}
+	
+	static class Op {
+		public final OpType type;
+		/**The symbol as written in the pattern*/
+		public final String keyword;
+		/**The symbol of a keyword in the syntax, null if the keyword isn't defined in the syntax*/
+		public final Symbol symbol;
+		public final String[] alternatives;
+		public final TokenType tokenType;
+		/**The symbols of an optional group*/
+		public final Op[] items;
+		
+		private Op(OpType type, String keyword) {
+			this(type, keyword, null, null, null);
+		}
+		
+		private Op(OpType type, String keyword, String[] alternatives, TokenType tokenType, Op[] items) {
+			this.type = type;
+			this.keyword = keyword;
+			this.symbol = type == OpType.KEYWORD ? Syntax.getSymbol(keyword) : null;
+			this.alternatives = alternatives;
+			this.tokenType = tokenType;
+			this.items = items;
+		}
+		
+		/**Tells whether the given symbol is the keyword of this op.
+		 * @param sInst
+		 * @return
+		 */
+		public boolean matches(SymbolInstance sInst) {
+			return symbol != null ? sInst.is(symbol) : sInst.is(keyword);
+		}
+	}
+	
+	private static final Map<String, StatementPattern> parseCache = new ConcurrentHashMap<>();
+	private static final Map<String, StatementPattern> lookAheadCache = new ConcurrentHashMap<>();
+	
+	public final Op[] ops;
+	/**The number of symbols in the pattern, including the ones in optional groups*/
+	public final int length;
+	
+	private StatementPattern(Op[] ops, int length) {
+		this.ops = ops;
+		this.length = length;
+	}
+	
+	/**Returns the pattern to be matched by CHLCompiler.parse().
+	 * @param expression
+	 * @return
+	 */
+	public static StatementPattern forParse(String expression) {
+		StatementPattern pattern = parseCache.get(expression);
+		if (pattern == null) {
+			pattern = compileParse(expression);
+			parseCache.put(expression, pattern);
+		}
+		return pattern;
+	}
+	
+	/**Returns the pattern to be matched by CHLCompiler.checkAhead().
+	 * @param expression
+	 * @return
+	 */
+	public static StatementPattern forLookAhead(String expression) {
+		StatementPattern pattern = lookAheadCache.get(expression);
+		if (pattern == null) {
+			pattern = compileLookAhead(expression);
+			lookAheadCache.put(expression, pattern);
+		}
+		return pattern;
+	}
+	
+	private static StatementPattern compileParse(String expression) {
+		String[] symbols = expression.split(" ");
+		List<Op> ops = new ArrayList<>(symbols.length);
+		for (int i = 0; i < symbols.length; i++) {
+			String symbol = symbols[i];
+			if ("EXPRESSION".equals(symbol)) {
+				ops.add(new Op(OpType.EXPRESSION, symbol));
+			} else if ("COORD_EXPR".equals(symbol)) {
+				ops.add(new Op(OpType.COORD_EXPR, symbol));
+			} else if ("CONST_EXPR".equals(symbol)) {
+				ops.add(new Op(OpType.CONST_EXPR, symbol));
+			} else if ("OBJECT".equals(symbol)) {
+				ops.add(new Op(OpType.OBJECT, symbol));
+			} else if ("CONDITION".equals(symbol)) {
+				ops.add(new Op(OpType.CONDITION, symbol));
+			} else if ("STATEMENT".equals(symbol)) {
+				ops.add(new Op(OpType.STATEMENT, symbol));
+			} else if ("IDENTIFIER".equals(symbol)) {
+				ops.add(new Op(OpType.IDENTIFIER, symbol));
+			} else if ("VARIABLE".equals(symbol)) {
+				ops.add(new Op(OpType.VARIABLE, symbol));
+			} else if ("CONSTANT".equals(symbol)) {
+				ops.add(new Op(OpType.CONSTANT, symbol));
+			} else if ("STRING".equals(symbol)) {
+				ops.add(new Op(OpType.STRING, symbol));
+			} else if ("EOL".equals(symbol)) {
+				ops.add(new Op(OpType.EOL, symbol));
+			} else if ("SPIRIT_TYPE".equals(symbol)) {
+				ops.add(new Op(OpType.SPIRIT_TYPE, symbol));
+			} else if ("PLAYING_SIDE".equals(symbol)) {
+				ops.add(new Op(OpType.PLAYING_SIDE, symbol));
+			} else if (symbol.indexOf("|") >= 0) {
+				ops.add(compileAlternatives(symbol));
+			} else if (symbol.startsWith("[") && !"[".equals(symbol)) {	//Optional expression
+				List<Op> items = new ArrayList<>();
+				symbols[i] = symbols[i].substring(1);
+				boolean ended = false;
+				for (; i < symbols.length && !ended; i++) {
+					String expr = symbols[i];
+					if (expr.endsWith("]")) {
+						expr = expr.substring(0, expr.length() - 1);
+						ended = true;
+					}
+					if ("EXPRESSION".equals(expr)) {
+						items.add(new Op(OpType.EXPRESSION, expr));
+					} else if ("CONST_EXPR".equals(expr)) {
+						items.add(new Op(OpType.CONST_EXPR, expr));
+					} else if ("COORD_EXPR".equals(expr)) {
+						items.add(new Op(OpType.COORD_EXPR, expr));
+					} else if ("OBJECT".equals(expr)) {
+						items.add(new Op(OpType.OBJECT, expr));
+					} else if ("EOL".equals(expr)) {
+						items.add(new Op(OpType.EOL, expr));
+					} else {
+						items.add(new Op(OpType.KEYWORD, expr));
+					}
+				}
+				i--;
+				ops.add(new Op(OpType.OPTIONAL, symbol, null, null, items.toArray(new Op[0])));
+			} else {
+				ops.add(new Op(OpType.KEYWORD, symbol));
+			}
+		}
+		return new StatementPattern(ops.toArray(new Op[0]), symbols.length);
+	}
+	
+	private static Op compileAlternatives(String symbol) {
+		switch (symbol) {
+			case "enable|disable":
+			case "forward|reverse":
+			case "open|close":
+			case "pause|unpause":
+			case "quest|challenge":
+			case "enter|exit":
+			case "left|right":
+			case "up|down":
+				return new Op(OpType.OPTION, symbol, symbol.split("\\|"), null, null);
+			case "second|seconds":
+			case "event|events":
+			case "graphics|gfx":
+				return new Op(OpType.ALTERNATIVE, symbol, symbol.split("\\|"), null, null);
+			default:
+				throw new IllegalArgumentException("Unknown symbol: "+symbol);
+		}
+	}
+	
+	private static StatementPattern compileLookAhead(String expression) {
+		String[] symbols = expression.split(" ");
+		Op[] ops = new Op[symbols.length];
+		for (int i = 0; i < symbols.length; i++) {
+			String symbol = symbols[i];
+			if ("ANY".equals(symbol)) {
+				ops[i] = new Op(OpType.ANY, symbol);
+			} else if ("IDENTIFIER".equals(symbol) || "NUMBER".equals(symbol) || "STRING".equals(symbol)) {
+				ops[i] = new Op(OpType.TOKEN, symbol, null, TokenType.valueOf(symbol), null);
+			} else if ("CONSTANT".equals(symbol)) {
+				ops[i] = new Op(OpType.CONSTANT, symbol);
+			} else if ("EOL".equals(symbol)) {
+				ops[i] = new Op(OpType.EOL, symbol);
+			} else {
+				ops[i] = new Op(OpType.KEYWORD, symbol);
+			}
+		}
+		return new StatementPattern(ops, symbols.length);
+	}
+}
@@ -0,0 +1,190 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.bw.chl.lang;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**The symbols of a source file with a cursor, as seen by the parser. The parser reduces ranges of symbols
+ * to single symbols, and reverts the reductions when it needs to backtrack. The symbols are never moved:
+ * reductions are recorded aside, by start and end position, and are returned in place of the symbols
+ * they cover. Positions are indexes in the original symbols, so they are still valid after reductions.
+ */
+class SymbolBuffer {
+	private final SymbolInstance[] symbols;
+	/**The outermost reduction which starts at each position*/
+	private final SymbolInstance[] reductions;
+	private final int[] reductionEnd;
+	/**The outermost reduction which ends at each position*/
+	private final SymbolInstance[] reductionsByEnd;
+	private final int[] reductionStart;
+	
+	private int pos = 0;
+	
+	public SymbolBuffer(List<SymbolInstance> symbols) {
+		this.symbols = symbols.toArray(new SymbolInstance[0]);
+		final int n = this.symbols.length;
+		reductions = new SymbolInstance[n];
+		reductionEnd = new int[n];
+		reductionsByEnd = new SymbolInstance[n + 1];
+		reductionStart = new int[n + 1];
+	}
+	
+	public int position() {
+		return pos;
+	}
+	
+	/**Moves the cursor to the given position, which must be the start of a symbol.
+	 * @param position
+	 */
+	public void reset(int position) {
+		pos = position;
+	}
+	
+	public boolean hasNext() {
+		return pos < symbols.length;
+	}
+	
+	public SymbolInstance next() {
+		if (pos >= symbols.length) throw new NoSuchElementException();
+		SymbolInstance r = reductions[pos];
+		if (r != null) {
+			pos = reductionEnd[pos];
+			return r;
+		}
+		return symbols[pos++];
+	}
+	
+	public SymbolInstance previous() {
+		if (pos <= 0) throw new NoSuchElementException();
+		SymbolInstance r = reductionsByEnd[pos];
+		if (r != null) {
+			final int start = reductionStart[pos];
+			if (reductions[start] == r) {
+				pos = start;
+				return r;
+			}
+		}
+		return symbols[--pos];
+	}
+	
+	/**Moves the cursor back to the given position.
+	 * @param position
+	 * @return the token of the first symbol between the position and the cursor which has a token, that is
+	 * the last one the cursor moves over, or null if there isn't any
+	 */
+	public Token rewind(int position) {
+		Token res = firstToken(position);
+		pos = position;
+		return res;
+	}
+	
+	/**Reduces the symbols between the given position and the cursor to a new symbol. Empty reductions
+	 * aren't recorded, since they don't cover any symbol.
+	 * @param position
+	 * @param symbol
+	 * @return the new symbol
+	 */
+	public SymbolInstance reduce(int position, Symbol symbol) {
+		SymbolInstance res = new SymbolInstance(symbol);
+		int p = position;
+		while (p < pos) {
+			SymbolInstance r = reductions[p];
+			if (r != null) {
+				res.expression.add(r);
+				p = reductionEnd[p];
+			} else {
+				res.expression.add(symbols[p++]);
+			}
+		}
+		if (pos > position) {
+			record(res, position, pos);
+		}
+		return res;
+	}
+	
+	/**Undoes all the reductions between the given position and the cursor, including the nested ones,
+	 * except the given one, then moves the cursor back to the position.
+	 * @param position
+	 * @param preserve the reduction to keep, may be null
+	 * @return the token of the first symbol with a token in the range, after undoing the reductions
+	 */
+	public Token revert(int position, SymbolInstance preserve) {
+		int[] preserveStart = {-1};
+		int p = position;
+		while (p < pos && preserveStart[0] < 0) {
+			SymbolInstance r = reductions[p];
+			if (r != null) {
+				locate(r, p, preserve, preserveStart);
+				p = reductionEnd[p];
+			} else {
+				p++;
+			}
+		}
+		Arrays.fill(reductions, position, pos, null);
+		Arrays.fill(reductionsByEnd, position + 1, pos + 1, null);
+		if (preserveStart[0] >= 0) {
+			final int end = locate(preserve, preserveStart[0], null, preserveStart);
+			if (end > preserveStart[0]) {
+				record(preserve, preserveStart[0], end);
+			}
+		}
+		return rewind(position);
+	}
+	
+	private void record(SymbolInstance reduction, int start, int end) {
+		reductions[start] = reduction;
+		reductionEnd[start] = end;
+		reductionsByEnd[end] = reduction;
+		reductionStart[end] = start;
+	}
+	
+	/**Looks for a reduction into the given symbol, which starts at the given position.
+	 * @param sInst
+	 * @param start
+	 * @param target
+	 * @param found receives the start position of the target, if found
+	 * @return the end position of the given symbol
+	 */
+	private static int locate(SymbolInstance sInst, int start, SymbolInstance target, int[] found) {
+		if (sInst.expression == null) {
+			return start + 1;
+		}
+		if (sInst == target) {
+			found[0] = start;
+		}
+		int p = start;
+		for (SymbolInstance child : sInst.expression) {
+			p = locate(child, p, target, found);
+		}
+		return p;
+	}
+	
+	private Token firstToken(int position) {
+		int p = position;
+		while (p < pos) {
+			SymbolInstance r = reductions[p];
+			if (r != null) {
+				p = reductionEnd[p];
+			} else {
+				Token token = symbols[p++].token;
+				if (token != null) return token;
+			}
+		}
+		return null;
+	}
+}
@@ -26,6 +26,14 @@ class SymbolInstance {
 		return token != null && token.type == type;
 	}
 	
+	/**Tells whether this is a keyword token for the given symbol, comparing the symbol by identity.
+	 * @param keyword a keyword symbol from the syntax
+	 * @return
+	 */
+	public boolean is(Symbol keyword) {
+		return token != null && token.type == TokenType.KEYWORD && symbol == keyword;
+	}
+	
 	public boolean is(String keyword) {
 		return token != null && token.type == TokenType.KEYWORD && keyword.equals(token.value);
 	}
@@ -17,6 +17,8 @@ package it.ld.bw.chl.lang;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -65,6 +67,11 @@ public class Syntax {
 	
 	private static final Set<String> keywords = new HashSet<>();
 	
+	/**The terminal symbols which can appear first in each non-terminal symbol*/
+	private static final Map<Symbol, Set<Symbol>> firstSets = new HashMap<>();
+	/**The non-terminal symbols which can match an empty sequence*/
+	private static final Set<Symbol> nullable = new HashSet<>();
+	
 	static {
 		EOF = addSymbol("EOF", TerminalType.EOF, true, true);
 		EOL = addSymbol("EOL", TerminalType.EOL, true, true);
@@ -73,12 +80,24 @@ public class Syntax {
 		STRING = addSymbol("STRING", TerminalType.STRING, true, true);
 		ANNOTATION = addSymbol("ANNOTATION", TerminalType.ANNOTATION, true, true);
 		load();
+		buildFirstSets();
 	}
 	
 	public static Symbol getSymbol(String keyword) {
 		return symbols.get(keyword);
 	}
 	
+	/**Tells whether a sequence matching the given symbol can start with the given terminal symbol.
+	 * @param symbol
+	 * @param first a terminal symbol
+	 * @return
+	 */
+	public static boolean canStartWith(Symbol symbol, Symbol first) {
+		Set<Symbol> firstSet = firstSets.get(symbol);
+		if (firstSet == null) return symbol == first;
+		return firstSet.contains(first);
+	}
+	
 	public static void printSymbols() {
 		for (Symbol symbol : symbols.values()) {
 			if (symbol.root) {
@@ -139,6 +158,10 @@ public class Syntax {
 		return keywords.contains(s);
 	}
 	
+	static Set<String> getKeywords() {
+		return Collections.unmodifiableSet(keywords);
+	}
+	
 	private static Symbol addSymbol(String keyword, TerminalType terminalType, boolean implicit, boolean root) {
 		Symbol symbol = new Symbol(keyword, terminalType, implicit, root);
 		symbols.put(keyword, symbol);
@@ -234,6 +257,55 @@ public class Syntax {
 		}
 	}
 	
+	/**Computes the FIRST set of each non-terminal symbol, iterating until no set grows anymore since
+	 * symbols may refer to themselves (eg. EXPRESSION: EXPRESSION + EXPRESSION).
+	 */
+	private static void buildFirstSets() {
+		for (Symbol sym : symbols.values()) {
+			if (!sym.terminal) {
+				firstSets.put(sym, new HashSet<>());
+			}
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Entry<Symbol, Set<Symbol>> entry : firstSets.entrySet()) {
+				Symbol sym = entry.getKey();
+				Set<Symbol> firstSet = entry.getValue();
+				boolean empty = sym.optional;
+				if (sym.alternatives != null) {
+					for (Symbol alt : sym.alternatives) {
+						changed |= addFirstSet(firstSet, alt);
+						empty |= isNullable(alt);
+					}
+				} else if (sym.expression != null) {
+					empty = true;
+					for (Symbol item : sym.expression) {
+						changed |= addFirstSet(firstSet, item);
+						if (!isNullable(item)) {
+							empty = sym.optional;
+							break;
+						}
+					}
+				}
+				if (empty) {
+					changed |= nullable.add(sym);
+				}
+			}
+		}
+	}
+	
+	private static boolean addFirstSet(Set<Symbol> firstSet, Symbol symbol) {
+		if (symbol.terminal) {
+			return firstSet.add(symbol);
+		}
+		return firstSet.addAll(firstSets.get(symbol));
+	}
+	
+	private static boolean isNullable(Symbol symbol) {
+		return symbol.optional || nullable.contains(symbol);
+	}
+	
 	private static Symbol parseExpression(String keyword, String expr) {
 		String[] tokens = splitExpression(expr);
 		return parseExpression(keyword, tokens, 0, tokens.length);
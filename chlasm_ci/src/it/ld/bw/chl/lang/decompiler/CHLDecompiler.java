@@ -50,6 +50,7 @@ import it.ld.bw.chl.exceptions.InvalidVariableIdException;
 import it.ld.bw.chl.exceptions.ParseException;
 import it.ld.bw.chl.exceptions.ScriptNotFoundException;
 import it.ld.bw.chl.lang.CHeaderParser;
+import it.ld.bw.chl.lang.HeaderCache;
 import it.ld.bw.chl.lang.Symbol;
 import it.ld.bw.chl.lang.Syntax;
 import it.ld.bw.chl.lang.Type;
@@ -67,6 +68,7 @@ import it.ld.bw.chl.model.NativeFunction.Context;
 import it.ld.bw.chl.model.OPCode;
 import it.ld.bw.chl.model.OPCodeMode;
 import it.ld.bw.chl.model.Script;
+import it.ld.bw.chl.model.VariableTable;
 
 public class CHLDecompiler {
 	public static boolean traceEnabled = false;
@@ -222,6 +224,7 @@ public class CHLDecompiler {
 	private boolean respectLinenoEnabled = false;
 	private boolean defineUnknownEnumsEnabled = false;
 	private boolean wildModeEnabled = false;
+	private HeaderCache headerCache;
 	
 	public CHLDecompiler() {
 		this(System.out);
@@ -239,6 +242,17 @@ public class CHLDecompiler {
 		this.verboseEnabled = verboseEnabled;
 	}
 	
+	public HeaderCache getHeaderCache() {
+		return headerCache;
+	}
+	
+	/**Sets the cache used to load header and info files, may be null.
+	 * @param headerCache
+	 */
+	public void setHeaderCache(HeaderCache headerCache) {
+		this.headerCache = headerCache;
+	}
+	
 	private void warning(String s) {
 		out.println(s);
 	}
@@ -312,9 +326,13 @@ public class CHLDecompiler {
 	}
 	
 	public void addHeader(File file) throws FileNotFoundException, IOException, ParseException {
-		CHeaderParser parser = new CHeaderParser();
 		Map<String, Map<String, Integer>> lEnums = new HashMap<>();
-		parser.parse(file, null, lEnums);
+		if (headerCache != null) {
+			headerCache.getHeader(file).apply(file, null, lEnums);
+		} else {
+			CHeaderParser parser = new CHeaderParser();
+			parser.parse(file, null, lEnums);
+		}
 		for (Entry<String, Map<String, Integer>> e : lEnums.entrySet()) {
 			String enumName = e.getKey();
 			if ("HelpTextEnums.h".equals(file.getName()) && enumName.startsWith("_unknown")) {
@@ -416,7 +434,7 @@ public class CHLDecompiler {
 		}
 		definedScripts.clear();
 		globalMap.clear();
-		instructions = chl.code.getItems();
+		instructions = chl.code.getInstructions();
 		lastTracedIp = -1;
 		currentScript = null;
 		mapGlobalVars();
@@ -745,34 +763,29 @@ public class CHLDecompiler {
 		localVars = allVars.get(script.getName());
 		boolean copyTypes = localVars instanceof TempList;
 		if (localVars == null || copyTypes) {
-			List<String> vars = script.getVariables();
+			VariableTable vars = script.getVariables();
 			List<Var> refVars = copyTypes ? localVars : null;
 			localVars = new ArrayList<>(vars.size());
-			Var var = null;
 			int index = 0;
-			int id = script.getGlobalCount();
-			for (String name : vars) {
-				id++;
-				if ("LHVMA".equals(name)) {
-					var.size++;
-				} else {
-					boolean isArg = localVars.size() < script.getParameterCount();
-					var = new Var(script, name, id, 1, 0, isArg, false);
-					if (isArg && refVars != null) {
-						Var refVar = refVars.get(index);
-						var.type = refVar.type;
-						for (Var tVar : refVar.assignedFrom) {
-							var.assignedFrom.add(tVar);
-							tVar.assignedTo.add(var);
-						}
-						for (Var tVar : refVar.assignedTo) {
-							var.assignedTo.add(tVar);
-							tVar.assignedFrom.add(var);
-						}
+			for (int i = 0; i < vars.size(); i += vars.getArraySize(i)) {
+				String name = vars.get(i);
+				int id = script.getGlobalCount() + 1 + i;
+				boolean isArg = localVars.size() < script.getParameterCount();
+				Var var = new Var(script, name, id, vars.getArraySize(i), 0, isArg, false);
+				if (isArg && refVars != null) {
+					Var refVar = refVars.get(index);
+					var.type = refVar.type;
+					for (Var tVar : refVar.assignedFrom) {
+						var.assignedFrom.add(tVar);
+						tVar.assignedTo.add(var);
+					}
+					for (Var tVar : refVar.assignedTo) {
+						var.assignedTo.add(tVar);
+						tVar.assignedFrom.add(var);
 					}
-					localVars.add(var);
-					index++;
 				}
+				localVars.add(var);
+				index++;
 			}
 			allVars.put(script.getName(), localVars);
 		}
@@ -2765,14 +2778,20 @@ public class CHLDecompiler {
 	}
 	
 	private VarWithIndex getVar(int id) throws InvalidVariableIdException {
-		List<String> names;
 		if (id > currentScript.getGlobalCount()) {
 			id -= currentScript.getGlobalCount() + 1;
-			names = currentScript.getVariables();
-		} else {
-			id--;
-			names = chl.globalVars.getNames();
+			VariableTable locals = currentScript.getVariables();
+			if (id >= locals.size()) {
+				warning("WARNING: "+id+" isn't a valid variable index, assuming "+(locals.size() - 1)
+						+" at "+currentScript.getSourceFilename()+":"+lineno);
+				id = locals.size() - 1;
+			}
+			final int start = locals.getArrayStart(id);
+			String name = locals.get(start);
+			return start < id ? new VarWithIndex(getVar(name), id - start) : new VarWithIndex(getVar(name));
 		}
+		id--;
+		List<String> names = chl.globalVars.getNames();
 		if (id < 0) {
 			throw new InvalidVariableIdException(id);
 		} else if (id >= names.size()) {
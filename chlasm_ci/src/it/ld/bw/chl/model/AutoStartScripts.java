@@ -52,6 +52,11 @@ public class AutoStartScripts extends Struct {
 		}
 	}
 	
+	@Override
+	public int getSize() {
+		return getIntArraySize(scripts);
+	}
+	
 	@Override
 	public String toString() {
 		return scripts.toString();
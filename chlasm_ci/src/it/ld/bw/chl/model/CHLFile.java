@@ -16,26 +16,42 @@
 package it.ld.bw.chl.model;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
+import it.ld.utils.ByteBufferDataInputStream;
+import it.ld.utils.ByteBufferDataOutputStream;
+import it.ld.utils.ConcurrentTasks;
 import it.ld.utils.EndianDataInputStream;
 import it.ld.utils.EndianDataOutputStream;
 
 
 public class CHLFile extends Struct {
 	public static boolean traceEnabled = false;
+	/**If enabled, files are memory mapped and decoded straight from the mapped buffer*/
+	public static boolean memoryMappingEnabled = false;
+	/**If enabled, files are memory mapped and the biggest sections are decoded only when accessed*/
+	public static boolean lazyLoadingEnabled = false;
+	/**If enabled, files are memory mapped and their sections are decoded concurrently*/
+	public static boolean parallelLoadingEnabled = false;
+	/**When loading in parallel, code sections with more instructions than this are decoded in chunks*/
+	public static int parallelCodeChunkSize = 32 * 1024;
+	
+	/**Number of sections, used to scan the file when loading in parallel*/
+	private static final int SECTIONS = 8;
 	
 	private static final Map<String, String[]> defaultScripts = new HashMap<>();
 	
@@ -57,6 +73,16 @@ public class CHLFile extends Struct {
 	public final InitGlobals initGlobals = new InitGlobals();
 	
 	public void read(File file) throws Exception {
+		if (lazyLoadingEnabled) {
+			readLazy(file);
+			return;
+		} else if (parallelLoadingEnabled) {
+			readParallel(file);
+			return;
+		} else if (memoryMappingEnabled) {
+			readMapped(file);
+			return;
+		}
 		try (EndianDataInputStream str = new EndianDataInputStream(new BufferedInputStream(new FileInputStream(file)));) {
 			read(str);
 		} catch (Exception e) {
@@ -64,6 +90,206 @@ public class CHLFile extends Struct {
 		}
 	}
 	
+	/**Reads the file by mapping it in memory. The result is the same of {@link #read(File)}, but values
+	 * are decoded straight from the mapped buffer instead of being copied through a chain of streams.
+	 * @param file
+	 * @throws Exception
+	 */
+	public void readMapped(File file) throws Exception {
+		try (ByteBufferDataInputStream str = ByteBufferDataInputStream.map(file);) {
+			read(str);
+		} catch (Exception e) {
+			throw new Exception(e.getMessage() + ", reading " + file.getName(), e);
+		}
+	}
+	
+	/**Reads the whole file in memory at once and decodes it from the buffer, whatever the loading flags
+	 * are. The file isn't mapped, so it can be overwritten as soon as this method returns.
+	 * @param file
+	 * @throws Exception
+	 */
+	public void readBuffered(File file) throws Exception {
+		try (ByteBufferDataInputStream str = new ByteBufferDataInputStream(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));) {
+			read(str);
+		} catch (Exception e) {
+			throw new Exception(e.getMessage() + ", reading " + file.getName(), e);
+		}
+	}
+	
+	/**Maps the file in memory and reads it lazily (see {@link #readLazy(ByteBufferDataInputStream)}).
+	 * @param file
+	 * @throws Exception
+	 */
+	public void readLazy(File file) throws Exception {
+		try (ByteBufferDataInputStream str = ByteBufferDataInputStream.map(file);) {
+			readLazy(str);
+		} catch (Exception e) {
+			throw new Exception(e.getMessage() + ", reading " + file.getName(), e);
+		}
+	}
+	
+	/**Scans the file recording where the code, the script variables and the data are, without decoding
+	 * them. They are decoded from the buffer when accessed, so the buffer must not be modified afterwards.
+	 * The small sections are read as usual. Since instructions are validated only when decoded, errors
+	 * in the code section may be reported later, as RuntimeException.
+	 * @param str
+	 * @throws Exception
+	 */
+	public void readLazy(ByteBufferDataInputStream str) throws Exception {
+		str.order(ByteOrder.LITTLE_ENDIAN);
+		header.read(str);
+		globalVars.read(str);
+		code.readLazy(str);
+		autoStartScripts.read(str);
+		scripts.readLazy(str);
+		data.readLazy(str);
+		taskVars.read(str);
+		initGlobals.read(str);
+		if (str.available() > 0) {
+			throw new IOException("There are "+str.available()+" bytes after the last section");
+		}
+	}
+	
+	/**Maps the file in memory and reads it in parallel (see {@link #readParallel(ByteBufferDataInputStream)}).
+	 * @param file
+	 * @throws Exception
+	 */
+	public void readParallel(File file) throws Exception {
+		try (ByteBufferDataInputStream str = ByteBufferDataInputStream.map(file);) {
+			readParallel(str);
+		} catch (Exception e) {
+			throw new Exception(e.getMessage() + ", reading " + file.getName(), e);
+		}
+	}
+	
+	/**Reads the file decoding its sections concurrently. The offsets of the sections are found with a quick
+	 * scan which follows the count prefixes and skips the strings, then each section is decoded on the
+	 * common ForkJoinPool from its own slice of the buffer. Big code sections are further split in chunks
+	 * (see {@link #parallelCodeChunkSize}). If the scan finds anything wrong, or tracing is enabled, the
+	 * file is read sequentially, so errors are reported as usual.
+	 * @param str
+	 * @throws Exception
+	 */
+	public void readParallel(ByteBufferDataInputStream str) throws Exception {
+		str.order(ByteOrder.LITTLE_ENDIAN);
+		final int start = str.position();
+		//# Profiler.start();
+		//# Profiler.start(ProfilerSections.PF_SCAN);
+		final int[] offsets = traceEnabled ? null : scanSections(str);
+		//# Profiler.end(ProfilerSections.PF_SCAN);
+		if (offsets == null) {
+			str.position(start);
+			read(str);
+			return;
+		}
+		try {
+			final ByteBuffer buffer = str.getBuffer();
+			List<Callable<Void>> tasks = new ArrayList<>(SECTIONS);
+			tasks.add(sectionTask(buffer, offsets, 0, header, ProfilerSections.PF_HEADER));
+			tasks.add(sectionTask(buffer, offsets, 1, globalVars, ProfilerSections.PF_GLOBALS));
+			tasks.add(() -> {
+				//# Profiler.start(ProfilerSections.PF_CODE);
+				code.readParallel(sectionStream(buffer, offsets, 2), parallelCodeChunkSize);
+				//# Profiler.end(ProfilerSections.PF_CODE);
+				return null;
+			});
+			tasks.add(sectionTask(buffer, offsets, 3, autoStartScripts, ProfilerSections.PF_AUTOSTART));
+			tasks.add(sectionTask(buffer, offsets, 4, scripts, ProfilerSections.PF_SCRIPTS));
+			tasks.add(sectionTask(buffer, offsets, 5, data, ProfilerSections.PF_DATA));
+			tasks.add(sectionTask(buffer, offsets, 6, taskVars, ProfilerSections.PF_NULL));
+			tasks.add(sectionTask(buffer, offsets, 7, initGlobals, ProfilerSections.PF_INIT));
+			ConcurrentTasks.invokeAll(tasks);
+			str.position(offsets[SECTIONS]);
+		} finally {
+			//# Profiler.end();
+			//# Profiler.printReport();
+		}
+	}
+	
+	/**Finds the start offset of each section, plus the end of the last one.
+	 * @param str
+	 * @return the offsets, or null if the file isn't well formed
+	 */
+	private int[] scanSections(ByteBufferDataInputStream str) {
+		try {
+			int[] offsets = new int[SECTIONS + 1];
+			//Header
+			offsets[0] = str.position();
+			skip(str, 8);
+			//Global vars
+			offsets[1] = str.position();
+			skipZStringArray(str);
+			//Code
+			offsets[2] = str.position();
+			int count = str.readInt();
+			if (count < 0 || count > StructArray.MAX_ITEMS) return null;
+			skip(str, count * Instruction.LENGTH);
+			//Autostart scripts
+			offsets[3] = str.position();
+			count = str.readInt();
+			if (count < 0 || count > StructArray.MAX_ITEMS) return null;
+			skip(str, count * 4);
+			//Scripts
+			offsets[4] = str.position();
+			count = str.readInt();
+			if (count < 0 || count > StructArray.MAX_ITEMS) return null;
+			for (int i = 0; i < count; i++) {
+				skipZString(str);
+				skipZString(str);
+				skip(str, 8);
+				skipZStringArray(str);
+				skip(str, 12);
+			}
+			//Data
+			offsets[5] = str.position();
+			count = str.readInt();
+			if (count < 0) return null;
+			skip(str, count);
+			//Task vars
+			offsets[6] = str.position();
+			count = str.readInt();
+			if (count < 0 || count > StructArray.MAX_ITEMS) return null;
+			skip(str, Math.max(count, taskVars.minItems) * TaskVar.SIZE);
+			//Init globals
+			offsets[7] = str.position();
+			count = str.readInt();
+			if (count < 0 || count > StructArray.MAX_ITEMS) return null;
+			for (int i = 0; i < count; i++) {
+				if (str.readInt() != DataType.FLOAT.ordinal()) return null;
+				skip(str, 4);
+				skipZString(str);
+			}
+			offsets[8] = str.position();
+			if (str.available() > 0) return null;
+			return offsets;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	private static void skip(ByteBufferDataInputStream str, int n) throws EOFException {
+		if (str.available() < n) throw new EOFException();
+		str.position(str.position() + n);
+	}
+	
+	private static ByteBufferDataInputStream sectionStream(ByteBuffer buffer, int[] offsets, int section) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(offsets[section + 1]);
+		slice.position(offsets[section]);
+		ByteBufferDataInputStream str = new ByteBufferDataInputStream(slice.slice());
+		str.order(ByteOrder.LITTLE_ENDIAN);
+		return str;
+	}
+	
+	private static Callable<Void> sectionTask(ByteBuffer buffer, int[] offsets, int section, Struct struct, int profilerSection) {
+		return () -> {
+			//# Profiler.start(profilerSection);
+			struct.read(sectionStream(buffer, offsets, section));
+			//# Profiler.end(profilerSection);
+			return null;
+		};
+	}
+	
 	@Override
 	public void read(EndianDataInputStream str) throws Exception {
 		//# Profiler.start();
@@ -115,9 +341,16 @@ public class CHLFile extends Struct {
 		}
 	}
 	
+	/**Writes the file. The whole content is encoded into a buffer allocated with the final size, which is
+	 * then written to the file at once.
+	 * @param file
+	 * @throws Exception
+	 */
 	public void write(File file) throws Exception {
-		try (EndianDataOutputStream str = new EndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));) {
+		try {
+			ByteBufferDataOutputStream str = new ByteBufferDataOutputStream(getSize(), true);
 			write(str);
+			str.writeTo(file);
 		} catch (Exception e) {
 			throw new Exception(e.getMessage() + ", writing " + file.getName(), e);
 		}
@@ -165,11 +398,23 @@ public class CHLFile extends Struct {
 		}
 	}
 	
+	@Override
+	public int getSize() throws Exception {
+		return header.getSize()
+				+ globalVars.getSize()
+				+ code.getSize()
+				+ autoStartScripts.getSize()
+				+ scripts.getSize()
+				+ data.getSize()
+				+ taskVars.getSize()
+				+ initGlobals.getSize();
+	}
+	
 	public boolean validate(PrintStream out) {
 		boolean res = true;
 		//Code
 		Set<String> missingScripts = new HashSet<>(defaultScripts.keySet());
-		List<Instruction> instructions = code.getItems();
+		List<Instruction> instructions = code.getInstructions();
 		for (Script script : scripts.getItems()) {
 			if (defaultScripts.containsKey(script.getName())) {
 				missingScripts.remove(script.getName());
@@ -208,7 +453,6 @@ public class CHLFile extends Struct {
 	
 	public boolean checkCodeCoverage(PrintStream out) {
 		boolean res = true;
-		List<Instruction> instructions = code.getItems();
 		int index = 0;
 		for (Script script : scripts.getItems()) {
 			if (index != script.getInstructionAddress()) {
@@ -216,9 +460,9 @@ public class CHLFile extends Struct {
 				res = false;
 			}
 			index = script.getInstructionAddress();
-			while (instructions.get(index++).opcode != OPCode.END) {}
+			while (code.getOpcode(index++) != OPCode.END) {}
 		}
-		if (index < instructions.size()) {
+		if (index < code.size()) {
 			out.println("WARNING: there are unused instructions after last script");
 			res = false;
 		}
@@ -252,7 +496,7 @@ public class CHLFile extends Struct {
 		OPCode[] codes = OPCode.values();
 		DataType[] types = DataType.values();
 		int[][] map = new int[codes.length][3 + types.length];
-		for (Instruction instr : code.getItems()) {
+		for (Instruction instr : code.getInstructions()) {
 			int c = instr.opcode.ordinal();
 			if (instr.mode == 0) map[c][0] |= 1;
 			if (instr.mode == 1) map[c][1] |= 1;
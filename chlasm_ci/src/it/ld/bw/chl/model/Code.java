@@ -15,13 +15,37 @@
  */
 package it.ld.bw.chl.model;
 
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+import it.ld.bw.chl.exceptions.InvalidNativeFunctionException;
+import it.ld.utils.ByteBufferDataInputStream;
 import it.ld.utils.EndianDataInputStream;
+import it.ld.utils.EndianDataOutputStream;
 
+/**The code section. After reading, instructions are kept in packed form (see {@link PackedCode}), and
+ * are turned into objects only when {@link #getItems()} is called. Read-only clients should prefer
+ * {@link #size()}, {@link #get(int)} and {@link #getInstructions()}, which don't need the objects.
+ * When read lazily (see {@link #readLazy(ByteBufferDataInputStream)}) the section is left in the file
+ * buffer: {@link #get(int)} decodes single instructions from there, and the whole section is decoded
+ * only by the methods that need it.
+ */
 public class Code extends StructArray<Instruction> {
 	public static boolean traceEnabled = false;
 	
 	private final CHLFile chl;
 	
+	private PackedCode packed = null;
+	/**The raw section, if it has been read lazily and not loaded yet*/
+	private IntBuffer lazyCode = null;
+	private int lazyCount;
+	
 	public Code(CHLFile chl) {
 		this.chl = chl;
 	}
@@ -36,28 +60,191 @@ public class Code extends StructArray<Instruction> {
 		return new Instruction();
 	}
 	
+	/**Returns the instructions as a modifiable list of objects. If the code is in packed form, the
+	 * instructions are decoded and the packed form is discarded.
+	 */
+	@Override
+	public ArrayList<Instruction> getItems() {
+		load();
+		if (packed != null) {
+			items = packed.toList();
+			packed = null;
+		}
+		return items;
+	}
+	
 	@Override
-	protected Instruction readItem(EndianDataInputStream str, int index) throws Exception {
-		Instruction instr = super.readItem(str, index);
-		//
-		if (traceEnabled) {
-			System.out.print(instr.toString(chl, null, null));
-			if (instr.opcode == OPCode.SYS) {
-				NativeFunction f = NativeFunction.fromCode(instr.intVal);
-				System.out.print("\t//" + f.getInfoString());
+	public void setItems(ArrayList<Instruction> items) {
+		this.items = items;
+		this.packed = null;
+		this.lazyCode = null;
+	}
+	
+	/**Returns a read-only view of the instructions. Changes to the returned objects may not be reflected
+	 * in this code section.
+	 * @return
+	 */
+	public List<Instruction> getInstructions() {
+		if (lazyCode != null) {
+			return new LazyView();
+		}
+		if (packed != null) {
+			return packed.asList();
+		}
+		return Collections.unmodifiableList(items);
+	}
+	
+	public int size() {
+		if (lazyCode != null) return lazyCount;
+		return packed != null ? packed.size() : items.size();
+	}
+	
+	public Instruction get(int index) {
+		if (lazyCode != null) {
+			Objects.checkIndex(index, lazyCount);
+			try {
+				return PackedCode.decode(lazyCode, index);
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
+			}
+		}
+		return packed != null ? packed.get(index) : items.get(index);
+	}
+	
+	/**Replaces the instruction at the given position. If the code is in packed form, the instruction is
+	 * encoded in place, so later changes to the given object are not reflected in this code section.
+	 * @param index
+	 * @param instr
+	 */
+	public void set(int index, Instruction instr) {
+		load();
+		if (packed != null) {
+			packed.set(index, instr);
+		} else {
+			items.set(index, instr);
+		}
+	}
+	
+	public OPCode getOpcode(int index) {
+		if (lazyCode != null) return get(index).opcode;
+		return packed != null ? packed.getOpcode(index) : items.get(index).opcode;
+	}
+	
+	/**Returns true if the section has been read lazily and hasn't been decoded yet.
+	 * @return
+	 */
+	public boolean isLazy() {
+		return lazyCode != null;
+	}
+	
+	/**Decodes the whole section, if it has been read lazily.
+	 * @throws RuntimeException if the section contains invalid instructions
+	 */
+	public void load() {
+		if (lazyCode != null) {
+			PackedCode code = new PackedCode(lazyCount);
+			try {
+				code.read(lazyCode.duplicate(), lazyCount, chl);
+			} catch (Exception e) {
+				throw new RuntimeException(e.getMessage(), e);
 			}
-			System.out.println();
+			packed = code;
+			items = null;
+			lazyCode = null;
+		}
+	}
+	
+	/**Converts the code to packed form, releasing the instruction objects.
+	 */
+	public void pack() {
+		load();
+		if (packed == null) {
+			packed = new PackedCode(items);
+			items = null;
 		}
-		//
-		return instr;
+	}
+	
+	@Override
+	public void read(EndianDataInputStream str) throws Exception {
+		int count = str.readInt();
+		if (count < 0) throw new Exception("Invalid "+getTypeName()+" count: " + count);
+		if (count > MAX_ITEMS) throw new Exception("Too many "+getTypeName()+"s: " + count);
+		PackedCode code = new PackedCode(count);
+		code.read(str, count, chl);
+		packed = code;
+		items = null;
+		lazyCode = null;
+	}
+	
+	/**Reads the section like {@link #read(EndianDataInputStream)}, but if there are more than chunkSize
+	 * instructions they are decoded concurrently in chunks of that size.
+	 * @param str
+	 * @param chunkSize
+	 * @throws Exception
+	 */
+	public void readParallel(ByteBufferDataInputStream str, int chunkSize) throws Exception {
+		int count = str.readInt();
+		if (count < 0) throw new Exception("Invalid "+getTypeName()+" count: " + count);
+		if (count > MAX_ITEMS) throw new Exception("Too many "+getTypeName()+"s: " + count);
+		IntBuffer words = str.slice(count * Instruction.LENGTH).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		PackedCode code = new PackedCode(count);
+		if (traceEnabled || count <= chunkSize) {
+			code.read(words, count, chl);
+		} else {
+			code.readParallel(words, count, chunkSize);
+		}
+		packed = code;
+		items = null;
+		lazyCode = null;
+	}
+	
+	/**Reads the instruction count and skips the instructions, which are left in the buffer and decoded
+	 * when accessed. Instructions are validated only when decoded.
+	 * @param str
+	 * @throws Exception
+	 */
+	public void readLazy(ByteBufferDataInputStream str) throws Exception {
+		int count = str.readInt();
+		if (count < 0) throw new Exception("Invalid "+getTypeName()+" count: " + count);
+		if (count > MAX_ITEMS) throw new Exception("Too many "+getTypeName()+"s: " + count);
+		lazyCode = str.slice(count * Instruction.LENGTH).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		lazyCount = count;
+		packed = null;
+		items = null;
+	}
+	
+	@Override
+	public void write(EndianDataOutputStream str) throws Exception {
+		load();
+		if (packed != null) {
+			str.writeInt(packed.size());
+			packed.write(str);
+		} else {
+			str.writeInt(items.size());
+			PackedCode.write(str, items);
+		}
+	}
+	
+	@Override
+	public int getSize() {
+		return 4 + size() * Instruction.LENGTH;
+	}
+	
+	static void trace(CHLFile chl, Instruction instr) throws InvalidNativeFunctionException {
+		System.out.print(instr.toString(chl, null, null));
+		if (instr.opcode == OPCode.SYS) {
+			NativeFunction f = NativeFunction.fromCode(instr.intVal);
+			System.out.print("\t//" + f.getInfoString());
+		}
+		System.out.println();
 	}
 	
 	@Override
 	public String toString() {
-		int n = Math.min(items.size(), 1000);
+		int n = Math.min(size(), 1000);
 		StringBuffer s = new StringBuffer(n * 22);
 		int i = 0;
-		for (Instruction instr : items) {
+		for (Instruction instr : getInstructions()) {
 			String offset = String.format("0x%1$08X", i);
 			s.append(offset + ": " + instr.toString() + "\r\n");
 			if (--n <= 0) break;
@@ -65,4 +252,18 @@ public class Code extends StructArray<Instruction> {
 		}
 		return s.toString();
 	}
+	
+	/**Read-only view of a code section that has been read lazily, decoding instructions on access.
+	 */
+	private class LazyView extends AbstractList<Instruction> implements RandomAccess {
+		@Override
+		public Instruction get(int index) {
+			return Code.this.get(index);
+		}
+		
+		@Override
+		public int size() {
+			return Code.this.size();
+		}
+	}
 }
@@ -16,21 +16,52 @@
 package it.ld.bw.chl.model;
 
 import java.io.EOFException;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import it.ld.utils.ByteBufferDataInputStream;
 import it.ld.utils.EndianDataInputStream;
 import it.ld.utils.EndianDataOutputStream;
 
+/**The data section, which holds the string constants. An index of the strings, sorted by offset, is built
+ * on first use (see {@link #getStrings()} and {@link #getStringData(int)}); the content of the array
+ * returned by {@link #getData()} must not be changed afterwards, use {@link #setData(byte[])} instead.
+ */
 public class DataSection extends Struct {
 	private byte[] data;
+	/**The raw section, if it has been read lazily and not copied yet*/
+	private ByteBuffer lazyData = null;
+	
+	/**Offsets of the strings, sorted*/
+	private int[] index = null;
+	/**Offset following the last null terminated string: if it's not the end of the data, the data ends
+	 * with a string without terminator, which isn't indexed*/
+	private int indexEnd = 0;
+	/**The strings, in the same order of the index*/
+	private List<StringData> strings = null;
 	
 	public byte[] getData() {
+		if (lazyData != null) {
+			data = new byte[lazyData.remaining()];
+			lazyData.get(data);
+			lazyData = null;
+		}
 		return data;
 	}
 	
 	public void setData(byte[] data) {
 		this.data = data;
+		this.lazyData = null;
+		this.index = null;
+		this.strings = null;
+	}
+	
+	public int getLength() {
+		return lazyData != null ? lazyData.remaining() : data.length;
 	}
 	
 	@Override
@@ -40,15 +71,53 @@ public class DataSection extends Struct {
 		if (data.length < count) {
 			throw new EOFException("Unexpected end of file while reading data section ("+data.length+" bytes read out of "+count+")");
 		}
+		lazyData = null;
+		index = null;
+		strings = null;
+	}
+	
+	/**Reads the section size and skips the data, which is left in the buffer. The data is copied on the
+	 * first call to {@link #getData()}, while {@link #getString(int)} reads straight from the buffer.
+	 * @param str
+	 * @throws Exception
+	 */
+	public void readLazy(ByteBufferDataInputStream str) throws Exception {
+		int count = str.readInt();
+		int available = str.available();
+		if (count < 0 || available < count) {
+			throw new EOFException("Unexpected end of file while reading data section ("+available+" bytes read out of "+count+")");
+		}
+		lazyData = str.slice(count);
+		data = null;
+		index = null;
+		strings = null;
 	}
 
 	@Override
 	public void write(EndianDataOutputStream str) throws Exception {
+		byte[] data = getData();
 		str.writeInt(data.length);
 		str.write(data);
 	}
 	
+	@Override
+	public int getSize() {
+		return 4 + getLength();
+	}
+	
+	/**Returns the string at the given offset. If the offset isn't the start of a string, the tail of the
+	 * string which contains the offset is returned.
+	 * @param offset
+	 * @return
+	 */
 	public String getString(int offset) {
+		if (lazyData != null) {
+			return getString(lazyData, offset);
+		}
+		StringData sData = getStringData(offset);
+		if (sData != null) {
+			return sData.getString();
+		}
 		int n = 0;
 		while (data[offset + n] != 0) {
 			n++;
@@ -59,34 +128,79 @@ public class DataSection extends Struct {
 		return new String(data, offset, n, ASCII);
 	}
 	
+	private static String getString(ByteBuffer buffer, int offset) {
+		final int limit = buffer.limit();
+		int n = 0;
+		while (buffer.get(offset + n) != 0) {
+			n++;
+			if (offset + n >= limit) {
+				throw new RuntimeException("Missing null terminator for string at offset "+offset);
+			}
+		}
+		byte[] bytes = new byte[n];
+		ByteBuffer src = buffer.duplicate();
+		src.position(offset);
+		src.get(bytes);
+		return new String(bytes, ASCII);
+	}
+	
+	/**Returns all the strings in this section, sorted by offset. The list is built once and shared. If the
+	 * section ends with a string without terminator, that string is not included.
+	 * @return
+	 */
 	public List<StringData> getStrings() {
-		List<StringData> res = new LinkedList<StringData>();
+		if (strings == null) {
+			buildIndex();
+		}
+		return strings;
+	}
+	
+	/**Returns the string which starts at the given offset.
+	 * @param offset
+	 * @return the string, or null if there is no string starting at the given offset
+	 * @throws RuntimeException if the string at the given offset has no null terminator
+	 */
+	public StringData getStringData(int offset) {
+		if (index == null) {
+			buildIndex();
+		}
+		if (offset >= indexEnd && offset < data.length) {
+			throw new RuntimeException("Missing null terminator for string at offset "+offset);
+		}
+		int i = Arrays.binarySearch(index, offset);
+		return i >= 0 ? strings.get(i) : null;
+	}
+	
+	private void buildIndex() {
+		byte[] data = getData();
+		int count = 0;
+		for (byte b : data) {
+			if (b == 0) count++;
+		}
+		int[] offsets = new int[count];
+		StringData[] items = new StringData[count];
 		int offset = 0;
-		while (offset < data.length) {
+		for (int i = 0; i < count; i++) {
 			int n = getZString(data, offset);
-			StringData c = new StringData(data, offset, n);
-			res.add(c);
+			offsets[i] = offset;
+			items[i] = new StringData(data, offset, n);
 			offset += n + 1;
 		}
-		return res;
+		indexEnd = offset;
+		index = offsets;
+		strings = Collections.unmodifiableList(Arrays.asList(items));
 	}
 	
 	@Override
 	public String toString() {
-		return "[" + data.length + " bytes of data]";
-	}
-	
-	private static boolean isPrintable(char c) {
-		return c > 31;
+		return "[" + getLength() + " bytes of data]";
 	}
 	
 	private static int getZString(byte[] data, int offset) {
 		int n = 0;
 		while (data[offset] != 0) {
-			if (!isPrintable((char)data[offset])) return -1;
 			n++;
 			offset++;
-			if (offset >= data.length) return -1;
 		}
 		return n;
 	}
@@ -104,12 +218,31 @@ public class DataSection extends Struct {
 			this.length = length;
 		}
 		
+		/**Returns a copy of the bytes of this string, including the null terminator.
+		 * @return
+		 */
 		public byte[] getBytes() {
 			byte[] bytes = new byte[length + 1];
 			System.arraycopy(data,  offset, bytes, 0, length + 1);
 			return bytes;
 		}
 		
+		/**Returns a read-only view of the bytes of this string, including the null terminator, without
+		 * copying them.
+		 * @return
+		 */
+		public ByteBuffer asBuffer() {
+			return ByteBuffer.wrap(data, offset, length + 1).slice().asReadOnlyBuffer();
+		}
+		
+		/**Writes the bytes of this string, including the null terminator, to a stream.
+		 * @param out
+		 * @throws IOException
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(data, offset, length + 1);
+		}
+		
 		public String getString() {
 			if (str == null) {
 				str = new String(data, offset, length, ASCII);
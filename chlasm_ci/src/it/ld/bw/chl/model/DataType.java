@@ -15,6 +15,8 @@
  */
 package it.ld.bw.chl.model;
 
+import it.ld.bw.chl.exceptions.InvalidDataTypeException;
+
 public enum DataType {
 	NONE("", "void"),		//0
 	INT("I", "int"),		//1
@@ -25,6 +27,9 @@ public enum DataType {
 	BOOLEAN("B", "bool"),	//6
 	VAR("V", "void");		//7 since CI. This means that the parameter is the variable ID coded as float
 	
+	/**Cached copy of values(), which would clone the array on every call*/
+	private static final DataType[] types = values();
+	
 	public final String modifierChar;
 	public final String keyword;
 	
@@ -33,6 +38,13 @@ public enum DataType {
 		this.keyword = keyword;
 	}
 	
+	public static DataType fromCode(int code) throws InvalidDataTypeException {
+		if (code < 0 || code >= types.length) {
+			throw new InvalidDataTypeException(code);
+		}
+		return types[code];
+	}
+	
 	public static DataType fromModifier(String m) {
 		if ("".equals(m)) return NONE;
 		if ("I".equals(m)) return INT;
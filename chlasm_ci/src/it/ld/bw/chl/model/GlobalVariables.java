@@ -54,7 +54,7 @@ public class GlobalVariables extends Struct {
 			throw new InvalidVariableIdException(varId);
 		}
 		if (varId == names.size()) return false;
-		return "LHVMA".equals(names.get(varId));
+		return ARRAY_FILLER.equals(names.get(varId));
 	}
 	
 	public int getVarSize(int varId) {
@@ -62,7 +62,7 @@ public class GlobalVariables extends Struct {
 			throw new InvalidVariableIdException(varId);
 		}
 		int size = 1;
-		for (int i = varId; i < names.size() && "LHVMA".equals(names.get(i)); i++) {
+		for (int i = varId; i < names.size() && ARRAY_FILLER.equals(names.get(i)); i++) {
 			size++;
 		}
 		return size;
@@ -78,6 +78,11 @@ public class GlobalVariables extends Struct {
 		writeZStringArray(str, names);
 	}
 	
+	@Override
+	public int getSize() {
+		return getZStringArraySize(names);
+	}
+	
 	@Override
 	public String toString() {
 		return names.toString();
@@ -68,6 +68,11 @@ public class Header extends Struct {
 		str.writeInt(version);
 	}
 	
+	@Override
+	public int getSize() {
+		return magic.length() + 4;
+	}
+	
 	@Override
 	public String toString() {
 		return magic + " version " + version;
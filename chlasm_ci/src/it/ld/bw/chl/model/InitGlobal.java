@@ -91,6 +91,11 @@ public class InitGlobal extends Struct {
 		writeZString(str, name);
 	}
 	
+	@Override
+	public int getSize() {
+		return 4 + (type == DataType.FLOAT ? 4 : 0) + getZStringSize(name);
+	}
+	
 	@Override
 	public int hashCode() {
 		return name.hashCode();
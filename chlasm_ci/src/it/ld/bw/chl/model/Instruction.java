@@ -16,11 +16,9 @@
 package it.ld.bw.chl.model;
 
 import it.ld.bw.chl.exceptions.InvalidBooleanException;
-import it.ld.bw.chl.exceptions.InvalidDataTypeException;
 import it.ld.bw.chl.exceptions.InvalidInstructionAddressException;
 import it.ld.bw.chl.exceptions.InvalidInstructionException;
 import it.ld.bw.chl.exceptions.InvalidNativeFunctionException;
-import it.ld.bw.chl.exceptions.InvalidOPCodeException;
 import it.ld.bw.chl.exceptions.InvalidScriptIdException;
 import it.ld.bw.chl.exceptions.InvalidVariableIdException;
 import it.ld.utils.EndianDataInputStream;
@@ -79,60 +77,52 @@ public class Instruction extends Struct {
 	
 	@Override
 	public void read(EndianDataInputStream str) throws Exception {
-		//# Profiler.start(ProfilerSections.PF_INSTR_OPCODE);
-		int v = str.readInt();
-		if (v < 0 || v >= OPCode.values().length) {
-			throw new InvalidOPCodeException(v);
-		}
-		opcode = OPCode.values()[v];
-		//# Profiler.end(ProfilerSections.PF_INSTR_OPCODE);
-		//
-		//# Profiler.start(ProfilerSections.PF_INSTR_FLAGS);
-		mode = str.readInt();
-		//# Profiler.end(ProfilerSections.PF_INSTR_FLAGS);
-		//
-		//# Profiler.start(ProfilerSections.PF_INSTR_DATATYPE);
-		v = str.readInt();
-		if (v < 0 || v >= DataType.values().length) throw new InvalidDataTypeException(v);
-		dataType = DataType.values()[v];
-		//# Profiler.end(ProfilerSections.PF_INSTR_DATATYPE);
-		//
-		//# Profiler.start(ProfilerSections.PF_INSTR_OPERAND);
-		if (isReference() || opcode.forceInt) {
-			//Address of variables, system functions index and swap count are always int, regardless of the datatype
-			if (dataType == DataType.VAR) {
-				intVal = (int)str.readFloat();
-			} else {
-				intVal = str.readInt();
-			}
-		} else {
-			switch (dataType) {
-				case FLOAT:
-					floatVal = str.readFloat();
-					break;
-				case BOOLEAN:
-					v = str.readInt();
-					if (v != 0 && v != 1) throw new InvalidBooleanException(v);
-					boolVal = v != 0;
-					break;
-				case VAR:
-					intVal = (int)str.readFloat();
-					break;
-				default:
-					intVal = str.readInt();
-			}
+		//# Profiler.start(ProfilerSections.PF_INSTRUCTION);
+		int opcode = str.readInt();
+		int mode = str.readInt();
+		int dataType = str.readInt();
+		int operand = str.readInt();
+		int lineNumber = str.readInt();
+		decode(opcode, mode, dataType, operand, lineNumber);
+		//# Profiler.end(ProfilerSections.PF_INSTRUCTION);
+	}
+	
+	/**Sets the fields of this instruction from the 5 raw words found in a CHL file, validating them.
+	 * @param opcode
+	 * @param mode
+	 * @param dataType
+	 * @param operand the operand as coded in the file (may be the bits of a float)
+	 * @param lineNumber
+	 * @throws Exception
+	 */
+	void decode(int opcode, int mode, int dataType, int operand, int lineNumber) throws Exception {
+		this.opcode = OPCode.fromCode(opcode);
+		this.mode = mode;
+		this.dataType = DataType.fromCode(dataType);
+		intVal = 0;
+		floatVal = 0;
+		boolVal = false;
+		switch (getOperandType(this.opcode, mode, this.dataType)) {
+			case FLOAT:
+				floatVal = Float.intBitsToFloat(operand);
+				break;
+			case BOOLEAN:
+				if (operand != 0 && operand != 1) throw new InvalidBooleanException(operand);
+				boolVal = operand != 0;
+				break;
+			case VAR:
+				intVal = (int)Float.intBitsToFloat(operand);
+				break;
+			default:
+				intVal = operand;
 		}
-		//# Profiler.end(ProfilerSections.PF_INSTR_OPERAND);
-		//
-		//# Profiler.start(ProfilerSections.PF_INSTR_LINENO);
-		lineNumber = str.readInt();
-		//# Profiler.end(ProfilerSections.PF_INSTR_LINENO);
+		this.lineNumber = lineNumber;
 		//
-		if (!opcode.hasArg && (intVal != 0 || floatVal != 0 || boolVal != false)) {
+		if (!this.opcode.hasArg && (intVal != 0 || floatVal != 0 || boolVal != false)) {
 			System.out.println(this+" "+intVal+"i "+floatVal+"f "+boolVal+" (line "+lineNumber+")");
-			throw new RuntimeException("Invalid operand for "+opcode.name());
+			throw new RuntimeException("Invalid operand for "+this.opcode.name());
 		}
-		if (opcode == OPCode.SYS) {
+		if (this.opcode == OPCode.SYS) {
 			NativeFunction.fromCode(intVal);
 		}
 	}
@@ -142,37 +132,51 @@ public class Instruction extends Struct {
 		str.writeInt(opcode.ordinal());
 		str.writeInt(mode);
 		str.writeInt(dataType.ordinal());
-		if (isReference() || opcode.forceInt) {
-			//Address of variables, system functions index, and swap count are always int, regardless of the datatype
-			if (dataType == DataType.VAR) {
-				str.writeFloat(intVal);
-			} else {
-				str.writeInt(intVal);
-			}
-		} else {
-			switch (dataType) {
-				case FLOAT:
-					str.writeFloat(floatVal);
-					break;
-				case BOOLEAN:
-					str.writeInt(boolVal ? 1 : 0);
-					break;
-				case VAR:
-					str.writeFloat(intVal);
-					break;
-				default:
-					str.writeInt(intVal);
-			}
-		}
+		str.writeInt(encodeOperand());
 		str.writeInt(lineNumber);
-		//Validation
-		/*if (!opcode.hasArg && (intVal != 0 || floatVal != 0 || boolVal != false)) {
-			System.out.println(this+" "+intVal+"i "+floatVal+"f "+boolVal+" (line "+lineNumber+")");
-			throw new RuntimeException("Invalid operand for "+opcode.name());
+	}
+	
+	@Override
+	public int getSize() {
+		return LENGTH;
+	}
+	
+	/**Gets the operand of this instruction as it must be coded in a CHL file.
+	 * @return
+	 */
+	int encodeOperand() {
+		switch (getOperandType(opcode, mode, dataType)) {
+			case FLOAT:
+				return Float.floatToRawIntBits(floatVal);
+			case BOOLEAN:
+				return boolVal ? 1 : 0;
+			case VAR:
+				return Float.floatToRawIntBits(intVal);
+			default:
+				return intVal;
+		}
+	}
+	
+	/**Gets the type used to code the operand in a CHL file. This is one of INT, FLOAT, BOOLEAN or VAR
+	 * (variable ID coded as float). Address of variables, system functions index and swap count are
+	 * always int, regardless of the datatype.
+	 * @param opcode
+	 * @param mode
+	 * @param dataType
+	 * @return
+	 */
+	static DataType getOperandType(OPCode opcode, int mode, DataType dataType) {
+		if (isReference(opcode, mode) || opcode.forceInt) {
+			return dataType == DataType.VAR ? DataType.VAR : DataType.INT;
+		}
+		switch (dataType) {
+			case FLOAT:
+			case BOOLEAN:
+			case VAR:
+				return dataType;
+			default:
+				return DataType.INT;
 		}
-		if (opcode == OPCode.SYS) {
-			NativeFunction.fromCode(intVal);
-		}*/
 	}
 	
 	/**Gets the mnemonic used to code this instruction.
@@ -326,29 +330,31 @@ public class Instruction extends Struct {
 	}
 	
 	private static String getVar(CHLFile chl, Script script, int id) throws InvalidVariableIdException {
-		List<String> names;
 		if (id > script.getGlobalCount()) {
 			id -= script.getGlobalCount() + 1;
-			names = script.getVariables();
-		} else {
-			id--;
-			names = chl.globalVars.getNames();
+			VariableTable locals = script.getVariables();
+			if (id < 0 || id >= locals.size()) {
+				throw new InvalidVariableIdException(id);
+			}
+			return locals.getReference(id);
 		}
+		id--;
+		List<String> names = chl.globalVars.getNames();
 		if (id < 0 || id >= names.size()) {
 			throw new InvalidVariableIdException(id);
 		}
 		String name = names.get(id);
-		if ("LHVMA".equals(name)) {
+		if (ARRAY_FILLER.equals(name)) {
 			int index = 0;
 			do {
 				id--;
 				index++;
 				name = names.get(id);
-			} while ("LHVMA".equals(name));
+			} while (ARRAY_FILLER.equals(name));
 			return name+"+"+index;
 		} else {
 			id++;
-			if (id < names.size() && "LHVMA".equals(names.get(id))) {
+			if (id < names.size() && ARRAY_FILLER.equals(names.get(id))) {
 				return name+"+0";
 			} else {
 				return name;
@@ -385,7 +391,7 @@ public class Instruction extends Struct {
 				if (opcode == OPCode.CALL) {
 					chl.scripts.getScript(intVal);
 				} else if (opcode.isIP) {
-					if (intVal < 0 || intVal >= chl.code.getItems().size()) {
+					if (intVal < 0 || intVal >= chl.code.size()) {
 						throw new InvalidInstructionAddressException(intVal);
 					}
 					if (opcode.isJump) {
@@ -410,6 +416,10 @@ public class Instruction extends Struct {
 	 * @return
 	 */
 	public boolean isReference() {
+		return isReference(opcode, mode);
+	}
+	
+	static boolean isReference(OPCode opcode, int mode) {
 		return (opcode == OPCode.PUSH || opcode == OPCode.POP || opcode == OPCode.CAST) && mode == REF;
 	}
 	
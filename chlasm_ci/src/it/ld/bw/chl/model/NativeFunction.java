@@ -575,6 +575,9 @@ public enum NativeFunction {
 	/*526*/ GET_OBJECT_OBJECT_LEASHED_TO("Object<SCRIPT_OBJECT_TYPE_CREATURE> creature", "Object"),
 	/*527*/ SET_FIGHT_QUEUE_ONLY("bool enable");
 	
+	/**Cached copy of values(), which would clone the array on every call*/
+	private static final NativeFunction[] functions = values();
+	
 	/**If varargs is false, this is the exact number of values popped from the stack.
 	 * If varargs is true, this is the minimum number of values popped from the stack; the exact
 	 * number is instruction-dependent.
@@ -733,13 +736,20 @@ public enum NativeFunction {
 	}
 	
 	public static NativeFunction fromCode(int code) throws InvalidNativeFunctionException {
-		NativeFunction[] functions = values();
 		if (code < 0 || code >= functions.length) {
 			throw new InvalidNativeFunctionException(code);
 		}
 		return functions[code];
 	}
 	
+	/**Tells if the given code is the index of a native function.
+	 * @param code
+	 * @return
+	 */
+	public static boolean isValidCode(int code) {
+		return code >= 0 && code < functions.length;
+	}
+	
 	
 	public enum Context {
 		CINEMA, CAMERA, DIALOGUE
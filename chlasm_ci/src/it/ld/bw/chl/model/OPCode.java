@@ -17,6 +17,8 @@ package it.ld.bw.chl.model;
 
 import static it.ld.bw.chl.model.OPCodeAttr.*;
 
+import it.ld.bw.chl.exceptions.InvalidOPCodeException;
+
 /* About SWAP
  * 
  * "SWAPF n" copies stack[top] and inserts it at stack[top - n], shifting up the last n items.
@@ -120,6 +122,9 @@ public enum OPCode {
 	SQRT(1, 1),					//43
 	ABS(1, 1);					//44
 	
+	/**Cached copy of values(), which would clone the array on every call*/
+	private static final OPCode[] opcodes = values();
+	
 	/**This field maps the tuple {opcode, flags, datatype} to the respective mnemonic.
 	 * Access it as keywords[opcode][flags][dataType]
 	 */
@@ -213,6 +218,13 @@ public enum OPCode {
 		this.varStack = (attr & VSTACK) == VSTACK;
 	}
 	
+	public static OPCode fromCode(int code) throws InvalidOPCodeException {
+		if (code < 0 || code >= opcodes.length) {
+			throw new InvalidOPCodeException(code);
+		}
+		return opcodes[code];
+	}
+	
 	/**Gets the mnemonic to code an instruction for the given opcode, flags and datatype.
 	 * @param opcode
 	 * @param flags
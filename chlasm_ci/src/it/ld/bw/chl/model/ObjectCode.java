@@ -1,25 +1,45 @@
 package it.ld.bw.chl.model;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 
 import it.ld.bw.chl.exceptions.InvalidObjCodeException;
+import it.ld.utils.ByteBufferDataInputStream;
+import it.ld.utils.ByteBufferDataOutputStream;
 import it.ld.utils.EndianDataInputStream;
 import it.ld.utils.EndianDataOutputStream;
 
+/**An object file, which holds the code of a single source file and the informations needed to link it.
+ * Version 1 stores the external symbols as "name+index" and "name@argc" keys, and the addresses of the
+ * instructions which push a string, so the linker has to inspect every instruction to tell what to relocate.
+ * Version 2, which is the one written, stores a symbol table with the external variables followed by the
+ * external scripts, and a relocation table which tells what to do with each instruction that needs to be
+ * relocated. Version 1 files can still be read: their tables are built from the code.
+ * An object read from a file is complete once read: the tables, and the index of the data section, are
+ * built while reading, so that the object can be shared by concurrent links (see ObjectCache).
+ */
 public class ObjectCode extends Struct {
+	private static final int LATEST_VERSION = 2;
+	
 	private String magic = "LHVO";
-	private int version = 1;
+	private int version = LATEST_VERSION;
 	private LinkedHashMap<String, Integer> externalVars = new LinkedHashMap<>();
 	private LinkedHashMap<String, Integer> externalScripts = new LinkedHashMap<>();
 	private List<Integer> stringInstructions = new LinkedList<>();
 	private final CHLFile chl = new CHLFile();
+	/**The symbol table, null until read or built*/
+	private volatile List<Symbol> symbols = null;
+	/**The relocation table, null until read or built*/
+	private volatile List<Relocation> relocations = null;
 	
 	public File file;
 	
@@ -41,7 +61,7 @@ public class ObjectCode extends Struct {
 	}
 	
 	public void setVersion(int version) throws InvalidObjCodeException {
-		if (version != 1) throw new InvalidObjCodeException("CHL object file version not supported: " + version);
+		if (version != 1 && version != 2) throw new InvalidObjCodeException("CHL object file version not supported: " + version);
 		this.version = version;
 	}
 	
@@ -73,6 +93,174 @@ public class ObjectCode extends Struct {
 		return chl;
 	}
 	
+	/**Returns the external variables followed by the external scripts, each in id order, so that the
+	 * symbol of the variable with id N is at index N-1, and the one of the script with id N is at index
+	 * {@link #getExternalVars()}.size() + N-1.
+	 * @return
+	 */
+	public List<Symbol> getSymbols() {
+		List<Symbol> symbols = this.symbols;
+		if (symbols == null) {
+			List<Symbol> res = new ArrayList<>(externalVars.size() + externalScripts.size());
+			for (String key : externalVars.keySet()) {
+				String[] tks = key.split("\\+");
+				res.add(new Symbol(Symbol.VAR, tks[0], Integer.valueOf(tks[1])));
+			}
+			for (String key : externalScripts.keySet()) {
+				String[] tks = key.split("@");
+				res.add(new Symbol(Symbol.SCRIPT, tks[0], Integer.valueOf(tks[1])));
+			}
+			symbols = Collections.unmodifiableList(res);
+			this.symbols = symbols;
+		}
+		return symbols;
+	}
+	
+	/**Returns the relocations to apply to the code, in the order they must be applied. If the table isn't
+	 * available it's built from the code, which must not change afterwards. The returned list cannot be
+	 * modified.
+	 * @return
+	 * @throws InvalidObjCodeException if the code cannot be relocated
+	 */
+	public List<Relocation> getRelocations() throws InvalidObjCodeException {
+		List<Relocation> relocations = this.relocations;
+		if (relocations == null) {
+			List<Relocation> res = buildRelocations();
+			checkRelocations(res);
+			relocations = Collections.unmodifiableList(res);
+			this.relocations = relocations;
+		}
+		return relocations;
+	}
+	
+	/**Finds the instructions to relocate. Only the code of the scripts is considered, from the first
+	 * instruction up to the END instruction. The code is only read, so it can stay in packed form.
+	 * @return
+	 * @throws InvalidObjCodeException
+	 */
+	private List<Relocation> buildRelocations() throws InvalidObjCodeException {
+		final HashSet<Integer> strInstr = new HashSet<>(stringInstructions);
+		final int nVars = externalVars.size();
+		final List<Script> scripts = chl.scripts.getItems();
+		final Code code = chl.code;
+		List<Relocation> res = new ArrayList<>();
+		for (int j = 0; j < scripts.size(); j++) {
+			final Script script = scripts.get(j);
+			final int globalCount = script.getGlobalCount();
+			for (int i = script.getInstructionAddress(); i < code.size(); i++) {
+				Instruction instr = code.get(i);
+				OPCode opcode = instr.opcode;
+				boolean popNull = opcode == OPCode.POP && instr.intVal == 0;
+				if (opcode.hasArg && !popNull) {
+					if (opcode.isIP) {
+						res.add(new Relocation(i, Relocation.IP, 0));
+					} else if (opcode.isScript) {
+						if (instr.intVal >= 0) {
+							res.add(new Relocation(i, Relocation.SCRIPT, instr.intVal - 1));
+						} else {
+							res.add(new Relocation(i, Relocation.EXTERNAL_SCRIPT, nVars - instr.intVal - 1));
+						}
+					} else if (instr.isReference() || instr.dataType == DataType.VAR) {
+						res.add(varRelocation(i, instr.intVal, globalCount, j, 0));
+					} else if (opcode == OPCode.PUSH && instr.dataType == DataType.INT) {
+						if (strInstr.contains(i)) {
+							res.add(new Relocation(i, Relocation.STRING, 0));
+						}
+					}
+				} else if (opcode == OPCode.REF_PUSH && instr.mode == OPCodeMode.REF) {
+					if (i < 2) {
+						throw new InvalidObjCodeException("Missing instructions before REF_PUSH2");
+					}
+					Instruction instr2 = code.get(i - 2);
+					if (instr2.opcode != OPCode.PUSH || instr2.dataType != DataType.FLOAT || instr2.mode != 1) {
+						throw new InvalidObjCodeException("Expected PUSHF 2 lines before REF_PUSH2");
+					}
+					res.add(varRelocation(i - 2, (int)instr2.floatVal, globalCount, j, Relocation.FLOAT));
+				}
+				if (opcode == OPCode.END) break;
+			}
+		}
+		return res;
+	}
+	
+	/**Checks that the relocations refer to existing instructions, scripts and symbols, so that the linker
+	 * can use them as indexes.
+	 * @param relocations
+	 * @throws InvalidObjCodeException
+	 */
+	private void checkRelocations(List<Relocation> relocations) throws InvalidObjCodeException {
+		final int codeSize = chl.code.size();
+		final int nScripts = chl.scripts.getItems().size();
+		final int nVars = externalVars.size();
+		final int nSymbols = nVars + externalScripts.size();
+		for (Relocation relocation : relocations) {
+			if (relocation.instruction < 0 || relocation.instruction >= codeSize) {
+				throw new InvalidObjCodeException("Invalid instruction in relocation " + relocation);
+			}
+			final int kind = relocation.kind & ~Relocation.FLOAT;
+			final boolean isFloat = (relocation.kind & Relocation.FLOAT) != 0;
+			final int symbol = relocation.symbol;
+			final boolean valid;
+			switch (kind) {
+				case Relocation.IP:
+				case Relocation.STRING:
+					valid = !isFloat;
+					break;
+				case Relocation.SCRIPT:
+					valid = !isFloat && symbol >= 0 && symbol < nScripts;
+					break;
+				case Relocation.EXTERNAL_SCRIPT:
+					valid = !isFloat && symbol >= nVars && symbol < nSymbols;
+					break;
+				case Relocation.LOCAL_VAR:
+					valid = symbol >= 0 && symbol < nScripts;
+					break;
+				case Relocation.GLOBAL_VAR:
+					valid = true;
+					break;
+				case Relocation.EXTERNAL_VAR:
+					valid = symbol >= 0 && symbol < nVars;
+					break;
+				default:
+					valid = false;
+			}
+			if (!valid) {
+				throw new InvalidObjCodeException("Invalid relocation " + relocation);
+			}
+		}
+	}
+	
+	/**Checks that the scripts and the autostart scripts refer to existing instructions and scripts.
+	 * @throws InvalidObjCodeException
+	 */
+	private void checkScripts() throws InvalidObjCodeException {
+		final int codeSize = chl.code.size();
+		final List<Script> scripts = chl.scripts.getItems();
+		for (Script script : scripts) {
+			if (script.getScriptID() < 1 || script.getScriptID() > scripts.size()) {
+				throw new InvalidObjCodeException("Invalid id for script " + script.getName() + ": " + script.getScriptID());
+			}
+			if (script.getInstructionAddress() < 0 || script.getInstructionAddress() >= codeSize) {
+				throw new InvalidObjCodeException("Invalid address for script " + script.getName() + ": " + script.getInstructionAddress());
+			}
+		}
+		for (int id : chl.autoStartScripts.getScripts()) {
+			if (id == 0 || id > scripts.size() || -id > externalScripts.size()) {
+				throw new InvalidObjCodeException("Invalid autostart script id: " + id);
+			}
+		}
+	}
+	
+	private Relocation varRelocation(int instruction, int varId, int globalCount, int scriptIndex, int flags) {
+		if (varId > globalCount) {
+			return new Relocation(instruction, (byte)(Relocation.LOCAL_VAR | flags), scriptIndex);
+		} else if (varId >= 0) {
+			return new Relocation(instruction, (byte)(Relocation.GLOBAL_VAR | flags), 0);
+		} else {
+			return new Relocation(instruction, (byte)(Relocation.EXTERNAL_VAR | flags), -varId - 1);
+		}
+	}
+	
 	public int getExternalVarId(String name, int index) {
 		String key = name + "+" + index;
 		Integer id = externalVars.get(key);
@@ -100,29 +288,202 @@ public class ObjectCode extends Struct {
 		}
 	}
 	
+	/**Reads the whole file in memory at once. The result is the same of {@link #read(File)}, but values
+	 * are decoded straight from the buffer. The file isn't mapped, so it can be overwritten as soon as this
+	 * method returns.
+	 * @param file
+	 * @throws Exception
+	 */
+	public void readBuffered(File file) throws Exception {
+		this.file = file;
+		try (ByteBufferDataInputStream str = new ByteBufferDataInputStream(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));) {
+			read(str);
+		}
+	}
+	
 	public void write(File file) throws Exception {
-		try (EndianDataOutputStream str = new EndianDataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));) {
-			write(str);
+		ByteBufferDataOutputStream str = new ByteBufferDataOutputStream(getSize(), true);
+		write(str);
+		str.writeTo(file);
+	}
+	
+	@Override
+	public int getSize() throws Exception {
+		if (version == 1) {
+			return magic.length() + 4
+					+ getMapOfStringIntSize(externalVars)
+					+ getMapOfStringIntSize(externalScripts)
+					+ getIntArraySize(stringInstructions)
+					+ chl.getSize();
 		}
+		int size = magic.length() + 4 + 4;
+		for (Symbol symbol : getSymbols()) {
+			size += Symbol.SIZE + getZStringSize(symbol.name);
+		}
+		size += 4 + getRelocations().size() * Relocation.SIZE;
+		return size + chl.getSize();
 	}
 
 	@Override
 	public void read(EndianDataInputStream str) throws Exception {
 		setMagic(new String(str.readNBytes(4), ASCII));
 		setVersion(str.readInt());
-		externalVars = readMapOfStringInt(str);
-		externalScripts = readMapOfStringInt(str);
-		stringInstructions = readIntArray(str);
+		if (version == 1) {
+			externalVars = readMapOfStringInt(str);
+			externalScripts = readMapOfStringInt(str);
+			stringInstructions = readIntArray(str);
+			symbols = null;
+			relocations = null;
+		} else {
+			readSymbols(str);
+			readRelocations(str);
+		}
 		chl.read(str);
+		checkScripts();
+		if (relocations != null) {
+			checkRelocations(relocations);
+		}
+		//Build everything the linker needs now, so that nothing is modified while the object is shared
+		getSymbols();
+		getRelocations();
+		chl.data.getStrings();
+	}
+	
+	private void readSymbols(EndianDataInputStream str) throws Exception {
+		int count = str.readInt();
+		if (count < 0) throw new InvalidObjCodeException("Invalid number of symbols: " + count);
+		List<Symbol> symbols = new ArrayList<>(count);
+		externalVars = new LinkedHashMap<>();
+		externalScripts = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			byte type = str.readByte();
+			String name = readZString(str);
+			int value = str.readInt();
+			Symbol symbol = new Symbol(type, name, value);
+			symbols.add(symbol);
+			if (type == Symbol.VAR) {
+				if (!externalScripts.isEmpty()) throw new InvalidObjCodeException("External variables must precede external scripts");
+				externalVars.put(symbol.getKey(), externalVars.size() + 1);
+			} else if (type == Symbol.SCRIPT) {
+				externalScripts.put(symbol.getKey(), externalScripts.size() + 1);
+			} else {
+				throw new InvalidObjCodeException("Invalid symbol type: " + type);
+			}
+		}
+		this.symbols = Collections.unmodifiableList(symbols);
+	}
+	
+	private void readRelocations(EndianDataInputStream str) throws Exception {
+		int count = str.readInt();
+		if (count < 0) throw new InvalidObjCodeException("Invalid number of relocations: " + count);
+		List<Relocation> relocations = new ArrayList<>(count);
+		stringInstructions = new LinkedList<>();
+		for (int i = 0; i < count; i++) {
+			int instruction = str.readInt();
+			byte kind = str.readByte();
+			int symbol = str.readInt();
+			relocations.add(new Relocation(instruction, kind, symbol));
+			if (kind == Relocation.STRING) {
+				stringInstructions.add(instruction);
+			}
+		}
+		this.relocations = Collections.unmodifiableList(relocations);
 	}
 
 	@Override
 	public void write(EndianDataOutputStream str) throws Exception {
 		str.write(magic.getBytes(ASCII));
 		str.writeInt(version);
-		writeMapOfStringInt(str, externalVars);
-		writeMapOfStringInt(str, externalScripts);
-		writeIntArray(str, stringInstructions);
+		if (version == 1) {
+			writeMapOfStringInt(str, externalVars);
+			writeMapOfStringInt(str, externalScripts);
+			writeIntArray(str, stringInstructions);
+		} else {
+			List<Symbol> symbols = getSymbols();
+			str.writeInt(symbols.size());
+			for (Symbol symbol : symbols) {
+				str.writeByte(symbol.type);
+				writeZString(str, symbol.name);
+				str.writeInt(symbol.value);
+			}
+			List<Relocation> relocations = getRelocations();
+			str.writeInt(relocations.size());
+			for (Relocation relocation : relocations) {
+				str.writeInt(relocation.instruction);
+				str.writeByte(relocation.kind);
+				str.writeInt(relocation.symbol);
+			}
+		}
 		chl.write(str);
 	}
+	
+	
+	/**An external variable or script*/
+	public static class Symbol {
+		public static final byte VAR = 0;
+		public static final byte SCRIPT = 1;
+		
+		/**Size in bytes, excluding the name*/
+		private static final int SIZE = 5;
+		
+		public final byte type;
+		public final String name;
+		/**The index in the array for variables, the number of parameters for scripts*/
+		public final int value;
+		
+		public Symbol(byte type, String name, int value) {
+			this.type = type;
+			this.name = name;
+			this.value = value;
+		}
+		
+		private String getKey() {
+			return type == VAR ? name + "+" + value : name + "@" + value;
+		}
+		
+		@Override
+		public String toString() {
+			return getKey();
+		}
+	}
+	
+	
+	/**Tells how to relocate the operand of an instruction. The meaning of the symbol depends on the kind.*/
+	public static class Relocation {
+		/**Code address: the address of the object in the linked file is added*/
+		public static final byte IP = 0;
+		/**Script of the object: the symbol is the index of the script in the object*/
+		public static final byte SCRIPT = 1;
+		/**External script: the symbol is the index in the symbol table*/
+		public static final byte EXTERNAL_SCRIPT = 2;
+		/**Local variable: the symbol is the index of the script in the object*/
+		public static final byte LOCAL_VAR = 3;
+		/**Global variable of the object: the offset of the variables of the object is added*/
+		public static final byte GLOBAL_VAR = 4;
+		/**External variable: the symbol is the index in the symbol table*/
+		public static final byte EXTERNAL_VAR = 5;
+		/**Offset of a string in the data section*/
+		public static final byte STRING = 6;
+		/**Flag added to the variable kinds when the operand is the float value (the PUSHF before REF_PUSH2)*/
+		public static final byte FLOAT = 0x10;
+		
+		/**Size in bytes*/
+		private static final int SIZE = 9;
+		
+		/**Index of the instruction in the object*/
+		public final int instruction;
+		public final byte kind;
+		public final int symbol;
+		
+		public Relocation(int instruction, byte kind, int symbol) {
+			this.instruction = instruction;
+			this.kind = kind;
+			this.symbol = symbol;
+		}
+		
+		@Override
+		public String toString() {
+			return instruction + ":" + kind + ":" + symbol;
+		}
+	}
 }
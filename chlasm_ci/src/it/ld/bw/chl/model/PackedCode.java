@@ -0,0 +1,383 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.bw.chl.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+
+import it.ld.utils.ByteBufferDataInputStream;
+import it.ld.utils.ByteBufferDataOutputStream;
+import it.ld.utils.ConcurrentTasks;
+import it.ld.utils.EndianDataInputStream;
+import it.ld.utils.EndianDataOutputStream;
+
+/**Structure-of-arrays storage for instructions. The 5 fields of each instruction are kept in parallel
+ * int arrays, so that a code section doesn't need an object for each instruction. The operand is
+ * stored as int, or as raw bits when the instruction has a float operand.
+ * Instruction objects are decoded on demand, either as new objects or into an existing one.
+ */
+public class PackedCode {
+	private static final OPCode[] OPCODES = OPCode.values();
+	private static final DataType[] DATA_TYPES = DataType.values();
+	/**Number of int words in an instruction*/
+	static final int WORDS = Instruction.LENGTH / 4;
+	
+	private int size;
+	private int[] opcodes;
+	private int[] modes;
+	private int[] dataTypes;
+	private int[] operands;
+	private int[] lineNumbers;
+	
+	public PackedCode(int capacity) {
+		opcodes = new int[capacity];
+		modes = new int[capacity];
+		dataTypes = new int[capacity];
+		operands = new int[capacity];
+		lineNumbers = new int[capacity];
+	}
+	
+	public PackedCode(List<Instruction> instructions) {
+		this(instructions.size());
+		for (Instruction instr : instructions) {
+			add(instr);
+		}
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public OPCode getOpcode(int index) {
+		return OPCODES[opcodes[index]];
+	}
+	
+	public int getMode(int index) {
+		return modes[index];
+	}
+	
+	public DataType getDataType(int index) {
+		return DATA_TYPES[dataTypes[index]];
+	}
+	
+	public int getLineNumber(int index) {
+		return lineNumbers[index];
+	}
+	
+	/**Returns a new instruction decoded from the given position.
+	 * @param index
+	 * @return
+	 */
+	public Instruction get(int index) {
+		return get(index, new Instruction());
+	}
+	
+	/**Decodes the instruction at the given position into an existing object, which is returned.
+	 * @param index
+	 * @param instr
+	 * @return
+	 */
+	public Instruction get(int index, Instruction instr) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+		instr.opcode = OPCODES[opcodes[index]];
+		instr.mode = modes[index];
+		instr.dataType = DATA_TYPES[dataTypes[index]];
+		instr.intVal = 0;
+		instr.floatVal = 0;
+		instr.boolVal = false;
+		final int operand = operands[index];
+		switch (Instruction.getOperandType(instr.opcode, instr.mode, instr.dataType)) {
+			case FLOAT:
+				instr.floatVal = Float.intBitsToFloat(operand);
+				break;
+			case BOOLEAN:
+				instr.boolVal = operand != 0;
+				break;
+			default:
+				instr.intVal = operand;
+		}
+		instr.lineNumber = lineNumbers[index];
+		return instr;
+	}
+	
+	public void set(int index, Instruction instr) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+		opcodes[index] = instr.opcode.ordinal();
+		modes[index] = instr.mode;
+		dataTypes[index] = instr.dataType.ordinal();
+		switch (Instruction.getOperandType(instr.opcode, instr.mode, instr.dataType)) {
+			case FLOAT:
+				operands[index] = Float.floatToRawIntBits(instr.floatVal);
+				break;
+			case BOOLEAN:
+				operands[index] = instr.boolVal ? 1 : 0;
+				break;
+			default:
+				operands[index] = instr.intVal;
+		}
+		lineNumbers[index] = instr.lineNumber;
+	}
+	
+	public void add(Instruction instr) {
+		ensureCapacity(size + 1);
+		size++;
+		set(size - 1, instr);
+	}
+	
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity <= opcodes.length) return;
+		int capacity = Math.max(minCapacity, Math.max(16, opcodes.length * 2));
+		opcodes = Arrays.copyOf(opcodes, capacity);
+		modes = Arrays.copyOf(modes, capacity);
+		dataTypes = Arrays.copyOf(dataTypes, capacity);
+		operands = Arrays.copyOf(operands, capacity);
+		lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+	}
+	
+	/**Returns a read-only list view of this code. Each call to get() returns a new instruction,
+	 * so changes to the returned objects don't affect this code.
+	 * @return
+	 */
+	public List<Instruction> asList() {
+		return new View();
+	}
+	
+	/**Decodes all the instructions into a new list of objects.
+	 * @return
+	 */
+	public ArrayList<Instruction> toList() {
+		ArrayList<Instruction> res = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			res.add(get(i));
+		}
+		return res;
+	}
+	
+	/**Reads count instructions from a stream, validating them. The whole section is fetched with a single
+	 * read (or, if the stream is backed by a buffer, decoded in place) and then decoded word by word.
+	 * @param str
+	 * @param count
+	 * @param chl used only for tracing, may be null
+	 * @throws Exception
+	 */
+	public void read(EndianDataInputStream str, int count, CHLFile chl) throws Exception {
+		final int length = count * Instruction.LENGTH;
+		IntBuffer words;
+		if (str instanceof ByteBufferDataInputStream) {
+			words = ((ByteBufferDataInputStream) str).slice(length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		} else {
+			byte[] bytes = new byte[length];
+			str.readFully(bytes);
+			words = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+		read(words, count, chl);
+	}
+	
+	/**Decodes count instructions from a sequence of words laid out like in a CHL file, and appends them.
+	 * The checks are the same of {@link Instruction#read(EndianDataInputStream)}, which is used to build
+	 * the exception whenever an instruction doesn't pass them.
+	 * @param words the instructions, starting from the current position of the buffer
+	 * @param count
+	 * @param chl used only for tracing, may be null
+	 * @throws Exception
+	 */
+	void read(IntBuffer words, int count, CHLFile chl) throws Exception {
+		ensureCapacity(size + count);
+		final int base = size;
+		if (Code.traceEnabled) {
+			Instruction instr = new Instruction();
+			for (int i = 0; i < count; i++) {
+				decode(words, base, i, i + 1);
+				size++;
+				Code.trace(chl, get(size - 1, instr));
+			}
+		} else {
+			decode(words, base, 0, count);
+			size += count;
+		}
+	}
+	
+	/**Same as {@link #read(IntBuffer, int, CHLFile)}, but the instructions are decoded concurrently in
+	 * chunks of the given size. Tracing is not supported.
+	 * @param words the instructions, starting from the current position of the buffer
+	 * @param count
+	 * @param chunkSize
+	 * @throws Exception
+	 */
+	void readParallel(IntBuffer words, int count, int chunkSize) throws Exception {
+		ensureCapacity(size + count);
+		final int base = size;
+		List<Callable<Void>> tasks = new ArrayList<>(count / chunkSize + 1);
+		for (int from = 0; from < count; from += chunkSize) {
+			final int start = from;
+			final int end = Math.min(count, from + chunkSize);
+			tasks.add(() -> {
+				decode(words, base, start, end);
+				return null;
+			});
+		}
+		ConcurrentTasks.invokeAll(tasks);
+		size += count;
+	}
+	
+	/**Decodes the instructions from index start (inclusive) to end (exclusive), storing them from position
+	 * base + start onwards. Capacity must have been ensured. Different ranges can be decoded concurrently.
+	 * @param words
+	 * @param base
+	 * @param start
+	 * @param end
+	 * @throws Exception
+	 */
+	private void decode(IntBuffer words, int base, int start, int end) throws Exception {
+		int p = words.position() + start * WORDS;
+		for (int i = start; i < end; i++, p += WORDS) {
+			final int iOpcode = words.get(p);
+			final int mode = words.get(p + 1);
+			final int iDataType = words.get(p + 2);
+			int operand = words.get(p + 3);
+			final int lineNumber = words.get(p + 4);
+			boolean valid = iOpcode >= 0 && iOpcode < OPCODES.length && iDataType >= 0 && iDataType < DATA_TYPES.length;
+			if (valid) {
+				final OPCode opcode = OPCODES[iOpcode];
+				final DataType operandType = Instruction.getOperandType(opcode, mode, DATA_TYPES[iDataType]);
+				boolean hasValue;
+				if (operandType == DataType.FLOAT) {
+					hasValue = Float.intBitsToFloat(operand) != 0;
+				} else if (operandType == DataType.BOOLEAN) {
+					valid = operand == 0 || operand == 1;
+					hasValue = operand != 0;
+				} else {
+					if (operandType == DataType.VAR) {
+						operand = (int) Float.intBitsToFloat(operand);
+					}
+					hasValue = operand != 0;
+				}
+				if (!opcode.hasArg && hasValue) {
+					valid = false;
+				} else if (opcode == OPCode.SYS && !NativeFunction.isValidCode(operand)) {
+					valid = false;
+				}
+			}
+			if (!valid) {
+				//Let Instruction build the appropriate exception
+				try {
+					new Instruction().decode(iOpcode, mode, iDataType, words.get(p + 3), lineNumber);
+				} catch (Exception e) {
+					throw new Exception(e.getMessage() + ", reading Instruction " + i, e);
+				}
+			}
+			final int index = base + i;
+			opcodes[index] = iOpcode;
+			modes[index] = mode;
+			dataTypes[index] = iDataType;
+			operands[index] = operand;
+			lineNumbers[index] = lineNumber;
+		}
+	}
+	
+	/**Decodes a single instruction from a sequence of words laid out like in a CHL file.
+	 * @param words
+	 * @param index the index of the instruction (not of the word)
+	 * @return
+	 * @throws Exception if the instruction is not valid
+	 */
+	static Instruction decode(IntBuffer words, int index) throws Exception {
+		final int p = words.position() + index * WORDS;
+		Instruction instr = new Instruction();
+		try {
+			instr.decode(words.get(p), words.get(p + 1), words.get(p + 2), words.get(p + 3), words.get(p + 4));
+		} catch (Exception e) {
+			throw new Exception(e.getMessage() + ", reading Instruction " + index, e);
+		}
+		return instr;
+	}
+	
+	/**Writes all the instructions to a stream with a single bulk write. The instruction count is not written.
+	 * @param str
+	 * @throws IOException
+	 */
+	public void write(EndianDataOutputStream str) throws IOException {
+		final int length = size * Instruction.LENGTH;
+		if (str instanceof ByteBufferDataOutputStream) {
+			write(((ByteBufferDataOutputStream) str).reserve(length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+		} else {
+			byte[] bytes = new byte[length];
+			write(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+			str.write(bytes);
+		}
+	}
+	
+	private void write(IntBuffer words) {
+		for (int i = 0; i < size; i++) {
+			words.put(opcodes[i]);
+			words.put(modes[i]);
+			words.put(dataTypes[i]);
+			int operand = operands[i];
+			if (Instruction.getOperandType(OPCODES[opcodes[i]], modes[i], DATA_TYPES[dataTypes[i]]) == DataType.VAR) {
+				operand = Float.floatToRawIntBits(operand);
+			}
+			words.put(operand);
+			words.put(lineNumbers[i]);
+		}
+	}
+	
+	/**Writes a list of instructions to a stream with a single bulk write, without packing them first.
+	 * The instruction count is not written.
+	 * @param str
+	 * @param instructions
+	 * @throws IOException
+	 */
+	public static void write(EndianDataOutputStream str, List<Instruction> instructions) throws IOException {
+		final int length = instructions.size() * Instruction.LENGTH;
+		if (str instanceof ByteBufferDataOutputStream) {
+			write(((ByteBufferDataOutputStream) str).reserve(length).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), instructions);
+		} else {
+			byte[] bytes = new byte[length];
+			write(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), instructions);
+			str.write(bytes);
+		}
+	}
+	
+	private static void write(IntBuffer words, List<Instruction> instructions) {
+		for (Instruction instr : instructions) {
+			words.put(instr.opcode.ordinal());
+			words.put(instr.mode);
+			words.put(instr.dataType.ordinal());
+			words.put(instr.encodeOperand());
+			words.put(instr.lineNumber);
+		}
+	}
+	
+	private class View extends AbstractList<Instruction> implements RandomAccess {
+		@Override
+		public Instruction get(int index) {
+			return PackedCode.this.get(index);
+		}
+		
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
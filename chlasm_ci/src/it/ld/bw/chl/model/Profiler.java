@@ -18,9 +18,9 @@ package it.ld.bw.chl.model;
 /**Helper class to analyze the performance of the program.
  */
 public class Profiler {
-	public static final long[] elapsed = new long[13];
+	public static final long[] elapsed = new long[ProfilerSections.COUNT];
 	
-	private static final long[] start = new long[13];
+	private static final long[] start = new long[ProfilerSections.COUNT];
 	
 	public static void reset() {
 		for (int section = 0; section < elapsed.length; section++) {
@@ -56,6 +56,7 @@ public class Profiler {
 	public static void printReport() {
 		System.out.println("### Profiler report ###");
 		println("Total elapsed", elapsed[ProfilerSections.PF_FILE]);
+		println("Scan", elapsed[ProfilerSections.PF_SCAN]);
 		println("Header", elapsed[ProfilerSections.PF_HEADER]);
 		println("Globals", elapsed[ProfilerSections.PF_GLOBALS]);
 		println("Code", elapsed[ProfilerSections.PF_CODE]);
@@ -16,4 +16,7 @@ public class ProfilerSections {
 	public static final int PF_INSTR_DATATYPE = 12;
 	public static final int PF_INSTR_OPERAND = 13;
 	public static final int PF_INSTR_LINENO = 14;
+	public static final int PF_SCAN = 15;
+	
+	public static final int COUNT = 16;
 }
\ No newline at end of file
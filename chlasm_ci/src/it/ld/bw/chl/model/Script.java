@@ -15,19 +15,18 @@
  */
 package it.ld.bw.chl.model;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
 import java.util.Set;
 
 import it.ld.bw.chl.exceptions.InvalidVariableIdException;
+import it.ld.utils.ByteBufferDataInputStream;
 import it.ld.utils.EndianDataInputStream;
 import it.ld.utils.EndianDataOutputStream;
+import it.ld.utils.StringPool;
 
 public class Script extends Struct {
 	private CHLFile chl;
@@ -38,7 +37,10 @@ public class Script extends Struct {
 	/**The number of global variables defined so far. Values greater than this are mapped to local params/vars */
 	private int globalCount = 0;
 	/**Parameters + local variables*/
-	private List<String> variables = new LinkedList<String>();
+	private VariableTable variables = new VariableTable();
+	/**The encoded variables, if the script has been read lazily and they haven't been decoded yet*/
+	private ByteBuffer lazyVariables = null;
+	private StringPool lazyStringPool = null;
 	/**Index of the first instruction in the instructions array*/
 	private int instructionAddress = -1;
 	/**How many local variables are parameters*/
@@ -48,13 +50,35 @@ public class Script extends Struct {
 	/**Which parameters are reference to global variables*/
 	private Set<String> references = new HashSet<>();
 	
-	private Map<String, Integer> localsMap = null;
 	private int lastInstructionAddress = -1;
 	
 	public Script(CHLFile chl) {
 		this.chl = chl;
 	}
 	
+	/**Returns a copy of this script which belongs to the given file. The variables are shared, so they
+	 * must not be modified.
+	 * @param chl
+	 * @return
+	 */
+	public Script copy(CHLFile chl) {
+		Script res = new Script(chl);
+		res.name = name;
+		res.sourceFilename = sourceFilename;
+		res.scriptType = scriptType;
+		res.globalCount = globalCount;
+		res.variables = variables;
+		if (lazyVariables != null) {
+			res.lazyVariables = lazyVariables.duplicate().order(lazyVariables.order());
+			res.lazyStringPool = lazyStringPool;
+		}
+		res.instructionAddress = instructionAddress;
+		res.parameterCount = parameterCount;
+		res.scriptID = scriptID;
+		res.references = new HashSet<>(references);
+		return res;
+	}
+	
 	public CHLFile getChl() {
 		return chl;
 	}
@@ -95,25 +119,29 @@ public class Script extends Struct {
 		this.globalCount = globalCount;
 	}
 	
-	public List<String> getVariables() {
+	public VariableTable getVariables() {
+		if (lazyVariables != null) {
+			try {
+				ByteBufferDataInputStream str = new ByteBufferDataInputStream(lazyVariables);
+				str.setStringPool(lazyStringPool);
+				variables = new VariableTable(readZStringArray(str));
+			} catch (IOException e) {
+				throw new RuntimeException(e.getMessage() + ", reading variables of script " + name, e);
+			}
+			lazyVariables = null;
+			lazyStringPool = null;
+		}
 		return variables;
 	}
 	
 	public void setVariables(List<String> variables) {
-		this.variables = variables;
+		this.variables = new VariableTable(variables);
+		this.lazyVariables = null;
+		this.lazyStringPool = null;
 	}
 	
 	public int getLocalVarIndex(String varName) {
-		if (localsMap == null) {
-			localsMap = new HashMap<>();
-			int i = 0;
-			Iterator<String> it = variables.iterator();
-			while (it.hasNext()) {
-				String tName = it.next();
-				localsMap.put(tName, i++);
-			}
-		}
-		return localsMap.getOrDefault(varName, -1);
+		return getVariables().indexOf(varName);
 	}
 	
 	public void setReference(String varName) throws IllegalArgumentException {
@@ -129,12 +157,8 @@ public class Script extends Struct {
 	}
 	
 	public List<String> getVariablesWithoutParameters() {
-		List<String> res = new ArrayList<>(variables.size() - parameterCount);
-		ListIterator<String> it = variables.listIterator(parameterCount);
-		while (it.hasNext()) {
-			res.add(it.next());
-		}
-		return res;
+		VariableTable variables = getVariables();
+		return new ArrayList<>(variables.subList(parameterCount, variables.size()));
 	}
 	
 	public int getInstructionAddress() {
@@ -143,6 +167,7 @@ public class Script extends Struct {
 	
 	public void setInstructionAddress(int instructionAddress) {
 		this.instructionAddress = instructionAddress;
+		if (chl != null) chl.scripts.invalidateIndex();
 	}
 	
 	public int getParameterCount() {
@@ -159,13 +184,14 @@ public class Script extends Struct {
 	
 	public void setScriptID(int scriptID) {
 		this.scriptID = scriptID;
+		if (chl != null) chl.scripts.invalidateIndex();
 	}
 	
 	public int getLastInstructionAddress() {
 		if (lastInstructionAddress < instructionAddress) {
-			ArrayList<Instruction> instructions = chl.code.getItems();
-			for (int i = instructionAddress; i < instructions.size(); i++) {
-				if (instructions.get(i).opcode == OPCode.END) {
+			final int size = chl.code.size();
+			for (int i = instructionAddress; i < size; i++) {
+				if (chl.code.getOpcode(i) == OPCode.END) {
 					lastInstructionAddress = i;
 					break;
 				}
@@ -180,7 +206,29 @@ public class Script extends Struct {
 		sourceFilename = readZString(str);
 		scriptType = ScriptType.fromCode(str.readInt());
 		globalCount = str.readInt();
-		variables = readZStringArray(str);
+		variables = new VariableTable(readZStringArray(str));
+		lazyVariables = null;
+		lazyStringPool = null;
+		instructionAddress = str.readInt();
+		parameterCount = str.readInt();
+		scriptID = str.readInt();
+	}
+	
+	/**Reads this script like {@link #read(EndianDataInputStream)}, but the variables are only skipped.
+	 * They will be decoded from the buffer on the first call to {@link #getVariables()}.
+	 * @param str
+	 * @throws Exception
+	 */
+	public void readLazy(ByteBufferDataInputStream str) throws Exception {
+		name = readZString(str);
+		sourceFilename = readZString(str);
+		scriptType = ScriptType.fromCode(str.readInt());
+		globalCount = str.readInt();
+		final int start = str.position();
+		skipZStringArray(str);
+		lazyVariables = str.getBuffer().duplicate().order(str.getBuffer().order());
+		lazyVariables.position(start).limit(str.position());
+		lazyStringPool = str.getStringPool();
 		instructionAddress = str.readInt();
 		parameterCount = str.readInt();
 		scriptID = str.readInt();
@@ -192,12 +240,18 @@ public class Script extends Struct {
 		writeZString(str, sourceFilename);
 		str.writeInt(scriptType.code);
 		str.writeInt(globalCount);
-		writeZStringArray(str, variables);
+		writeZStringArray(str, getVariables());
 		str.writeInt(instructionAddress);
 		str.writeInt(parameterCount);
 		str.writeInt(scriptID);
 	}
 	
+	@Override
+	public int getSize() {
+		int variablesSize = lazyVariables != null ? lazyVariables.remaining() : getZStringArraySize(variables);
+		return getZStringSize(name) + getZStringSize(sourceFilename) + 4 + 4 + variablesSize + 4 + 4 + 4;
+	}
+	
 	public boolean isGlobalVar(int varId) {
 		return varId >= 1 && varId <= globalCount;
 	}
@@ -209,6 +263,7 @@ public class Script extends Struct {
 	public String getLocalVar(int varId) throws InvalidVariableIdException {
 		if (!isLocalVar(varId)) throw new InvalidVariableIdException(varId);
 		int index = varId - globalCount - 1;
+		VariableTable variables = getVariables();
 		if (index < 0 || index >= variables.size()) {
 			throw new InvalidVariableIdException(varId);
 		}
@@ -238,6 +293,7 @@ public class Script extends Struct {
 	public String getSignature() {
 		String res = scriptType.keyword + " " + name;
 		if (parameterCount > 0) {
+			VariableTable variables = getVariables();
 			String[] argNames = new String[parameterCount];
 			for (int i = 0; i < parameterCount; i++) {
 				String argName = variables.get(i);
@@ -15,39 +15,79 @@
  */
 package it.ld.bw.chl.model;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 import it.ld.bw.chl.exceptions.InvalidScriptIdException;
 import it.ld.bw.chl.exceptions.ScriptNotFoundException;
+import it.ld.utils.ByteBufferDataInputStream;
 import it.ld.utils.EndianDataInputStream;
 
 public class Scripts extends StructArray<Script> {
 	private CHLFile chl;
 	
 	private Map<String, Script> scriptsMap = new HashMap<>();
+	
+	/**Scripts indexed by ID. May be null if IDs are too sparse, in which case they are searched linearly.*/
+	private Script[] scriptsById = null;
 	private Map<Integer, Script> entrypointScripts = new HashMap<>();
+	/**Number of scripts when the index was built, to detect scripts added through getItems()*/
+	private int indexedCount = -1;
+	private boolean indexValid = false;
+	
+	private boolean lazy = false;
 	
 	public Scripts(CHLFile chl) {
 		this.chl = chl;
 	}
 	
-	public Script getScriptFromInstruction(int instruction) {
-		for (int i = entrypointScripts.size(); i < items.size(); i++) {
-			Script script = items.get(i);
+	@Override
+	public void setItems(ArrayList<Script> items) {
+		super.setItems(items);
+		invalidateIndex();
+	}
+	
+	/**Tells that the ID or the entrypoint of a script has changed, so the index must be rebuilt.
+	 */
+	void invalidateIndex() {
+		indexValid = false;
+	}
+	
+	/**Rebuilds the index of IDs and entrypoints if it has been invalidated or scripts have been added.
+	 * @param force rebuild anyway, for when a lookup found a stale entry
+	 */
+	private void updateIndex(boolean force) {
+		if (!force && indexValid && indexedCount == items.size()) return;
+		int maxId = 0;
+		for (Script script : items) {
+			maxId = Math.max(maxId, script.getScriptID());
+		}
+		scriptsById = maxId <= items.size() * 2 + 16 ? new Script[maxId + 1] : null;
+		entrypointScripts.clear();
+		for (Script script : items) {
+			final int id = script.getScriptID();
+			if (scriptsById != null && id >= 0 && scriptsById[id] == null) {
+				scriptsById[id] = script;
+			}
 			entrypointScripts.put(script.getInstructionAddress(), script);
 		}
-		return entrypointScripts.get(instruction);
+		indexedCount = items.size();
+		indexValid = true;
+	}
+	
+	public Script getScriptFromInstruction(int instruction) {
+		return getScriptFromEntrypoint(instruction);
 	}
 	
 	public Script getScriptFromEntrypoint(int ip) {
-		if (entrypointScripts == null) {
-			entrypointScripts = new HashMap<>();
-			for (Script script : items) {
-				entrypointScripts.put(script.getInstructionAddress(), script);
-			}
+		updateIndex(false);
+		Script script = entrypointScripts.get(ip);
+		if (script != null && script.getInstructionAddress() != ip) {
+			updateIndex(true);
+			script = entrypointScripts.get(ip);
 		}
-		return entrypointScripts.get(ip);
+		return script;
 	}
 	
 	@Override
@@ -65,11 +105,49 @@ public class Scripts extends StructArray<Script> {
 		super.read(str);
 	}
 	
+	/**Reads the scripts leaving their variables in the buffer (see {@link Script#readLazy(ByteBufferDataInputStream)}).
+	 * @param str
+	 * @throws Exception
+	 */
+	public void readLazy(ByteBufferDataInputStream str) throws Exception {
+		lazy = true;
+		try {
+			super.read(str);
+		} finally {
+			lazy = false;
+		}
+	}
+	
+	@Override
+	protected Script readItem(EndianDataInputStream str, int index) throws Exception {
+		if (!lazy) return super.readItem(str, index);
+		Script script = createItem();
+		script.readLazy((ByteBufferDataInputStream) str);
+		return script;
+	}
+	
 	public Script getScript(int scriptID) throws InvalidScriptIdException {
-		for (Script script : items) {
-			if (script.getScriptID() == scriptID) return script;
+		updateIndex(false);
+		Script script = findScript(scriptID);
+		if (script == null || script.getScriptID() != scriptID) {
+			//Scripts may have been changed without notice, e.g. if they belong to another file too
+			updateIndex(true);
+			script = findScript(scriptID);
+		}
+		if (script == null) {
+			throw new InvalidScriptIdException(scriptID);
+		}
+		return script;
+	}
+	
+	private Script findScript(int scriptID) {
+		if (scriptsById == null) {
+			for (Script script : items) {
+				if (script.getScriptID() == scriptID) return script;
+			}
+			return null;
 		}
-		throw new InvalidScriptIdException(scriptID);
+		return scriptID >= 0 && scriptID < scriptsById.length ? scriptsById[scriptID] : null;
 	}
 	
 	public Script getScript(String scriptName) throws ScriptNotFoundException {
@@ -18,11 +18,13 @@ package it.ld.bw.chl.model;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import it.ld.utils.ByteBufferDataOutputStream;
 import it.ld.utils.EndianDataInputStream;
 import it.ld.utils.EndianDataOutputStream;
 
@@ -32,6 +34,12 @@ import it.ld.utils.EndianDataOutputStream;
 public abstract class Struct {
 	protected static final Charset ASCII = Charset.forName("windows-1252");
 	
+	/**Name of the fake variables that follow an array, one for each element after the first. Strings with
+	 * this value read by {@link #readZString(EndianDataInputStream)} are always this very instance.
+	 */
+	public static final String ARRAY_FILLER = "LHVMA";
+	private static final byte[] ARRAY_FILLER_BYTES = ARRAY_FILLER.getBytes(ASCII);
+	
 	/**Read this struct from a stream.
 	 * @param str
 	 * @throws Exception
@@ -44,26 +52,55 @@ public abstract class Struct {
 	 */
 	public abstract void write(EndianDataOutputStream str) throws Exception;
 	
-	/**Reads a null-terminated ASCII string from a stream.
+	/**Returns the number of bytes written by {@link #write(EndianDataOutputStream)}. The default
+	 * implementation writes the struct to a buffer, subclasses should compute it directly.
+	 * @return
+	 * @throws Exception
+	 */
+	public int getSize() throws Exception {
+		ByteBufferDataOutputStream str = new ByteBufferDataOutputStream(256);
+		write(str);
+		return str.size();
+	}
+	
+	/**Reads a null-terminated ASCII string from a stream. The bytes are collected in the scratch buffer
+	 * of the stream, and the string is taken from the string pool of the stream, so repeated strings are
+	 * decoded only once and share the same instance.
 	 * @param str
 	 * @return
 	 * @throws IOException
 	 */
 	protected static String readZString(EndianDataInputStream str) throws IOException {
-		byte[] buf = new byte[256];
+		byte[] buf = str.getScratchBuffer(256);
 		int l = 0;
 		byte b = str.readByte();
 		while (b != 0) {
 			if (l >= buf.length) {
-				byte[] newBuf = new byte[buf.length * 2];
-				System.arraycopy(buf, 0, newBuf, 0, l);
-				buf = newBuf;
+				buf = str.getScratchBuffer(buf.length * 2);
 			}
 			buf[l++] = b;
 			b = str.readByte();
 		}
-		String s = new String(buf, 0, l, ASCII);
-		return s;
+		if (l == ARRAY_FILLER_BYTES.length && Arrays.equals(buf, 0, l, ARRAY_FILLER_BYTES, 0, l)) {
+			return ARRAY_FILLER;
+		}
+		return str.getStringPool().get(buf, 0, l);
+	}
+	
+	/**Skips a null-terminated string without decoding it.
+	 * @param str
+	 * @throws IOException
+	 */
+	protected static void skipZString(EndianDataInputStream str) throws IOException {
+		while (str.readByte() != 0);
+	}
+	
+	/**Calculates the size in bytes of a null-terminated string.
+	 * @param s
+	 * @return
+	 */
+	protected static int getZStringSize(String s) {
+		return s.length() + 1;
 	}
 	
 	/**Writes a null-terminated ASCII string to a stream.
@@ -92,6 +129,17 @@ public abstract class Struct {
 		return res;
 	}
 	
+	/**Skips an array of null-terminated strings without decoding them.
+	 * @param str
+	 * @throws IOException
+	 */
+	protected static void skipZStringArray(EndianDataInputStream str) throws IOException {
+		int count = str.readInt();
+		for (int i = 0; i < count; i++) {
+			skipZString(str);
+		}
+	}
+	
 	/**Writes an array of null-terminated strings to a stream.
 	 * @param str
 	 * @param strings
@@ -111,7 +159,7 @@ public abstract class Struct {
 	protected static int getZStringArraySize(List<String> strings) {
 		int l = 4;
 		for (String s : strings) {
-			l += s.length() + 1;
+			l += getZStringSize(s);
 		}
 		return l;
 	}
@@ -138,7 +186,7 @@ public abstract class Struct {
 	protected static int getMapOfStringIntSize(Map<String, Integer> map) {
 		int l = 4;
 		for (String s : map.keySet()) {
-			l += s.length() + 1 + 4;
+			l += getZStringSize(s) + 4;
 		}
 		return l;
 	}
@@ -153,6 +201,10 @@ public abstract class Struct {
 		return res;
 	}
 	
+	protected static int getIntArraySize(List<Integer> vals) {
+		return 4 + vals.size() * 4;
+	}
+	
 	protected static void writeIntArray(EndianDataOutputStream str, List<Integer> vals) throws IOException {
 		str.writeInt(vals.size());
 		for (Integer val : vals) {
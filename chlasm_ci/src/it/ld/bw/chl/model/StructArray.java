@@ -47,6 +47,15 @@ public abstract class StructArray<E extends Struct> extends Struct {
 		writeStructArray(str, items);
 	}
 	
+	@Override
+	public int getSize() throws Exception {
+		int size = 4;
+		for (E item : items) {
+			size += item.getSize();
+		}
+		return size;
+	}
+	
 	public String getTypeName() {
 		return getItemClass().getSimpleName();
 	}
@@ -21,6 +21,11 @@ public class TaskVar extends Struct {
 		str.writeInt(varId);
 	}
 	
+	@Override
+	public int getSize() {
+		return SIZE;
+	}
+	
 	@Override
 	public String toString() {
 		return "{task=" + taskId + ", var=" + varId + "}";
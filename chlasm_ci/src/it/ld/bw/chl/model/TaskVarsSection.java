@@ -47,6 +47,11 @@ public class TaskVarsSection extends StructArray<TaskVar> {
 		}
 	}
 	
+	@Override
+	public int getSize() {
+		return 4 + Math.max(items.size(), minItems) * TaskVar.SIZE;
+	}
+	
 	@Override
 	public String toString() {
 		return "TaskVars[" + items.size() + "]";
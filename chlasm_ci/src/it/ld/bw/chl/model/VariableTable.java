@@ -0,0 +1,156 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.bw.chl.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**The table of the local variables of a script, as stored in CHL files: a list of names where the
+ * elements of an array after the first one are named LHVMA. Besides the names, the table keeps the
+ * start and size of each array and an index of the names, so that variables can be resolved in constant
+ * time. Only appending is supported, which is how tables are built by the compilers.
+ */
+public class VariableTable extends AbstractList<String> implements RandomAccess {
+	private String[] names;
+	/**For each entry, the index of the first element of the array it belongs to*/
+	private int[] arrayStart;
+	/**For each entry which is the first element of an array, the size of the array*/
+	private int[] arraySize;
+	private int size = 0;
+	/**Index of the variables by name, excluding LHVMA*/
+	private final Map<String, Integer> indexMap;
+	
+	public VariableTable() {
+		this(8);
+	}
+	
+	public VariableTable(int initialCapacity) {
+		initialCapacity = Math.max(1, initialCapacity);
+		names = new String[initialCapacity];
+		arrayStart = new int[initialCapacity];
+		arraySize = new int[initialCapacity];
+		indexMap = new HashMap<>(initialCapacity * 2);
+	}
+	
+	public VariableTable(Collection<String> names) {
+		this(names.size());
+		for (String name : names) {
+			add(name);
+		}
+	}
+	
+	@Override
+	public String get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+		}
+		return names[index];
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean add(String name) {
+		if (size == names.length) {
+			final int capacity = size * 2;
+			names = Arrays.copyOf(names, capacity);
+			arrayStart = Arrays.copyOf(arrayStart, capacity);
+			arraySize = Arrays.copyOf(arraySize, capacity);
+		}
+		final int index = size++;
+		names[index] = name;
+		if (index > 0 && Struct.ARRAY_FILLER.equals(name)) {
+			final int start = arrayStart[index - 1];
+			arrayStart[index] = start;
+			arraySize[start]++;
+		} else {
+			arrayStart[index] = index;
+			arraySize[index] = 1;
+			if (!Struct.ARRAY_FILLER.equals(name)) {
+				indexMap.put(name, index);
+			}
+		}
+		modCount++;
+		return true;
+	}
+	
+	/**Adds a variable followed by the LHVMA entries needed to hold an array of the given size.
+	 * @param name
+	 * @param arraySize
+	 * @return the index of the variable
+	 */
+	public int add(String name, int arraySize) {
+		final int index = size;
+		add(name);
+		for (int i = 1; i < arraySize; i++) {
+			add(Struct.ARRAY_FILLER);
+		}
+		return index;
+	}
+	
+	/**Returns the index of the variable with the given name. If there are variables with the same name,
+	 * the last one is returned.
+	 */
+	@Override
+	public int indexOf(Object o) {
+		if (Struct.ARRAY_FILLER.equals(o)) {
+			return super.indexOf(o);
+		}
+		Integer index = indexMap.get(o);
+		return index != null ? index : -1;
+	}
+	
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+	
+	/**Returns the index of the first element of the array which the given entry belongs to. For variables
+	 * which aren't arrays, this is the index itself.
+	 * @param index
+	 * @return
+	 */
+	public int getArrayStart(int index) {
+		get(index);
+		return arrayStart[index];
+	}
+	
+	/**Returns the size of the array which the given entry belongs to, or 1 if it isn't an array.
+	 * @param index
+	 * @return
+	 */
+	public int getArraySize(int index) {
+		get(index);
+		return arraySize[arrayStart[index]];
+	}
+	
+	/**Returns the name of the given entry, followed by "+offset" if it belongs to an array.
+	 * @param index
+	 * @return
+	 */
+	public String getReference(int index) {
+		final int start = getArrayStart(index);
+		final String name = names[start];
+		return arraySize[start] > 1 ? name + "+" + (index - start) : name;
+	}
+}
@@ -0,0 +1,289 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/**An EndianDataInputStream which decodes values straight from a ByteBuffer, without any intermediate copy.
+ * Typically the buffer is a memory mapped file (see {@link #map(File)}).
+ */
+public class ByteBufferDataInputStream extends EndianDataInputStream {
+	private final ByteBuffer buffer;
+	private int mark = -1;
+	
+	public ByteBufferDataInputStream(ByteBuffer buffer) {
+		super(InputStream.nullInputStream());
+		this.buffer = buffer;
+	}
+	
+	/**Maps the whole file in memory and returns a stream that reads from it.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ByteBufferDataInputStream map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);) {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			return new ByteBufferDataInputStream(buffer);
+		}
+	}
+	
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+	
+	public int position() {
+		return buffer.position();
+	}
+	
+	public void position(int position) {
+		buffer.position(position);
+	}
+	
+	/**Returns a buffer over the next length bytes, with the same byte order of this stream, and skips them.
+	 * @param length
+	 * @return
+	 * @throws EOFException if there are less than length bytes remaining
+	 */
+	public ByteBuffer slice(int length) throws EOFException {
+		if (length < 0 || buffer.remaining() < length) throw new EOFException();
+		ByteBuffer res = buffer.slice().order(buffer.order());
+		res.limit(length);
+		buffer.position(buffer.position() + length);
+		return res;
+	}
+	
+	@Override
+	public ByteBufferDataInputStream order(ByteOrder o) {
+		super.order(o);
+		buffer.order(o);
+		return this;
+	}
+	
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (!buffer.hasRemaining()) return -1;
+		return buffer.get() & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (!buffer.hasRemaining()) return -1;
+		len = Math.min(len, buffer.remaining());
+		buffer.get(b, off, len);
+		return len;
+	}
+	
+	@Override
+	public byte[] readNBytes(int len) throws IOException {
+		if (len < 0) throw new IllegalArgumentException("len < 0");
+		byte[] b = new byte[Math.min(len, buffer.remaining())];
+		buffer.get(b);
+		return b;
+	}
+	
+	@Override
+	public int readNBytes(byte[] b, int off, int len) throws IOException {
+		len = Math.min(len, buffer.remaining());
+		buffer.get(b, off, len);
+		return len;
+	}
+	
+	@Override
+	public byte[] readAllBytes() throws IOException {
+		return readNBytes(buffer.remaining());
+	}
+	
+	@Override
+	public void readFully(byte[] b) throws IOException {
+		readFully(b, 0, b.length);
+	}
+	
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException {
+		try {
+			buffer.get(b, off, len);
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		int k = (int)Math.max(0, Math.min(n, buffer.remaining()));
+		buffer.position(buffer.position() + k);
+		return k;
+	}
+	
+	@Override
+	public int skipBytes(int n) throws IOException {
+		return (int)skip(n);
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	
+	@Override
+	public void mark(int readlimit) {
+		mark = buffer.position();
+	}
+	
+	@Override
+	public void reset() throws IOException {
+		if (mark < 0) throw new IOException("Mark not set");
+		buffer.position(mark);
+	}
+	
+	/**Reads a line as {@link DataInputStream#readLine()} does: each byte is a char, and the line ends
+	 * with "\n", "\r" or "\r\n".
+	 */
+	@Override
+	public String readLine() throws IOException {
+		if (!buffer.hasRemaining()) return null;
+		StringBuilder res = new StringBuilder();
+		while (buffer.hasRemaining()) {
+			int c = buffer.get() & 0xFF;
+			if (c == '\n') break;
+			if (c == '\r') {
+				if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+					buffer.get();
+				}
+				break;
+			}
+			res.append((char) c);
+		}
+		return res.toString();
+	}
+	
+	/**Reads a string in modified UTF-8 as {@link DataInputStream#readUTF()} does: the length is always
+	 * big endian, whatever the order of this stream.
+	 */
+	@Override
+	public String readUTF() throws IOException {
+		int length = ((readByte() & 0xFF) << 8) | (readByte() & 0xFF);
+		byte[] bytes = new byte[2 + length];
+		bytes[0] = (byte) (length >> 8);
+		bytes[1] = (byte) length;
+		readFully(bytes, 2, length);
+		return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+	}
+	
+	@Override
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+	
+	@Override
+	public byte readByte() throws IOException {
+		try {
+			return buffer.get();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xFF;
+	}
+	
+	@Override
+	public char readChar() throws IOException {
+		try {
+			return buffer.getChar();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public short readShort() throws IOException {
+		try {
+			return buffer.getShort();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xFFFF;
+	}
+	
+	@Override
+	public int readInt() throws IOException {
+		try {
+			return buffer.getInt();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public long readLong() throws IOException {
+		try {
+			return buffer.getLong();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public float readFloat() throws IOException {
+		try {
+			return buffer.getFloat();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public double readDouble() throws IOException {
+		try {
+			return buffer.getDouble();
+		} catch (BufferUnderflowException e) {
+			throw new EOFException();
+		}
+	}
+	
+	@Override
+	public void close() {}
+}
@@ -0,0 +1,225 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.utils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**An EndianDataOutputStream which encodes values straight into a ByteBuffer. The buffer should be
+ * allocated with the final size, but it grows if needed. When done, the content can be written to
+ * a file with a single channel write (see {@link #writeTo(File)}).
+ */
+public class ByteBufferDataOutputStream extends EndianDataOutputStream {
+	private final boolean direct;
+	private ByteBuffer buffer;
+	private DataOutputStream textOut = null;
+	
+	public ByteBufferDataOutputStream(int capacity) {
+		this(capacity, false);
+	}
+	
+	/**
+	 * @param capacity the initial size of the buffer
+	 * @param direct whether to allocate a direct buffer
+	 */
+	public ByteBufferDataOutputStream(int capacity, boolean direct) {
+		super(OutputStream.nullOutputStream());
+		this.direct = direct;
+		this.buffer = allocate(capacity);
+	}
+	
+	private ByteBuffer allocate(int capacity) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+	
+	private void ensureRemaining(int n) {
+		if (buffer.remaining() < n) {
+			int capacity = Math.max(buffer.capacity() * 2, buffer.position() + n);
+			ByteBuffer newBuffer = allocate(capacity).order(buffer.order());
+			buffer.flip();
+			newBuffer.put(buffer);
+			buffer = newBuffer;
+		}
+	}
+	
+	/**Returns the number of bytes written so far.
+	 * @return
+	 */
+	public int size() {
+		return buffer.position();
+	}
+	
+	/**Returns a read-only buffer over the bytes written so far.
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		ByteBuffer res = buffer.asReadOnlyBuffer();
+		res.flip();
+		return res;
+	}
+	
+	/**Returns a buffer over the next length bytes, with the same byte order of this stream, and skips
+	 * them. This allows to encode data in place; the bytes must be filled before writing the content.
+	 * @param length
+	 * @return
+	 */
+	public ByteBuffer reserve(int length) {
+		ensureRemaining(length);
+		ByteBuffer res = buffer.slice().order(buffer.order());
+		res.limit(length);
+		buffer.position(buffer.position() + length);
+		return res;
+	}
+	
+	/**Writes the bytes written so far to a channel.
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void writeTo(FileChannel channel) throws IOException {
+		ByteBuffer src = buffer.duplicate();
+		src.flip();
+		while (src.hasRemaining()) {
+			channel.write(src);
+		}
+	}
+	
+	/**Writes the bytes written so far to a file, replacing its content.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeTo(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);) {
+			writeTo(channel);
+		}
+	}
+	
+	@Override
+	public ByteBufferDataOutputStream order(ByteOrder o) {
+		super.order(o);
+		buffer.order(o);
+		return this;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		ensureRemaining(1);
+		buffer.put((byte)b);
+	}
+	
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureRemaining(len);
+		buffer.put(b, off, len);
+	}
+	
+	@Override
+	public void writeBoolean(boolean b) throws IOException {
+		write(b ? 1 : 0);
+	}
+	
+	@Override
+	public void writeByte(byte b) throws IOException {
+		write(b);
+	}
+	
+	@Override
+	public void writeByte(int v) throws IOException {
+		write(v);
+	}
+	
+	/**Chars are always written in big endian order, like in {@link DataOutputStream}.*/
+	@Override
+	public void writeChar(char c) throws IOException {
+		writeChar((int)c);
+	}
+	
+	@Override
+	public void writeChar(int v) throws IOException {
+		ensureRemaining(2);
+		buffer.put((byte)(v >>> 8));
+		buffer.put((byte)v);
+	}
+	
+	@Override
+	public void writeShort(int v) throws IOException {
+		ensureRemaining(2);
+		buffer.putShort((short)v);
+	}
+	
+	@Override
+	public void writeInt(int i) throws IOException {
+		ensureRemaining(4);
+		buffer.putInt(i);
+	}
+	
+	@Override
+	public void writeLong(long l) throws IOException {
+		ensureRemaining(8);
+		buffer.putLong(l);
+	}
+	
+	@Override
+	public void writeFloat(float f) throws IOException {
+		ensureRemaining(4);
+		buffer.putFloat(f);
+	}
+	
+	@Override
+	public void writeDouble(double d) throws IOException {
+		ensureRemaining(8);
+		buffer.putDouble(d);
+	}
+	
+	@Override
+	public void writeBytes(String s) throws IOException {
+		getTextOut().writeBytes(s);
+	}
+	
+	@Override
+	public void writeChars(String s) throws IOException {
+		getTextOut().writeChars(s);
+	}
+	
+	@Override
+	public void writeUTF(String str) throws IOException {
+		getTextOut().writeUTF(str);
+	}
+	
+	private DataOutputStream getTextOut() {
+		if (textOut == null) {
+			textOut = new DataOutputStream(this);
+		}
+		return textOut;
+	}
+	
+	@Override
+	public void flush() {}
+	
+	@Override
+	public void close() {}
+}
@@ -0,0 +1,76 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**Helper to run a batch of independent tasks concurrently and wait for all of them.
+ */
+public class ConcurrentTasks {
+	/**Runs the tasks on the common ForkJoinPool (see {@link #invokeAll(ExecutorService, Collection)}).
+	 * @param tasks
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T> List<T> invokeAll(Collection<? extends Callable<T>> tasks) throws Exception {
+		return invokeAll(ForkJoinPool.commonPool(), tasks);
+	}
+	
+	/**Runs the tasks and waits for all of them to complete. The results are returned in the same order of
+	 * the tasks. If any task fails, the exception thrown by the first failed task in list order is rethrown,
+	 * so errors are reported as if the tasks were run sequentially.
+	 * @param executor
+	 * @param tasks
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T> List<T> invokeAll(ExecutorService executor, Collection<? extends Callable<T>> tasks) throws Exception {
+		//Exceptions are caught inside the tasks because some executors wrap them
+		final Exception[] errors = new Exception[tasks.size()];
+		List<Callable<T>> wrappers = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks) {
+			final int index = wrappers.size();
+			wrappers.add(() -> {
+				try {
+					return task.call();
+				} catch (Exception e) {
+					errors[index] = e;
+					return null;
+				}
+			});
+		}
+		List<Future<T>> futures = executor.invokeAll(wrappers);
+		List<T> res = new ArrayList<>(futures.size());
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				res.add(futures.get(i).get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error) throw (Error) cause;
+				throw e;
+			}
+			if (errors[i] != null) throw errors[i];
+		}
+		return res;
+	}
+}
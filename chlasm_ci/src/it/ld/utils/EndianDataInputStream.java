@@ -21,16 +21,48 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 
 public class EndianDataInputStream extends InputStream implements DataInput {
     DataInputStream dataIn;
     private ByteBuffer buffer = ByteBuffer.allocate(8);
     private byte[] raw = new byte[8];
+    private byte[] scratch = null;
+    private StringPool stringPool = null;
     
     public EndianDataInputStream(InputStream stream) {
         dataIn = new DataInputStream(stream);
     }
     
+    /**Returns a buffer for temporary use by the readers of this stream, at least minLength bytes long.
+     * The same buffer is returned on each call, grown if needed, and its content is preserved.
+     * @param minLength
+     * @return
+     */
+    public byte[] getScratchBuffer(int minLength) {
+        if (scratch == null) {
+            scratch = new byte[Math.max(minLength, 256)];
+        } else if (scratch.length < minLength) {
+            scratch = Arrays.copyOf(scratch, Math.max(minLength, scratch.length * 2));
+        }
+        return scratch;
+    }
+    
+    /**Returns the pool used to share the strings read from this stream.
+     * @return
+     */
+    public StringPool getStringPool() {
+        if (stringPool == null) {
+            stringPool = new StringPool(Charset.forName("windows-1252"));
+        }
+        return stringPool;
+    }
+    
+    public void setStringPool(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+    
     public EndianDataInputStream order(ByteOrder o) {
         buffer.order(o);
         return this;
@@ -0,0 +1,307 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.utils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**A map from strings to ints, backed by an open addressing table with linear probing. Values are stored
+ * unboxed, and can be read without allocations through {@link #indexOf(String)} and {@link #valueAt(int)}.
+ * Entries are kept in insertion order. Removing an entry rebuilds the table, so it's meant for maps which
+ * only grow. Null values are not allowed. This class is not thread safe.
+ */
+public class StringIntMap extends AbstractMap<String, Integer> {
+	/**Index of the entry in each slot plus one, 0 if the slot is free*/
+	private int[] table;
+	private String[] keys;
+	private int[] hashes;
+	private int[] values;
+	private int size = 0;
+	private int modCount = 0;
+	private Set<Map.Entry<String, Integer>> entrySet;
+	
+	public StringIntMap() {
+		this(64);
+	}
+	
+	public StringIntMap(int initialCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(16, initialCapacity * 2 - 1));
+		table = new int[capacity * 2];
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		values = new int[capacity];
+	}
+	
+	public StringIntMap(Map<String, Integer> map) {
+		this(map.size());
+		putAll(map);
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	/**Returns the index of the entry with the given key, which can be passed to {@link #valueAt(int)}.
+	 * The index is valid until an entry is removed.
+	 * @param key
+	 * @return the index, or -1 if the key isn't in the map
+	 */
+	public int indexOf(String key) {
+		final int hash = hash(key);
+		final int mask = table.length - 1;
+		int slot = hash & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == hash && key.equals(keys[e - 1])) {
+				return e - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	public String keyAt(int index) {
+		return keys[index];
+	}
+	
+	public int valueAt(int index) {
+		return values[index];
+	}
+	
+	/**Returns the value of the given key, or the given default value if the key isn't in the map.
+	 * @param key
+	 * @param defaultValue
+	 * @return
+	 */
+	public int getInt(String key, int defaultValue) {
+		int index = indexOf(key);
+		return index >= 0 ? values[index] : defaultValue;
+	}
+	
+	/**Sets the value of the given key.
+	 * @param key
+	 * @param value
+	 * @return the index of the entry
+	 */
+	public int putInt(String key, int value) {
+		final int hash = hash(key);
+		final int mask = table.length - 1;
+		int slot = hash & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[e - 1] == hash && key.equals(keys[e - 1])) {
+				values[e - 1] = value;
+				return e - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size == keys.length) {
+			grow();
+			return putInt(key, value);
+		}
+		final int index = size++;
+		keys[index] = key;
+		hashes[index] = hash;
+		values[index] = value;
+		table[slot] = index + 1;
+		modCount++;
+		return index;
+	}
+	
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String && indexOf((String) key) >= 0;
+	}
+	
+	@Override
+	public Integer get(Object key) {
+		if (!(key instanceof String)) return null;
+		int index = indexOf((String) key);
+		return index >= 0 ? values[index] : null;
+	}
+	
+	@Override
+	public Integer put(String key, Integer value) {
+		Objects.requireNonNull(value, "StringIntMap doesn't allow null values");
+		int index = indexOf(key);
+		Integer oldVal = index >= 0 ? values[index] : null;
+		putInt(key, value);
+		return oldVal;
+	}
+	
+	@Override
+	public void putAll(Map<? extends String, ? extends Integer> m) {
+		if (m instanceof StringIntMap) {
+			StringIntMap src = (StringIntMap) m;
+			for (int i = 0; i < src.size; i++) {
+				putInt(src.keys[i], src.values[i]);
+			}
+		} else {
+			super.putAll(m);
+		}
+	}
+	
+	@Override
+	public Integer remove(Object key) {
+		if (!(key instanceof String)) return null;
+		int index = indexOf((String) key);
+		if (index < 0) return null;
+		Integer oldVal = values[index];
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(hashes, index + 1, hashes, index, size - index - 1);
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		keys[--size] = null;
+		rehash(table.length);
+		modCount++;
+		return oldVal;
+	}
+	
+	@Override
+	public void clear() {
+		Arrays.fill(table, 0);
+		Arrays.fill(keys, 0, size, null);
+		size = 0;
+		modCount++;
+	}
+	
+	private void grow() {
+		final int capacity = keys.length * 2;
+		keys = Arrays.copyOf(keys, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		values = Arrays.copyOf(values, capacity);
+		rehash(capacity * 2);
+	}
+	
+	private void rehash(int tableSize) {
+		table = new int[tableSize];
+		final int mask = tableSize - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hashes[i] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+	}
+	
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+	
+	@Override
+	public Set<Map.Entry<String, Integer>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<String, Integer>>() {
+				@Override
+				public int size() {
+					return size;
+				}
+				
+				@Override
+				public Iterator<Map.Entry<String, Integer>> iterator() {
+					return new EntryIterator();
+				}
+				
+				@Override
+				public void clear() {
+					StringIntMap.this.clear();
+				}
+			};
+		}
+		return entrySet;
+	}
+	
+	private class EntryIterator implements Iterator<Map.Entry<String, Integer>> {
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+		
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+		
+		@Override
+		public Map.Entry<String, Integer> next() {
+			if (modCount != expectedModCount) throw new ConcurrentModificationException();
+			if (next >= size) throw new NoSuchElementException();
+			last = next++;
+			return new Entry(last);
+		}
+		
+		@Override
+		public void remove() {
+			if (last < 0) throw new IllegalStateException();
+			if (modCount != expectedModCount) throw new ConcurrentModificationException();
+			StringIntMap.this.remove(keys[last]);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+	
+	private class Entry implements Map.Entry<String, Integer> {
+		private final int index;
+		
+		public Entry(int index) {
+			this.index = index;
+		}
+		
+		@Override
+		public String getKey() {
+			return keys[index];
+		}
+		
+		@Override
+		public Integer getValue() {
+			return values[index];
+		}
+		
+		@Override
+		public Integer setValue(Integer value) {
+			Objects.requireNonNull(value, "StringIntMap doesn't allow null values");
+			Integer oldVal = values[index];
+			values[index] = value;
+			return oldVal;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return keys[index].equals(e.getKey()) && getValue().equals(e.getValue());
+		}
+		
+		@Override
+		public int hashCode() {
+			return keys[index].hashCode() ^ values[index];
+		}
+		
+		@Override
+		public String toString() {
+			return keys[index] + "=" + values[index];
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.utils;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**Pool of strings decoded from bytes. Strings are looked up by their encoded bytes, so getting a string
+ * which is already in the pool doesn't allocate anything, and all the occurrences of a string share the
+ * same instance. This class is not thread safe.
+ */
+public class StringPool {
+	private final Charset charset;
+	
+	private byte[][] keys;
+	private String[] values;
+	private int size = 0;
+	
+	public StringPool(Charset charset) {
+		this(charset, 64);
+	}
+	
+	public StringPool(Charset charset, int initialCapacity) {
+		this.charset = charset;
+		int capacity = Integer.highestOneBit(Math.max(16, initialCapacity * 2 - 1));
+		keys = new byte[capacity][];
+		values = new String[capacity];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**Adds a string to the pool, so that it will be returned in place of equal strings.
+	 * @param s
+	 * @return the pooled instance, which is s itself if the pool didn't contain an equal string
+	 */
+	public String add(String s) {
+		byte[] bytes = s.getBytes(charset);
+		int slot = find(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+		if (values[slot] != null) return values[slot];
+		insert(slot, bytes, s);
+		return s;
+	}
+	
+	/**Returns the string encoded by the given bytes, decoding it only if it isn't in the pool yet.
+	 * @param buf
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public String get(byte[] buf, int offset, int length) {
+		int slot = find(buf, offset, length, hash(buf, offset, length));
+		String s = values[slot];
+		if (s == null) {
+			s = new String(buf, offset, length, charset);
+			insert(slot, Arrays.copyOfRange(buf, offset, offset + length), s);
+		}
+		return s;
+	}
+	
+	private int find(byte[] buf, int offset, int length, int hash) {
+		final int mask = keys.length - 1;
+		int slot = hash & mask;
+		byte[] key;
+		while ((key = keys[slot]) != null) {
+			if (key.length == length && Arrays.equals(key, 0, length, buf, offset, offset + length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private void insert(int slot, byte[] key, String value) {
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size * 2 > keys.length) {
+			rehash();
+		}
+	}
+	
+	private void rehash() {
+		byte[][] oldKeys = keys;
+		String[] oldValues = values;
+		keys = new byte[oldKeys.length * 2][];
+		values = new String[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			byte[] key = oldKeys[i];
+			if (key != null) {
+				int slot = find(key, 0, key.length, hash(key, 0, key.length));
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+	
+	private static int hash(byte[] buf, int offset, int length) {
+		int h = 1;
+		for (int i = offset; i < offset + length; i++) {
+			h = 31 * h + buf[i];
+		}
+		return h ^ (h >>> 16);
+	}
+}
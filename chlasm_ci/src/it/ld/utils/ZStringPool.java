@@ -0,0 +1,247 @@
+/* Copyright (c) 2023 Daniele Lombardi / Daniels118
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.ld.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**A buffer of null terminated strings in which each string is stored once. Strings are looked up by their
+ * encoded bytes, which are compared straight against the buffer, so adding a string which is already in
+ * the pool doesn't allocate anything, and adding a new one copies its bytes only into the buffer.
+ * If suffix merging is enabled, a string which is the tail of a string already in the pool is not stored
+ * again, and its offset points into the longer string. Only the tails of the strings added before are
+ * found, so the result depends on the order of the strings.
+ * This class is not thread safe, but lookups can run concurrently while no string is added.
+ */
+public class ZStringPool {
+	private final Charset charset;
+	private final boolean mergeSuffixes;
+	
+	private byte[] buffer;
+	private int size = 0;
+	/**Offset of the string in each slot plus one, 0 if the slot is free*/
+	private int[] table;
+	/**Hash of the string in each slot*/
+	private int[] hashes;
+	/**Length of the string in each slot, without the null terminator*/
+	private int[] lengths;
+	private int count = 0;
+	
+	public ZStringPool(Charset charset) {
+		this(charset, 1024, false);
+	}
+	
+	/**
+	 * @param charset the charset used to encode the strings passed as String
+	 * @param initialSize the initial size of the buffer, in bytes
+	 * @param mergeSuffixes store only once the strings which are the tail of other strings
+	 */
+	public ZStringPool(Charset charset, int initialSize, boolean mergeSuffixes) {
+		this.charset = charset;
+		this.mergeSuffixes = mergeSuffixes;
+		buffer = new byte[Math.max(16, initialSize)];
+		int capacity = Integer.highestOneBit(Math.max(64, initialSize / 8) * 2 - 1) * 2;
+		table = new int[capacity];
+		hashes = new int[capacity];
+		lengths = new int[capacity];
+	}
+	
+	/**Returns the size of the buffer, in bytes.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**Returns the offset of the given string, adding it if it isn't in the pool.
+	 * @param s
+	 * @return
+	 */
+	public int add(String s) {
+		byte[] bytes = s.getBytes(charset);
+		return add(bytes, 0, bytes.length);
+	}
+	
+	/**Returns the offset of the string encoded by the given bytes, adding it if it isn't in the pool.
+	 * @param buf
+	 * @param offset
+	 * @param length the length of the string, without the null terminator
+	 * @return
+	 */
+	public int add(byte[] buf, int offset, int length) {
+		final int hash = hash(buf, offset, length);
+		final int slot = find(buf, offset, length, hash);
+		if (table[slot] != 0) {
+			return table[slot] - 1;
+		}
+		final int res = append(buf, offset, length);
+		if (mergeSuffixes) {
+			indexSuffixes(res, length);
+		} else {
+			insert(slot, res, length, hash);
+		}
+		return res;
+	}
+	
+	/**Appends the given string to the buffer, even if it's already in the pool. The string isn't added to
+	 * the pool, so it won't be returned by the lookups.
+	 * @param s
+	 * @return the offset of the string
+	 */
+	public int append(String s) {
+		byte[] bytes = s.getBytes(charset);
+		return append(bytes, 0, bytes.length);
+	}
+	
+	/**Appends the string encoded by the given bytes to the buffer, even if it's already in the pool. The
+	 * string isn't added to the pool, so it won't be returned by the lookups.
+	 * @param buf
+	 * @param offset
+	 * @param length the length of the string, without the null terminator
+	 * @return the offset of the string
+	 */
+	public int append(byte[] buf, int offset, int length) {
+		ensureCapacity(size + length + 1);
+		final int res = size;
+		System.arraycopy(buf, offset, buffer, size, length);
+		size += length;
+		buffer[size++] = 0;
+		return res;
+	}
+	
+	/**Returns the offset of the string encoded by the given bytes.
+	 * @param buf
+	 * @param offset
+	 * @param length the length of the string, without the null terminator
+	 * @return the offset, or -1 if the string isn't in the pool
+	 */
+	public int indexOf(byte[] buf, int offset, int length) {
+		final int slot = find(buf, offset, length, hash(buf, offset, length));
+		return table[slot] - 1;
+	}
+	
+	/**Returns the offset of the null terminated string which starts at the given offset.
+	 * @param buf
+	 * @param offset
+	 * @return the offset, or -1 if the string isn't in the pool, the offset is out of the given buffer or
+	 * the string isn't terminated
+	 */
+	public int indexOfZString(byte[] buf, int offset) {
+		if (offset < 0 || offset >= buf.length) return -1;
+		int end = offset;
+		while (end < buf.length && buf[end] != 0) {
+			end++;
+		}
+		if (end == buf.length) return -1;
+		return indexOf(buf, offset, end - offset);
+	}
+	
+	/**Returns a copy of the buffer.
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+	
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer, 0, size);
+	}
+	
+	/**Removes all the strings.
+	 */
+	public void reset() {
+		size = 0;
+		count = 0;
+		Arrays.fill(table, 0);
+	}
+	
+	private void indexSuffixes(int offset, int length) {
+		//Hashes of the tails are computed from the end, so that each one costs a single step
+		int h = 0;
+		int pow = 1;
+		for (int i = length; i >= 0; i--) {
+			if (i < length) {
+				h += buffer[offset + i] * pow;
+				pow *= 31;
+			}
+			final int hash = h ^ (h >>> 16);
+			final int slot = find(buffer, offset + i, length - i, hash);
+			if (table[slot] == 0) {
+				insert(slot, offset + i, length - i, hash);
+			}
+		}
+	}
+	
+	private int find(byte[] buf, int offset, int length, int hash) {
+		final int mask = table.length - 1;
+		int slot = hash & mask;
+		int e;
+		while ((e = table[slot]) != 0) {
+			if (hashes[slot] == hash && lengths[slot] == length
+					&& Arrays.equals(buffer, e - 1, e - 1 + length, buf, offset, offset + length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private void insert(int slot, int offset, int length, int hash) {
+		table[slot] = offset + 1;
+		hashes[slot] = hash;
+		lengths[slot] = length;
+		if (++count * 2 > table.length) {
+			rehash();
+		}
+	}
+	
+	private void rehash() {
+		final int[] oldTable = table;
+		final int[] oldHashes = hashes;
+		final int[] oldLengths = lengths;
+		table = new int[oldTable.length * 2];
+		hashes = new int[table.length];
+		lengths = new int[table.length];
+		final int mask = table.length - 1;
+		for (int i = 0; i < oldTable.length; i++) {
+			if (oldTable[i] != 0) {
+				int slot = oldHashes[i] & mask;
+				while (table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = oldTable[i];
+				hashes[slot] = oldHashes[i];
+				lengths[slot] = oldLengths[i];
+			}
+		}
+	}
+	
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(minCapacity, buffer.length * 2));
+		}
+	}
+	
+	private static int hash(byte[] buf, int offset, int length) {
+		int h = 0;
+		for (int i = offset; i < offset + length; i++) {
+			h = 31 * h + buf[i];
+		}
+		return h ^ (h >>> 16);
+	}
+}